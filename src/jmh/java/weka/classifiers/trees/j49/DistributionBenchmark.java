@@ -0,0 +1,164 @@
+package weka.classifiers.trees.j49;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+/**
+ * JMH benchmark of the hot Distribution operations for every distribution type of DistributionFactory, over the
+ * number of classes, the number of bags and the density (the percentage of the classes that actually occur).
+ *
+ * Kept in its own source set so the package does not depend on JMH. Compile it together with the package, with
+ * jmh-core on the classpath and jmh-generator-annprocess as annotation processor, then run main() (which adds the GC
+ * profiler to report allocation rates) or the JMH runner with "-prof gc".
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class DistributionBenchmark {
+
+    @Param({"0", "1", "2", "3", "4", "5"})
+    public int distributionType;
+
+    @Param({"2", "10", "100", "1000", "10000"})
+    public int numClasses;
+
+    @Param({"2", "10"})
+    public int numBags;
+
+    //percentage of the classes occurring in the data
+    @Param({"1", "10", "100"})
+    public int density;
+
+    @Param({"1000"})
+    public int numInstances;
+
+    private Instances m_data;
+
+    //bag of every instance
+    private int[] m_bags;
+
+    //instances spread over all bags
+    private Distribution m_filled;
+
+    //instances all in bag 0, shifted to bag 1 and back
+    private Distribution m_shifting;
+
+    //instances keep being added to this one
+    private Distribution m_growing;
+
+    @Setup
+    public void setup() throws Exception {
+        ArrayList<String> classValues = new ArrayList<>(numClasses);
+        for (int c = 0; c < numClasses; c++) {
+            classValues.add("c" + c);
+        }
+        ArrayList<Attribute> attributes = new ArrayList<>(2);
+        attributes.add(new Attribute("value"));
+        attributes.add(new Attribute("class", classValues));
+        m_data = new Instances("benchmark", attributes, numInstances);
+        m_data.setClassIndex(1);
+
+        //draw the classes from the occurring ones, spread over the whole range of class indices
+        int occurring = Math.max(1, numClasses * density / 100);
+        int[] classes = new int[occurring];
+        for (int k = 0; k < occurring; k++) {
+            classes[k] = (int) ((long) k * numClasses / occurring);
+        }
+        Random random = new Random(1);
+        m_bags = new int[numInstances];
+        for (int i = 0; i < numInstances; i++) {
+            m_data.add(new DenseInstance(1, new double[] {random.nextDouble(), classes[random.nextInt(occurring)]}));
+            m_bags[i] = random.nextInt(numBags);
+        }
+
+        DistributionFactory factory = new DistributionFactory(distributionType);
+        m_filled = factory.getDistribution(numBags, m_data);
+        for (int i = 0; i < numInstances; i++) {
+            m_filled.add(m_bags[i], m_data.instance(i));
+        }
+        m_shifting = factory.getDistribution(numBags, m_data);
+        m_shifting.addRange(0, m_data, 0, numInstances);
+        m_growing = factory.getDistribution(numBags, m_data);
+    }
+
+    @Benchmark
+    public Distribution add() throws Exception {
+        for (int i = 0; i < numInstances; i++) {
+            m_growing.add(m_bags[i], m_data.instance(i));
+        }
+        return m_growing;
+    }
+
+    @Benchmark
+    public Distribution shiftRange() throws Exception {
+        m_shifting.shiftRange(0, 1, m_data, 0, numInstances);
+        m_shifting.shiftRange(1, 0, m_data, 0, numInstances);
+        return m_shifting;
+    }
+
+    @Benchmark
+    public double perClassPerBag() {
+        double sum = 0;
+        for (int b = 0; b < numBags; b++) {
+            for (int c = 0; c < numClasses; c++) {
+                sum += m_filled.perClassPerBag(b, c);
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int maxClass() {
+        int max = m_filled.maxClass();
+        for (int b = 0; b < numBags; b++) {
+            max += m_filled.maxClass(b);
+        }
+        return max;
+    }
+
+    @Benchmark
+    public Object cloneDistribution() throws CloneNotSupportedException {
+        return m_filled.clone();
+    }
+
+    @Benchmark
+    public double[][] matrix() {
+        return m_filled.matrix();
+    }
+
+    /**
+     * Runs all benchmarks with the GC profiler.
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(DistributionBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -1,20 +1,36 @@
 package weka.classifiers.trees;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Sourcable;
 import weka.classifiers.trees.j49.BinC45ModelSelection;
+import weka.classifiers.trees.j49.BinaryModelFormat;
 import weka.classifiers.trees.j49.C45ModelSelection;
 import weka.classifiers.trees.j49.C45PruneableClassifierTree;
 import weka.classifiers.trees.j49.ClassifierTree;
+import weka.classifiers.trees.j49.ColumnarTreeBuilder;
+import weka.classifiers.trees.j49.CompiledTree;
 import weka.classifiers.trees.j49.DistributionFactory;
 import weka.classifiers.trees.j49.ModelSelection;
+import weka.classifiers.trees.j49.PartitionedInstances;
+import weka.classifiers.trees.j49.PresortedInstances;
 import weka.classifiers.trees.j49.PruneableClassifierTree;
+import weka.classifiers.trees.j49.StreamingTreeBuilder;
 import weka.core.AdditionalMeasureProducer;
 import weka.core.Capabilities;
+import weka.core.DenseInstance;
 import weka.core.Drawable;
 import weka.core.Instance;
 import weka.core.Instances;
@@ -29,6 +45,7 @@ import weka.core.TechnicalInformation.Field;
 import weka.core.TechnicalInformation.Type;
 import weka.core.TechnicalInformationHandler;
 import weka.core.Utils;
+import weka.core.converters.Loader;
 import weka.core.WeightedInstancesHandler;
 import weka.core.Capabilities.Capability;
 
@@ -127,6 +144,74 @@ import weka.core.Capabilities.Capability;
  *  Do not make split point actual value.
  * </pre>
  *
+ * <pre>
+ * -presortAttributes
+ *  Sort numeric attributes once at the root instead of at every node.
+ * </pre>
+ *
+ * <pre>
+ * -partitionInPlace
+ *  Partition shared rows in place instead of copying the
+ *  instances of every node (implies -presortAttributes).
+ * </pre>
+ *
+ * <pre>
+ * -columnar
+ *  Convert the training data once into primitive columns and
+ *  search splits on those (implies -partitionInPlace).
+ * </pre>
+ *
+ * <pre>
+ * -generateBytecode
+ *  Generate bytecode for the compiled tree to score rows.
+ * </pre>
+ *
+ * <pre>
+ * -numSlots &lt;num&gt;
+ *  Number of execution slots for evaluating candidate splits,
+ *  building subtrees and scoring large batches.
+ *  (default 1 - i.e. no parallelism)
+ *  (use 0 to auto-detect number of cores)
+ * </pre>
+ *
+ * <pre>
+ * -subtreeTaskThreshold &lt;num&gt;
+ *  Minimum number of instances for a subtree to be built
+ *  as a separate task when using several execution slots.
+ *  (default 1000)
+ * </pre>
+ *
+ * <pre>
+ * -maxBins &lt;num&gt;
+ *  Maximum number of bins numeric attributes are quantized
+ *  into for approximate splits (implies -columnar).
+ *  (default 0 - i.e. exact splits)
+ * </pre>
+ *
+ * <pre>
+ * -subtractSiblings
+ *  Derive the class statistics of the larger subset of a split
+ *  from those of its parent and siblings (implies -columnar).
+ * </pre>
+ *
+ * <pre>
+ * -levelWise
+ *  Grow the tree breadth-first, filling the class statistics of all
+ *  nodes of a level in one pass over the columns of the data.
+ * </pre>
+ *
+ * <pre>
+ * -maxDepth &lt;num&gt;
+ *  Maximum depth of the tree (implies -levelWise).
+ *  (default 0 - i.e. no limit)
+ * </pre>
+ *
+ * <pre>
+ * -maxLeaves &lt;num&gt;
+ *  Maximum number of leaves of the tree (implies -levelWise).
+ *  (default 0 - i.e. no limit)
+ * </pre>
+ *
  * <!-- options-end -->
  *
  * @author Michael Frew (michael.frew@uwaterloo.ca)
@@ -142,6 +227,18 @@ public class J49 extends AbstractClassifier implements OptionHandler, Drawable,
     /** The decision tree */
     protected ClassifierTree m_root;
 
+    /** The decision tree frozen into flat arrays by compile() or the first batch, null if not compiled */
+    protected CompiledTree m_compiled;
+
+    /** Pool scoring large batches with several execution slots, created by the first one */
+    protected transient ForkJoinPool m_scoringPool;
+
+    /** Number of execution slots m_scoringPool was created for */
+    protected transient int m_scoringPoolSlots;
+
+    /** Number of nodes whose split rebuild() re-scored instead of selecting it again, 0 if built from scratch */
+    protected int m_numReselected;
+
     /** Unpruned tree? */
     protected boolean m_unpruned = false;
 
@@ -184,9 +281,45 @@ public class J49 extends AbstractClassifier implements OptionHandler, Drawable,
     /** Do not relocate split point to actual data value */
     protected boolean m_doNotMakeSplitPointActualValue;
 
+    /** Sort numeric attributes once at the root and hand the order down? */
+    protected boolean m_presortAttributes = false;
+
+    /** Partition shared rows in place instead of copying the instances of every node? */
+    protected boolean m_partitionInPlace = false;
+
+    /** Convert the training data into primitive columns for searching splits? */
+    protected boolean m_columnar = false;
+
+    /** Generate bytecode for the compiled tree to score rows? */
+    protected boolean m_generateBytecode = false;
+
+    /** Number of execution slots for building the tree and scoring batches (0 = number of cores) */
+    protected int m_numExecutionSlots = 1;
+
+    /** Minimum number of instances for a subtree to be built as a separate task */
+    protected int m_subtreeTaskThreshold = 1000;
+
+    /** Maximum number of bins numeric attributes are quantized into (0 = exact splits) */
+    protected int m_maxBins = 0;
+
+    /** Derive the statistics of the larger subset of a split from its parent and siblings? */
+    protected boolean m_subtractSiblings = false;
+
+    /** Grow the tree a level at a time? */
+    protected boolean m_levelWise = false;
+
+    /** Maximum depth of the tree (0 = no limit) */
+    protected int m_maxDepth = 0;
+
+    /** Maximum number of leaves of the tree (0 = no limit) */
+    protected int m_maxLeaves = 0;
+
     /** Distribution Factory */
     protected DistributionFactory m_distributionFactory;
 
+    /** Minimum number of rows per task when a batch is scored with several execution slots */
+    protected static final int PARALLEL_BATCH_GRAIN = 16384;
+
 
 
     /**
@@ -270,6 +403,151 @@ public class J49 extends AbstractClassifier implements OptionHandler, Drawable,
     @Override
     public void buildClassifier(Instances instances) throws Exception {
 
+        build(instances, null);
+    }
+
+    /**
+     * Generates a classifier with the options of the given one from new data, keeping the subtrees of its tree whose
+     * splits are still selected on the new data and only growing the branches that changed (see
+     * C45PruneableClassifierTree.buildClassifier(Instances, ClassifierTree)). Nodes whose split was far enough ahead
+     * of the other candidates only re-score it instead of selecting a split again (see measureNumReselected()), so
+     * the tree can differ from the one grown from scratch where the data drifted a lot more for other attributes.
+     * With reduced error pruning or level-wise growth, the tree is grown from scratch.
+     *
+     * @param previousModel the classifier built before
+     * @param newData the data to train the new classifier with
+     * @return the new classifier
+     * @throws Exception if classifier can't be built successfully
+     */
+    public static J49 rebuild(J49 previousModel, Instances newData) throws Exception {
+
+        if (previousModel.m_root == null) {
+            throw new Exception("No classifier built");
+        }
+        J49 j49 = new J49();
+        j49.setOptions(previousModel.getOptions());
+        j49.m_distributionFactory = previousModel.m_root.getDistributionFactory();
+        j49.build(newData, (j49.m_reducedErrorPruning || j49.growLevelWise()) ? null : previousModel.m_root);
+        return j49;
+    }
+
+    /**
+     * Generates the classifier, starting from the given tree if not null.
+     */
+    private void build(Instances instances, ClassifierTree previous) throws Exception {
+
+        checkOptions();
+        getCapabilities().testWithFail(instances);
+        m_compiled = null;
+
+        ModelSelection modSelection;
+
+        if (m_binarySplits) {
+            modSelection = new BinC45ModelSelection(m_minNumObj, instances,
+                    m_useMDLcorrection, m_doNotMakeSplitPointActualValue, m_distributionFactory);
+        } else {
+            modSelection = new C45ModelSelection(m_minNumObj, instances,
+                    m_useMDLcorrection, m_doNotMakeSplitPointActualValue, m_distributionFactory);
+        }
+        if (!m_reducedErrorPruning) {
+            m_root = new C45PruneableClassifierTree(modSelection, !m_unpruned, m_CF,
+                    m_subtreeRaising, !m_noCleanup, m_collapseTree, m_distributionFactory);
+        } else {
+            m_root = new PruneableClassifierTree(modSelection, !m_unpruned,
+                    m_numFolds, !m_noCleanup, m_Seed, m_distributionFactory);
+        }
+        ForkJoinPool pool = null;
+        if (m_numExecutionSlots != 1) {
+            pool = m_numExecutionSlots == 0 ? new ForkJoinPool() : new ForkJoinPool(m_numExecutionSlots);
+            modSelection.setPool(pool);
+            modSelection.setSubtreeTaskThreshold(m_subtreeTaskThreshold);
+        }
+        try {
+            if (growLevelWise()) {
+                ColumnarTreeBuilder builder = new ColumnarTreeBuilder(instances, m_minNumObj,
+                        m_maxBins > 0 ? m_maxBins : Integer.MAX_VALUE);
+                builder.setBudget(m_maxDepth, m_maxLeaves);
+                ((C45PruneableClassifierTree) m_root).buildClassifier(builder);
+            } else if (m_columnar || (m_maxBins > 0) || m_subtractSiblings) {
+                buildRoot(new PartitionedInstances(instances, true, m_maxBins, m_subtractSiblings), previous);
+            } else if (m_partitionInPlace) {
+                buildRoot(new PartitionedInstances(instances), previous);
+            } else if (m_presortAttributes) {
+                buildRoot(new PresortedInstances(instances), previous);
+            } else {
+                buildRoot(instances, previous);
+            }
+        } finally {
+            if (pool != null) {
+                modSelection.setPool(null);
+                pool.shutdown();
+            }
+        }
+        m_numReselected = modSelection.numReselected();
+        if (m_binarySplits) {
+            ((BinC45ModelSelection) modSelection).cleanup();
+        } else {
+            ((C45ModelSelection) modSelection).cleanup();
+        }
+    }
+
+    /**
+     * Builds the tree on the given data, starting from the given tree if not null.
+     */
+    private void buildRoot(Instances data, ClassifierTree previous) throws Exception {
+
+        if (previous == null) {
+            m_root.buildClassifier(data);
+        } else {
+            ((C45PruneableClassifierTree) m_root).buildClassifier(data, previous);
+        }
+    }
+
+    /**
+     * Generates the classifier from the instances of the given loader, which are read sequentially once per level
+     * of the tree instead of being loaded into memory (see StreamingTreeBuilder). Numeric attributes are split
+     * between at most maxBins bins (256 if maxBins is 0). Subtree raising and reduced error pruning need the data in
+     * memory and are not done; the other options apply as for buildClassifier(Instances).
+     *
+     * @param loader the loader to read the data from, which has to support reset()
+     * @param classIndex index of the class attribute, -1 for the last attribute
+     * @throws Exception if classifier can't be built successfully
+     */
+    public void buildClassifier(Loader loader, int classIndex) throws Exception {
+
+        checkOptions();
+        if (m_reducedErrorPruning) {
+            throw new Exception("Reduced error pruning cannot be used when building from a loader!");
+        }
+        Instances header = loader.getStructure();
+        header.setClassIndex(classIndex < 0 ? header.numAttributes() - 1 : classIndex);
+        getCapabilities().testWithFail(header);
+        m_compiled = null;
+
+        ModelSelection modSelection;
+        if (m_binarySplits) {
+            modSelection = new BinC45ModelSelection(m_minNumObj, null,
+                    m_useMDLcorrection, true, m_distributionFactory);
+        } else {
+            modSelection = new C45ModelSelection(m_minNumObj, null,
+                    m_useMDLcorrection, true, m_distributionFactory);
+        }
+        C45PruneableClassifierTree root = new C45PruneableClassifierTree(modSelection, !m_unpruned, m_CF,
+                false, !m_noCleanup, m_collapseTree, m_distributionFactory);
+        StreamingTreeBuilder builder = new StreamingTreeBuilder(loader, classIndex, m_minNumObj,
+                m_maxBins > 0 ? m_maxBins : 256);
+        builder.setBudget(m_maxDepth, m_maxLeaves);
+        root.buildClassifier(builder);
+        m_root = root;
+    }
+
+    /**
+     * Checks the options before building.
+     *
+     * @throws Exception if the options do not go together
+     */
+    private void checkOptions() throws Exception {
+
         if(m_distributionFactory==null){
             m_distributionFactory = new DistributionFactory();
         }
@@ -296,32 +574,27 @@ public class J49 extends AbstractClassifier implements OptionHandler, Drawable,
         if ((m_CF <= 0) || (m_CF >= 1)) {
             throw new Exception("Confidence has to be greater than zero and smaller than one!");
         }
-        getCapabilities().testWithFail(instances);
-
-        ModelSelection modSelection;
-
-        if (m_binarySplits) {
-            modSelection = new BinC45ModelSelection(m_minNumObj, instances,
-                    m_useMDLcorrection, m_doNotMakeSplitPointActualValue, m_distributionFactory);
-        } else {
-            modSelection = new C45ModelSelection(m_minNumObj, instances,
-                    m_useMDLcorrection, m_doNotMakeSplitPointActualValue, m_distributionFactory);
+        if (m_numExecutionSlots < 0) {
+            throw new Exception("Number of execution slots has to be at least 0!");
         }
-        if (!m_reducedErrorPruning) {
-            m_root = new C45PruneableClassifierTree(modSelection, !m_unpruned, m_CF,
-                    m_subtreeRaising, !m_noCleanup, m_collapseTree, m_distributionFactory);
-        } else {
-            m_root = new PruneableClassifierTree(modSelection, !m_unpruned,
-                    m_numFolds, !m_noCleanup, m_Seed, m_distributionFactory);
+        if ((m_maxBins < 0) || (m_maxBins == 1)) {
+            throw new Exception("Maximum number of bins has to be 0 or at least 2!");
         }
-        m_root.buildClassifier(instances);
-        if (m_binarySplits) {
-            ((BinC45ModelSelection) modSelection).cleanup();
-        } else {
-            ((C45ModelSelection) modSelection).cleanup();
+        if ((m_maxDepth < 0) || (m_maxLeaves < 0)) {
+            throw new Exception("Maximum depth and number of leaves have to be at least 0!");
+        }
+        if (m_reducedErrorPruning && growLevelWise()) {
+            throw new Exception("Reduced error pruning cannot be used when growing the tree level-wise!");
         }
     }
 
+    /**
+     * Returns whether the tree is grown a level at a time.
+     */
+    private boolean growLevelWise() {
+        return m_levelWise || (m_maxDepth > 0) || (m_maxLeaves > 0);
+    }
+
     /**
      * Classifies an instance.
      *
@@ -332,6 +605,12 @@ public class J49 extends AbstractClassifier implements OptionHandler, Drawable,
     @Override
     public double classifyInstance(Instance instance) throws Exception {
 
+        if (m_compiled != null) {
+            int leaf = m_compiled.leafFor(instance);
+            if (leaf >= 0) {
+                return m_compiled.prediction(leaf);
+            }
+        }
         return m_root.classifyInstance(instance);
     }
 
@@ -346,9 +625,221 @@ public class J49 extends AbstractClassifier implements OptionHandler, Drawable,
     public final double[] distributionForInstance(Instance instance)
             throws Exception {
 
+        if (m_compiled != null && m_compiled.useLaplace() == m_useLaplace) {
+            double[] probs = new double[instance.numClasses()];
+            if (m_compiled.distributionForInstance(instance, probs)) {
+                return probs;
+            }
+        }
         return m_root.distributionForInstance(instance, m_useLaplace);
     }
 
+    /**
+     * Returns true because batches are routed through the compiled tree in blocks.
+     *
+     * @return true
+     */
+    @Override
+    public boolean implementsMoreEfficientBatchPrediction() {
+        return true;
+    }
+
+    /**
+     * Returns class probabilities for a batch of instances. The instances are routed through the compiled tree in
+     * blocks, one level at a time (the first batch compiles the tree and keeps it if compile() has not been called),
+     * and large batches are split over the execution slots.
+     *
+     * @param instances the instances to calculate the class probabilities for
+     * @return the class probabilities of every instance
+     * @throws Exception if the distributions can't be computed successfully
+     */
+    @Override
+    public double[][] distributionsForInstances(final Instances instances) throws Exception {
+
+        final CompiledTree compiled = batchTree();
+        final double[][] distributions = new double[instances.numInstances()][];
+        scoreBatch(instances.numInstances(), new RowScorer() {
+            @Override
+            public void score(int from, int to) throws Exception {
+                int[] leaves = new int[to - from];
+                compiled.leavesFor(instances, from, to, leaves);
+                for (int i = from; i < to; i++) {
+                    if (leaves[i - from] >= 0) {
+                        distributions[i] = new double[compiled.numClasses()];
+                        compiled.probabilities(leaves[i - from], distributions[i]);
+                    } else {
+                        distributions[i] = m_root.distributionForInstance(instances.instance(i), m_useLaplace);
+                    }
+                }
+            }
+        });
+        return distributions;
+    }
+
+    /**
+     * Classifies a batch of rows of attribute values, in the order of the attributes of the training data, with
+     * missing values as Utils.missingValue(). The value of the class attribute is ignored. The rows are routed
+     * through the compiled tree like in distributionsForInstances().
+     *
+     * @param rows the rows to classify
+     * @return the index of the predicted class of every row
+     * @throws Exception if the rows can't be classified successfully
+     */
+    public int[] classifyInstances(final double[][] rows) throws Exception {
+
+        final CompiledTree compiled = batchTree();
+        final int[] classes = new int[rows.length];
+        scoreBatch(rows.length, new RowScorer() {
+            @Override
+            public void score(int from, int to) throws Exception {
+                int[] leaves = new int[to - from];
+                compiled.leavesFor(rows, from, to, leaves);
+                for (int i = from; i < to; i++) {
+                    if (leaves[i - from] >= 0) {
+                        classes[i] = compiled.prediction(leaves[i - from]);
+                    } else {
+                        Instance instance = new DenseInstance(1, rows[i]);
+                        instance.setDataset(m_root.getTrainingData());
+                        classes[i] = (int) m_root.classifyInstance(instance);
+                    }
+                }
+            }
+        });
+        return classes;
+    }
+
+    /**
+     * Returns the compiled tree, compiling it with compile() first if it has not been compiled yet or was compiled
+     * with different Laplace correction. The tree is then kept for later batches until the classifier is built again.
+     */
+    private CompiledTree batchTree() throws Exception {
+
+        if (m_root == null) {
+            throw new Exception("No classifier built yet!");
+        }
+        CompiledTree compiled = m_compiled;
+        if (compiled == null || compiled.useLaplace() != m_useLaplace) {
+            compile();
+            compiled = m_compiled;
+        }
+        return compiled;
+    }
+
+    /**
+     * Returns the pool scoring large batches, creating it if there is none yet for the current number of execution
+     * slots. Idle pool threads end after a while, so the pool is kept between batches.
+     */
+    private synchronized ForkJoinPool scoringPool() {
+
+        if (m_scoringPool == null || m_scoringPoolSlots != m_numExecutionSlots) {
+            if (m_scoringPool != null) {
+                m_scoringPool.shutdown();
+            }
+            m_scoringPool = m_numExecutionSlots == 0 ? new ForkJoinPool() : new ForkJoinPool(m_numExecutionSlots);
+            m_scoringPoolSlots = m_numExecutionSlots;
+        }
+        return m_scoringPool;
+    }
+
+    /**
+     * Scores the given number of rows, split into chunks scored in parallel if there are several execution slots and
+     * enough rows.
+     */
+    private void scoreBatch(int numRows, final RowScorer scorer) throws Exception {
+
+        if (m_numExecutionSlots == 1 || numRows <= PARALLEL_BATCH_GRAIN) {
+            scorer.score(0, numRows);
+            return;
+        }
+        List<Callable<Void>> chunks = new ArrayList<>();
+        for (int from = 0; from < numRows; from += PARALLEL_BATCH_GRAIN) {
+            final int start = from;
+            final int end = Math.min(numRows, from + PARALLEL_BATCH_GRAIN);
+            chunks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    scorer.score(start, end);
+                    return null;
+                }
+            });
+        }
+        for (Future<Void> chunk : scoringPool().invokeAll(chunks)) {
+            try {
+                chunk.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+    }
+
+    /**
+     * Scores a range of the rows of a batch.
+     */
+    private interface RowScorer {
+
+        void score(int from, int to) throws Exception;
+    }
+
+    /**
+     * Freezes the built tree into flat arrays, which are then used to classify instances without walking the tree
+     * objects. Instances whose path reaches a missing value are still classified by the tree objects. Building the
+     * classifier again discards the compiled tree. With generateBytecode, rows of attribute values are scored by
+     * bytecode generated for the tree.
+     *
+     * @throws Exception if the classifier has not been built or the tree cannot be compiled
+     */
+    public void compile() throws Exception {
+
+        if (m_root == null) {
+            throw new Exception("No classifier built yet!");
+        }
+        m_compiled = CompiledTree.compile(m_root, m_useLaplace);
+        if (m_generateBytecode) {
+            m_compiled.generateBytecode();
+        }
+    }
+
+    /**
+     * Returns the tree compiled by compile() or by the first batch scored.
+     *
+     * @return the compiled tree, or null if the tree has not been compiled
+     */
+    public CompiledTree getCompiledTree() {
+        return m_compiled;
+    }
+
+    /**
+     * Writes the options and the built tree in the compact binary format of BinaryModelFormat, which is much smaller
+     * and faster to load than the serialized classifier. The stream is flushed but not closed.
+     *
+     * @param out the stream to write to
+     * @throws IOException if the classifier has not been built or the stream cannot be written
+     */
+    public void writeModel(OutputStream out) throws IOException {
+
+        if (m_root == null) {
+            throw new IOException("No classifier built yet!");
+        }
+        BinaryModelFormat.write(out, getOptions(), m_root);
+    }
+
+    /**
+     * Reads a classifier written by writeModel(). It classifies like the written one, but is not compiled, and the
+     * training data kept with -doNotCleanup is not restored. The stream is read through a buffer, so it may be read
+     * beyond the end of the model.
+     *
+     * @param in the stream to read from
+     * @return the classifier
+     * @throws Exception if the stream does not hold a model this version can read
+     */
+    public static J49 readModel(InputStream in) throws Exception {
+
+        J49 j49 = new J49();
+        j49.m_root = BinaryModelFormat.read(in, j49);
+        j49.m_distributionFactory = j49.m_root.getDistributionFactory();
+        return j49;
+    }
+
     /**
      * Returns the type of graph this classifier represents.
      *
@@ -481,6 +972,52 @@ public class J49 extends AbstractClassifier implements OptionHandler, Drawable,
                 "\tSeed for random data shuffling (default 1).", "Q", 1, "-Q <seed>"));
         newVector.addElement(new Option("\tDo not make split point actual value.",
                 "-doNotMakeSplitPointActualValue", 0, "-doNotMakeSplitPointActualValue"));
+        newVector.addElement(new Option(
+                "\tSort numeric attributes once at the root instead of at every node.",
+                "presortAttributes", 0, "-presortAttributes"));
+        newVector.addElement(new Option(
+                "\tPartition shared rows in place instead of copying the\n"
+                        + "\tinstances of every node (implies -presortAttributes).",
+                "partitionInPlace", 0, "-partitionInPlace"));
+        newVector.addElement(new Option(
+                "\tConvert the training data once into primitive columns and\n"
+                        + "\tsearch splits on those (implies -partitionInPlace).",
+                "columnar", 0, "-columnar"));
+        newVector.addElement(new Option(
+                "\tGenerate bytecode for the compiled tree to score rows.",
+                "generateBytecode", 0, "-generateBytecode"));
+        newVector.addElement(new Option(
+                "\tNumber of execution slots for evaluating candidate splits,\n"
+                        + "\tbuilding subtrees and scoring large batches.\n"
+                        + "\t(default 1 - i.e. no parallelism)\n"
+                        + "\t(use 0 to auto-detect number of cores)", "numSlots", 1,
+                "-numSlots <num>"));
+        newVector.addElement(new Option(
+                "\tMinimum number of instances for a subtree to be built\n"
+                        + "\tas a separate task when using several execution slots.\n"
+                        + "\t(default 1000)", "subtreeTaskThreshold", 1,
+                "-subtreeTaskThreshold <num>"));
+        newVector.addElement(new Option(
+                "\tMaximum number of bins numeric attributes are quantized\n"
+                        + "\tinto for approximate splits (implies -columnar).\n"
+                        + "\t(default 0 - i.e. exact splits)", "maxBins", 1,
+                "-maxBins <num>"));
+        newVector.addElement(new Option(
+                "\tDerive the class statistics of the larger subset of a split\n"
+                        + "\tfrom those of its parent and siblings (implies -columnar).", "subtractSiblings", 0,
+                "-subtractSiblings"));
+        newVector.addElement(new Option(
+                "\tGrow the tree breadth-first, filling the class statistics of all\n"
+                        + "\tnodes of a level in one pass over the columns of the data.", "levelWise", 0,
+                "-levelWise"));
+        newVector.addElement(new Option(
+                "\tMaximum depth of the tree (implies -levelWise).\n"
+                        + "\t(default 0 - i.e. no limit)", "maxDepth", 1,
+                "-maxDepth <num>"));
+        newVector.addElement(new Option(
+                "\tMaximum number of leaves of the tree (implies -levelWise).\n"
+                        + "\t(default 0 - i.e. no limit)", "maxLeaves", 1,
+                "-maxLeaves <num>"));
 
         newVector.addAll(Collections.list(super.listOptions()));
 
@@ -562,6 +1099,74 @@ public class J49 extends AbstractClassifier implements OptionHandler, Drawable,
      *  Do not make split point actual value.
      * </pre>
      *
+     * <pre>
+     * -presortAttributes
+     *  Sort numeric attributes once at the root instead of at every node.
+     * </pre>
+     *
+     * <pre>
+     * -partitionInPlace
+     *  Partition shared rows in place instead of copying the
+     *  instances of every node (implies -presortAttributes).
+     * </pre>
+     *
+     * <pre>
+     * -columnar
+     *  Convert the training data once into primitive columns and
+     *  search splits on those (implies -partitionInPlace).
+     * </pre>
+     *
+     * <pre>
+     * -generateBytecode
+     *  Generate bytecode for the compiled tree to score rows.
+     * </pre>
+     *
+     * <pre>
+     * -numSlots &lt;num&gt;
+     *  Number of execution slots for evaluating candidate splits,
+     *  building subtrees and scoring large batches.
+     *  (default 1 - i.e. no parallelism)
+     *  (use 0 to auto-detect number of cores)
+     * </pre>
+     *
+     * <pre>
+     * -subtreeTaskThreshold &lt;num&gt;
+     *  Minimum number of instances for a subtree to be built
+     *  as a separate task when using several execution slots.
+     *  (default 1000)
+     * </pre>
+     *
+     * <pre>
+     * -maxBins &lt;num&gt;
+     *  Maximum number of bins numeric attributes are quantized
+     *  into for approximate splits (implies -columnar).
+     *  (default 0 - i.e. exact splits)
+     * </pre>
+     *
+     * <pre>
+     * -subtractSiblings
+     *  Derive the class statistics of the larger subset of a split
+     *  from those of its parent and siblings (implies -columnar).
+     * </pre>
+     *
+     * <pre>
+     * -levelWise
+     *  Grow the tree breadth-first, filling the class statistics of all
+     *  nodes of a level in one pass over the columns of the data.
+     * </pre>
+     *
+     * <pre>
+     * -maxDepth &lt;num&gt;
+     *  Maximum depth of the tree (implies -levelWise).
+     *  (default 0 - i.e. no limit)
+     * </pre>
+     *
+     * <pre>
+     * -maxLeaves &lt;num&gt;
+     *  Maximum number of leaves of the tree (implies -levelWise).
+     *  (default 0 - i.e. no limit)
+     * </pre>
+     *
      * <!-- options-end -->
      *
      * @param options the list of options as an array of strings
@@ -587,6 +1192,42 @@ public class J49 extends AbstractClassifier implements OptionHandler, Drawable,
         m_subtreeRaising = !Utils.getFlag('S', options);
         m_noCleanup = Utils.getFlag('L', options);
         m_doNotMakeSplitPointActualValue = Utils.getFlag("doNotMakeSplitPointActualValue", options);
+        m_presortAttributes = Utils.getFlag("presortAttributes", options);
+        m_partitionInPlace = Utils.getFlag("partitionInPlace", options);
+        m_columnar = Utils.getFlag("columnar", options);
+        m_generateBytecode = Utils.getFlag("generateBytecode", options);
+        String slotsString = Utils.getOption("numSlots", options);
+        if (slotsString.length() != 0) {
+            setNumExecutionSlots(Integer.parseInt(slotsString));
+        } else {
+            m_numExecutionSlots = 1;
+        }
+        String thresholdString = Utils.getOption("subtreeTaskThreshold", options);
+        if (thresholdString.length() != 0) {
+            m_subtreeTaskThreshold = Integer.parseInt(thresholdString);
+        } else {
+            m_subtreeTaskThreshold = 1000;
+        }
+        String binsString = Utils.getOption("maxBins", options);
+        if (binsString.length() != 0) {
+            m_maxBins = Integer.parseInt(binsString);
+        } else {
+            m_maxBins = 0;
+        }
+        m_subtractSiblings = Utils.getFlag("subtractSiblings", options);
+        m_levelWise = Utils.getFlag("levelWise", options);
+        String depthString = Utils.getOption("maxDepth", options);
+        if (depthString.length() != 0) {
+            m_maxDepth = Integer.parseInt(depthString);
+        } else {
+            m_maxDepth = 0;
+        }
+        String leavesString = Utils.getOption("maxLeaves", options);
+        if (leavesString.length() != 0) {
+            m_maxLeaves = Integer.parseInt(leavesString);
+        } else {
+            m_maxLeaves = 0;
+        }
         m_reducedErrorPruning = Utils.getFlag('R', options);
         String confidenceString = Utils.getOption('C', options);
         if (confidenceString.length() != 0) {
@@ -671,6 +1312,44 @@ public class J49 extends AbstractClassifier implements OptionHandler, Drawable,
         if (m_doNotMakeSplitPointActualValue) {
             options.add("-doNotMakeSplitPointActualValue");
         }
+        if (m_presortAttributes) {
+            options.add("-presortAttributes");
+        }
+        if (m_partitionInPlace) {
+            options.add("-partitionInPlace");
+        }
+        if (m_columnar) {
+            options.add("-columnar");
+        }
+        if (m_generateBytecode) {
+            options.add("-generateBytecode");
+        }
+        if (m_numExecutionSlots != 1) {
+            options.add("-numSlots");
+            options.add("" + m_numExecutionSlots);
+        }
+        if (m_subtreeTaskThreshold != 1000) {
+            options.add("-subtreeTaskThreshold");
+            options.add("" + m_subtreeTaskThreshold);
+        }
+        if (m_maxBins != 0) {
+            options.add("-maxBins");
+            options.add("" + m_maxBins);
+        }
+        if (m_subtractSiblings) {
+            options.add("-subtractSiblings");
+        }
+        if (m_levelWise) {
+            options.add("-levelWise");
+        }
+        if (m_maxDepth != 0) {
+            options.add("-maxDepth");
+            options.add("" + m_maxDepth);
+        }
+        if (m_maxLeaves != 0) {
+            options.add("-maxLeaves");
+            options.add("" + m_maxLeaves);
+        }
         if (m_reducedErrorPruning) {
             options.add("-N");
             options.add("" + m_numFolds);
@@ -836,6 +1515,15 @@ public class J49 extends AbstractClassifier implements OptionHandler, Drawable,
         return m_root.numLeaves();
     }
 
+    /**
+     * Returns the number of nodes whose split was re-scored instead of selected again when the tree was rebuilt
+     *
+     * @return the number of re-scored nodes
+     */
+    public double measureNumReselected() {
+        return m_numReselected;
+    }
+
     /**
      * Returns an enumeration of the additional measure names
      *
@@ -843,10 +1531,11 @@ public class J49 extends AbstractClassifier implements OptionHandler, Drawable,
      */
     @Override
     public Enumeration<String> enumerateMeasures() {
-        Vector<String> newVector = new Vector<String>(3);
+        Vector<String> newVector = new Vector<String>(4);
         newVector.addElement("measureTreeSize");
         newVector.addElement("measureNumLeaves");
         newVector.addElement("measureNumRules");
+        newVector.addElement("measureNumReselected");
         return newVector.elements();
     }
 
@@ -865,6 +1554,8 @@ public class J49 extends AbstractClassifier implements OptionHandler, Drawable,
             return measureTreeSize();
         } else if (additionalMeasureName.compareToIgnoreCase("measureNumLeaves") == 0) {
             return measureNumLeaves();
+        } else if (additionalMeasureName.compareToIgnoreCase("measureNumReselected") == 0) {
+            return measureNumReselected();
         } else {
             throw new IllegalArgumentException(additionalMeasureName
                     + " not supported (j49)");
@@ -1174,6 +1865,329 @@ public class J49 extends AbstractClassifier implements OptionHandler, Drawable,
         this.m_doNotMakeSplitPointActualValue = m_doNotMakeSplitPointActualValue;
     }
 
+    /**
+     * Returns the tip text for this property
+     *
+     * @return tip text for this property suitable for displaying in the
+     *         explorer/experimenter gui
+     */
+    public String presortAttributesTipText() {
+        return "If true, numeric attributes are sorted once at the root and the order is handed down to"
+                + " the subsets, instead of sorting the instances again at every node.";
+    }
+
+    /**
+     * Gets the value of presortAttributes.
+     *
+     * @return the value
+     */
+    public boolean getPresortAttributes() {
+        return m_presortAttributes;
+    }
+
+    /**
+     * Sets the value of presortAttributes.
+     *
+     * @param v the value to set
+     */
+    public void setPresortAttributes(boolean v) {
+        m_presortAttributes = v;
+    }
+
+    /**
+     * Returns the tip text for this property
+     *
+     * @return tip text for this property suitable for displaying in the
+     *         explorer/experimenter gui
+     */
+    public String partitionInPlaceTipText() {
+        return "If true, the nodes of the tree are ranges of one shared row array that is partitioned in place"
+                + " at every split, instead of copying the instances of each subset. Implies presorted attributes.";
+    }
+
+    /**
+     * Gets the value of partitionInPlace.
+     *
+     * @return the value
+     */
+    public boolean getPartitionInPlace() {
+        return m_partitionInPlace;
+    }
+
+    /**
+     * Sets the value of partitionInPlace.
+     *
+     * @param v the value to set
+     */
+    public void setPartitionInPlace(boolean v) {
+        m_partitionInPlace = v;
+    }
+
+    /**
+     * Returns the tip text for this property
+     *
+     * @return tip text for this property suitable for displaying in the
+     *         explorer/experimenter gui
+     */
+    public String columnarTipText() {
+        return "If true, the training data is converted once into primitive arrays per attribute (values, missing"
+                + " value bitsets, classes and weights), which candidate splits are evaluated on instead of the"
+                + " instances. Implies partitioning in place.";
+    }
+
+    /**
+     * Gets the value of columnar.
+     *
+     * @return the value
+     */
+    public boolean getColumnar() {
+        return m_columnar;
+    }
+
+    /**
+     * Sets the value of columnar.
+     *
+     * @param v the value to set
+     */
+    public void setColumnar(boolean v) {
+        m_columnar = v;
+    }
+
+    /**
+     * Returns the tip text for this property
+     *
+     * @return tip text for this property suitable for displaying in the
+     *         explorer/experimenter gui
+     */
+    public String generateBytecodeTipText() {
+        return "If true, compile() also generates Java bytecode for the compiled tree, which scores rows of"
+                + " attribute values (classifyInstances) with branch code the JIT can inline. Requires a JDK.";
+    }
+
+    /**
+     * Gets the value of generateBytecode.
+     *
+     * @return the value
+     */
+    public boolean getGenerateBytecode() {
+        return m_generateBytecode;
+    }
+
+    /**
+     * Sets the value of generateBytecode.
+     *
+     * @param v the value to set
+     */
+    public void setGenerateBytecode(boolean v) {
+        m_generateBytecode = v;
+    }
+
+    /**
+     * Returns the tip text for this property
+     *
+     * @return tip text for this property suitable for displaying in the
+     *         explorer/experimenter gui
+     */
+    public String numExecutionSlotsTipText() {
+        return "The number of execution slots (threads) used to evaluate the candidate splits of a node,"
+                + " to build and prune subtrees and to score large batches. 1 means no parallelism, 0 uses one slot per core.";
+    }
+
+    /**
+     * Gets the number of execution slots.
+     *
+     * @return the number of execution slots
+     */
+    public int getNumExecutionSlots() {
+        return m_numExecutionSlots;
+    }
+
+    /**
+     * Sets the number of execution slots.
+     *
+     * @param numSlots the number of execution slots, 0 for one per core
+     */
+    public void setNumExecutionSlots(int numSlots) {
+        m_numExecutionSlots = numSlots;
+    }
+
+    /**
+     * Returns the tip text for this property
+     *
+     * @return tip text for this property suitable for displaying in the
+     *         explorer/experimenter gui
+     */
+    public String subtreeTaskThresholdTipText() {
+        return "The minimum number of instances for a subtree to be built or pruned as a separate task"
+                + " when more than one execution slot is used.";
+    }
+
+    /**
+     * Gets the minimum number of instances for a subtree to be built as a separate task.
+     *
+     * @return the threshold
+     */
+    public int getSubtreeTaskThreshold() {
+        return m_subtreeTaskThreshold;
+    }
+
+    /**
+     * Sets the minimum number of instances for a subtree to be built as a separate task.
+     *
+     * @param threshold the threshold
+     */
+    public void setSubtreeTaskThreshold(int threshold) {
+        m_subtreeTaskThreshold = threshold;
+    }
+
+    /**
+     * Returns the tip text for this property
+     *
+     * @return tip text for this property suitable for displaying in the
+     *         explorer/experimenter gui
+     */
+    public String maxBinsTipText() {
+        return "If greater than 0, numeric attributes are quantized once into at most this many bins of about"
+                + " equal size, and splits are only searched between bins, scanning per-bin class histograms."
+                + " Approximate, but independent of the number of instances below the root. Implies columnar data.";
+    }
+
+    /**
+     * Gets the maximum number of bins numeric attributes are quantized into.
+     *
+     * @return the maximum number of bins, 0 for exact splits
+     */
+    public int getMaxBins() {
+        return m_maxBins;
+    }
+
+    /**
+     * Sets the maximum number of bins numeric attributes are quantized into.
+     *
+     * @param maxBins the maximum number of bins, 0 for exact splits
+     */
+    public void setMaxBins(int maxBins) {
+        m_maxBins = maxBins;
+    }
+
+    /**
+     * Returns the tip text for this property
+     *
+     * @return tip text for this property suitable for displaying in the
+     *         explorer/experimenter gui
+     */
+    public String subtractSiblingsTipText() {
+        return "If set, only the smaller subset of a two-way split counts its class distribution; the larger one"
+                + " gets its parent's minus the smaller one's. Class histograms of nominal and binned attributes are"
+                + " derived the same way for the largest subset of any split. Implies columnar data.";
+    }
+
+    /**
+     * Gets whether the statistics of the larger subset of a split are derived from its parent and siblings.
+     *
+     * @return true if siblings are subtracted
+     */
+    public boolean getSubtractSiblings() {
+        return m_subtractSiblings;
+    }
+
+    /**
+     * Sets whether the statistics of the larger subset of a split are derived from its parent and siblings.
+     *
+     * @param subtractSiblings true to subtract siblings
+     */
+    public void setSubtractSiblings(boolean subtractSiblings) {
+        m_subtractSiblings = subtractSiblings;
+    }
+
+    /**
+     * Returns the tip text for this property
+     *
+     * @return tip text for this property suitable for displaying in the
+     *         explorer/experimenter gui
+     */
+    public String levelWiseTipText() {
+        return "If set, the tree is grown breadth-first: the class statistics of all nodes of a level are filled in"
+                + " one pass over the columns of the data, then a split is selected for each of them. Numeric"
+                + " attributes are split between bins (see maxBins; a bin per value if 0). No subtree raising.";
+    }
+
+    /**
+     * Gets whether the tree is grown a level at a time.
+     *
+     * @return true if the tree is grown level-wise
+     */
+    public boolean getLevelWise() {
+        return m_levelWise;
+    }
+
+    /**
+     * Sets whether the tree is grown a level at a time.
+     *
+     * @param levelWise true to grow the tree level-wise
+     */
+    public void setLevelWise(boolean levelWise) {
+        m_levelWise = levelWise;
+    }
+
+    /**
+     * Returns the tip text for this property
+     *
+     * @return tip text for this property suitable for displaying in the
+     *         explorer/experimenter gui
+     */
+    public String maxDepthTipText() {
+        return "If greater than 0, nodes at this depth become leaves (the root has depth 0). Implies level-wise"
+                + " growth.";
+    }
+
+    /**
+     * Gets the maximum depth of the tree.
+     *
+     * @return the maximum depth, 0 for no limit
+     */
+    public int getMaxDepth() {
+        return m_maxDepth;
+    }
+
+    /**
+     * Sets the maximum depth of the tree.
+     *
+     * @param maxDepth the maximum depth, 0 for no limit
+     */
+    public void setMaxDepth(int maxDepth) {
+        m_maxDepth = maxDepth;
+    }
+
+    /**
+     * Returns the tip text for this property
+     *
+     * @return tip text for this property suitable for displaying in the
+     *         explorer/experimenter gui
+     */
+    public String maxLeavesTipText() {
+        return "If greater than 0, the tree grows no more leaves than this before pruning; the nodes of a level with"
+                + " the most weight are split first. Implies level-wise growth.";
+    }
+
+    /**
+     * Gets the maximum number of leaves of the tree.
+     *
+     * @return the maximum number of leaves, 0 for no limit
+     */
+    public int getMaxLeaves() {
+        return m_maxLeaves;
+    }
+
+    /**
+     * Sets the maximum number of leaves of the tree.
+     *
+     * @param maxLeaves the maximum number of leaves, 0 for no limit
+     */
+    public void setMaxLeaves(int maxLeaves) {
+        m_maxLeaves = maxLeaves;
+    }
+
     /**
      * Returns the revision string.
      *
@@ -0,0 +1,701 @@
+package weka.classifiers.trees;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Vector;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.UpdateableClassifier;
+import weka.classifiers.trees.j49.DistributionFactory;
+import weka.classifiers.trees.j49.HoeffdingClassifierTree;
+import weka.core.AdditionalMeasureProducer;
+import weka.core.Capabilities;
+import weka.core.Capabilities.Capability;
+import weka.core.Drawable;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.OptionHandler;
+import weka.core.RevisionUtils;
+import weka.core.TechnicalInformation;
+import weka.core.TechnicalInformation.Field;
+import weka.core.TechnicalInformation.Type;
+import weka.core.TechnicalInformationHandler;
+import weka.core.Utils;
+import weka.core.WeightedInstancesHandler;
+
+/**
+ * <!-- globalinfo-start --> Class for growing a C4.5-style decision tree incrementally from a stream of instances,
+ * as a Hoeffding tree. A leaf splits on the attribute with the best C4.5 split once the Hoeffding bound shows that
+ * it is better than the runner-up. For more information, see<br/>
+ * <br/>
+ * Pedro Domingos, Geoff Hulten: Mining high-speed data streams. In: Proceedings of the Sixth ACM SIGKDD International
+ * Conference on Knowledge Discovery and Data Mining, 71-80, 2000.
+ * <p/>
+ * <!-- globalinfo-end -->
+ *
+ * <!-- options-start --> Valid options are:
+ * <p/>
+ *
+ * <pre>
+ * -M &lt;minimum number of instances&gt;
+ *  Set minimum number of instances per leaf.
+ *  (default 2)
+ * </pre>
+ *
+ * <pre>
+ * -B
+ *  Use binary splits only.
+ * </pre>
+ *
+ * <pre>
+ * -G &lt;grace period&gt;
+ *  Weight a leaf has to see between split evaluations.
+ *  (default 200)
+ * </pre>
+ *
+ * <pre>
+ * -C &lt;split confidence&gt;
+ *  Allowed probability of splitting on the wrong attribute.
+ *  (default 1e-7)
+ * </pre>
+ *
+ * <pre>
+ * -T &lt;tie threshold&gt;
+ *  Difference of the split criteria below which the best
+ *  split is taken as tied with the runner-up.
+ *  (default 0.05)
+ * </pre>
+ *
+ * <pre>
+ * -gainRatio
+ *  Compare the gain ratio instead of the info gain.
+ * </pre>
+ *
+ * <pre>
+ * -maxBins &lt;num&gt;
+ *  Maximum number of bins numeric attributes are quantized
+ *  into at quantiles of the first grace period instances.
+ *  (default 32)
+ * </pre>
+ *
+ * <!-- options-end -->
+ *
+ * @version $Revision$
+ */
+public class J49Updateable extends AbstractClassifier implements UpdateableClassifier, OptionHandler, Drawable,
+        WeightedInstancesHandler, AdditionalMeasureProducer, TechnicalInformationHandler {
+
+    /** for serialization */
+    static final long serialVersionUID = 6108473392215046390L;
+
+    /** The decision tree */
+    protected HoeffdingClassifierTree m_root;
+
+    /** Minimum number of instances */
+    protected int m_minNumObj = 2;
+
+    /** Binary splits on nominal attributes? */
+    protected boolean m_binarySplits = false;
+
+    /** Weight a leaf has to see between split evaluations */
+    protected int m_gracePeriod = 200;
+
+    /** Allowed probability of splitting on the wrong attribute */
+    protected double m_splitConfidence = 1e-7;
+
+    /** Difference of the split criteria below which splits are tied */
+    protected double m_tieThreshold = 0.05;
+
+    /** Compare the gain ratio instead of the info gain? */
+    protected boolean m_useGainRatio = false;
+
+    /** Maximum number of bins numeric attributes are quantized into */
+    protected int m_maxBins = 32;
+
+    /** Distribution Factory */
+    protected DistributionFactory m_distributionFactory;
+
+    /**
+     * Returns a string describing classifier
+     *
+     * @return a description suitable for displaying in the explorer/experimenter
+     *         gui
+     */
+    public String globalInfo() {
+
+        return "Class for growing a C4.5-style decision tree incrementally from a stream of instances, as a "
+                + "Hoeffding tree. A leaf splits on the attribute with the best C4.5 split once the Hoeffding "
+                + "bound shows that it is better than the runner-up. For more information, see\n\n"
+                + getTechnicalInformation().toString();
+    }
+
+    /**
+     * Returns an instance of a TechnicalInformation object, containing detailed
+     * information about the technical background of this class, e.g., paper
+     * reference or book this class is based on.
+     *
+     * @return the technical information about this class
+     */
+    @Override
+    public TechnicalInformation getTechnicalInformation() {
+        TechnicalInformation result;
+
+        result = new TechnicalInformation(Type.INPROCEEDINGS);
+        result.setValue(Field.AUTHOR, "Pedro Domingos and Geoff Hulten");
+        result.setValue(Field.TITLE, "Mining high-speed data streams");
+        result.setValue(Field.BOOKTITLE, "Proceedings of the Sixth ACM SIGKDD International Conference on "
+                + "Knowledge Discovery and Data Mining");
+        result.setValue(Field.YEAR, "2000");
+        result.setValue(Field.PAGES, "71-80");
+
+        return result;
+    }
+
+    /**
+     * Returns default capabilities of the classifier.
+     *
+     * @return the capabilities of this classifier
+     */
+    @Override
+    public Capabilities getCapabilities() {
+        Capabilities result;
+
+        result = new Capabilities(this);
+        result.disableAll();
+        // attributes
+        result.enable(Capability.NOMINAL_ATTRIBUTES);
+        result.enable(Capability.NUMERIC_ATTRIBUTES);
+        result.enable(Capability.DATE_ATTRIBUTES);
+        result.enable(Capability.MISSING_VALUES);
+
+        // class
+        result.enable(Capability.NOMINAL_CLASS);
+        result.enable(Capability.MISSING_CLASS_VALUES);
+
+        // instances
+        result.setMinimumNumberInstances(0);
+
+        return result;
+    }
+
+    /**
+     * Starts a new tree for the structure of the given instances and updates it with each of them in turn.
+     *
+     * @param instances the data to train the classifier with
+     * @throws Exception if classifier can't be built successfully
+     */
+    @Override
+    public void buildClassifier(Instances instances) throws Exception {
+
+        getCapabilities().testWithFail(instances);
+        if (m_gracePeriod < 1) {
+            throw new Exception("Grace period has to be at least 1!");
+        }
+        if ((m_splitConfidence <= 0) || (m_splitConfidence >= 1)) {
+            throw new Exception("Split confidence has to be greater than zero and smaller than one!");
+        }
+        if (m_maxBins < 2) {
+            throw new Exception("Maximum number of bins has to be at least 2!");
+        }
+        if (m_distributionFactory == null) {
+            m_distributionFactory = new DistributionFactory();
+        }
+
+        m_root = new HoeffdingClassifierTree(instances, m_minNumObj, m_splitConfidence, m_tieThreshold,
+                m_gracePeriod, m_binarySplits, m_useGainRatio, m_maxBins, m_distributionFactory);
+        for (Instance instance : instances) {
+            m_root.updateTree(instance);
+        }
+    }
+
+    /**
+     * Updates the tree with the given instance.
+     *
+     * @param instance the instance to learn from
+     * @throws Exception if the instance cannot be learned from
+     */
+    @Override
+    public void updateClassifier(Instance instance) throws Exception {
+
+        m_root.updateTree(instance);
+    }
+
+    /**
+     * Returns class probabilities for an instance.
+     *
+     * @param instance the instance to calculate the class probabilities for
+     * @return the class probabilities
+     * @throws Exception if distribution can't be computed successfully
+     */
+    @Override
+    public double[] distributionForInstance(Instance instance) throws Exception {
+
+        return m_root.distributionForInstance(instance, false);
+    }
+
+    /**
+     * Returns the type of graph this classifier represents.
+     *
+     * @return Drawable.TREE
+     */
+    @Override
+    public int graphType() {
+        return Drawable.TREE;
+    }
+
+    /**
+     * Returns graph describing the tree.
+     *
+     * @return the graph describing the tree
+     * @throws Exception if graph can't be computed
+     */
+    @Override
+    public String graph() throws Exception {
+
+        return m_root.graph();
+    }
+
+    /**
+     * Returns an enumeration describing the available options.
+     *
+     * @return an enumeration of all the available options.
+     */
+    @Override
+    public Enumeration<Option> listOptions() {
+
+        Vector<Option> newVector = new Vector<Option>(7);
+
+        newVector.addElement(new Option(
+                "\tSet minimum number of instances per leaf.\n" + "\t(default 2)", "M",
+                1, "-M <minimum number of instances>"));
+        newVector.addElement(new Option("\tUse binary splits only.", "B", 0, "-B"));
+        newVector.addElement(new Option(
+                "\tWeight a leaf has to see between split evaluations.\n" + "\t(default 200)", "G",
+                1, "-G <grace period>"));
+        newVector.addElement(new Option(
+                "\tAllowed probability of splitting on the wrong attribute.\n" + "\t(default 1e-7)", "C",
+                1, "-C <split confidence>"));
+        newVector.addElement(new Option(
+                "\tDifference of the split criteria below which the best\n"
+                        + "\tsplit is taken as tied with the runner-up.\n" + "\t(default 0.05)", "T",
+                1, "-T <tie threshold>"));
+        newVector.addElement(new Option("\tCompare the gain ratio instead of the info gain.", "gainRatio", 0,
+                "-gainRatio"));
+        newVector.addElement(new Option(
+                "\tMaximum number of bins numeric attributes are quantized\n"
+                        + "\tinto at quantiles of the first grace period instances.\n"
+                        + "\t(default 32)", "maxBins", 1,
+                "-maxBins <num>"));
+
+        newVector.addAll(Collections.list(super.listOptions()));
+
+        return newVector.elements();
+    }
+
+    /**
+     * Parses a given list of options.
+     *
+     * <!-- options-start --> Valid options are:
+     * <p/>
+     *
+     * <pre>
+     * -M &lt;minimum number of instances&gt;
+     *  Set minimum number of instances per leaf.
+     *  (default 2)
+     * </pre>
+     *
+     * <pre>
+     * -B
+     *  Use binary splits only.
+     * </pre>
+     *
+     * <pre>
+     * -G &lt;grace period&gt;
+     *  Weight a leaf has to see between split evaluations.
+     *  (default 200)
+     * </pre>
+     *
+     * <pre>
+     * -C &lt;split confidence&gt;
+     *  Allowed probability of splitting on the wrong attribute.
+     *  (default 1e-7)
+     * </pre>
+     *
+     * <pre>
+     * -T &lt;tie threshold&gt;
+     *  Difference of the split criteria below which the best
+     *  split is taken as tied with the runner-up.
+     *  (default 0.05)
+     * </pre>
+     *
+     * <pre>
+     * -gainRatio
+     *  Compare the gain ratio instead of the info gain.
+     * </pre>
+     *
+     * <pre>
+     * -maxBins &lt;num&gt;
+     *  Maximum number of bins numeric attributes are quantized
+     *  into at quantiles of the first grace period instances.
+     *  (default 32)
+     * </pre>
+     *
+     * <!-- options-end -->
+     *
+     * @param options the list of options as an array of strings
+     * @throws Exception if an option is not supported
+     */
+    @Override
+    public void setOptions(String[] options) throws Exception {
+
+        String minNumString = Utils.getOption('M', options);
+        if (minNumString.length() != 0) {
+            m_minNumObj = Integer.parseInt(minNumString);
+        } else {
+            m_minNumObj = 2;
+        }
+        m_binarySplits = Utils.getFlag('B', options);
+        String graceString = Utils.getOption('G', options);
+        if (graceString.length() != 0) {
+            m_gracePeriod = Integer.parseInt(graceString);
+        } else {
+            m_gracePeriod = 200;
+        }
+        String confidenceString = Utils.getOption('C', options);
+        if (confidenceString.length() != 0) {
+            m_splitConfidence = Double.parseDouble(confidenceString);
+        } else {
+            m_splitConfidence = 1e-7;
+        }
+        String tieString = Utils.getOption('T', options);
+        if (tieString.length() != 0) {
+            m_tieThreshold = Double.parseDouble(tieString);
+        } else {
+            m_tieThreshold = 0.05;
+        }
+        m_useGainRatio = Utils.getFlag("gainRatio", options);
+        String binsString = Utils.getOption("maxBins", options);
+        if (binsString.length() != 0) {
+            m_maxBins = Integer.parseInt(binsString);
+        } else {
+            m_maxBins = 32;
+        }
+
+        super.setOptions(options);
+    }
+
+    /**
+     * Gets the current settings of the Classifier.
+     *
+     * @return an array of strings suitable for passing to setOptions
+     */
+    @Override
+    public String[] getOptions() {
+
+        Vector<String> options = new Vector<String>();
+
+        options.add("-M");
+        options.add("" + m_minNumObj);
+        if (m_binarySplits) {
+            options.add("-B");
+        }
+        options.add("-G");
+        options.add("" + m_gracePeriod);
+        options.add("-C");
+        options.add("" + m_splitConfidence);
+        options.add("-T");
+        options.add("" + m_tieThreshold);
+        if (m_useGainRatio) {
+            options.add("-gainRatio");
+        }
+        options.add("-maxBins");
+        options.add("" + m_maxBins);
+
+        Collections.addAll(options, super.getOptions());
+
+        return options.toArray(new String[0]);
+    }
+
+    /**
+     * Returns a description of the classifier.
+     *
+     * @return a description of the classifier
+     */
+    @Override
+    public String toString() {
+
+        if (m_root == null) {
+            return "No classifier built";
+        }
+        return "J49Updateable Hoeffding tree\n------------------\n" + m_root.toString();
+    }
+
+    /**
+     * Returns the size of the tree
+     *
+     * @return the size of the tree
+     */
+    public double measureTreeSize() {
+        return m_root.numNodes();
+    }
+
+    /**
+     * Returns the number of leaves
+     *
+     * @return the number of leaves
+     */
+    public double measureNumLeaves() {
+        return m_root.numLeaves();
+    }
+
+    /**
+     * Returns an enumeration of the additional measure names
+     *
+     * @return an enumeration of the measure names
+     */
+    @Override
+    public Enumeration<String> enumerateMeasures() {
+        Vector<String> newVector = new Vector<String>(2);
+        newVector.addElement("measureTreeSize");
+        newVector.addElement("measureNumLeaves");
+        return newVector.elements();
+    }
+
+    /**
+     * Returns the value of the named measure
+     *
+     * @param additionalMeasureName the name of the measure to query for its value
+     * @return the value of the named measure
+     * @throws IllegalArgumentException if the named measure is not supported
+     */
+    @Override
+    public double getMeasure(String additionalMeasureName) {
+        if (additionalMeasureName.compareToIgnoreCase("measureTreeSize") == 0) {
+            return measureTreeSize();
+        } else if (additionalMeasureName.compareToIgnoreCase("measureNumLeaves") == 0) {
+            return measureNumLeaves();
+        } else {
+            throw new IllegalArgumentException(additionalMeasureName
+                    + " not supported (j49)");
+        }
+    }
+
+    /**
+     * Returns the tip text for this property
+     *
+     * @return tip text for this property suitable for displaying in the
+     *         explorer/experimenter gui
+     */
+    public String minNumObjTipText() {
+        return "The minimum number of instances per leaf.";
+    }
+
+    /**
+     * Get the value of minNumObj.
+     *
+     * @return Value of minNumObj.
+     */
+    public int getMinNumObj() {
+        return m_minNumObj;
+    }
+
+    /**
+     * Set the value of minNumObj.
+     *
+     * @param v Value to assign to minNumObj.
+     */
+    public void setMinNumObj(int v) {
+        m_minNumObj = v;
+    }
+
+    /**
+     * Returns the tip text for this property
+     *
+     * @return tip text for this property suitable for displaying in the
+     *         explorer/experimenter gui
+     */
+    public String binarySplitsTipText() {
+        return "Whether to use binary splits on nominal attributes when building the trees.";
+    }
+
+    /**
+     * Get the value of binarySplits.
+     *
+     * @return Value of binarySplits.
+     */
+    public boolean getBinarySplits() {
+        return m_binarySplits;
+    }
+
+    /**
+     * Set the value of binarySplits.
+     *
+     * @param v Value to assign to binarySplits.
+     */
+    public void setBinarySplits(boolean v) {
+        m_binarySplits = v;
+    }
+
+    /**
+     * Returns the tip text for this property
+     *
+     * @return tip text for this property suitable for displaying in the
+     *         explorer/experimenter gui
+     */
+    public String gracePeriodTipText() {
+        return "The weight a leaf has to see between evaluations of its splits. Splits are evaluated in"
+                + " O(attributes x bins x classes), so this bounds their cost per instance.";
+    }
+
+    /**
+     * Gets the weight a leaf has to see between split evaluations.
+     *
+     * @return the grace period
+     */
+    public int getGracePeriod() {
+        return m_gracePeriod;
+    }
+
+    /**
+     * Sets the weight a leaf has to see between split evaluations.
+     *
+     * @param gracePeriod the grace period
+     */
+    public void setGracePeriod(int gracePeriod) {
+        m_gracePeriod = gracePeriod;
+    }
+
+    /**
+     * Returns the tip text for this property
+     *
+     * @return tip text for this property suitable for displaying in the
+     *         explorer/experimenter gui
+     */
+    public String splitConfidenceTipText() {
+        return "The allowed probability of splitting on another attribute than the one the full stream would"
+                + " choose (delta of the Hoeffding bound).";
+    }
+
+    /**
+     * Gets the allowed probability of splitting on the wrong attribute.
+     *
+     * @return the split confidence
+     */
+    public double getSplitConfidence() {
+        return m_splitConfidence;
+    }
+
+    /**
+     * Sets the allowed probability of splitting on the wrong attribute.
+     *
+     * @param splitConfidence the split confidence
+     */
+    public void setSplitConfidence(double splitConfidence) {
+        m_splitConfidence = splitConfidence;
+    }
+
+    /**
+     * Returns the tip text for this property
+     *
+     * @return tip text for this property suitable for displaying in the
+     *         explorer/experimenter gui
+     */
+    public String tieThresholdTipText() {
+        return "Once the Hoeffding bound is below this, the best split is taken even if the runner-up is as good.";
+    }
+
+    /**
+     * Gets the difference of the split criteria below which splits are tied.
+     *
+     * @return the tie threshold
+     */
+    public double getTieThreshold() {
+        return m_tieThreshold;
+    }
+
+    /**
+     * Sets the difference of the split criteria below which splits are tied.
+     *
+     * @param tieThreshold the tie threshold
+     */
+    public void setTieThreshold(double tieThreshold) {
+        m_tieThreshold = tieThreshold;
+    }
+
+    /**
+     * Returns the tip text for this property
+     *
+     * @return tip text for this property suitable for displaying in the
+     *         explorer/experimenter gui
+     */
+    public String useGainRatioTipText() {
+        return "Whether the gain ratio of the splits is compared instead of their info gain.";
+    }
+
+    /**
+     * Gets whether the gain ratio is compared instead of the info gain.
+     *
+     * @return true if the gain ratio is compared
+     */
+    public boolean getUseGainRatio() {
+        return m_useGainRatio;
+    }
+
+    /**
+     * Sets whether the gain ratio is compared instead of the info gain.
+     *
+     * @param useGainRatio true to compare the gain ratio
+     */
+    public void setUseGainRatio(boolean useGainRatio) {
+        m_useGainRatio = useGainRatio;
+    }
+
+    /**
+     * Returns the tip text for this property
+     *
+     * @return tip text for this property suitable for displaying in the
+     *         explorer/experimenter gui
+     */
+    public String maxBinsTipText() {
+        return "The maximum number of bins numeric attributes are quantized into, at quantiles of the first"
+                + " grace period instances. Splits are only made between bins.";
+    }
+
+    /**
+     * Gets the maximum number of bins numeric attributes are quantized into.
+     *
+     * @return the maximum number of bins
+     */
+    public int getMaxBins() {
+        return m_maxBins;
+    }
+
+    /**
+     * Sets the maximum number of bins numeric attributes are quantized into.
+     *
+     * @param maxBins the maximum number of bins
+     */
+    public void setMaxBins(int maxBins) {
+        m_maxBins = maxBins;
+    }
+
+    /**
+     * Returns the revision string.
+     *
+     * @return the revision
+     */
+    @Override
+    public String getRevision() {
+        return RevisionUtils.extract("$Revision$");
+    }
+
+    /**
+     * Main method for testing this class
+     *
+     * @param argv the commandline options
+     */
+    public static void main(String[] argv) {
+        runClassifier(new J49Updateable(), argv);
+    }
+}
@@ -0,0 +1,268 @@
+package weka.classifiers.trees.j49;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import weka.core.Instances;
+
+/**
+ * Same layout as ArrayAndFastUtilDistribution, but the class maps are keyed by the int class index instead of the
+ * double class value, so lookups hash an int and every key takes 4 bytes instead of 8.
+ */
+public class ArrayAndIntMapDistribution extends ArrayAndMapDistribution {
+
+    private static final long serialVersionUID = 6385217930948862451L;
+
+    //weights per class in Int2DoubleMap<int classIndex, double weight>
+    Int2DoubleOpenHashMap m_perClass;
+
+    //weights per class per bag, with an array of Int2DoubleMaps<int classIndex, double weight>,
+    //Array index represents bag value
+    Int2DoubleOpenHashMap[] m_perClassPerBag;
+
+    /**
+     * Creates and initializes a new distribution.
+     */
+    public ArrayAndIntMapDistribution(int numBags, int numClasses) {
+        super(numBags, numClasses);
+        m_perClass = new Int2DoubleOpenHashMap();
+        m_perClassPerBag = new Int2DoubleOpenHashMap[numBags];
+        for (int i = 0; i < numBags; i++) {
+            m_perClassPerBag[i] = new Int2DoubleOpenHashMap();
+        }
+    }
+
+    /**
+     * Creates and initializes a new distribution using the given array of format StandardDistribution.m_perClassPerBag
+     */
+    public ArrayAndIntMapDistribution(double[][] table) {
+        super(table.length, table[0].length);
+        m_perClass = new Int2DoubleOpenHashMap(table[0].length);
+        m_perClassPerBag = new Int2DoubleOpenHashMap[table.length];
+        for (int i = 0; i < table.length; i++) {
+            m_perClassPerBag[i] = new Int2DoubleOpenHashMap(table[0].length);
+        }
+
+        addTable(table);
+        trim();
+    }
+
+    /**
+     * Creates a distribution with only one bag according to instances in source.
+     *
+     * @throws Exception if something goes wrong
+     */
+    public ArrayAndIntMapDistribution(Instances source) throws Exception {
+        super(1, source.numClasses());
+        m_perClass = new Int2DoubleOpenHashMap(source.numClasses());
+        m_perClassPerBag = new Int2DoubleOpenHashMap[1];
+        m_perClassPerBag[0] = new Int2DoubleOpenHashMap();
+
+        addAll(source);
+        trim();
+    }
+
+    /**
+     * Creates a distribution according to given instances and split model.
+     *
+     * @throws Exception if something goes wrong
+     */
+
+    public ArrayAndIntMapDistribution(Instances source, ClassifierSplitModel modelToUse) throws Exception {
+        super(modelToUse.numSubsets(), source.numClasses());
+        m_perClass = new Int2DoubleOpenHashMap(m_numClasses);
+        m_perClassPerBag = new Int2DoubleOpenHashMap[modelToUse.numSubsets()];
+        for (int i = 0; i < m_perClassPerBag.length; i++) {
+            m_perClassPerBag[i] = new Int2DoubleOpenHashMap(m_numClasses);
+        }
+
+        addAll(source, modelToUse);
+        trim();
+    }
+
+    /**
+     * Creates distribution with only one bag by merging all bags of given
+     * distribution.
+     */
+    public ArrayAndIntMapDistribution(Distribution toMerge) {
+        super(1, toMerge.numClasses());
+        m_perClass = new Int2DoubleOpenHashMap(toMerge.numClasses());
+        m_perClassPerBag = new Int2DoubleOpenHashMap[1];
+        m_perClassPerBag[0] = new Int2DoubleOpenHashMap(toMerge.numClasses());
+
+        merge(toMerge);
+        trim();
+    }
+
+    /**
+     * Creates distribution with two bags by merging all bags apart of the
+     * indicated one.
+     */
+    public ArrayAndIntMapDistribution(Distribution toMerge, int index) {
+        super(2, toMerge.numClasses());
+        m_perClass = new Int2DoubleOpenHashMap(m_numClasses);
+        m_perClassPerBag = new Int2DoubleOpenHashMap[2];
+        m_perClassPerBag[0] = new Int2DoubleOpenHashMap(m_numClasses);
+        m_perClassPerBag[1] = new Int2DoubleOpenHashMap(m_numClasses);
+
+        merge(toMerge, index);
+        trim();
+    }
+
+    private void trim() {
+        m_perClass.trim();
+        for (int i = 0; i < m_perClassPerBag.length; i++) {
+            m_perClassPerBag[i].trim();
+        }
+    }
+
+    @Override
+    protected void addToPerClass(int classIndex, double weight) {
+        m_perClass.addTo(classIndex, weight);
+    }
+
+    @Override
+    protected void addToPerClassPerBag(int bagIndex, int classIndex, double weight) {
+        m_perClassPerBag[bagIndex].addTo(classIndex, weight);
+    }
+
+    @Override
+    protected ArrayAndMapDistribution newDistribution(int numBags, int numClasses) {
+        return new ArrayAndIntMapDistribution(numBags, numClasses);
+    }
+
+    @Override
+    protected void copyCounts(ArrayAndMapDistribution source) {
+        ArrayAndIntMapDistribution counts = (ArrayAndIntMapDistribution) source;
+        for (int b = 0; b < m_perClassPerBag.length; b++) {
+            m_perClassPerBag[b] = new Int2DoubleOpenHashMap(counts.m_perClassPerBag[b]);
+        }
+        m_perClass = new Int2DoubleOpenHashMap(counts.m_perClass);
+    }
+
+    @Override
+    protected void clearCounts() {
+        for (int b = 0; b < m_perClassPerBag.length; b++) {
+            m_perClassPerBag[b].clear();
+        }
+        m_perClass.clear();
+    }
+
+    @Override
+    protected void perClassFromBag(int bagIndex) {
+        m_perClass.putAll(m_perClassPerBag[bagIndex]);
+    }
+
+    /**
+     * Returns number of classes actually occuring in distribution.
+     */
+    @Override
+    public int actualNumClasses() {
+
+        //use map.size() method assuming there will be no zero values added
+        return m_perClass.size();
+    }
+
+    /**
+     * Returns number of classes actually occuring in given bag.
+     *
+     * @param bagIndex
+     */
+    @Override
+    public int actualNumClasses(int bagIndex) {
+
+        //assume there are no zero values added
+        return m_perClassPerBag[bagIndex].size();
+    }
+
+    /**
+     * Returns class with highest frequency over all bags.
+     */
+    @Override
+    public int maxClass() {
+        return maxClass(m_perClass);
+    }
+
+    /**
+     * Returns class with highest frequency for given bag.
+     *
+     * @param index
+     */
+    @Override
+    public int maxClass(int index) {
+        return maxClass(m_perClassPerBag[index]);
+    }
+
+    private static int maxClass(Int2DoubleOpenHashMap counts) {
+        Int2DoubleMap.Entry maxEntry = null;
+
+        for (Int2DoubleMap.Entry entry : counts.int2DoubleEntrySet()) {
+            if (maxEntry == null || (entry.getDoubleValue() > maxEntry.getDoubleValue())) {
+                maxEntry = entry;
+            }
+        }
+        if (maxEntry == null) {
+            return -1;
+        }
+        return maxEntry.getIntKey();
+    }
+
+    /**
+     * Returns number of (possibly fractional) instances of given class in given
+     * bag.
+     *
+     * @param bagIndex
+     * @param classIndex
+     */
+    @Override
+    public double perClassPerBag(int bagIndex, int classIndex) {
+        return m_perClassPerBag[bagIndex].get(classIndex);
+    }
+
+    /**
+     * Returns number of (possibly fractional) instances of given class.
+     *
+     * @param classIndex
+     */
+    @Override
+    public double perClass(int classIndex) {
+        return m_perClass.get(classIndex);
+    }
+
+    /**
+     * Passes every class with a non-zero count in the given bag to the
+     * consumer.
+     *
+     * @param bagIndex
+     * @param consumer
+     */
+    @Override
+    public void forEachNonZero(int bagIndex, ClassCountConsumer consumer) {
+        forEachNonZero(m_perClassPerBag[bagIndex], consumer);
+    }
+
+    /**
+     * Passes every class with a non-zero count over all bags to the consumer.
+     *
+     * @param consumer
+     */
+    @Override
+    public void forEachNonZero(ClassCountConsumer consumer) {
+        forEachNonZero(m_perClass, consumer);
+    }
+
+    /**
+     * Passes the non-zero entries of the given class map to the consumer.
+     */
+    static void forEachNonZero(Int2DoubleOpenHashMap counts, ClassCountConsumer consumer) {
+        ObjectIterator<Int2DoubleMap.Entry> iterator = counts.int2DoubleEntrySet().fastIterator();
+        Int2DoubleMap.Entry entry;
+
+        while (iterator.hasNext()) {
+            entry = iterator.next();
+            if (entry.getDoubleValue() != 0) {
+                consumer.accept(entry.getIntKey(), entry.getDoubleValue());
+            }
+        }
+    }
+}
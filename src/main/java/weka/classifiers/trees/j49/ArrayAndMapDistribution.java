@@ -0,0 +1,762 @@
+package weka.classifiers.trees.j49;
+
+import java.util.Enumeration;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.RevisionUtils;
+import weka.core.Utils;
+
+/**
+ * Distribution with the weights per bag in an array and the weights per class and per class per bag in hash maps, one
+ * map per bag. Everything but the maps is implemented here; subclasses choose the map type and implement the
+ * methods that touch the maps.
+ */
+public abstract class ArrayAndMapDistribution implements Distribution {
+
+    private static final long serialVersionUID = -2793155026173816224L;
+
+    //weights per bag
+    double[] m_perBag;
+
+    double totaL;
+
+    //total number of classes - must be stored since it is not retained by the class maps
+    int m_numClasses;
+
+    /**
+     * Creates a distribution with the given number of bags and classes, whose maps are created by the subclass.
+     */
+    protected ArrayAndMapDistribution(int numBags, int numClasses) {
+        m_perBag = new double[numBags];
+        totaL = 0;
+        m_numClasses = numClasses;
+    }
+
+    /**
+     * Adds the given weight to the weight of the class over all bags.
+     */
+    protected abstract void addToPerClass(int classIndex, double weight);
+
+    /**
+     * Adds the given weight to the weight of the class in the given bag.
+     */
+    protected abstract void addToPerClassPerBag(int bagIndex, int classIndex, double weight);
+
+    /**
+     * Returns a new empty distribution of the same type.
+     */
+    protected abstract ArrayAndMapDistribution newDistribution(int numBags, int numClasses);
+
+    /**
+     * Replaces the class maps by copies of those of the given distribution, which has the same type and bags.
+     */
+    protected abstract void copyCounts(ArrayAndMapDistribution source);
+
+    /**
+     * Removes all entries of the class maps.
+     */
+    protected abstract void clearCounts();
+
+    /**
+     * Puts the entries of the map of the given bag into the map over all bags.
+     */
+    protected abstract void perClassFromBag(int bagIndex);
+
+    /**
+     * Adds the cells of the given table of format OriginalDistribution.m_perClassPerBag.
+     */
+    void addTable(double[][] table) {
+        for (int b = 0; b < table.length; b++) {
+            for (int c = 0; c < table[b].length; c++) {
+                if (table[b][c] != 0) {
+                    m_perBag[b] += table[b][c];
+                    addToPerClass(c, table[b][c]);
+                    addToPerClassPerBag(b, c, table[b][c]);
+                    totaL += table[b][c];
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds all instances of the source to the first bag.
+     */
+    void addAll(Instances source) throws Exception {
+        Enumeration<Instance> enu = source.enumerateInstances();
+        while (enu.hasMoreElements()) {
+            add(0, enu.nextElement());
+        }
+    }
+
+    /**
+     * Adds all instances of the source to the bags given by the split model.
+     */
+    void addAll(Instances source, ClassifierSplitModel modelToUse) throws Exception {
+        int index;
+        Instance instance;
+        double[] weights;
+
+        Enumeration<Instance> enu = source.enumerateInstances();
+        while (enu.hasMoreElements()) {
+            instance = enu.nextElement();
+            index = modelToUse.whichSubset(instance);
+            if (index != -1) {
+                add(index, instance);
+            }
+            else {
+                weights = modelToUse.weights(instance);
+                addWeights(instance, weights);
+            }
+        }
+    }
+
+    /**
+     * Adds all bags of the given distribution to the only bag.
+     */
+    void merge(Distribution toMerge) {
+        m_perBag[0] = toMerge.total();
+        for (int i = 0; i < toMerge.numClasses(); i++) {
+            if (toMerge.perClass(i) != 0) {
+                addToPerClass(i, toMerge.perClass(i));
+                addToPerClassPerBag(0, i, toMerge.perClass(i));
+            }
+        }
+        totaL = toMerge.total();
+    }
+
+    /**
+     * Adds the indicated bag of the given distribution to the first bag and all others to the second one.
+     */
+    void merge(Distribution toMerge, int index) {
+        double weight;
+
+        totaL = toMerge.total();
+        m_perBag[0] = toMerge.perBag(index);
+        m_perBag[1] = toMerge.total() - m_perBag[0];
+
+        for (int c = 0; c < toMerge.numClasses(); c++) {
+            addToPerClass(c, toMerge.perClass(c));
+            addToPerClassPerBag(0, c, toMerge.perClassPerBag(index, c));
+            weight = toMerge.perClass(c) - toMerge.perClassPerBag(index, c);
+            if (weight != 0) {
+                addToPerClassPerBag(1, c, weight);
+            }
+        }
+    }
+
+    /**
+     * Returns number of non-empty bags of distribution.
+     */
+    @Override
+    public int actualNumBags() {
+        int returnValue = 0;
+        int i;
+
+        for (i = 0; i < m_perBag.length; i++) {
+            if (Utils.gr(m_perBag[i], 0)) {
+                returnValue++;
+            }
+        }
+
+        return returnValue;
+    }
+
+    /**
+     * Adds given instance to given bag.
+     *
+     * @param bagIndex
+     * @param instance
+     * @throws Exception if something goes wrong
+     */
+    @Override
+    public void add(int bagIndex, Instance instance) throws Exception {
+        add(bagIndex, (int) instance.classValue(), instance.weight());
+    }
+
+    /**
+     * Adds an instance of given class and weight to given bag.
+     *
+     * @param bagIndex
+     * @param classIndex
+     * @param weight
+     */
+    @Override
+    public void add(int bagIndex, int classIndex, double weight) {
+        if (weight == 0) {
+            return;
+        }
+
+        m_perBag[bagIndex] += weight;
+        addToPerClass(classIndex, weight);
+        addToPerClassPerBag(bagIndex, classIndex, weight);
+        totaL += weight;
+    }
+
+    /**
+     * Subtracts given instance from given bag.
+     *
+     * @param bagIndex
+     * @param instance
+     * @throws Exception if something goes wrong
+     */
+    @Override
+    public void sub(int bagIndex, Instance instance) throws Exception {
+        int classIndex = (int) instance.classValue();
+        double weight = instance.weight();
+
+        m_perBag[bagIndex] -= weight;
+        addToPerClass(classIndex, -weight);
+        addToPerClassPerBag(bagIndex, classIndex, -weight);
+        totaL -= weight;
+    }
+
+    /**
+     * Adds counts to given bag.
+     *
+     * @param bagIndex
+     * @param counts
+     */
+    @Override
+    public void add(int bagIndex, double[] counts) {
+        double sum = Utils.sum(counts);
+        int c;
+
+        m_perBag[bagIndex] += sum;
+
+        for (c = 0; c < counts.length; c++) {
+            if (counts[c] != 0) {
+                addToPerClass(c, counts[c]);
+                addToPerClassPerBag(bagIndex, c, counts[c]);
+            }
+        }
+        totaL += sum;
+    }
+
+    /**
+     * Adds all instances with unknown values for given attribute, weighted
+     * according to frequency of instances in each bag.
+     *
+     * @param source
+     * @param attIndex
+     * @throws Exception if something goes wrong
+     */
+    @Override
+    public void addInstWithUnknown(Instances source, int attIndex) throws Exception {
+
+        double[] probs;
+        double weight, newWeight;
+        int classIndex;
+        Instance instance;
+        int b;
+
+        probs = new double[m_perBag.length];
+        for (b = 0; b < m_perBag.length; b++) {
+            if (Utils.eq(totaL, 0)) {
+                probs[b] = 1.0 / probs.length;
+            }
+            else {
+                probs[b] = m_perBag[b] / totaL;
+            }
+        }
+        Enumeration<Instance> enu = source.enumerateInstances();
+        while (enu.hasMoreElements()) {
+            instance = enu.nextElement();
+            if (instance.isMissing(attIndex)) {
+                classIndex = (int) instance.classValue();
+                weight = instance.weight();
+                addToPerClass(classIndex, weight);
+                totaL += weight;
+
+                for (b = 0; b < m_perBag.length; b++) {
+                    newWeight = probs[b] * weight;
+                    addToPerClassPerBag(b, classIndex, newWeight);
+                    m_perBag[b] += newWeight;
+                }
+
+            }
+        }
+    }
+
+    /**
+     * Adds the instances with unknown values for the split attribute, given by their class indices and weights,
+     * weighted according to frequency of instances in each bag. Same result as addInstWithUnknown() on the instances.
+     */
+    @Override
+    public void addInstWithUnknown(int[] classIndices, double[] weights, int count) {
+
+        double[] probs;
+        double weight, newWeight;
+        int classIndex;
+        int b;
+
+        probs = new double[m_perBag.length];
+        for (b = 0; b < m_perBag.length; b++) {
+            if (Utils.eq(totaL, 0)) {
+                probs[b] = 1.0 / probs.length;
+            }
+            else {
+                probs[b] = m_perBag[b] / totaL;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            classIndex = classIndices[i];
+            weight = weights[i];
+            addToPerClass(classIndex, weight);
+            totaL += weight;
+
+            for (b = 0; b < m_perBag.length; b++) {
+                newWeight = probs[b] * weight;
+                addToPerClassPerBag(b, classIndex, newWeight);
+                m_perBag[b] += newWeight;
+            }
+        }
+    }
+
+
+    /**
+     * Adds all instances in given range to given bag.
+     *
+     * @param bagIndex
+     * @param source
+     * @param startIndex
+     * @param lastPlusOne
+     * @throws Exception if something goes wrong
+     */
+    @Override
+    public void addRange(int bagIndex, Instances source, int startIndex, int lastPlusOne) throws Exception {
+
+        for (int i = startIndex; i < lastPlusOne; i++) {
+            add(bagIndex, source.instance(i));
+        }
+    }
+
+    /**
+     * Adds all instances in given range to given bag, given by their class indices and weights.
+     *
+     * @param bagIndex
+     * @param classIndices
+     * @param weights
+     * @param startIndex
+     * @param lastPlusOne
+     */
+    @Override
+    public void addRange(int bagIndex, int[] classIndices, double[] weights, int startIndex, int lastPlusOne) {
+        for (int i = startIndex; i < lastPlusOne; i++) {
+            double weight = weights[i];
+            if (weight == 0) {
+                continue;
+            }
+            m_perBag[bagIndex] += weight;
+            addToPerClass(classIndices[i], weight);
+            addToPerClassPerBag(bagIndex, classIndices[i], weight);
+            totaL += weight;
+        }
+    }
+
+    /**
+     * Adds given instance to all bags weighting it according to given weights.
+     *
+     * @param instance
+     * @param weights
+     * @throws Exception if something goes wrong
+     */
+    @Override
+    public void addWeights(Instance instance, double[] weights) throws Exception {
+
+        int classIndex = (int) instance.classValue();
+        int b;
+
+        for (b = 0; b < m_perBag.length; b++) {
+            double weight = instance.weight() * weights[b];
+
+            m_perBag[b] += weight;
+            addToPerClass(classIndex, weight);
+            addToPerClassPerBag(b, classIndex, weight);
+            totaL += weight;
+
+        }
+    }
+
+    /**
+     * Checks if at least two bags contain a minimum number of instances.
+     *
+     * @param minNoObj
+     */
+    @Override
+    public boolean check(double minNoObj) {
+        int count = 0;
+        int b;
+
+        for (b = 0; b < m_perBag.length; b++) {
+            if (Utils.grOrEq(m_perBag[b], minNoObj)) {
+                count++;
+            }
+        }
+        return count > 1;
+
+    }
+
+    /**
+     * Clones distribution (Deep copy of distribution).
+     */
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        Object o = super.clone();
+
+        int b;
+        ArrayAndMapDistribution newDistribution = newDistribution(numBags(), numClasses());
+
+        for (b = 0; b < m_perBag.length; b++) {
+            newDistribution.m_perBag[b] = m_perBag[b];
+        }
+        newDistribution.copyCounts(this);
+        newDistribution.totaL = totaL;
+        newDistribution.m_numClasses = m_numClasses;
+
+        return newDistribution;
+    }
+
+    /**
+     * Deletes given instance from given bag.
+     *
+     * @param bagIndex
+     * @param instance
+     * @throws Exception if something goes wrong
+     */
+    @Override
+    public void del(int bagIndex, Instance instance) throws Exception {
+        sub(bagIndex, instance);
+    }
+
+    /**
+     * Deletes all instances in given range from given bag.
+     *
+     * @param bagIndex
+     * @param source
+     * @param startIndex
+     * @param lastPlusOne
+     * @throws Exception if something goes wrong
+     */
+    @Override
+    public void delRange(int bagIndex, Instances source, int startIndex, int lastPlusOne) throws Exception {
+        double sumOfWeights = 0;
+        int classIndex;
+        double weight;
+        int i;
+
+        for (i = startIndex; i < lastPlusOne; i++) {
+            weight = source.instance(i).weight();
+            sumOfWeights += weight;
+            classIndex = (int) source.instance(i).classValue();
+            addToPerClass(classIndex, -weight);
+            addToPerClassPerBag(bagIndex, classIndex, -weight);
+        }
+        m_perBag[bagIndex] -= sumOfWeights;
+        totaL -= sumOfWeights;
+    }
+
+    /**
+     * Prints distribution.
+     */
+    @Override
+    public String dumpDistribution() {
+        StringBuffer text = new StringBuffer();
+        int b, c;
+
+        for (b = 0; b < m_perBag.length; b++) {
+            text.append("Bag num " + b + "\n");
+            for (c = 0; c < m_numClasses; c++) {
+                text.append("Class num " + c + " " + perClassPerBag(b, c) + "\n");
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Sets all counts to zero.
+     */
+    @Override
+    public void initialize() {
+        for (int b = 0; b < m_perBag.length; b++) {
+            m_perBag[b] = 0;
+        }
+        clearCounts();
+        totaL = 0;
+
+    }
+
+    /**
+     * Returns matrix with distribution of class values.
+     */
+    @Override
+    public double[][] matrix() {
+        int b, c;
+        double[][] perClassPerBag = new double[m_perBag.length][m_numClasses];
+
+        for (b = 0; b < m_perBag.length; b++) {
+            for (c = 0; c < m_numClasses; c++) {
+                perClassPerBag[b][c] = perClassPerBag(b, c);
+            }
+        }
+        return perClassPerBag;
+    }
+
+    /**
+     * Returns index of bag containing maximum number of instances.
+     */
+    @Override
+    public int maxBag() {
+        double max;
+        int maxIndex;
+        int i;
+
+        max = 0;
+        maxIndex = -1;
+        for (i = 0; i < m_perBag.length; i++) {
+            if (Utils.grOrEq(m_perBag[i], max)) {
+                max = m_perBag[i];
+                maxIndex = i;
+            }
+        }
+        return maxIndex;
+    }
+
+    /**
+     * Returns number of bags.
+     */
+    @Override
+    public int numBags() {
+        return m_perBag.length;
+    }
+
+    /**
+     * Returns number of classes.
+     */
+    @Override
+    public int numClasses() {
+        return m_numClasses;
+    }
+
+    /**
+     * Returns perClass(maxClass()).
+     */
+    @Override
+    public double numCorrect() {
+        return perClass(maxClass());
+    }
+
+    /**
+     * Returns perClassPerBag(index,maxClass(index)).
+     *
+     * @param index
+     */
+    @Override
+    public double numCorrect(int index) {
+        return perClassPerBag(index, maxClass(index));
+    }
+
+    /**
+     * Returns total-numCorrect().
+     */
+    @Override
+    public double numIncorrect() {
+        return totaL - numCorrect();
+    }
+
+    /**
+     * Returns perBag(index)-numCorrect(index).
+     *
+     * @param index
+     */
+    @Override
+    public double numIncorrect(int index) {
+        return perBag(index) - numCorrect(index);
+    }
+
+    /**
+     * Returns number of (possibly fractional) instances in given bag.
+     *
+     * @param bagIndex
+     */
+    @Override
+    public double perBag(int bagIndex) {
+        return m_perBag[bagIndex];
+    }
+
+    /**
+     * Returns relative frequency of class over all bags with Laplace correction.
+     *
+     * @param classIndex
+     */
+    @Override
+    public double laplaceProb(int classIndex) {
+        return (perClass(classIndex) + 1) / (totaL + m_numClasses);
+    }
+
+    /**
+     * Returns relative frequency of class for given bag.
+     *
+     * @param classIndex
+     * @param intIndex
+     */
+    @Override
+    public double laplaceProb(int classIndex, int intIndex) {
+
+        if (Utils.gr(m_perBag[intIndex], 0)) {
+            return (perClassPerBag(intIndex, classIndex) + 1.0) / (m_perBag[intIndex] + m_numClasses);
+        }
+        else {
+            return laplaceProb(classIndex);
+        }
+    }
+
+    /**
+     * Returns relative frequency of class over all bags.
+     *
+     * @param classIndex
+     */
+    @Override
+    public double prob(int classIndex) {
+        if (total() > 0 ) {
+            return perClass(classIndex) / total();
+        }
+        return 0;
+    }
+
+    /**
+     * Returns relative frequency of class for given bag.
+     *
+     * @param classIndex
+     * @param intIndex
+     */
+    @Override
+    public double prob(int classIndex, int intIndex) {
+        if (perBag(intIndex) > 0 ) {
+            return perClassPerBag(intIndex, classIndex) / perBag(intIndex);
+        }
+        return 0;
+    }
+
+    /**
+     * Subtracts the given distribution from this one. The results has only one
+     * bag. Only the non-zero classes of both distributions are visited.
+     *
+     * @param toSubtract
+     */
+    @Override
+    public Distribution subtract(Distribution toSubtract) {
+
+        final ArrayAndMapDistribution newDist = newDistribution(1, m_numClasses);
+
+        newDist.m_perBag[0] = totaL - toSubtract.total();
+        newDist.totaL = newDist.m_perBag[0];
+
+        forEachNonZero(new ClassCountConsumer() {
+            @Override
+            public void accept(int classIndex, double count) {
+                newDist.addToPerClassPerBag(0, classIndex, count);
+            }
+        });
+        toSubtract.forEachNonZero(new ClassCountConsumer() {
+            @Override
+            public void accept(int classIndex, double count) {
+                newDist.addToPerClassPerBag(0, classIndex, -count);
+            }
+        });
+        newDist.perClassFromBag(0);
+        return newDist;
+    }
+
+    /**
+     * Returns total number of (possibly fractional) instances.
+     */
+    @Override
+    public double total() {
+        return totaL;
+    }
+
+    /**
+     * Shifts given instance from one bag to another one.
+     *
+     * @param from
+     * @param to
+     * @param instance
+     * @throws Exception if something goes wrong
+     */
+    @Override
+    public void shift(int from, int to, Instance instance) throws Exception {
+        int classIndex = (int) instance.classValue();
+        double weight = instance.weight();
+
+        addToPerClassPerBag(from, classIndex, -weight);
+        addToPerClassPerBag(to, classIndex, weight);
+        m_perBag[from] -= weight;
+        m_perBag[to] += weight;
+    }
+
+    /**
+     * Shifts all instances in given range from one bag to another one.
+     *
+     * @param from
+     * @param to
+     * @param source
+     * @param startIndex
+     * @param lastPlusOne
+     * @throws Exception if something goes wrong
+     */
+    @Override
+    public void shiftRange(int from, int to, Instances source, int startIndex, int lastPlusOne) throws Exception {
+        for (int i = startIndex; i < lastPlusOne; i++) {
+            shift(from, to, source.instance(i));
+        }
+    }
+
+    /**
+     * Shifts all instances in given range from one bag to another one, given by their class indices and weights.
+     *
+     * @param from
+     * @param to
+     * @param classIndices
+     * @param weights
+     * @param startIndex
+     * @param lastPlusOne
+     */
+    @Override
+    public void shiftRange(int from, int to, int[] classIndices, double[] weights, int startIndex, int lastPlusOne) {
+        for (int i = startIndex; i < lastPlusOne; i++) {
+            double weight = weights[i];
+            addToPerClassPerBag(from, classIndices[i], -weight);
+            addToPerClassPerBag(to, classIndices[i], weight);
+            m_perBag[from] -= weight;
+            m_perBag[to] += weight;
+        }
+    }
+
+    /**
+     * Gets the percentage density (the percentage of values in the standard distribution that are non-zero) of the distribution
+     * @return the density of the distribution
+     */
+    @Override
+    public double getDensity() throws Exception {
+        int nonZeroCount = 0;
+        for(int b = 0; b<numBags(); b++){
+            for(int c = 0; c<numClasses(); c++){
+                if(perClassPerBag(b,c)!=0){
+                    nonZeroCount++;
+                }
+            }
+        }
+        return ((double) nonZeroCount)/(numBags() * numClasses()) * 100;
+    }
+
+    /**
+     * Returns the revision string.
+     *
+     * @return the revision
+     */
+    @Override
+    public String getRevision() {
+        return RevisionUtils.extract("$Revision$");
+    }
+}
@@ -0,0 +1,332 @@
+package weka.classifiers.trees.j49;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import weka.core.Instances;
+import weka.core.OptionHandler;
+
+/**
+ * Compact, versioned binary format for trained trees, as an alternative to Java serialization of the tree objects.
+ * Java serialization writes every split model, distribution factory, hash table (including its free slots) and the
+ * header of every node, and reads them back by reflection. This format writes
+ *
+ * <pre>
+ * magic "J49M", format version
+ * options of the classifier, distribution type
+ * header of the training data as ARFF text, class index   (once, shared by all nodes)
+ * nodes in pre-order
+ * </pre>
+ *
+ * with all counts and indices as variable-length integers (7 bits per byte). Every node is a byte of flags (leaf,
+ * empty, split type), the split attribute and split point, and the class counts of every bag as sparse runs of
+ * (class index delta, count), so a leaf with a few of thousands of classes takes a few bytes. Counts that are whole
+ * numbers, as they are without instance weights or missing values, are written as integers.
+ *
+ * Loading is one sequential pass over the stream. What is needed to classify is restored; statistics only used while
+ * growing the tree (information gain, gain ratio, minimum number of instances) and the training data kept with
+ * -doNotCleanup are not written. Per bag and total counts are summed up again from the class counts, so with
+ * fractional weights probabilities can differ from the written tree in the last bits.
+ */
+public final class BinaryModelFormat {
+
+    //first bytes of every model, "J49M"
+    static final int MAGIC = 0x4A34394D;
+
+    //version written by write(); read() accepts versions up to this one
+    public static final int VERSION = 1;
+
+    //node flags
+    static final int LEAF = 1;
+    static final int EMPTY = 2;
+
+    //split types, in the bits above the flags
+    static final int NO_SPLIT = 0;
+    static final int C45_SPLIT = 1;
+    static final int BIN_C45_SPLIT = 2;
+    static final int SPLIT_SHIFT = 2;
+
+    private BinaryModelFormat() {
+    }
+
+    /**
+     * Writes the given options and tree to the stream, which is flushed but not closed.
+     *
+     * @throws IOException if the stream cannot be written or the tree holds split models other than those of C4.5
+     */
+    public static void write(OutputStream stream, String[] options, ClassifierTree root) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        out.writeInt(MAGIC);
+        writeVarint(out, VERSION);
+
+        writeVarint(out, options.length);
+        for (String option : options) {
+            writeString(out, option);
+        }
+        writeVarint(out, root.m_distributionFactory.distributionType);
+
+        Instances header = new Instances(root.getTrainingData(), 0);
+        writeString(out, header.toString());
+        writeVarint(out, header.classIndex());
+
+        Writer writer = new Writer(out, header.numClasses());
+        writer.writeNode(root, header);
+        out.flush();
+    }
+
+    /**
+     * Reads a tree written by write(), passing the written options to the given handler (if any) first. The stream is
+     * read through a buffer, so it may be read beyond the end of the model.
+     *
+     * @throws Exception if the stream does not hold a model of a known version, or the options are not accepted
+     */
+    public static ClassifierTree read(InputStream stream, OptionHandler optionHandler) throws Exception {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a binary J49 model");
+        }
+        int version = (int) readVarint(in);
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported binary model version " + version + ", expected at most " + VERSION);
+        }
+
+        String[] options = new String[(int) readVarint(in)];
+        for (int i = 0; i < options.length; i++) {
+            options[i] = readString(in);
+        }
+        if (optionHandler != null) {
+            optionHandler.setOptions(options);
+        }
+        DistributionFactory factory = new DistributionFactory((int) readVarint(in));
+
+        Instances header = new Instances(new StringReader(readString(in)));
+        header.setClassIndex((int) readVarint(in));
+
+        Reader reader = new Reader(in, header, factory);
+        return reader.readNode();
+    }
+
+    /**
+     * Writes the nodes of a tree, reusing one buffer for the class counts of every bag.
+     */
+    private static final class Writer {
+
+        private final DataOutputStream m_out;
+
+        //classes with a non-zero count in the current bag, and their counts by class
+        private final int[] m_classes;
+        private final double[] m_counts;
+        private int m_numPresent;
+
+        Writer(DataOutputStream out, int numClasses) {
+            m_out = out;
+            m_classes = new int[numClasses];
+            m_counts = new double[numClasses];
+        }
+
+        void writeNode(ClassifierTree node, Instances header) throws IOException {
+            ClassifierSplitModel model = node.getLocalModel();
+            int type;
+            if (model instanceof NoSplit) {
+                type = NO_SPLIT;
+            } else if (model instanceof C45Split) {
+                type = C45_SPLIT;
+            } else if (model instanceof BinC45Split) {
+                type = BIN_C45_SPLIT;
+            } else {
+                throw new IOException("Cannot write split model " + model.getClass().getName());
+            }
+            m_out.writeByte((node.m_isLeaf ? LEAF : 0) | (node.m_isEmpty ? EMPTY : 0) | type << SPLIT_SHIFT);
+
+            if (type == C45_SPLIT) {
+                C45Split split = (C45Split) model;
+                writeVarint(m_out, split.attIndex());
+                if (header.attribute(split.attIndex()).isNumeric()) {
+                    m_out.writeDouble(split.splitPoint());
+                }
+            } else if (type == BIN_C45_SPLIT) {
+                BinC45Split split = (BinC45Split) model;
+                writeVarint(m_out, split.attIndex());
+                m_out.writeDouble(split.splitPoint());
+            }
+            writeDistribution(model.distribution());
+
+            if (!node.m_isLeaf) {
+                writeVarint(m_out, node.m_sons.length);
+                for (ClassifierTree son : node.m_sons) {
+                    writeNode(son, header);
+                }
+            }
+        }
+
+        private void writeDistribution(Distribution distribution) throws IOException {
+            writeVarint(m_out, distribution.numBags());
+            for (int b = 0; b < distribution.numBags(); b++) {
+                m_numPresent = 0;
+                distribution.forEachNonZero(b, new Distribution.ClassCountConsumer() {
+                    @Override
+                    public void accept(int classIndex, double count) {
+                        m_classes[m_numPresent++] = classIndex;
+                        m_counts[classIndex] = count;
+                    }
+                });
+                Arrays.sort(m_classes, 0, m_numPresent);
+
+                writeVarint(m_out, m_numPresent);
+                int previous = 0;
+                for (int k = 0; k < m_numPresent; k++) {
+                    int c = m_classes[k];
+                    writeVarint(m_out, c - previous);
+                    writeCount(m_out, m_counts[c]);
+                    previous = c;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the nodes of a tree, adding only the classes present in a bag to its distribution.
+     */
+    private static final class Reader {
+
+        private final DataInputStream m_in;
+        private final Instances m_header;
+        private final DistributionFactory m_factory;
+
+        Reader(DataInputStream in, Instances header, DistributionFactory factory) {
+            m_in = in;
+            m_header = header;
+            m_factory = factory;
+        }
+
+        ClassifierTree readNode() throws IOException {
+            int flags = m_in.readUnsignedByte();
+            int type = flags >>> SPLIT_SHIFT;
+
+            ClassifierTree node = new ClassifierTree(null, m_factory);
+            node.m_isLeaf = (flags & LEAF) != 0;
+            node.m_isEmpty = (flags & EMPTY) != 0;
+            node.m_train = m_header;
+
+            ClassifierSplitModel model;
+            switch (type) {
+            case NO_SPLIT:
+                model = new NoSplit(readDistribution(), m_factory);
+                break;
+            case C45_SPLIT: {
+                int attIndex = (int) readVarint(m_in);
+                C45Split split = new C45Split(attIndex, 0, 0, false, m_factory);
+                if (m_header.attribute(attIndex).isNumeric()) {
+                    split.m_splitPoint = m_in.readDouble();
+                    split.m_complexityIndex = 2;
+                    split.m_index = 0;
+                } else {
+                    split.m_splitPoint = Double.MAX_VALUE;
+                    split.m_complexityIndex = m_header.attribute(attIndex).numValues();
+                    split.m_index = split.m_complexityIndex;
+                }
+                model = split;
+                model.m_distribution = readDistribution();
+                model.m_numSubsets = model.m_distribution.numBags();
+                break;
+            }
+            case BIN_C45_SPLIT: {
+                BinC45Split split = new BinC45Split((int) readVarint(m_in), 0, 0, false, m_factory);
+                split.m_splitPoint = m_in.readDouble();
+                model = split;
+                model.m_distribution = readDistribution();
+                model.m_numSubsets = model.m_distribution.numBags();
+                break;
+            }
+            default:
+                throw new IOException("Unknown split type " + type);
+            }
+            node.m_localModel = model;
+
+            if (!node.m_isLeaf) {
+                node.m_sons = new ClassifierTree[(int) readVarint(m_in)];
+                for (int i = 0; i < node.m_sons.length; i++) {
+                    node.m_sons[i] = readNode();
+                }
+            }
+            return node;
+        }
+
+        private Distribution readDistribution() throws IOException {
+            int numBags = (int) readVarint(m_in);
+            Distribution distribution = m_factory.getDistribution(numBags, m_header.numClasses());
+            for (int b = 0; b < numBags; b++) {
+                int numPresent = (int) readVarint(m_in);
+                int c = 0;
+                for (int k = 0; k < numPresent; k++) {
+                    c += (int) readVarint(m_in);
+                    distribution.add(b, c, readCount(m_in));
+                }
+            }
+            return distribution;
+        }
+    }
+
+    //counts below this are written as integers when they are whole numbers
+    private static final double MAX_INTEGRAL_COUNT = 1L << 52;
+
+    /**
+     * Writes a count, as an integer shifted left by one if it is a whole number, otherwise as a one followed by the
+     * double.
+     */
+    static void writeCount(DataOutputStream out, double count) throws IOException {
+        if (count >= 0 && count < MAX_INTEGRAL_COUNT && count == Math.rint(count)) {
+            writeVarint(out, (long) count << 1);
+        } else {
+            writeVarint(out, 1);
+            out.writeDouble(count);
+        }
+    }
+
+    static double readCount(DataInputStream in) throws IOException {
+        long value = readVarint(in);
+        return (value & 1) == 0 ? value >>> 1 : in.readDouble();
+    }
+
+    /**
+     * Writes a non-negative integer in 7-bit groups, lowest first, with the high bit set on all but the last byte.
+     */
+    static void writeVarint(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed variable-length integer");
+    }
+
+    //strings as their length in UTF-8 bytes followed by the bytes, unlike writeUTF() not limited to 64k
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[(int) readVarint(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -87,12 +87,9 @@ public class C45ModelSelection extends ModelSelection {
   @Override
   public ClassifierSplitModel selectModel(Instances data) {
 
-    double minResult;
     C45Split[] currentModel;
     C45Split bestModel = null;
     NoSplit noSplitModel = null;
-    double averageInfoGain = 0;
-    int validModels = 0;
     boolean multiVal = true;
     Distribution checkDistribution;
     Attribute attribute;
@@ -101,10 +98,19 @@ public class C45ModelSelection extends ModelSelection {
 
     try {
 
+      // Build all distributions of the node with a layout picked once for
+      // its data.
+      DistributionFactory factory = m_distributionFactory.forNode(data);
+
       // Check if all Instances belong to one class or if not
       // enough Instances to split.
-      checkDistribution = m_distributionFactory.getDistribution(data);
-      noSplitModel = new NoSplit(checkDistribution, m_distributionFactory);
+      if (data instanceof PartitionedInstances) {
+        checkDistribution = ((PartitionedInstances) data)
+          .classDistribution(factory);
+      } else {
+        checkDistribution = factory.getDistribution(data);
+      }
+      noSplitModel = new NoSplit(checkDistribution, factory);
       if (Utils.sm(checkDistribution.total(), 2 * m_minNoObj)
         || Utils.eq(checkDistribution.total(),
           checkDistribution.perClass(checkDistribution.maxClass()))) {
@@ -137,59 +143,31 @@ public class C45ModelSelection extends ModelSelection {
 
           // Get models for current attribute.
           currentModel[i] = new C45Split(i, m_minNoObj, sumOfWeights,
-            m_useMDLcorrection, m_distributionFactory);
-          currentModel[i].buildClassifier(data);
-
-          // Check if useful split for current attribute
-          // exists and check for enumerated attributes with
-          // a lot of values.
-          if (currentModel[i].checkModel()) {
-            if (m_allData != null) {
-              if ((data.attribute(i).isNumeric())
-                || (multiVal || Utils.sm(data.attribute(i).numValues(),
-                  (0.3 * m_allData.numInstances())))) {
-                averageInfoGain = averageInfoGain + currentModel[i].infoGain();
-                validModels++;
-              }
-            } else {
-              averageInfoGain = averageInfoGain + currentModel[i].infoGain();
-              validModels++;
-            }
-          }
+            m_useMDLcorrection, factory);
         } else {
           currentModel[i] = null;
         }
       }
 
-      // Check if any useful split was found.
-      if (validModels == 0) {
-        return noSplitModel;
-      }
-      averageInfoGain = averageInfoGain / validModels;
+      // Build them, in parallel if a pool has been set. The results are
+      // combined below in attribute order, so ties are broken as before.
+      buildModels(currentModel, data);
 
-      // Find "best" attribute to split on.
-      minResult = 0;
-      for (i = 0; i < data.numAttributes(); i++) {
-        if ((i != (data).classIndex()) && (currentModel[i].checkModel())) {
-          // Use 1E-3 here to get a closer approximation to the original
-          // implementation.
-          if ((currentModel[i].infoGain() >= (averageInfoGain - 1E-3))
-            && Utils.gr(currentModel[i].gainRatio(), minResult)) {
-            bestModel = currentModel[i];
-            minResult = currentModel[i].gainRatio();
-          }
-        }
-      }
-
-      // Check if useful split was found.
-      if (Utils.eq(minResult, 0)) {
+      bestModel = bestModel(currentModel, data, multiVal,
+        m_allData != null ? m_allData.numInstances() : -1);
+      if (bestModel == null) {
         return noSplitModel;
       }
 
       // Add all Instances with unknown values for the corresponding
       // attribute to the distribution for the model, so that
       // the complete distribution is stored with the model.
-      bestModel.distribution().addInstWithUnknown(data, bestModel.attIndex());
+      if (PartitionedInstances.columnsOf(data) != null) {
+        ((PartitionedInstances) data).addInstWithUnknown(
+          bestModel.distribution(), bestModel.attIndex());
+      } else {
+        bestModel.distribution().addInstWithUnknown(data, bestModel.attIndex());
+      }
 
       // Set the split point analogue to C45 if attribute numeric.
       if ((m_allData != null) && (!m_doNotMakeSplitPointActualValue)) {
@@ -202,6 +180,214 @@ public class C45ModelSelection extends ModelSelection {
     return null;
   }
 
+  /**
+   * Selects C4.5-type split for a node from the class statistics of its
+   * data instead of from the instances. Numeric attributes are only split
+   * between their bins, at the given split points, which are not relocated.
+   *
+   * @param header the header of the training data
+   * @param statistics the class statistics of the data of the node
+   * @param splitPoints the split points between the bins of the numeric
+   *          attributes
+   * @param numAllInstances number of instances of the full training data
+   * @exception Exception if a model can't be built
+   */
+  @Override
+  ClassifierSplitModel selectModel(Instances header, NodeStatistics statistics,
+    double[][] splitPoints, double numAllInstances) throws Exception {
+
+    // Check if all Instances belong to one class or if not
+    // enough Instances to split.
+    DistributionFactory factory = m_distributionFactory.forNode(
+      statistics.m_classCounts);
+    Distribution checkDistribution = statistics.classDistribution(
+      factory, header);
+    NoSplit noSplitModel = new NoSplit(checkDistribution, factory);
+    if (Utils.sm(checkDistribution.total(), 2 * m_minNoObj)
+      || Utils.eq(checkDistribution.total(),
+        checkDistribution.perClass(checkDistribution.maxClass()))) {
+      return noSplitModel;
+    }
+
+    // Check if all attributes are nominal and have a
+    // lot of values.
+    boolean multiVal = true;
+    for (int i = 0; i < header.numAttributes(); i++) {
+      if ((i != header.classIndex()) && ((header.attribute(i).isNumeric())
+        || (Utils.sm(header.attribute(i).numValues(), 0.3 * numAllInstances)))) {
+        multiVal = false;
+        break;
+      }
+    }
+
+    C45Split[] currentModel = new C45Split[header.numAttributes()];
+    for (int i = 0; i < header.numAttributes(); i++) {
+      if (statistics.m_histograms[i] != null) {
+        currentModel[i] = new C45Split(i, m_minNoObj, checkDistribution.total(),
+          m_useMDLcorrection, factory);
+        currentModel[i].buildClassifier(header, statistics.m_histograms[i],
+          splitPoints[i]);
+      }
+    }
+    C45Split bestModel = bestModel(currentModel, header, multiVal,
+      numAllInstances);
+    if (bestModel == null) {
+      return noSplitModel;
+    }
+
+    // Spread the rows with unknown values over the distribution.
+    NodeStatistics.addWithUnknown(bestModel.distribution(),
+      statistics.m_missing[bestModel.attIndex()]);
+    return bestModel;
+  }
+
+  /**
+   * Returns the split with the highest gain ratio among those with at least
+   * average information gain, or null if there is no useful split. Models
+   * may be null for attributes that cannot be split on.
+   *
+   * @param numAllInstances number of instances of the full training data, or
+   *          -1 if unknown
+   */
+  private C45Split bestModel(C45Split[] currentModel, Instances header,
+    boolean multiVal, double numAllInstances) {
+
+    double minResult;
+    C45Split bestModel = null;
+    double averageInfoGain = 0;
+    int validModels = 0;
+    int i;
+
+    for (i = 0; i < header.numAttributes(); i++) {
+      if (i != header.classIndex()) {
+
+        // Check if useful split for current attribute
+        // exists and check for enumerated attributes with
+        // a lot of values.
+        if ((currentModel[i] != null) && currentModel[i].checkModel()) {
+          if (numAllInstances >= 0) {
+            if ((header.attribute(i).isNumeric())
+              || (multiVal || Utils.sm(header.attribute(i).numValues(),
+                (0.3 * numAllInstances)))) {
+              averageInfoGain = averageInfoGain + currentModel[i].infoGain();
+              validModels++;
+            }
+          } else {
+            averageInfoGain = averageInfoGain + currentModel[i].infoGain();
+            validModels++;
+          }
+        }
+      }
+    }
+
+    // Check if any useful split was found.
+    if (validModels == 0) {
+      return null;
+    }
+    averageInfoGain = averageInfoGain / validModels;
+
+    // Find "best" attribute to split on.
+    minResult = 0;
+    for (i = 0; i < header.numAttributes(); i++) {
+      if ((i != header.classIndex()) && (currentModel[i] != null)
+        && currentModel[i].checkModel()) {
+        // Use 1E-3 here to get a closer approximation to the original
+        // implementation.
+        if ((currentModel[i].infoGain() >= (averageInfoGain - 1E-3))
+          && Utils.gr(currentModel[i].gainRatio(), minResult)) {
+          bestModel = currentModel[i];
+          minResult = currentModel[i].gainRatio();
+        }
+      }
+    }
+
+    // Check if useful split was found.
+    if (Utils.eq(minResult, 0)) {
+      return null;
+    }
+
+    // Record by how much the split is ahead of the other candidates, for
+    // rebuilding on similar data: in gain ratio over those with enough
+    // information gain, and in information gain over the threshold and
+    // those with a higher gain ratio that fall short of it.
+    double threshold = averageInfoGain - 1E-3;
+    bestModel.m_gainRatioMargin = minResult;
+    bestModel.m_infoGainMargin = bestModel.infoGain() - threshold;
+    for (i = 0; i < header.numAttributes(); i++) {
+      if ((currentModel[i] != null) && (currentModel[i] != bestModel)
+        && currentModel[i].checkModel()
+        && (currentModel[i].infoGain() >= threshold)) {
+        bestModel.m_gainRatioMargin = Math.min(bestModel.m_gainRatioMargin,
+          minResult - currentModel[i].gainRatio());
+      }
+    }
+    for (i = 0; i < header.numAttributes(); i++) {
+      if ((currentModel[i] != null) && currentModel[i].checkModel()
+        && (currentModel[i].infoGain() < threshold)
+        && (currentModel[i].gainRatio()
+          > minResult - bestModel.m_gainRatioMargin)) {
+        bestModel.m_infoGainMargin = Math.min(bestModel.m_infoGainMargin,
+          threshold - currentModel[i].infoGain());
+      }
+    }
+    return bestModel;
+  }
+
+  /**
+   * Re-scores the attribute of the given split on the given data, see
+   * ModelSelection.reselectModel().
+   */
+  @Override
+  ClassifierSplitModel reselectModel(Instances data,
+    ClassifierSplitModel previous) throws Exception {
+
+    if (!(previous instanceof C45Split)
+      || !(previous.m_gainRatioMargin > 0)
+      || !(previous.m_infoGainMargin > 0)) {
+      return null;
+    }
+    C45Split previousSplit = (C45Split) previous;
+    DistributionFactory factory = m_distributionFactory.forNode(data);
+
+    // Check if all Instances belong to one class or if not
+    // enough Instances to split.
+    Distribution checkDistribution;
+    if (data instanceof PartitionedInstances) {
+      checkDistribution = ((PartitionedInstances) data)
+        .classDistribution(factory);
+    } else {
+      checkDistribution = factory.getDistribution(data);
+    }
+    if (Utils.sm(checkDistribution.total(), 2 * m_minNoObj)
+      || Utils.eq(checkDistribution.total(),
+        checkDistribution.perClass(checkDistribution.maxClass()))) {
+      m_numReselected++;
+      return new NoSplit(checkDistribution, factory);
+    }
+
+    C45Split model = new C45Split(previousSplit.attIndex(), m_minNoObj,
+      data.sumOfWeights(), m_useMDLcorrection, factory);
+    model.buildClassifier(data);
+    if (!keepsLead(model, model.infoGain(), model.gainRatio(), previousSplit,
+      previousSplit.infoGain(), previousSplit.gainRatio())) {
+      return null;
+    }
+
+    // Complete the distribution and set the split point as selectModel()
+    // does.
+    if (PartitionedInstances.columnsOf(data) != null) {
+      ((PartitionedInstances) data).addInstWithUnknown(model.distribution(),
+        model.attIndex());
+    } else {
+      model.distribution().addInstWithUnknown(data, model.attIndex());
+    }
+    if ((m_allData != null) && (!m_doNotMakeSplitPointActualValue)) {
+      model.setSplitPoint(m_allData);
+    }
+    m_numReselected++;
+    return model;
+  }
+
   /**
    * Selects C4.5-type split for the given dataset.
    */
@@ -21,6 +21,11 @@
 
 package weka.classifiers.trees.j49;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
+
 import weka.core.Instances;
 import weka.core.RevisionUtils;
 import weka.core.Utils;
@@ -29,6 +34,13 @@ import weka.core.Utils;
  * Class for handling a tree structure that can
  * be pruned using C4.5 procedures.
  *
+ * Large subtrees are pruned as separate tasks if the model selection has a
+ * pool. The estimated errors of every pruned subtree are kept, so deciding
+ * on a node does not add up its whole subtree again, and the distributions
+ * computed when estimating the errors of the largest branch are taken over
+ * if that branch is raised, instead of splitting the data down the branch
+ * once more.
+ *
  * @author Eibe Frank (eibe@cs.waikato.ac.nz)
  * @version $Revision$
  */
@@ -54,6 +66,21 @@ public class C45PruneableClassifierTree
   /** Cleanup after the tree has been built. */
   protected boolean m_cleanup = true;
 
+  /** Error statistics for the confidence factor, handed down to the sons
+   * when pruning. */
+  private transient Stats m_stats;
+
+  /** Estimated errors of the subtree, valid if m_hasEstimatedErrors is set. */
+  private transient double m_estimatedErrors;
+  private transient boolean m_hasEstimatedErrors;
+
+  /** Data, distribution and estimated errors of this node in the branch
+   * whose errors have been estimated last, null if none. They become those
+   * of the node if the branch is raised. */
+  private transient Instances m_branchTrain;
+  private transient Distribution m_branchDistribution;
+  private transient double m_branchErrors;
+
   /**
    * Constructor for pruneable tree structure. Stores reference
    * to associated training data at each node.
@@ -90,7 +117,13 @@ public class C45PruneableClassifierTree
   public void buildClassifier(Instances data) throws Exception {
 
     // remove instances with missing class
-    data = new Instances(data);
+    if (data instanceof PartitionedInstances) {
+      data = new PartitionedInstances(data);
+    } else if (data instanceof PresortedInstances) {
+      data = new PresortedInstances(data);
+    } else {
+      data = new Instances(data);
+    }
     data.deleteWithMissingClass();
     
    buildTree(data, m_subtreeRaising || !m_cleanup);
@@ -105,6 +138,164 @@ public class C45PruneableClassifierTree
    }
   }
 
+  /**
+   * Builds the tree on the given data like buildClassifier(Instances), but
+   * starts from a tree built before with the same settings, for instance on
+   * last night's data. Going down from the root, the split of every node of
+   * the previous tree is re-scored on the new data of the node alone, and
+   * only if its score moved too much relative to its lead over the other
+   * candidates when it was selected, a split is selected among all of them
+   * (see ModelSelection.reselectModel()). If the attribute and split point
+   * are the same as before, the node is kept and its sons are checked in
+   * turn; otherwise the subtree is grown anew. A leaf of the previous tree
+   * only stays a leaf if no split is selected on its new data either. The
+   * tree is then collapsed and pruned as a whole.
+   *
+   * On data that drifted little, most kept nodes thus skip the selection.
+   * The tree is the one buildClassifier(Instances) grows unless the scores
+   * of other candidates moved a lot more than that of a kept split.
+   *
+   * @param data the data for building the tree
+   * @param previous the tree built before
+   * @throws Exception if something goes wrong
+   */
+  public void buildClassifier(Instances data, ClassifierTree previous)
+       throws Exception {
+
+    // remove instances with missing class
+    if (data instanceof PartitionedInstances) {
+      data = new PartitionedInstances(data);
+    } else if (data instanceof PresortedInstances) {
+      data = new PresortedInstances(data);
+    } else {
+      data = new Instances(data);
+    }
+    data.deleteWithMissingClass();
+
+    rebuildTree(previous, data, m_subtreeRaising || !m_cleanup);
+    if (m_collapseTheTree) {
+      collapse();
+    }
+    if (m_pruneTheTree) {
+      prune();
+    }
+    if (m_cleanup) {
+      cleanup(new Instances(data, 0));
+    }
+  }
+
+  /**
+   * Builds the tree structure from the given node of a previous tree.
+   *
+   * @param previous the node of the previous tree in the place of this one
+   * @param data the data for which the tree structure is to be generated
+   * @param keepData is training data to be kept?
+   * @throws Exception if something goes wrong
+   */
+  private void rebuildTree(ClassifierTree previous, Instances data,
+    boolean keepData) throws Exception {
+
+    if (previous.m_isLeaf) {
+      // Selects a split on the new data like any other node, so the leaf is
+      // only kept if none is found.
+      buildTree(data, keepData);
+      return;
+    }
+
+    if (keepData) {
+      m_train = data;
+    }
+    m_test = null;
+    m_isLeaf = false;
+    m_isEmpty = false;
+    m_sons = null;
+    // Re-score only the split of the previous node if it was far enough
+    // ahead of the other candidates; otherwise select among all of them.
+    m_localModel = m_toSelectModel.reselectModel(data, previous.m_localModel);
+    if (m_localModel == null) {
+      m_localModel = m_toSelectModel.selectModel(data);
+    }
+    PartitionedInstances.selected(data, m_localModel);
+    boolean sameSplit = sameSplit(m_localModel, previous.m_localModel);
+    if (m_localModel.numSubsets() > 1) {
+      Instances[] localInstances = m_localModel.split(data);
+      data = null;
+      m_sons = new ClassifierTree[m_localModel.numSubsets()];
+      for (int i = 0; i < m_sons.length; i++) {
+        if (sameSplit) {
+          C45PruneableClassifierTree son = newNode();
+          son.rebuildTree(previous.m_sons[i], localInstances[i], keepData);
+          m_sons[i] = son;
+        } else {
+          m_sons[i] = getNewTree(localInstances[i]);
+        }
+        localInstances[i] = null;
+      }
+    } else {
+      m_isLeaf = true;
+      if (Utils.eq(data.sumOfWeights(), 0)) {
+        m_isEmpty = true;
+      }
+    }
+  }
+
+  /**
+   * Returns true if the given split models split on the same attribute at
+   * the same split point.
+   */
+  private static boolean sameSplit(ClassifierSplitModel model,
+    ClassifierSplitModel previous) {
+
+    if ((model instanceof C45Split) && (previous instanceof C45Split)) {
+      C45Split split = (C45Split) model;
+      C45Split previousSplit = (C45Split) previous;
+      return (split.attIndex() == previousSplit.attIndex())
+        && (split.numSubsets() == previousSplit.numSubsets())
+        && (Double.compare(split.splitPoint(), previousSplit.splitPoint()) == 0);
+    }
+    if ((model instanceof BinC45Split) && (previous instanceof BinC45Split)) {
+      BinC45Split split = (BinC45Split) model;
+      BinC45Split previousSplit = (BinC45Split) previous;
+      return (split.attIndex() == previousSplit.attIndex())
+        && (Double.compare(split.splitPoint(), previousSplit.splitPoint()) == 0);
+    }
+    return false;
+  }
+
+  /**
+   * Builds the tree with the given builder, which grows it level by level
+   * from class statistics, then collapses and prunes it like
+   * buildClassifier(Instances). Subtree raising needs the training data of
+   * every node and is not done.
+   *
+   * @param builder the builder growing the tree
+   * @throws Exception if something goes wrong
+   */
+  public void buildClassifier(LevelTreeBuilder builder) throws Exception {
+
+    m_subtreeRaising = false;
+    builder.grow(this);
+    if (m_collapseTheTree) {
+      collapse();
+    }
+    if (m_pruneTheTree) {
+      prune();
+    }
+  }
+
+  /**
+   * Returns a new node with the settings of this one and nothing grown yet,
+   * for builders that grow the tree level by level.
+   *
+   * @throws Exception if something goes wrong
+   */
+  C45PruneableClassifierTree newNode() throws Exception {
+
+    return new C45PruneableClassifierTree(m_toSelectModel, m_pruneTheTree,
+      m_CF, m_subtreeRaising, m_cleanup, m_collapseTheTree,
+      m_distributionFactory);
+  }
+
   /**
    * Collapses a tree to a node if training error doesn't increase.
    */
@@ -122,6 +313,7 @@ public class C45PruneableClassifierTree
 	// Free adjacent trees
 	m_sons = null;
 	m_isLeaf = true;
+	m_hasEstimatedErrors = false;
 			
 	// Get NoSplit Model for tree.
 	m_localModel = new NoSplit(localModel().distribution(), m_distributionFactory);
@@ -148,8 +340,7 @@ public class C45PruneableClassifierTree
     if (!m_isLeaf){
 
       // Prune all subtrees.
-      for (i=0;i<m_sons.length;i++)
-	son(i).prune();
+      pruneSons();
 
       // Compute error for largest branch
       indexOfLargestBranch = localModel().distribution().maxBag();
@@ -177,6 +368,7 @@ public class C45PruneableClassifierTree
 		
 	// Get NoSplit Model for node.
 	m_localModel = new NoSplit(localModel().distribution(), m_distributionFactory);
+	setEstimatedErrors(errorsLeaf);
 	return;
       }
 
@@ -187,12 +379,113 @@ public class C45PruneableClassifierTree
 	m_sons = largestBranch.m_sons;
 	m_localModel = largestBranch.localModel();
 	m_isLeaf = largestBranch.m_isLeaf;
-	newDistribution(m_train);
+	takeBranchDistributions(largestBranch);
 	prune();
+	return;
+      }
+      if (m_subtreeRaising) {
+	son(indexOfLargestBranch).releaseBranch();
+      }
+      setEstimatedErrors(errorsTree);
+    }
+  }
+
+  /**
+   * Prunes the sons. Sons with enough training data are pruned as separate
+   * tasks if the model selection has a pool; they share no nodes or data.
+   *
+   * @throws Exception if something goes wrong
+   */
+  private void pruneSons() throws Exception {
+
+    List<ForkJoinTask<Void>> tasks = new ArrayList<ForkJoinTask<Void>>();
+    for (int i = 0; i < m_sons.length; i++) {
+      final C45PruneableClassifierTree son = son(i);
+      son.m_stats = stats();
+      if (!son.m_isLeaf
+        && m_toSelectModel.runAsTask(son.localModel().distribution().total())) {
+        tasks.add(ForkJoinTask.adapt(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            son.prune();
+            return null;
+          }
+        }));
+      } else {
+        son.prune();
+      }
+    }
+    if (!tasks.isEmpty()) {
+      m_toSelectModel.invokeTasks(tasks);
+    }
+  }
+
+  /**
+   * Makes the data and distributions the given branch got when its errors
+   * were estimated on the data of this node those of this node and its
+   * subtree, which now is the branch's. This is what newDistribution()
+   * would compute for the data of this node.
+   *
+   * @param branch the raised branch
+   * @throws Exception if something goes wrong
+   */
+  private void takeBranchDistributions(C45PruneableClassifierTree branch)
+       throws Exception {
+
+    m_hasEstimatedErrors = false;
+    if (m_isLeaf) {
+      m_train = branch.m_branchTrain;
+      localModel().m_distribution = branch.m_branchDistribution;
+      if (!Utils.eq(m_train.sumOfWeights(), 0)) {
+	m_isEmpty = false;
+      }
+      setEstimatedErrors(branch.m_branchErrors);
+    } else {
+      m_train = branch.m_branchTrain;
+      localModel().m_distribution = branch.m_branchDistribution;
+      for (int i = 0; i < m_sons.length; i++) {
+	son(i).takeBranchDistributions(son(i));
+      }
+    }
+    branch.m_branchTrain = null;
+    branch.m_branchDistribution = null;
+  }
+
+  /**
+   * Releases the data and distributions kept by getEstimatedErrorsForBranch()
+   * in this subtree.
+   */
+  private void releaseBranch() {
+
+    m_branchTrain = null;
+    m_branchDistribution = null;
+    if (!m_isLeaf) {
+      for (int i = 0; i < m_sons.length; i++) {
+	son(i).releaseBranch();
       }
     }
   }
 
+  /**
+   * Returns the error statistics for the confidence factor.
+   */
+  private Stats stats() {
+
+    if (m_stats == null) {
+      m_stats = new Stats(m_CF);
+    }
+    return m_stats;
+  }
+
+  /**
+   * Keeps the estimated errors of the subtree until its distributions change.
+   */
+  private void setEstimatedErrors(double errors) {
+
+    m_estimatedErrors = errors;
+    m_hasEstimatedErrors = true;
+  }
+
   /**
    * Returns a newly created tree.
    *
@@ -211,7 +504,8 @@ public class C45PruneableClassifierTree
   }
 
   /**
-   * Computes estimated errors for tree.
+   * Computes estimated errors for tree. The errors of subtrees that have
+   * been pruned are not computed again.
    * 
    * @return the estimated errors
    */
@@ -220,6 +514,8 @@ public class C45PruneableClassifierTree
     double errors = 0;
     int i;
 
+    if (m_hasEstimatedErrors)
+      return m_estimatedErrors;
     if (m_isLeaf)
       return getEstimatedErrorsForDistribution(localModel().distribution());
     else{
@@ -230,7 +526,12 @@ public class C45PruneableClassifierTree
   }
   
   /**
-   * Computes estimated errors for one branch.
+   * Computes estimated errors for one branch. The data is routed down the
+   * branch by the class counts per subset of each node on its data, which
+   * spread the instances missing the split value, without copying the
+   * instances that go to one subset only. The data, distribution and
+   * estimated errors of every node of the branch are kept until the branch
+   * is raised or released.
    *
    * @param data the data to work with
    * @return the estimated errors
@@ -243,18 +544,23 @@ public class C45PruneableClassifierTree
     double errors = 0;
     int i;
 
-    if (m_isLeaf)
-      return getEstimatedErrorsForDistribution(m_distributionFactory.getDistribution(data));
-    else{
+    m_branchTrain = data;
+    if (m_isLeaf) {
+      m_branchDistribution =
+	m_distributionFactory.getDistribution(data, localModel());
+      errors = getEstimatedErrorsForDistribution(m_branchDistribution);
+    } else{
       Distribution savedDist = localModel().m_distribution;
       localModel().resetDistribution(data);
-      localInstances = (Instances[])localModel().split(data);
+      localInstances = localModel().splitSharing(data);
+      m_branchDistribution = localModel().m_distribution;
       localModel().m_distribution = savedDist;
       for (i=0;i<m_sons.length;i++)
 	errors = errors+
 	  son(i).getEstimatedErrorsForBranch(localInstances[i]);
-      return errors;
     }
+    m_branchErrors = errors;
+    return errors;
   }
 
   /**
@@ -270,8 +576,8 @@ public class C45PruneableClassifierTree
       return 0;
     else
       return theDistribution.numIncorrect()+
-	Stats.addErrs(theDistribution.total(),
-		      theDistribution.numIncorrect(),m_CF);
+	stats().addErrs(theDistribution.total(),
+			theDistribution.numIncorrect());
   }
 
   /**
@@ -314,6 +620,7 @@ public class C45PruneableClassifierTree
 
     Instances [] localInstances;
 
+    m_hasEstimatedErrors = false;
     localModel().resetDistribution(data);
     m_train = data;
     if (!m_isLeaf){
@@ -66,11 +66,13 @@ public class C45Split extends ClassifierSplitModel {
   /** Number of split points. */
   protected int m_index;
 
-  /** Static reference to splitting criterion. */
-  protected static InfoGainSplitCrit infoGainCrit = new InfoGainSplitCrit();
+  /** Static reference to splitting criterion. Criteria keep no state, so
+   * the instance can be shared by splits built in parallel. */
+  protected static final InfoGainSplitCrit infoGainCrit = new InfoGainSplitCrit();
 
-  /** Static reference to splitting criterion. */
-  protected static GainRatioSplitCrit gainRatioCrit = new GainRatioSplitCrit();
+  /** Static reference to splitting criterion. Criteria keep no state, so
+   * the instance can be shared by splits built in parallel. */
+  protected static final GainRatioSplitCrit gainRatioCrit = new GainRatioSplitCrit();
 
   /**
    * Initializes the split model.
@@ -110,15 +112,82 @@ public class C45Split extends ClassifierSplitModel {
 
     // Different treatment for enumerated and numeric
     // attributes.
+    ColumnarData columns = PartitionedInstances.columnsOf(trainInstances);
     if (trainInstances.attribute(m_attIndex).isNominal()) {
       m_complexityIndex = trainInstances.attribute(m_attIndex).numValues();
       m_index = m_complexityIndex;
-      handleEnumeratedAttribute(trainInstances);
+      // Search on the class histogram of the values if it may be handed down
+      // and the set has at least as many rows as it has cells.
+      PartitionedInstances partitioned = columns != null
+        ? (PartitionedInstances) trainInstances : null;
+      handleEnumeratedAttribute(trainInstances, partitioned != null
+        && partitioned.subtractsSiblings()
+        && partitioned.searchesHistogram(m_attIndex)
+        ? partitioned.histogram(m_attIndex) : null);
     } else {
       m_complexityIndex = 2;
       m_index = 0;
-      trainInstances.sort(trainInstances.attribute(m_attIndex));
-      handleNumericAttribute(trainInstances);
+      if (columns != null && columns.m_bin[m_attIndex] != null) {
+        PartitionedInstances partitioned =
+          (PartitionedInstances) trainInstances;
+        if (partitioned.searchesHistogram(m_attIndex)) {
+          // Scan the class histograms of the bins.
+          handleBinnedAttribute(trainInstances,
+            partitioned.histogram(m_attIndex),
+            columns.m_binSplitPoints[m_attIndex]);
+        } else {
+          // Fewer rows than histogram cells: collect the non-empty
+          // cells from the rows instead.
+          int[] classIndices = new int[trainInstances.numInstances()];
+          double[] weights = new double[classIndices.length];
+          int[] binEnd = new int[columns.numBins(m_attIndex)];
+          double[] binRows = new double[binEnd.length];
+          int numEntries = partitioned.binCells(m_attIndex, classIndices,
+            weights, binEnd, binRows);
+          handleBinnedCells(trainInstances, classIndices, weights, numEntries,
+            binEnd, binRows, columns.m_binSplitPoints[m_attIndex]);
+        }
+      } else if (columns != null) {
+        // Scan the columns in the order handed down from the root.
+        handleNumericAttribute(trainInstances);
+      } else if (trainInstances instanceof PresortedInstances) {
+        // Scan the order handed down from the root instead of sorting.
+        handleNumericAttribute(((PresortedInstances) trainInstances)
+          .sortedView(m_attIndex));
+      } else {
+        trainInstances.sort(trainInstances.attribute(m_attIndex));
+        handleNumericAttribute(trainInstances);
+      }
+    }
+  }
+
+  /**
+   * Creates a C4.5-type split from the class histogram of the attribute over
+   * the data of a node instead of from the instances. The histogram is laid
+   * out as described in PartitionedInstances.histogram(), over the values of a
+   * nominal attribute or the bins of a numeric one, bin b holding the values
+   * up to splitPoints[b].
+   *
+   * @param header the header of the training data
+   * @param histogram the class histogram of the attribute
+   * @param splitPoints the split points between the bins, null if nominal
+   * @exception Exception if something goes wrong
+   */
+  void buildClassifier(Instances header, double[] histogram,
+    double[] splitPoints) throws Exception {
+
+    m_numSubsets = 0;
+    m_splitPoint = Double.MAX_VALUE;
+    m_infoGain = 0;
+    m_gainRatio = 0;
+    if (header.attribute(m_attIndex).isNominal()) {
+      m_complexityIndex = header.attribute(m_attIndex).numValues();
+      m_index = m_complexityIndex;
+      handleEnumeratedAttribute(header, histogram);
+    } else {
+      m_complexityIndex = 2;
+      m_index = 0;
+      handleBinnedAttribute(header, histogram, splitPoints);
     }
   }
 
@@ -185,24 +254,34 @@ public class C45Split extends ClassifierSplitModel {
   }
 
   /**
-   * Creates split on enumerated attribute.
+   * Creates split on enumerated attribute, from the class histogram of its
+   * values if one is given.
    * 
    * @exception Exception if something goes wrong
    */
-  private void handleEnumeratedAttribute(Instances trainInstances)
-    throws Exception {
+  private void handleEnumeratedAttribute(Instances trainInstances,
+    double[] histogram) throws Exception {
 
     Instance instance;
 
-    m_distribution = m_distributionFactory.getDistribution(m_complexityIndex,
-      trainInstances.numClasses());
+    m_distribution = m_distributionFactory.getDistribution(m_complexityIndex, trainInstances);
 
     // Only Instances with known values are relevant.
-    Enumeration<Instance> enu = trainInstances.enumerateInstances();
-    while (enu.hasMoreElements()) {
-      instance = enu.nextElement();
-      if (!instance.isMissing(m_attIndex)) {
-        m_distribution.add((int) instance.value(m_attIndex), instance);
+    ColumnarData columns = PartitionedInstances.columnsOf(trainInstances);
+    if (histogram != null) {
+      // Add up the class histogram of the values, which may have been
+      // derived from those of the parent and siblings.
+      ColumnarData.addHistogram(m_distribution, histogram,
+        trainInstances.numClasses());
+    } else if (columns != null) {
+      ((PartitionedInstances) trainInstances).addValues(m_distribution, m_attIndex);
+    } else {
+      Enumeration<Instance> enu = trainInstances.enumerateInstances();
+      while (enu.hasMoreElements()) {
+        instance = enu.nextElement();
+        if (!instance.isMissing(m_attIndex)) {
+          m_distribution.add((int) instance.value(m_attIndex), instance);
+        }
       }
     }
 
@@ -232,23 +311,36 @@ public class C45Split extends ClassifierSplitModel {
     double defaultEnt;
     double minSplit;
     Instance instance;
+    IncrementalEntropy scan;
     int i;
+    int numInstances = trainInstances.numInstances();
+    int[] classIndices = new int[numInstances];
+    double[] weights = new double[numInstances];
+    double[] values = new double[numInstances];
 
     // Current attribute is a numeric attribute.
-    m_distribution = m_distributionFactory.getDistribution(2, trainInstances.numClasses());
-
-    // Only Instances with known values are relevant.
-    Enumeration<Instance> enu = trainInstances.enumerateInstances();
-    i = 0;
-    while (enu.hasMoreElements()) {
-      instance = enu.nextElement();
-      if (instance.isMissing(m_attIndex)) {
-        break;
+    m_distribution = m_distributionFactory.getDistribution(2, trainInstances);
+
+    // Only Instances with known values are relevant. Their classes, weights
+    // and values are extracted once, so that the scan below does not go
+    // through the Instance objects.
+    ColumnarData columns = PartitionedInstances.columnsOf(trainInstances);
+    if (columns != null) {
+      i = ((PartitionedInstances) trainInstances).sortedValues(m_attIndex,
+        classIndices, weights, values);
+    } else {
+      for (i = 0; i < numInstances; i++) {
+        instance = trainInstances.instance(i);
+        if (instance.isMissing(m_attIndex)) {
+          break;
+        }
+        classIndices[i] = (int) instance.classValue();
+        weights[i] = instance.weight();
+        values[i] = instance.value(m_attIndex);
       }
-      m_distribution.add(1, instance);
-      i++;
     }
     firstMiss = i;
+    m_distribution.addRange(1, classIndices, weights, 0, firstMiss);
 
     // Compute minimum number of Instances required in each
     // subset.
@@ -267,21 +359,21 @@ public class C45Split extends ClassifierSplitModel {
     // Compute values of criteria for all possible split
     // indices.
     defaultEnt = infoGainCrit.oldEnt(m_distribution);
+    scan = new IncrementalEntropy(m_distribution, infoGainCrit);
     while (next < firstMiss) {
 
-      if (trainInstances.instance(next - 1).value(m_attIndex) + 1e-5 < trainInstances
-        .instance(next).value(m_attIndex)) {
+      if (values[next - 1] + 1e-5 < values[next]) {
 
         // Move class values for all Instances up to next
-        // possible split point.
-        m_distribution.shiftRange(1, 0, trainInstances, last, next);
+        // possible split point, keeping the entropy sums up to date.
+        scan.shiftRange(1, 0, classIndices, weights, last, next);
 
         // Check if enough Instances in each subset and compute
         // values for criteria.
         if (Utils.grOrEq(m_distribution.perBag(0), minSplit)
           && Utils.grOrEq(m_distribution.perBag(1), minSplit)) {
           currentInfoGain = infoGainCrit.splitCritValue(m_distribution,
-            m_sumOfWeights, defaultEnt);
+            m_sumOfWeights, defaultEnt, scan.newEnt());
           if (Utils.gr(currentInfoGain, m_infoGain)) {
             m_infoGain = currentInfoGain;
             splitIndex = next - 1;
@@ -309,20 +401,157 @@ public class C45Split extends ClassifierSplitModel {
     // Set instance variables' values to values for
     // best split.
     m_numSubsets = 2;
-    m_splitPoint = (trainInstances.instance(splitIndex + 1).value(m_attIndex) + trainInstances
-      .instance(splitIndex).value(m_attIndex)) / 2;
+    m_splitPoint = (values[splitIndex + 1] + values[splitIndex]) / 2;
 
     // In case we have a numerical precision problem we need to choose the
     // smaller value
-    if (m_splitPoint == trainInstances.instance(splitIndex + 1).value(
-      m_attIndex)) {
-      m_splitPoint = trainInstances.instance(splitIndex).value(m_attIndex);
+    if (m_splitPoint == values[splitIndex + 1]) {
+      m_splitPoint = values[splitIndex];
+    }
+
+    // Restore distributioN for best split.
+    m_distribution = m_distributionFactory.getDistribution(2, trainInstances);
+    m_distribution.addRange(0, classIndices, weights, 0, splitIndex + 1);
+    m_distribution.addRange(1, classIndices, weights, splitIndex + 1, firstMiss);
+
+    // Compute modified gain ratio for best split.
+    m_gainRatio = gainRatioCrit.splitCritValue(m_distribution, m_sumOfWeights,
+      m_infoGain);
+  }
+
+  /**
+   * Creates split on numeric attribute that has been quantized into bins,
+   * considering only split points between bins. Works like
+   * handleNumericAttribute(), on the class histogram of every bin instead of
+   * the single instances.
+   * 
+   * @exception Exception if something goes wrong
+   */
+  private void handleBinnedAttribute(Instances trainInstances,
+    double[] histogram, double[] splitPoints) throws Exception {
+
+    int numClasses = trainInstances.numClasses();
+    int numBins = splitPoints.length + 1;
+    int width = numClasses + 1;
+
+    // The non-zero class counts of every bin, in runs ending at binEnd[b].
+    // Only the non-zero cells are copied, so nodes with few of many classes
+    // do not allocate a full table per attribute.
+    int numEntries = 0;
+    for (int b = 0; b < numBins; b++) {
+      for (int c = 0; c < numClasses; c++) {
+        if (histogram[b * width + c] != 0) {
+          numEntries++;
+        }
+      }
+    }
+    int[] classIndices = new int[numEntries];
+    double[] weights = new double[numEntries];
+    int[] binEnd = new int[numBins];
+    double[] binRows = new double[numBins];
+    numEntries = 0;
+    for (int b = 0; b < numBins; b++) {
+      for (int c = 0; c < numClasses; c++) {
+        if (histogram[b * width + c] != 0) {
+          classIndices[numEntries] = c;
+          weights[numEntries++] = histogram[b * width + c];
+        }
+      }
+      binEnd[b] = numEntries;
+      binRows[b] = histogram[b * width + numClasses];
+    }
+    handleBinnedCells(trainInstances, classIndices, weights, numEntries,
+      binEnd, binRows, splitPoints);
+  }
+
+  /**
+   * Creates split on numeric attribute from the non-zero class counts of
+   * its bins, given by their class indices and weights in runs ending at
+   * binEnd[b] for bin b, which holds binRows[b] instances.
+   *
+   * @exception Exception if something goes wrong
+   */
+  private void handleBinnedCells(Instances trainInstances, int[] classIndices,
+    double[] weights, int numEntries, int[] binEnd, double[] binRows,
+    double[] splitPoints) throws Exception {
+
+    int numBins = binEnd.length;
+    double numKnown = 0;
+    for (int b = 0; b < numBins; b++) {
+      numKnown += binRows[b];
     }
 
+    m_distribution = m_distributionFactory.getDistribution(2, trainInstances);
+    m_distribution.addRange(1, classIndices, weights, 0, numEntries);
+
+    // Compute minimum number of Instances required in each
+    // subset.
+    double minSplit = 0.1 * (m_distribution.total())
+      / (trainInstances.numClasses());
+    if (Utils.smOrEq(minSplit, m_minNoObj)) {
+      minSplit = m_minNoObj;
+    } else if (Utils.gr(minSplit, 25)) {
+      minSplit = 25;
+    }
+
+    // Enough Instances with known values?
+    if (Utils.sm(numKnown, 2 * minSplit)) {
+      return;
+    }
+
+    // Compute values of criteria for the split points after all
+    // non-empty bins but the last one.
+    double defaultEnt = infoGainCrit.oldEnt(m_distribution);
+    IncrementalEntropy scan = new IncrementalEntropy(m_distribution, infoGainCrit);
+    double rowsLeft = numKnown;
+    int last = 0;
+    int splitBin = -1;
+    for (int b = 0; b < numBins; b++) {
+      if (binRows[b] == 0) {
+        continue;
+      }
+      rowsLeft -= binRows[b];
+      if (rowsLeft == 0) {
+        break;
+      }
+      scan.shiftRange(1, 0, classIndices, weights, last, binEnd[b]);
+      last = binEnd[b];
+
+      if (Utils.grOrEq(m_distribution.perBag(0), minSplit)
+        && Utils.grOrEq(m_distribution.perBag(1), minSplit)) {
+        double currentInfoGain = infoGainCrit.splitCritValue(m_distribution,
+          m_sumOfWeights, defaultEnt, scan.newEnt());
+        if (Utils.gr(currentInfoGain, m_infoGain)) {
+          m_infoGain = currentInfoGain;
+          splitBin = b;
+        }
+        m_index++;
+      }
+    }
+
+    // Was there any useful split?
+    if (m_index == 0) {
+      return;
+    }
+
+    // Compute modified information gain for best split.
+    if (m_useMDLcorrection) {
+      m_infoGain = m_infoGain - (Utils.log2(m_index) / m_sumOfWeights);
+    }
+    if (Utils.smOrEq(m_infoGain, 0)) {
+      return;
+    }
+
+    // Set instance variables' values to values for
+    // best split.
+    m_numSubsets = 2;
+    m_splitPoint = splitPoints[splitBin];
+
     // Restore distributioN for best split.
-    m_distribution = m_distributionFactory.getDistribution(2, trainInstances.numClasses());
-    m_distribution.addRange(0, trainInstances, 0, splitIndex + 1);
-    m_distribution.addRange(1, trainInstances, splitIndex + 1, firstMiss);
+    m_distribution = m_distributionFactory.getDistribution(2, trainInstances);
+    m_distribution.addRange(0, classIndices, weights, 0, binEnd[splitBin]);
+    m_distribution.addRange(1, classIndices, weights, binEnd[splitBin],
+      numEntries);
 
     // Compute modified gain ratio for best split.
     m_gainRatio = gainRatioCrit.splitCritValue(m_distribution, m_sumOfWeights,
@@ -507,6 +736,26 @@ public class C45Split extends ClassifierSplitModel {
     }
   }
 
+  /**
+   * Returns index of subset the row with the given id of the given columns
+   * is assigned to, as whichSubset() does for its instance.
+   */
+  @Override
+  final int whichSubset(ColumnarData columns, int id) {
+
+    if (columns.isMissing(m_attIndex, id)) {
+      return -1;
+    } else {
+      if (columns.m_nominal[m_attIndex] != null) {
+        return columns.m_nominal[m_attIndex][id];
+      } else if (columns.m_numeric[m_attIndex][id] <= m_splitPoint) {
+        return 0;
+      } else {
+        return 1;
+      }
+    }
+  }
+
   /**
    * Returns the revision string.
    * 
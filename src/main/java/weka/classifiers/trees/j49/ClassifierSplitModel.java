@@ -22,6 +22,7 @@
 package weka.classifiers.trees.j49;
 
 import java.io.Serializable;
+import java.util.Arrays;
 
 import weka.core.Instance;
 import weka.core.Instances;
@@ -41,6 +42,9 @@ public abstract class ClassifierSplitModel
   /** for serialization */
   private static final long serialVersionUID = 4280730118393457457L;
 
+  /** Returned by whichSubset(ColumnarData, int) if a model cannot use it. */
+  static final int NOT_COLUMNAR = -2;
+
   /** Distribution of class values. */  
   protected Distribution m_distribution;
 
@@ -50,6 +54,12 @@ public abstract class ClassifierSplitModel
   /** DistributionFactory */
   protected DistributionFactory m_distributionFactory;
 
+  /** By how much the gain ratio and the information gain of this split
+   * were ahead of those of the other candidates when it was selected, 0 if
+   * unknown (see ModelSelection.reselectModel()). */
+  double m_gainRatioMargin;
+  double m_infoGainMargin;
+
   /**
    * Allows to clone a model (shallow copy).
    */
@@ -147,6 +157,35 @@ public abstract class ClassifierSplitModel
     }
   }
 
+  /**
+   * Gets class probabilities for instance, multiplied by the given weight.
+   * Fills all entries of probs.
+   *
+   * @exception Exception if something goes wrong
+   */
+  public void classProbs(Instance instance, int theSubset, double weight,
+                         double [] probs) throws Exception {
+
+    for (int j = 0; j < probs.length; j++) {
+      probs[j] = weight * classProb(j, instance, theSubset);
+    }
+  }
+
+  /**
+   * Gets Laplace-corrected class probabilities for instance, multiplied by
+   * the given weight. Fills all entries of probs.
+   *
+   * @exception Exception if something goes wrong
+   */
+  public void classProbsLaplace(Instance instance, int theSubset,
+                                double weight, double [] probs)
+       throws Exception {
+
+    for (int j = 0; j < probs.length; j++) {
+      probs[j] = weight * classProbLaplace(j, instance, theSubset);
+    }
+  }
+
   /**
    * Returns coding costs of model. Returns 0 if not overwritten.
    */
@@ -254,13 +293,23 @@ public abstract class ClassifierSplitModel
   public Instances [] split(Instances data)
        throws Exception { 
 
+    // Partition shared rows in place if possible
+    if (data instanceof PartitionedInstances) {
+      Instances [] subsets = ((PartitionedInstances) data).partition(this);
+      if (subsets != null) {
+        return subsets;
+      }
+    }
+
     // Find size and constitution of subsets
     int[] subsetSize = new int[m_numSubsets];
+    int numUnknown = 0;
     for (Instance instance : data) {
       int subset = whichSubset(instance);
       if (subset > -1) {
         subsetSize[subset]++;
       } else {
+        numUnknown++;
         double[] weights = weights(instance);
         for (int j = 0; j < m_numSubsets; j++) {
           if (Utils.gr(weights[j], 0)) {
@@ -270,30 +319,122 @@ public abstract class ClassifierSplitModel
       }
     }
     
-    // Create subsets
+    // Create subsets, keeping track of where each instance goes if
+    // the attribute orders have to be handed down: the subset of each
+    // instance and its position there, or for instances going to several
+    // subsets, their number among those and their position in every subset
+    PresortedInstances presorted = null;
+    int[] subsetOf = null;
+    int[] positionInSubset = null;
+    int[] unknownPositions = null;
+    if ((data instanceof PresortedInstances)
+      && ((PresortedInstances) data).hasSortedIndices()) {
+      presorted = (PresortedInstances) data;
+      subsetOf = new int[data.numInstances()];
+      positionInSubset = new int[data.numInstances()];
+      unknownPositions = new int[numUnknown * m_numSubsets];
+      Arrays.fill(unknownPositions, -1);
+    }
     Instances [] instances = new Instances [m_numSubsets];
     for (int j = 0; j < m_numSubsets; j++) {
-      instances[j] = new Instances(data, subsetSize[j]);
+      if (presorted != null) {
+        instances[j] = new PresortedInstances(data, subsetSize[j]);
+      } else {
+        instances[j] = new Instances(data, subsetSize[j]);
+      }
     }
-    for (Instance instance : data) {
+    int unknown = 0;
+    for (int i = 0; i < data.numInstances(); i++) {
+      Instance instance = data.instance(i);
       int subset = whichSubset(instance);
       if (subset > -1) {
+        if (presorted != null) {
+          subsetOf[i] = subset;
+          positionInSubset[i] = instances[subset].numInstances();
+        }
 	instances[subset].add(instance);
       } else {
         double[] weights = weights(instance);
+        if (presorted != null) {
+          subsetOf[i] = -1;
+          positionInSubset[i] = unknown;
+        }
         for (int j = 0; j < m_numSubsets; j++) {
 	  if (Utils.gr(weights[j], 0)) {
+            if (presorted != null) {
+              unknownPositions[unknown * m_numSubsets + j] =
+                instances[j].numInstances();
+            }
 	    instances[j].add(instance);
 	    instances[j].lastInstance().
 	      setWeight(weights[j] * instance.weight());
 	  }
 	}
+        unknown++;
       }
     }
+    if (presorted != null) {
+      presorted.partitionSortedIndices(instances, subsetOf, positionInSubset,
+        unknownPositions);
+    }
     
     return instances;
   }
 
+  /**
+   * Splits the given set of instances into subsets like split(), without
+   * copying the instances that go to one subset only: the subsets hold the
+   * same instance objects, and reweighted copies of the others, and carry
+   * no attribute orders. The subsets must only be read.
+   *
+   * @exception Exception if something goes wrong
+   */
+  Instances [] splitSharing(Instances data) throws Exception {
+
+    int[] subsetSize = new int[m_numSubsets];
+    int[] subsetOf = new int[data.numInstances()];
+    for (int i = 0; i < data.numInstances(); i++) {
+      subsetOf[i] = whichSubset(data.instance(i));
+      if (subsetOf[i] > -1) {
+        subsetSize[subsetOf[i]]++;
+      } else {
+        double[] weights = weights(data.instance(i));
+        for (int j = 0; j < m_numSubsets; j++) {
+          if (Utils.gr(weights[j], 0)) {
+            subsetSize[j]++;
+          }
+        }
+      }
+    }
+
+    Instance[][] subsetInstances = new Instance[m_numSubsets][];
+    for (int j = 0; j < m_numSubsets; j++) {
+      subsetInstances[j] = new Instance[subsetSize[j]];
+    }
+    int[] count = new int[m_numSubsets];
+    for (int i = 0; i < data.numInstances(); i++) {
+      Instance instance = data.instance(i);
+      if (subsetOf[i] > -1) {
+        subsetInstances[subsetOf[i]][count[subsetOf[i]]++] = instance;
+      } else {
+        double[] weights = weights(instance);
+        for (int j = 0; j < m_numSubsets; j++) {
+          if (Utils.gr(weights[j], 0)) {
+            Instance copy = (Instance) instance.copy();
+            copy.setWeight(weights[j] * instance.weight());
+            subsetInstances[j][count[j]++] = copy;
+          }
+        }
+      }
+    }
+
+    Instances [] instances = new Instances [m_numSubsets];
+    for (int j = 0; j < m_numSubsets; j++) {
+      instances[j] = PresortedInstances.sharing(data, subsetInstances[j]);
+    }
+    return instances;
+  }
+
   /**
    * Returns weights if instance is assigned to more than one subset.
    * Returns null if instance is only assigned to one subset.
@@ -307,6 +448,17 @@ public abstract class ClassifierSplitModel
    * @exception Exception if something goes wrong
    */
   public abstract int whichSubset(Instance instance) throws Exception;
+
+  /**
+   * Returns index of subset the row with the given id of the given columns
+   * is assigned to, -1 if it is assigned to more than one subset, or
+   * NOT_COLUMNAR if this model cannot route rows by their columns, so that
+   * whichSubset() has to be asked with the instance.
+   */
+  int whichSubset(ColumnarData columns, int id) {
+
+    return NOT_COLUMNAR;
+  }
 }
 
 
@@ -22,8 +22,14 @@
 package weka.classifiers.trees.j49;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 import weka.core.Capabilities;
 import weka.core.CapabilitiesHandler;
@@ -73,7 +79,7 @@ public class ClassifierTree implements Drawable, Serializable, RevisionHandler,
    * For getting a unique ID when outputting the tree (hashcode isn't guaranteed
    * unique)
    */
-  private static long PRINTED_NODES = 0;
+  private static final AtomicLong PRINTED_NODES = new AtomicLong();
 
   /** DistributionFactory */
   protected DistributionFactory m_distributionFactory;
@@ -94,6 +100,10 @@ public class ClassifierTree implements Drawable, Serializable, RevisionHandler,
     return m_train;
   }
 
+  public DistributionFactory getDistributionFactory() {
+    return m_distributionFactory;
+  }
+
 
   /**
    * Gets the next unique node ID.
@@ -102,7 +112,7 @@ public class ClassifierTree implements Drawable, Serializable, RevisionHandler,
    */
   protected static long nextID() {
 
-    return PRINTED_NODES++;
+    return PRINTED_NODES.getAndIncrement();
   }
 
   /**
@@ -111,7 +121,7 @@ public class ClassifierTree implements Drawable, Serializable, RevisionHandler,
    */
   protected static void resetID() {
 
-    PRINTED_NODES = 0;
+    PRINTED_NODES.set(0);
   }
   
   /**
@@ -144,7 +154,13 @@ public class ClassifierTree implements Drawable, Serializable, RevisionHandler,
   public void buildClassifier(Instances data) throws Exception {
 
     // remove instances with missing class
-    data = new Instances(data);
+    if (data instanceof PartitionedInstances) {
+      data = new PartitionedInstances(data);
+    } else if (data instanceof PresortedInstances) {
+      data = new PresortedInstances(data);
+    } else {
+      data = new Instances(data);
+    }
     data.deleteWithMissingClass();
 
     buildTree(data, false);
@@ -169,14 +185,12 @@ public class ClassifierTree implements Drawable, Serializable, RevisionHandler,
     m_isEmpty = false;
     m_sons = null;
     m_localModel = m_toSelectModel.selectModel(data);
+    PartitionedInstances.selected(data, m_localModel);
     if (m_localModel.numSubsets() > 1) {
       localInstances = m_localModel.split(data);
       data = null;
       m_sons = new ClassifierTree[m_localModel.numSubsets()];
-      for (int i = 0; i < m_sons.length; i++) {
-        m_sons[i] = getNewTree(localInstances[i]);
-        localInstances[i] = null;
-      }
+      buildSons(localInstances, null);
     } else {
       m_isLeaf = true;
       if (Utils.eq(data.sumOfWeights(), 0)) {
@@ -198,7 +212,6 @@ public class ClassifierTree implements Drawable, Serializable, RevisionHandler,
     throws Exception {
 
     Instances[] localTrain, localTest;
-    int i;
 
     if (keepData) {
       m_train = train;
@@ -207,6 +220,7 @@ public class ClassifierTree implements Drawable, Serializable, RevisionHandler,
     m_isEmpty = false;
     m_sons = null;
     m_localModel = m_toSelectModel.selectModel(train, test);
+    PartitionedInstances.selected(train, m_localModel);
     m_test = m_distributionFactory.getDistribution(test, m_localModel);
     if (m_localModel.numSubsets() > 1) {
       localTrain = m_localModel.split(train);
@@ -214,11 +228,7 @@ public class ClassifierTree implements Drawable, Serializable, RevisionHandler,
       train = null;
       test = null;
       m_sons = new ClassifierTree[m_localModel.numSubsets()];
-      for (i = 0; i < m_sons.length; i++) {
-        m_sons[i] = getNewTree(localTrain[i], localTest[i]);
-        localTrain[i] = null;
-        localTest[i] = null;
-      }
+      buildSons(localTrain, localTest);
     } else {
       m_isLeaf = true;
       if (Utils.eq(train.sumOfWeights(), 0)) {
@@ -229,6 +239,53 @@ public class ClassifierTree implements Drawable, Serializable, RevisionHandler,
     }
   }
 
+  /**
+   * Builds the sons for the given subsets. Subtrees for large enough subsets
+   * are built as separate tasks if the model selection has a pool, the
+   * others right away. The subsets are released once their son is built.
+   * 
+   * @param localTrain the training data for each son
+   * @param localTest the pruning data for each son, or null
+   * @throws Exception if something goes wrong
+   */
+  private void buildSons(final Instances[] localTrain,
+    final Instances[] localTest) throws Exception {
+
+    List<ForkJoinTask<Void>> tasks = new ArrayList<ForkJoinTask<Void>>();
+    for (int i = 0; i < m_sons.length; i++) {
+      if (m_toSelectModel.buildAsTask(localTrain[i])) {
+        final int index = i;
+        tasks.add(ForkJoinTask.adapt(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            buildSon(index, localTrain, localTest);
+            return null;
+          }
+        }));
+      } else {
+        buildSon(i, localTrain, localTest);
+      }
+    }
+    if (!tasks.isEmpty()) {
+      m_toSelectModel.invokeTasks(tasks);
+    }
+  }
+
+  /**
+   * Builds the son with the given index and releases its subsets.
+   */
+  private void buildSon(int index, Instances[] localTrain,
+    Instances[] localTest) throws Exception {
+
+    if (localTest == null) {
+      m_sons[index] = getNewTree(localTrain[index]);
+    } else {
+      m_sons[index] = getNewTree(localTrain[index], localTest[index]);
+      localTest[index] = null;
+    }
+    localTrain[index] = null;
+  }
+
   /**
    * Classifies an instance.
    * 
@@ -239,15 +296,15 @@ public class ClassifierTree implements Drawable, Serializable, RevisionHandler,
   public double classifyInstance(Instance instance) throws Exception {
 
     double maxProb = -1;
-    double currentProb;
+    double[] probs = new double[instance.numClasses()];
     int maxIndex = 0;
     int j;
 
-    for (j = 0; j < instance.numClasses(); j++) {
-      currentProb = getProbs(j, instance, 1);
-      if (Utils.gr(currentProb, maxProb)) {
+    getProbs(instance, 1, false, probs);
+    for (j = 0; j < probs.length; j++) {
+      if (Utils.gr(probs[j], maxProb)) {
         maxIndex = j;
-        maxProb = currentProb;
+        maxProb = probs[j];
       }
     }
 
@@ -283,13 +340,7 @@ public class ClassifierTree implements Drawable, Serializable, RevisionHandler,
 
     double[] doubles = new double[instance.numClasses()];
 
-    for (int i = 0; i < doubles.length; i++) {
-      if (!useLaplace) {
-        doubles[i] = getProbs(i, instance, 1);
-      } else {
-        doubles[i] = getProbsLaplace(i, instance, 1);
-      }
-    }
+    getProbs(instance, 1, useLaplace, doubles);
 
     return doubles;
   }
@@ -630,77 +681,61 @@ public class ClassifierTree implements Drawable, Serializable, RevisionHandler,
   }
 
   /**
-   * Help method for computing class probabilities of a given instance.
+   * Help method for computing class probabilities of a given instance. The
+   * tree is descended once and the weighted class probabilities of every leaf
+   * reached are accumulated in the given array, in the same order as a
+   * separate descent per class would add them.
    * 
-   * @param classIndex the class index
    * @param instance the instance to compute the probabilities for
    * @param weight the weight to use
-   * @return the laplace probs
+   * @param useLaplace whether to use laplace or not
+   * @param probs the array that receives the probabilities
    * @throws Exception if something goes wrong
    */
-  private double getProbsLaplace(int classIndex, Instance instance,
-    double weight) throws Exception {
-
-    double prob = 0;
+  private void getProbs(Instance instance, double weight, boolean useLaplace,
+    double[] probs) throws Exception {
 
     if (m_isLeaf) {
-      return weight * localModel().classProbLaplace(classIndex, instance, -1);
+      classProbs(instance, -1, weight, useLaplace, probs);
     } else {
       int treeIndex = localModel().whichSubset(instance);
       if (treeIndex == -1) {
         double[] weights = localModel().weights(instance);
+        double[] sonProbs = null;
+        Arrays.fill(probs, 0);
         for (int i = 0; i < m_sons.length; i++) {
           if (!son(i).m_isEmpty) {
-            prob += son(i).getProbsLaplace(classIndex, instance,
-              weights[i] * weight);
+            if (sonProbs == null) {
+              sonProbs = new double[probs.length];
+            }
+            son(i).getProbs(instance, weights[i] * weight, useLaplace,
+              sonProbs);
+            for (int j = 0; j < probs.length; j++) {
+              probs[j] += sonProbs[j];
+            }
           }
         }
-        return prob;
       } else {
         if (son(treeIndex).m_isEmpty) {
-          return weight
-            * localModel().classProbLaplace(classIndex, instance, treeIndex);
+          classProbs(instance, treeIndex, weight, useLaplace, probs);
         } else {
-          return son(treeIndex).getProbsLaplace(classIndex, instance, weight);
+          son(treeIndex).getProbs(instance, weight, useLaplace, probs);
         }
       }
     }
   }
 
   /**
-   * Help method for computing class probabilities of a given instance.
-   * 
-   * @param classIndex the class index
-   * @param instance the instance to compute the probabilities for
-   * @param weight the weight to use
-   * @return the probs
-   * @throws Exception if something goes wrong
+   * Help method for filling in the weighted class probabilities of the local
+   * model.
    */
-  private double getProbs(int classIndex, Instance instance, double weight)
-    throws Exception {
-
-    double prob = 0;
+  private void classProbs(Instance instance, int theSubset, double weight,
+    boolean useLaplace, double[] probs) throws Exception {
 
-    if (m_isLeaf) {
-      return weight * localModel().classProb(classIndex, instance, -1);
+    if (!useLaplace) {
+      localModel().classProbs(instance, theSubset, weight, probs);
     } else {
-      int treeIndex = localModel().whichSubset(instance);
-      if (treeIndex == -1) {
-        double[] weights = localModel().weights(instance);
-        for (int i = 0; i < m_sons.length; i++) {
-          if (!son(i).m_isEmpty) {
-            prob += son(i).getProbs(classIndex, instance, weights[i] * weight);
-          }
-        }
-        return prob;
-      } else {
-        if (son(treeIndex).m_isEmpty) {
-          return weight
-            * localModel().classProb(classIndex, instance, treeIndex);
-        } else {
-          return son(treeIndex).getProbs(classIndex, instance, weight);
-        }
-      }
+      localModel().classProbsLaplace(instance, theSubset, weight, probs);
     }
   }
 
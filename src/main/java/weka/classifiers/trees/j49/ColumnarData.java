@@ -0,0 +1,195 @@
+package weka.classifiers.trees.j49;
+
+import java.util.Arrays;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Training data stored by column in primitive arrays, indexed by row id: the values of every numeric attribute as a
+ * double[], the value indices of every nominal attribute as an int[], a bitset per attribute marking missing values,
+ * and the class index and weight of every row. Built once from the instances of the root, so splits can be searched
+ * without going through the Instance objects and their value() and isMissing() calls at every node.
+ *
+ * Other attribute types (string, date, relational) have no column; splits are never made on them.
+ *
+ * Numeric attributes can also be quantized into bins of about equal size, see bin(). Splits on them are then only
+ * searched between bins, on per-bin class histograms (see PartitionedInstances.histogram()), which costs
+ * O(bins x classes) per attribute and node instead of O(instances).
+ */
+final class ColumnarData {
+
+    //values of the numeric attributes by row id, null for other attributes
+    final double[][] m_numeric;
+
+    //value indices of the nominal attributes by row id (-1 if missing), null for other attributes
+    final int[][] m_nominal;
+
+    //number of values of the nominal attributes
+    final int[] m_numValues;
+
+    //bitsets of the rows missing each attribute, null for attributes without missing values
+    final long[][] m_missing;
+
+    //class index and weight by row id
+    final int[] m_class;
+    final double[] m_weight;
+
+    //bins of the binned numeric attributes by row id (-1 if missing), null for other attributes
+    final int[][] m_bin;
+
+    //split points between the bins of the binned numeric attributes; bin b holds the values <= m_binSplitPoints[b]
+    final double[][] m_binSplitPoints;
+
+    private ColumnarData(int numAttributes, int numRows) {
+        m_numeric = new double[numAttributes][];
+        m_nominal = new int[numAttributes][];
+        m_numValues = new int[numAttributes];
+        m_missing = new long[numAttributes][];
+        m_bin = new int[numAttributes][];
+        m_binSplitPoints = new double[numAttributes][];
+        m_class = new int[numRows];
+        m_weight = new double[numRows];
+    }
+
+    /**
+     * Converts the given rows, which must not miss their class, into columns.
+     */
+    ColumnarData(Instances header, Instance[] rows) {
+        this(header.numAttributes(), rows.length);
+        for (int a = 0; a < header.numAttributes(); a++) {
+            Attribute attribute = header.attribute(a);
+            if (a == header.classIndex() || !(attribute.isNumeric() || attribute.isNominal())) continue;
+
+            double[] numeric = attribute.isNumeric() ? new double[rows.length] : null;
+            int[] nominal = attribute.isNominal() ? new int[rows.length] : null;
+            long[] missing = null;
+            for (int id = 0; id < rows.length; id++) {
+                double value = rows[id].value(a);
+                if (Utils.isMissingValue(value)) {
+                    if (missing == null) missing = new long[(rows.length + 63) >>> 6];
+                    missing[id >>> 6] |= 1L << id;
+                    if (nominal != null) nominal[id] = -1;
+                } else if (numeric != null) {
+                    numeric[id] = value;
+                } else {
+                    nominal[id] = (int) value;
+                }
+            }
+            m_numeric[a] = numeric;
+            m_nominal[a] = nominal;
+            m_numValues[a] = attribute.isNominal() ? attribute.numValues() : 0;
+            m_missing[a] = missing;
+        }
+        for (int id = 0; id < rows.length; id++) {
+            m_class[id] = (int) rows[id].classValue();
+            m_weight[id] = rows[id].weight();
+        }
+    }
+
+    /**
+     * Returns whether the given row misses the given attribute.
+     */
+    boolean isMissing(int attIndex, int id) {
+        long[] missing = m_missing[attIndex];
+        return missing != null && (missing[id >>> 6] & 1L << id) != 0;
+    }
+
+    /**
+     * Returns the row ids in ascending order of the given numeric attribute, keeping the order of the ids for ties,
+     * with the rows missing the value at the end. This is the order PresortedInstances.sortedIndices() gives.
+     */
+    int[] sortedIds(int attIndex) {
+        int numRows = m_class.length;
+        int[] sorted = new int[numRows];
+        int numMissing = 0;
+        for (int id = 0; id < numRows; id++) {
+            if (isMissing(attIndex, id)) numMissing++;
+        }
+
+        double[] values = new double[numRows - numMissing];
+        int[] ids = new int[values.length];
+        int known = 0;
+        int missing = values.length;
+        for (int id = 0; id < numRows; id++) {
+            if (isMissing(attIndex, id)) {
+                sorted[missing++] = id;
+            } else {
+                values[known] = m_numeric[attIndex][id];
+                ids[known++] = id;
+            }
+        }
+        int[] order = Utils.stableSort(values);
+        for (int i = 0; i < order.length; i++) {
+            sorted[i] = ids[order[i]];
+        }
+        return sorted;
+    }
+
+    /**
+     * Quantizes the given numeric attribute into at most maxBins bins, given the row ids in the order of sortedIds().
+     * Bins only end where C4.5 would consider a cut point (between values more than 1e-5 apart), so every value is in
+     * one bin. If there are fewer cut points than bins, every cut point ends a bin and the candidate splits at the root
+     * are exactly those of an exact scan; otherwise a bin ends at the first cut point after it got its share of the
+     * rows. The split point between two bins is the midpoint of the values next to it, as for exact splits.
+     */
+    void bin(int attIndex, int[] sorted, int maxBins) {
+        double[] column = m_numeric[attIndex];
+        int known = 0;
+        while (known < sorted.length && !isMissing(attIndex, sorted[known])) {
+            known++;
+        }
+        int numCuts = 0;
+        for (int i = 1; i < known; i++) {
+            if (column[sorted[i - 1]] + 1e-5 < column[sorted[i]]) numCuts++;
+        }
+        boolean everyCut = numCuts < maxBins;
+
+        int[] bin = new int[sorted.length];
+        double[] splitPoints = new double[Math.min(numCuts, maxBins - 1)];
+        int numSplitPoints = 0;
+        for (int i = 0; i < known; i++) {
+            bin[sorted[i]] = numSplitPoints;
+            if (i + 1 < known && numSplitPoints < splitPoints.length) {
+                double value = column[sorted[i]];
+                double next = column[sorted[i + 1]];
+                if (value + 1e-5 < next
+                        && (everyCut || i + 1 >= (numSplitPoints + 1) * (double) known / maxBins)) {
+                    double splitPoint = (value + next) / 2;
+                    splitPoints[numSplitPoints++] = splitPoint == next ? value : splitPoint;
+                }
+            }
+        }
+        for (int i = known; i < sorted.length; i++) {
+            bin[sorted[i]] = -1;
+        }
+        m_bin[attIndex] = bin;
+        m_binSplitPoints[attIndex] = numSplitPoints == splitPoints.length ? splitPoints
+                : Arrays.copyOf(splitPoints, numSplitPoints);
+    }
+
+    /**
+     * Returns the number of bins of the given binned attribute, or the number of values of the given nominal attribute.
+     */
+    int numBins(int attIndex) {
+        return m_bin[attIndex] != null ? m_binSplitPoints[attIndex].length + 1 : m_numValues[attIndex];
+    }
+
+    /**
+     * Adds the class counts of a histogram as returned by PartitionedInstances.histogram() to the distribution, bin b
+     * to bag b.
+     */
+    static void addHistogram(Distribution distribution, double[] histogram, int numClasses) {
+        int width = numClasses + 1;
+        for (int b = 0; b < histogram.length / width; b++) {
+            for (int c = 0; c < numClasses; c++) {
+                double weight = histogram[b * width + c];
+                if (weight != 0) {
+                    distribution.add(b, c, weight);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package weka.classifiers.trees.j49;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Grows a C4.5 tree level by level (see LevelTreeBuilder) from training data in memory, converted once into columns
+ * (see ColumnarData) with every numeric attribute quantized into bins.
+ *
+ * The builder keeps the rows of the frontier as entries of a row id, a weight and the node the row reached, a row
+ * spread over the subsets of a split on a value it misses making one entry per subset. Each level moves every entry
+ * one step down from the node it reached before, then fills the statistics of all frontier nodes in one pass over
+ * the entries per attribute column. With a pool on the model selection, the columns are filled as separate tasks.
+ * Entries of nodes deferred to another pass over a level stay where they are and are skipped.
+ */
+public final class ColumnarTreeBuilder extends LevelTreeBuilder {
+
+    private final Instances m_data;
+    private final int m_maxBins;
+
+    //rows with a class by row id, and their columns
+    private Instance[] m_rows;
+    private ColumnarData m_columns;
+
+    //entries of the frontier: row id, weight and node reached
+    private int[] m_ids;
+    private double[] m_weights;
+    private ClassifierTree[] m_nodes;
+    private int m_numEntries;
+
+    //row id of the row being routed
+    private int m_routedId;
+
+    /**
+     * Creates a builder for the given data.
+     *
+     * @param data the training data, with the class set
+     * @param minNumObj minimum number of instances per leaf
+     * @param maxBins maximum number of bins of the numeric attributes, at least 2
+     */
+    public ColumnarTreeBuilder(Instances data, int minNumObj, int maxBins) {
+        super(minNumObj);
+        m_data = data;
+        m_maxBins = maxBins;
+    }
+
+    /**
+     * Converts the rows with a class into columns and bins the numeric attributes.
+     */
+    @Override
+    protected void prepare() {
+        m_header = new Instances(m_data, 0);
+        List<Instance> rows = new ArrayList<Instance>(m_data.numInstances());
+        for (Instance instance : m_data) {
+            if (!instance.classIsMissing()) rows.add(instance);
+        }
+        m_rows = rows.toArray(new Instance[0]);
+        m_numInstances = m_rows.length;
+        m_columns = new ColumnarData(m_header, m_rows);
+        m_splitPoints = new double[m_header.numAttributes()][];
+        for (int a = 0; a < m_header.numAttributes(); a++) {
+            if (m_columns.m_numeric[a] != null) {
+                m_columns.bin(a, m_columns.sortedIds(a), m_maxBins);
+                m_splitPoints[a] = m_columns.m_binSplitPoints[a];
+            }
+        }
+        m_nodes = null;
+    }
+
+    /**
+     * Moves the entries to the nodes of the current level and fills their statistics from the columns.
+     */
+    @Override
+    protected void readLevel(ClassifierTree root) throws Exception {
+        if (m_nodes == null) {
+            m_numEntries = m_rows.length;
+            m_ids = new int[m_numEntries];
+            m_weights = new double[m_numEntries];
+            m_nodes = new ClassifierTree[m_numEntries];
+            for (int id = 0; id < m_numEntries; id++) {
+                m_ids[id] = id;
+                m_weights[id] = m_columns.m_weight[id];
+                m_nodes[id] = root;
+            }
+        } else {
+            int[] ids = m_ids;
+            double[] weights = m_weights;
+            ClassifierTree[] nodes = m_nodes;
+            int numEntries = m_numEntries;
+            m_ids = new int[numEntries];
+            m_weights = new double[numEntries];
+            m_nodes = new ClassifierTree[numEntries];
+            m_numEntries = 0;
+            for (int e = 0; e < numEntries; e++) {
+                m_routedId = ids[e];
+                route(nodes[e], m_rows[ids[e]], weights[e]);
+            }
+        }
+
+        final NodeStatistics[] statistics = new NodeStatistics[m_numEntries];
+        final int numClasses = m_header.numClasses();
+        for (int e = 0; e < m_numEntries; e++) {
+            statistics[e] = m_level.get(m_nodes[e]);
+            if (statistics[e] == NodeStatistics.DEFERRED) continue;
+            statistics[e].m_classCounts[m_columns.m_class[m_ids[e]]] += m_weights[e];
+        }
+        ModelSelection selection = ((C45PruneableClassifierTree) root).m_toSelectModel;
+        if (!selection.runAsTask(m_numEntries)) {
+            for (int a = 0; a < m_header.numAttributes(); a++) {
+                fillColumn(a, statistics, numClasses);
+            }
+            return;
+        }
+        List<ForkJoinTask<Void>> tasks = new ArrayList<ForkJoinTask<Void>>();
+        for (int a = 0; a < m_header.numAttributes(); a++) {
+            final int attIndex = a;
+            tasks.add(ForkJoinTask.adapt(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    fillColumn(attIndex, statistics, numClasses);
+                    return null;
+                }
+            }));
+        }
+        selection.invokeTasks(tasks);
+    }
+
+    /**
+     * Adds the entries to the class histograms of the given attribute in the statistics of their nodes.
+     */
+    private void fillColumn(int attIndex, NodeStatistics[] statistics, int numClasses) {
+        int[] bin = m_columns.m_bin[attIndex] != null ? m_columns.m_bin[attIndex] : m_columns.m_nominal[attIndex];
+        if (bin == null) return;
+        int width = numClasses + 1;
+        for (int e = 0; e < m_numEntries; e++) {
+            if (statistics[e] == NodeStatistics.DEFERRED) continue;
+            int id = m_ids[e];
+            int b = bin[id];
+            int c = m_columns.m_class[id];
+            if (b < 0) {
+                statistics[e].m_missing[attIndex][c] += m_weights[e];
+            } else {
+                double[] histogram = statistics[e].m_histograms[attIndex];
+                histogram[b * width + c] += m_weights[e];
+                histogram[b * width + numClasses]++;
+            }
+        }
+    }
+
+    /**
+     * Records an entry for the row being routed instead of adding it to the statistics, which are filled by column.
+     */
+    @Override
+    protected void reach(ClassifierTree node, NodeStatistics statistics, Instance instance, double weight) {
+        if (m_numEntries == m_ids.length) {
+            int capacity = m_ids.length + (m_ids.length >> 1) + 1;
+            m_ids = Arrays.copyOf(m_ids, capacity);
+            m_weights = Arrays.copyOf(m_weights, capacity);
+            m_nodes = Arrays.copyOf(m_nodes, capacity);
+        }
+        m_ids[m_numEntries] = m_routedId;
+        m_weights[m_numEntries] = weight;
+        m_nodes[m_numEntries++] = node;
+    }
+}
@@ -0,0 +1,657 @@
+package weka.classifiers.trees.j49;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.function.ToIntFunction;
+
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * A trained ClassifierTree frozen into flat arrays for scoring. Every node is a position in parallel arrays holding
+ * its split type, attribute and split point, and the children of a node are a contiguous run of the child array
+ * (which for a multiway nominal split is its branch table, indexed by value). The class probabilities of the leaves
+ * are stored once, either densely or in compressed sparse rows, together with the class each leaf predicts.
+ *
+ * Descending the tree is a loop over these arrays without virtual calls or allocation. Instances whose path reaches
+ * a missing value are spread over several leaves by the object tree, so for those the lookups return -1 and the caller
+ * falls back to the ClassifierTree.
+ *
+ * Rows of attribute values can also be routed by bytecode generated for the tree (see generateBytecode()), in which
+ * every node is a branch of its own that the JIT compiles like hand-written code.
+ *
+ * The arrays can be written to a file (see write()) that MappedTree scores from in place.
+ */
+public class CompiledTree implements Serializable {
+
+    private static final long serialVersionUID = 3365817465020197563L;
+
+    //node types
+    static final byte LEAF = 0;
+    static final byte NUMERIC = 1; //child 0 if value <= split point, else child 1
+    static final byte NOMINAL = 2; //child indexed by the value
+    static final byte NOMINAL_EQUALS = 3; //child 0 if the value is the split point, else child 1
+
+    //leaves with more non-zero probabilities than this fraction of all cells are stored densely
+    static final double DENSE_FRACTION = 0.5;
+
+    //number of rows routed through the tree together by leavesFor()
+    static final int BLOCK_SIZE = 1024;
+
+    //maximum number of statements (nodes, leaves and cases) in one method of the generated source, which keeps
+    //methods well below the size the JIT refuses to compile
+    static final int METHOD_NODES = 128;
+
+    //maximum number of cases of a switch in the generated source, wider nominal splits are split into ranges
+    static final int SWITCH_CASES = 64;
+
+    private final int m_numClasses;
+
+    //whether the leaf probabilities are Laplace-corrected
+    private final boolean m_useLaplace;
+
+    //per node
+    private final byte[] m_type;
+    private final int[] m_attribute;
+    private final double[] m_splitPoint;
+
+    //per internal node the first of its children in m_children, per leaf its leaf index
+    private final int[] m_first;
+
+    //per internal node the number of its children
+    private final int[] m_numChildren;
+
+    //node indices of the children of all internal nodes
+    private final int[] m_children;
+
+    //weight of every child for instances with a missing value for the split attribute, 0 for empty children (which
+    //those instances skip)
+    private final double[] m_childWeight;
+
+    //leaf probabilities: leaf i covers [m_leafStart[i], m_leafStart[i + 1]) of m_leafProbs, with the classes in
+    //m_leafClasses, or m_numClasses dense entries if m_leafClasses is null
+    private final int[] m_leafStart;
+    private final int[] m_leafClasses;
+    private final double[] m_leafProbs;
+
+    //class predicted by every leaf
+    private final int[] m_leafPrediction;
+
+    //whether rows are routed by generated bytecode, which is generated again when the tree is deserialized
+    private boolean m_generateBytecode;
+
+    //the generated bytecode, null if not generated
+    private transient ToIntFunction<double[]> m_router;
+
+    private CompiledTree(int numClasses, boolean useLaplace, int numNodes, int numChildren, int numLeaves) {
+        m_numClasses = numClasses;
+        m_useLaplace = useLaplace;
+        m_type = new byte[numNodes];
+        m_attribute = new int[numNodes];
+        m_splitPoint = new double[numNodes];
+        m_first = new int[numNodes];
+        m_numChildren = new int[numNodes];
+        m_children = new int[numChildren];
+        m_childWeight = new double[numChildren];
+        m_leafStart = new int[numLeaves + 1];
+        m_leafClasses = null;
+        m_leafProbs = null;
+        m_leafPrediction = new int[numLeaves];
+    }
+
+    private CompiledTree(CompiledTree structure, int[] leafClasses, double[] leafProbs) {
+        m_numClasses = structure.m_numClasses;
+        m_useLaplace = structure.m_useLaplace;
+        m_type = structure.m_type;
+        m_attribute = structure.m_attribute;
+        m_splitPoint = structure.m_splitPoint;
+        m_first = structure.m_first;
+        m_numChildren = structure.m_numChildren;
+        m_children = structure.m_children;
+        m_childWeight = structure.m_childWeight;
+        m_leafStart = structure.m_leafStart;
+        m_leafClasses = leafClasses;
+        m_leafProbs = leafProbs;
+        m_leafPrediction = structure.m_leafPrediction;
+    }
+
+    /**
+     * Compiles the given tree, whose class probabilities are optionally Laplace-corrected.
+     *
+     * @throws Exception if the tree contains a split that cannot be compiled
+     */
+    public static CompiledTree compile(ClassifierTree root, boolean useLaplace) throws Exception {
+        Instances header = root.m_train;
+        int[] counts = new int[3];
+        count(root, counts);
+        CompiledTree structure = new CompiledTree(header.numClasses(), useLaplace, counts[0], counts[1], counts[2]);
+
+        //a leaf's probabilities are those of its model for an instance that goes nowhere else
+        Instance empty = new DenseInstance(header.numAttributes());
+        empty.setDataset(header);
+
+        double[][] probs = new double[counts[2]][];
+        structure.fill(root, 0, new int[3], header, empty, probs);
+
+        int nonZero = 0;
+        for (double[] leaf : probs) {
+            for (double p : leaf) {
+                if (p != 0) nonZero++;
+            }
+        }
+        int[] leafClasses = null;
+        double[] leafProbs;
+        if (nonZero > DENSE_FRACTION * probs.length * header.numClasses()) {
+            leafProbs = new double[probs.length * header.numClasses()];
+            for (int i = 0; i < probs.length; i++) {
+                System.arraycopy(probs[i], 0, leafProbs, i * header.numClasses(), header.numClasses());
+                structure.m_leafStart[i + 1] = (i + 1) * header.numClasses();
+            }
+        } else {
+            leafClasses = new int[nonZero];
+            leafProbs = new double[nonZero];
+            int k = 0;
+            for (int i = 0; i < probs.length; i++) {
+                for (int c = 0; c < probs[i].length; c++) {
+                    if (probs[i][c] != 0) {
+                        leafClasses[k] = c;
+                        leafProbs[k++] = probs[i][c];
+                    }
+                }
+                structure.m_leafStart[i + 1] = k;
+            }
+        }
+        return new CompiledTree(structure, leafClasses, leafProbs);
+    }
+
+    //counts nodes, child entries and leaves
+    private static void count(ClassifierTree tree, int[] counts) {
+        counts[0]++;
+        if (tree.m_isLeaf) {
+            counts[2]++;
+        } else {
+            counts[1] += tree.m_sons.length;
+            for (ClassifierTree son : tree.m_sons) {
+                count(son, counts);
+            }
+        }
+    }
+
+    /**
+     * Stores the given tree at the given node index and its subtrees after it. next holds the next free node, child
+     * entry and leaf. An empty son predicts the parent's probabilities for its subset, so it becomes a leaf holding
+     * those.
+     */
+    private void fill(ClassifierTree tree, int node, int[] next, Instances header, Instance empty, double[][] probs)
+            throws Exception {
+        next[0]++;
+        if (tree.m_isLeaf) {
+            setLeaf(node, tree.m_localModel, -1, next, empty, probs);
+            return;
+        }
+
+        ClassifierSplitModel model = tree.m_localModel;
+        if (model instanceof C45Split) {
+            C45Split split = (C45Split) model;
+            m_attribute[node] = split.attIndex();
+            m_splitPoint[node] = split.splitPoint();
+            m_type[node] = header.attribute(split.attIndex()).isNominal() ? NOMINAL : NUMERIC;
+        } else if (model instanceof BinC45Split) {
+            BinC45Split split = (BinC45Split) model;
+            m_attribute[node] = split.attIndex();
+            m_splitPoint[node] = split.splitPoint();
+            m_type[node] = header.attribute(split.attIndex()).isNominal() ? NOMINAL_EQUALS : NUMERIC;
+        } else {
+            throw new Exception("Cannot compile split model " + model.getClass().getName());
+        }
+
+        int first = next[1];
+        m_first[node] = first;
+        m_numChildren[node] = tree.m_sons.length;
+        next[1] += tree.m_sons.length;
+        double[] weights = model.weights(empty);
+        for (int i = 0; i < tree.m_sons.length; i++) {
+            int son = next[0];
+            m_children[first + i] = son;
+            m_childWeight[first + i] = tree.m_sons[i].m_isEmpty ? 0 : weights[i];
+            if (tree.m_sons[i].m_isEmpty) {
+                next[0]++;
+                setLeaf(son, model, i, next, empty, probs);
+            } else {
+                fill(tree.m_sons[i], son, next, header, empty, probs);
+            }
+        }
+    }
+
+    private void setLeaf(int node, ClassifierSplitModel model, int subset, int[] next, Instance empty,
+            double[][] probs) throws Exception {
+        int leaf = next[2]++;
+        m_type[node] = LEAF;
+        m_first[node] = leaf;
+
+        //predict as ClassifierTree.classifyInstance(), which uses the uncorrected probabilities
+        double[] leafProbs = new double[m_numClasses];
+        model.classProbs(empty, subset, 1, leafProbs);
+        double maxProb = -1;
+        for (int c = 0; c < leafProbs.length; c++) {
+            if (Utils.gr(leafProbs[c], maxProb)) {
+                m_leafPrediction[leaf] = c;
+                maxProb = leafProbs[c];
+            }
+        }
+        if (m_useLaplace) {
+            model.classProbsLaplace(empty, subset, 1, leafProbs);
+        }
+        probs[leaf] = leafProbs;
+    }
+
+    /**
+     * Returns whether the leaf probabilities are Laplace-corrected.
+     */
+    public boolean useLaplace() {
+        return m_useLaplace;
+    }
+
+    /**
+     * Returns the number of classes.
+     */
+    public int numClasses() {
+        return m_numClasses;
+    }
+
+    /**
+     * Returns the number of nodes.
+     */
+    public int numNodes() {
+        return m_type.length;
+    }
+
+    /**
+     * Returns the number of leaves.
+     */
+    public int numLeaves() {
+        return m_leafPrediction.length;
+    }
+
+    /**
+     * Returns the leaf the given instance falls into, or -1 if its path reaches a missing value or a nominal value
+     * unknown to the tree.
+     */
+    public int leafFor(Instance instance) {
+        int node = 0;
+        while (m_type[node] != LEAF) {
+            int child = child(node, instance.value(m_attribute[node]));
+            if (child < 0) return -1;
+            node = child;
+        }
+        return m_first[node];
+    }
+
+    /**
+     * Returns the leaf the given row of attribute values falls into, or -1 if its path reaches a missing value or a
+     * nominal value unknown to the tree.
+     */
+    public int leafFor(double[] values) {
+        if (m_router != null) return m_router.applyAsInt(values);
+        int node = 0;
+        while (m_type[node] != LEAF) {
+            int child = child(node, values[m_attribute[node]]);
+            if (child < 0) return -1;
+            node = child;
+        }
+        return m_first[node];
+    }
+
+    /**
+     * Stores the leaf of each instance in [from, to) at leaves[i - from], or -1 as leafFor(). The instances are routed
+     * in blocks, one level of the tree at a time, so each level is visited by the whole block while it is in cache.
+     */
+    public void leavesFor(Instances instances, int from, int to, int[] leaves) {
+        int[] active = new int[Math.min(BLOCK_SIZE, to - from)];
+        for (int start = from; start < to; start += BLOCK_SIZE) {
+            int numActive = startBlock(start, Math.min(to, start + BLOCK_SIZE), from, leaves, active);
+            while (numActive > 0) {
+                int stillActive = 0;
+                for (int k = 0; k < numActive; k++) {
+                    int i = active[k];
+                    int node = leaves[i - from];
+                    if (m_type[node] == LEAF) {
+                        leaves[i - from] = m_first[node];
+                    } else {
+                        int child = child(node, instances.instance(i).value(m_attribute[node]));
+                        leaves[i - from] = child;
+                        if (child >= 0) active[stillActive++] = i;
+                    }
+                }
+                numActive = stillActive;
+            }
+        }
+    }
+
+    /**
+     * Stores the leaf of each row of attribute values in [from, to) at leaves[i - from], or -1 as leafFor(). The rows
+     * are routed in blocks, one level of the tree at a time, so each level is visited by the whole block while it is
+     * in cache.
+     */
+    public void leavesFor(double[][] rows, int from, int to, int[] leaves) {
+        if (m_router != null) {
+            for (int i = from; i < to; i++) {
+                leaves[i - from] = m_router.applyAsInt(rows[i]);
+            }
+            return;
+        }
+        int[] active = new int[Math.min(BLOCK_SIZE, to - from)];
+        for (int start = from; start < to; start += BLOCK_SIZE) {
+            int numActive = startBlock(start, Math.min(to, start + BLOCK_SIZE), from, leaves, active);
+            while (numActive > 0) {
+                int stillActive = 0;
+                for (int k = 0; k < numActive; k++) {
+                    int i = active[k];
+                    int node = leaves[i - from];
+                    if (m_type[node] == LEAF) {
+                        leaves[i - from] = m_first[node];
+                    } else {
+                        int child = child(node, rows[i][m_attribute[node]]);
+                        leaves[i - from] = child;
+                        if (child >= 0) active[stillActive++] = i;
+                    }
+                }
+                numActive = stillActive;
+            }
+        }
+    }
+
+    //puts the rows of a block at the root, where leaves holds the current node of each row until it reaches a leaf
+    private static int startBlock(int start, int end, int from, int[] leaves, int[] active) {
+        for (int i = start; i < end; i++) {
+            leaves[i - from] = 0;
+            active[i - start] = i;
+        }
+        return end - start;
+    }
+
+    //the child of the given internal node the given value leads to, -1 if none
+    private int child(int node, double value) {
+        if (Utils.isMissingValue(value)) return -1;
+        int subset;
+        switch (m_type[node]) {
+        case NUMERIC:
+            subset = value <= m_splitPoint[node] ? 0 : 1;
+            break;
+        case NOMINAL:
+            subset = (int) value;
+            if (subset < 0 || subset >= m_numChildren[node]) return -1;
+            break;
+        default:
+            subset = (int) m_splitPoint[node] == (int) value ? 0 : 1;
+        }
+        return m_children[m_first[node] + subset];
+    }
+
+    /**
+     * Generates and loads bytecode that routes rows of attribute values to leaves, used from then on by leafFor() and
+     * leavesFor() on rows. It is compiled with the compiler of the running JDK, and compiled again when a serialized
+     * tree is loaded.
+     *
+     * @throws Exception if the bytecode cannot be generated, e.g. because there is no compiler
+     */
+    @SuppressWarnings("unchecked")
+    public void generateBytecode() throws Exception {
+        String className = "CompiledTreeRouter";
+        m_router = (ToIntFunction<double[]>) InMemoryCompiler.compile(className, toRowSource(className))
+                .getDeclaredConstructor().newInstance();
+        m_generateBytecode = true;
+    }
+
+    /**
+     * Returns whether rows are routed by generated bytecode.
+     */
+    public boolean hasBytecode() {
+        return m_router != null;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (m_generateBytecode) {
+            try {
+                generateBytecode();
+            } catch (Exception e) {
+                //without a compiler the arrays are walked, which gives the same leaves
+                m_router = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the source of a class with the given name (without package) implementing ToIntFunction<double[]>, which
+     * returns the leaf a row of attribute values falls into, or -1, like leafFor(double[]). Every node is an if or
+     * switch statement on the row. The statements a node adds to a method (one per child, be it a leaf, a call or an
+     * inlined subtree) are counted against METHOD_NODES per method; subtrees that do not fit get methods of their own.
+     * Nominal splits with more than SWITCH_CASES values switch over ranges of values in helper methods, so no method
+     * grows with the number of values.
+     */
+    public String toRowSource(String className) {
+        StringBuilder text = new StringBuilder();
+        text.append("public final class ").append(className)
+                .append(" implements java.util.function.ToIntFunction<double[]> {\n\n")
+                .append("  public int applyAsInt(double[] row) {\n")
+                .append("    return n0(row);\n")
+                .append("  }\n");
+        //methods to generate, {node} for the subtree of a node, {node, from, to} for values [from, to) of its split
+        Deque<int[]> methods = new ArrayDeque<>();
+        methods.add(new int[] {0});
+        while (!methods.isEmpty()) {
+            int[] method = methods.poll();
+            if (method.length == 1) {
+                text.append("\n  private static int n").append(method[0]).append("(double[] row) {\n");
+                appendNode(method[0], "    ", new int[] {METHOD_NODES}, methods, text);
+            } else {
+                text.append("\n  private static int ").append(rangeMethod(method[0], method[1], method[2]))
+                        .append("(double[] row, int value) {\n");
+                appendRange(method[0], method[1], method[2], methods, text);
+            }
+            text.append("  }\n");
+        }
+        return text.append("}\n").toString();
+    }
+
+    //number of statements the given node adds to a method, one for itself and one per child, which covers the
+    //statements of leaf children
+    private int statements(int node) {
+        if (m_type[node] == LEAF || (m_type[node] == NOMINAL && m_numChildren[node] > SWITCH_CASES)) {
+            return 1;
+        }
+        return 1 + m_numChildren[node];
+    }
+
+    //appends the statements for the given node, inlining subtrees while budget[0] lasts and queueing the others
+    private void appendNode(int node, String indent, int[] budget, Deque<int[]> methods, StringBuilder text) {
+        if (m_type[node] == LEAF) {
+            text.append(indent).append("return ").append(m_first[node]).append(";\n");
+            return;
+        }
+        budget[0] -= statements(node);
+
+        String value = "row[" + m_attribute[node] + "]";
+        text.append(indent).append("if (Double.isNaN(").append(value).append(")) return -1;\n");
+        String inner = indent + "  ";
+        switch (m_type[node]) {
+        case NOMINAL:
+            if (m_numChildren[node] > SWITCH_CASES) {
+                methods.add(new int[] {node, 0, m_numChildren[node]});
+                text.append(indent).append("return ").append(rangeMethod(node, 0, m_numChildren[node]))
+                        .append("(row, (int) ").append(value).append(");\n");
+                break;
+            }
+            text.append(indent).append("switch ((int) ").append(value).append(") {\n");
+            for (int k = 0; k < m_numChildren[node]; k++) {
+                text.append(indent).append("case ").append(k).append(":\n");
+                appendChild(m_children[m_first[node] + k], inner, budget, methods, text);
+            }
+            text.append(indent).append("default:\n")
+                    .append(inner).append("return -1;\n")
+                    .append(indent).append("}\n");
+            break;
+        default:
+            if (m_type[node] == NUMERIC) {
+                text.append(indent).append("if (").append(value).append(" <= ")
+                        .append(literal(m_splitPoint[node])).append(") {\n");
+            } else {
+                text.append(indent).append("if ((int) ").append(value).append(" == ")
+                        .append((int) m_splitPoint[node]).append(") {\n");
+            }
+            appendChild(m_children[m_first[node]], inner, budget, methods, text);
+            text.append(indent).append("} else {\n");
+            appendChild(m_children[m_first[node] + 1], inner, budget, methods, text);
+            text.append(indent).append("}\n");
+        }
+    }
+
+    //the statement of a child has been counted by its parent, so a leaf is always inlined
+    private void appendChild(int child, String indent, int[] budget, Deque<int[]> methods, StringBuilder text) {
+        if (m_type[child] == LEAF || budget[0] >= statements(child)) {
+            appendNode(child, indent, budget, methods, text);
+        } else {
+            methods.add(new int[] {child});
+            text.append(indent).append("return n").append(child).append("(row);\n");
+        }
+    }
+
+    //appends the body of the method for values [from, to) of a nominal split, which switches over the children of
+    //the values if there are at most SWITCH_CASES of them, otherwise over at most SWITCH_CASES ranges of values
+    private void appendRange(int node, int from, int to, Deque<int[]> methods, StringBuilder text) {
+        int span = 1;
+        while ((to - from + span - 1) / span > SWITCH_CASES) {
+            span *= SWITCH_CASES;
+        }
+        if (span == 1) {
+            int[] budget = {METHOD_NODES - (to - from)};
+            text.append("    switch (value) {\n");
+            for (int v = from; v < to; v++) {
+                text.append("    case ").append(v).append(":\n");
+                appendChild(m_children[m_first[node] + v], "      ", budget, methods, text);
+            }
+        } else {
+            //values below from give a negative quotient or 0, which leads to a range without a case for them
+            text.append("    switch (").append(from == 0 ? "value" : "(value - " + from + ")").append(" / ").append(span)
+                    .append(") {\n");
+            for (int start = from, k = 0; start < to; start += span, k++) {
+                int end = Math.min(to, start + span);
+                methods.add(new int[] {node, start, end});
+                text.append("    case ").append(k).append(":\n")
+                        .append("      return ").append(rangeMethod(node, start, end)).append("(row, value);\n");
+            }
+        }
+        text.append("    default:\n")
+                .append("      return -1;\n")
+                .append("    }\n");
+    }
+
+    private static String rangeMethod(int node, int from, int to) {
+        return "n" + node + "v" + from + "to" + to;
+    }
+
+    //a Java literal for the given value
+    private static String literal(double value) {
+        if (value == Double.POSITIVE_INFINITY) return "Double.POSITIVE_INFINITY";
+        if (value == Double.NEGATIVE_INFINITY) return "Double.NEGATIVE_INFINITY";
+        return Double.toString(value);
+    }
+
+    /**
+     * Writes the arrays of this tree in the layout read by MappedTree: a header of eight ints (magic, version, number
+     * of classes, flags, numbers of nodes, child entries, leaves and leaf entries), followed by the arrays, big-endian
+     * and each starting at a multiple of eight bytes. The stream is flushed but not closed.
+     *
+     * @throws IOException if the stream cannot be written
+     */
+    public void write(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        out.writeInt(MappedTree.MAGIC);
+        out.writeInt(MappedTree.VERSION);
+        out.writeInt(m_numClasses);
+        out.writeInt((m_useLaplace ? MappedTree.LAPLACE : 0) | (m_leafClasses != null ? MappedTree.SPARSE : 0));
+        out.writeInt(m_type.length);
+        out.writeInt(m_children.length);
+        out.writeInt(m_leafPrediction.length);
+        out.writeInt(m_leafProbs.length);
+
+        out.write(m_type);
+        pad(out, m_type.length);
+        writeInts(out, m_attribute);
+        for (double value : m_splitPoint) {
+            out.writeDouble(value);
+        }
+        writeInts(out, m_first);
+        writeInts(out, m_numChildren);
+        writeInts(out, m_children);
+        for (double value : m_childWeight) {
+            out.writeDouble(value);
+        }
+        writeInts(out, m_leafStart);
+        if (m_leafClasses != null) {
+            writeInts(out, m_leafClasses);
+        }
+        for (double value : m_leafProbs) {
+            out.writeDouble(value);
+        }
+        writeInts(out, m_leafPrediction);
+        out.flush();
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+        pad(out, 4L * values.length);
+    }
+
+    //pads an array of the given number of bytes, which started at a multiple of eight, to a multiple of eight
+    private static void pad(DataOutputStream out, long bytes) throws IOException {
+        for (long b = bytes; b % 8 != 0; b++) {
+            out.writeByte(0);
+        }
+    }
+
+    /**
+     * Returns the class predicted by the given leaf.
+     */
+    public int prediction(int leaf) {
+        return m_leafPrediction[leaf];
+    }
+
+    /**
+     * Overwrites probs with the class probabilities of the given leaf.
+     */
+    public void probabilities(int leaf, double[] probs) {
+        int start = m_leafStart[leaf];
+        if (m_leafClasses == null) {
+            System.arraycopy(m_leafProbs, start, probs, 0, m_numClasses);
+        } else {
+            Arrays.fill(probs, 0);
+            for (int k = start; k < m_leafStart[leaf + 1]; k++) {
+                probs[m_leafClasses[k]] = m_leafProbs[k];
+            }
+        }
+    }
+
+    /**
+     * Overwrites probs with the class probabilities for the given instance and returns true, or returns false if its
+     * path reaches a missing value and it has to be classified by the object tree.
+     */
+    public boolean distributionForInstance(Instance instance, double[] probs) {
+        int leaf = leafFor(instance);
+        if (leaf < 0) return false;
+        probabilities(leaf, probs);
+        return true;
+    }
+}
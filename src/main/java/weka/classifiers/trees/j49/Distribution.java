@@ -8,6 +8,17 @@ import weka.core.RevisionHandler;
 
 public interface Distribution extends Cloneable, Serializable, RevisionHandler {
 
+    /**
+     * Receives the non-zero class counts visited by forEachNonZero.
+     */
+    interface ClassCountConsumer {
+
+        /**
+         * Accepts the (possibly fractional) count of the given class.
+         */
+        void accept(int classIndex, double count);
+    }
+
     /**
      * Returns number of non-empty bags of distribution.
      */
@@ -30,6 +41,11 @@ public interface Distribution extends Cloneable, Serializable, RevisionHandler {
      */
     void add(int bagIndex, Instance instance) throws Exception;
 
+    /**
+     * Adds an instance of given class and weight to given bag, with the same result as add(int, Instance).
+     */
+    void add(int bagIndex, int classIndex, double weight);
+
     /**
      * Subtracts given instance from given bag.
      *
@@ -51,6 +67,14 @@ public interface Distribution extends Cloneable, Serializable, RevisionHandler {
     void addInstWithUnknown(Instances source, int attIndex)
             throws Exception;
 
+    /**
+     * Adds the instances with unknown values for the split attribute, given
+     * by their class indices and weights, weighted according to frequency of
+     * instances in each bag. Same result as addInstWithUnknown() on the
+     * instances.
+     */
+    void addInstWithUnknown(int[] classIndices, double[] weights, int count);
+
     /**
      * Adds all instances in given range to given bag.
      *
@@ -59,6 +83,15 @@ public interface Distribution extends Cloneable, Serializable, RevisionHandler {
     void addRange(int bagIndex, Instances source, int startIndex,
             int lastPlusOne) throws Exception;
 
+    /**
+     * Adds the instances in given range to given bag, given by their class
+     * indices and weights, which are extracted once from the instances so
+     * that they are not visited again. Same result as addRange() on the
+     * instances.
+     */
+    void addRange(int bagIndex, int[] classIndices, double[] weights,
+            int startIndex, int lastPlusOne);
+
     /**
      * Adds given instance to all bags weighting it according to given weights.
      *
@@ -158,6 +191,18 @@ public interface Distribution extends Cloneable, Serializable, RevisionHandler {
      */
     double perClassPerBag(int bagIndex, int classIndex);
 
+    /**
+     * Passes every class with a non-zero count in the given bag to the
+     * consumer. Only occupied cells are visited, in no particular order.
+     */
+    void forEachNonZero(int bagIndex, ClassCountConsumer consumer);
+
+    /**
+     * Passes every class with a non-zero count over all bags to the consumer.
+     * Only occupied cells are visited, in no particular order.
+     */
+    void forEachNonZero(ClassCountConsumer consumer);
+
     /**
      * Returns number of (possibly fractional) instances in given bag.
      */
@@ -214,6 +259,14 @@ public interface Distribution extends Cloneable, Serializable, RevisionHandler {
     void shiftRange(int from, int to, Instances source,
             int startIndex, int lastPlusOne) throws Exception;
 
+    /**
+     * Shifts the instances in given range from one bag to another one, given
+     * by their class indices and weights. Same result as shiftRange() on the
+     * instances.
+     */
+    void shiftRange(int from, int to, int[] classIndices, double[] weights,
+            int startIndex, int lastPlusOne);
+
     /**
      * Gets the percentage density (the percentage of values in the standard distribution that are non-zero) of the distribution
      */
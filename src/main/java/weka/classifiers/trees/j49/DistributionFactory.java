@@ -1,6 +1,7 @@
 package weka.classifiers.trees.j49;
 
 import java.io.Serializable;
+import weka.core.Instance;
 import weka.core.Instances;
 
 
@@ -8,33 +9,144 @@ import weka.core.Instances;
 public class DistributionFactory implements Serializable {
 
     //To change the type of distribution used by J49, change this value.
-    //0 - Standard; 1 - Array of Maps; 2 - Maps of Maps; 3 - EJML
+    //0 - Standard; 1 - Array of Maps; 2 - Maps of Maps; 3 - EJML; 4 - Array of int-keyed Maps;
+    //5 - Adaptive: Standard or Array of int-keyed Maps, chosen per node
     int distributionType = 1;
 
+    public static final int ADAPTIVE = 5;
+
+    //in adaptive mode, nodes with at most this many classes always get the dense layout since the table is tiny
+    static final int DENSE_MAX_CLASSES = 64;
+
+    //in adaptive mode, nodes where more than this percentage of the classes occur get the dense layout
+    //(same cut-off as the old perClassPerBagDensity() > 5 check)
+    static final double DENSE_MIN_DENSITY = 5;
+
+    //factories of the layouts adaptive mode picks for a node
+    private static final DistributionFactory DENSE = new DistributionFactory(0);
+    private static final DistributionFactory SPARSE = new DistributionFactory(4);
+
     public DistributionFactory(int type){
         distributionType = type;
     }
 
     public DistributionFactory(){};
 
+    //In adaptive mode picks 0 (dense) or 4 (sparse) from the number of classes, otherwise returns distributionType
+    int typeFor(int numClasses){
+        if (distributionType != ADAPTIVE) return distributionType;
+        return numClasses <= DENSE_MAX_CLASSES ? 0 : 4;
+    }
+
+    //In adaptive mode picks 0 (dense) or 4 (sparse) from the number of classes present in source.
+    //Stops counting as soon as the dense cut-off is reached, so dense nodes are decided after a few instances.
+    int typeFor(Instances source){
+        int numClasses = source.numClasses();
+        if (distributionType != ADAPTIVE || numClasses <= DENSE_MAX_CLASSES) return typeFor(numClasses);
+
+        boolean[] seen = new boolean[numClasses];
+        int present = 0;
+        int denseAt = (int) (numClasses * DENSE_MIN_DENSITY / 100) + 1;
+        for (int i = 0; i < source.numInstances(); i++) {
+            Instance instance = source.instance(i);
+            if (instance.classIsMissing()) continue;
+            int c = (int) instance.classValue();
+            if (!seen[c]) {
+                seen[c] = true;
+                if (++present >= denseAt) return 0;
+            }
+        }
+        return 4;
+    }
+
+    //In adaptive mode returns a factory fixed to the layout picked from the classes present in data, to build all
+    //distributions of the node with; otherwise returns this factory. The data of a node is then scanned once, however
+    //many distributions its candidate splits build.
+    public DistributionFactory forNode(Instances data){
+        if (distributionType != ADAPTIVE) return this;
+        return typeFor(data) == 0 ? DENSE : SPARSE;
+    }
+
+    //As forNode(Instances), for a node whose data is only known by its weight per class
+    public DistributionFactory forNode(double[] classCounts){
+        if (distributionType != ADAPTIVE) return this;
+        if (classCounts.length <= DENSE_MAX_CLASSES) return DENSE;
+
+        int present = 0;
+        for (double count : classCounts) {
+            if (count != 0) present++;
+        }
+        return present * 100.0 / classCounts.length > DENSE_MIN_DENSITY ? DENSE : SPARSE;
+    }
+
+    //In adaptive mode picks 0 (dense) or 4 (sparse) from the number of classes present in table
+    int typeFor(double[][] table){
+        int numClasses = table.length == 0 ? 0 : table[0].length;
+        if (distributionType != ADAPTIVE || numClasses <= DENSE_MAX_CLASSES) return typeFor(numClasses);
+
+        int present = 0;
+        for (int c = 0; c < numClasses; c++) {
+            for (int b = 0; b < table.length; b++) {
+                if (table[b][c] != 0) {
+                    present++;
+                    break;
+                }
+            }
+        }
+        return present * 100.0 / numClasses > DENSE_MIN_DENSITY ? 0 : 4;
+    }
+
+    //In adaptive mode picks 0 (dense) or 4 (sparse) from the number of classes present in distribution
+    int typeFor(Distribution distribution){
+        int numClasses = distribution.numClasses();
+        if (distributionType != ADAPTIVE || numClasses <= DENSE_MAX_CLASSES) return typeFor(numClasses);
+
+        final int[] present = new int[1];
+        distribution.forEachNonZero(new Distribution.ClassCountConsumer() {
+            @Override
+            public void accept(int classIndex, double count) {
+                present[0]++;
+            }
+        });
+        return present[0] * 100.0 / numClasses > DENSE_MIN_DENSITY ? 0 : 4;
+    }
+
     //The following methods initialize m_distribution with the correct type
     //The different versions correspond to the different Distribution constructors that are present in split classes
 
     /** returns new Distribution(numBags, numClasses) */
     public Distribution getDistribution(int numBags, int numClasses){
         //if( numBags > 10 ) return new StandardDistribution(numBags, numClasses);
-        switch(distributionType){
+        switch(typeFor(numClasses)){
             case 1:
                 return new ArrayAndFastUtilDistribution(numBags, numClasses);
             case 2:
                 return new FastUtilDistribution(numBags, numClasses);
             case 3:
                 return new EJMLDistribution(numBags, numClasses);
+            case 4:
+                return new ArrayAndIntMapDistribution(numBags, numClasses);
             default:
                 return new OriginalDistribution(numBags, numClasses);
         }
     }
 
+    /** returns new Distribution(numBags, numClasses) for the instances in source, which are added afterwards */
+    public Distribution getDistribution(int numBags, Instances source){
+        switch(typeFor(source)){
+            case 1:
+                return new ArrayAndFastUtilDistribution(numBags, source.numClasses());
+            case 2:
+                return new FastUtilDistribution(numBags, source.numClasses());
+            case 3:
+                return new EJMLDistribution(numBags, source.numClasses());
+            case 4:
+                return new ArrayAndIntMapDistribution(numBags, source.numClasses());
+            default:
+                return new OriginalDistribution(numBags, source.numClasses());
+        }
+    }
+
     /** returns new Distribution(double[][] table) */
     public Distribution getDistribution(double[][] table){
 
@@ -43,13 +155,15 @@ public class DistributionFactory implements Serializable {
             return testDist;
         }*/
 
-        switch(distributionType){
+        switch(typeFor(table)){
             case 1:
                 return new ArrayAndFastUtilDistribution(table);
             case 2:
                 return new FastUtilDistribution(table);
             case 3:
                 return new EJMLDistribution(table);
+            case 4:
+                return new ArrayAndIntMapDistribution(table);
             default:
                 return new OriginalDistribution(table);
         }
@@ -61,7 +175,7 @@ public class DistributionFactory implements Serializable {
         if( testDist.perClassPerBagDensity() > 5 ){
             return testDist;
         }*/
-        switch(distributionType){
+        switch(typeFor(source)){
             default:
                 return new OriginalDistribution(source);
             case 1:
@@ -70,6 +184,8 @@ public class DistributionFactory implements Serializable {
                 return new FastUtilDistribution(source);
             case 3:
                 return new EJMLDistribution(source);
+            case 4:
+                return new ArrayAndIntMapDistribution(source);
         }
     }
 
@@ -80,7 +196,7 @@ public class DistributionFactory implements Serializable {
             return testDist;
         }*/
 
-        switch(distributionType){
+        switch(typeFor(source)){
             default:
                 return new OriginalDistribution(source, model);
             case 1:
@@ -89,6 +205,8 @@ public class DistributionFactory implements Serializable {
                 return new FastUtilDistribution(source,model);
             case 3:
                 return new EJMLDistribution(source, model);
+            case 4:
+                return new ArrayAndIntMapDistribution(source, model);
         }
     }
 
@@ -100,7 +218,7 @@ public class DistributionFactory implements Serializable {
             return testDist;
         }*/
 
-        switch(distributionType){
+        switch(typeFor(toMerge)){
             default:
                 return new OriginalDistribution(toMerge, index);
             case 1:
@@ -109,6 +227,8 @@ public class DistributionFactory implements Serializable {
                 return new FastUtilDistribution(toMerge, index);
             case 3:
                 return new EJMLDistribution(toMerge, index);
+            case 4:
+                return new ArrayAndIntMapDistribution(toMerge, index);
         }
     }
 
@@ -120,7 +240,7 @@ public class DistributionFactory implements Serializable {
             return testDist;
         }*/
 
-        switch(distributionType){
+        switch(typeFor(toMerge)){
             default:
                 return new OriginalDistribution(toMerge);
             case 1:
@@ -129,6 +249,8 @@ public class DistributionFactory implements Serializable {
                 return new FastUtilDistribution(toMerge);
             case 3:
                 return new EJMLDistribution(toMerge);
+            case 4:
+                return new ArrayAndIntMapDistribution(toMerge);
         }
     }
 
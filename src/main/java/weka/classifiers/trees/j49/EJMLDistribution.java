@@ -1,11 +1,13 @@
 package weka.classifiers.trees.j49;
 
+import java.util.Arrays;
 import java.util.Enumeration;
 
 import org.ejml.data.DMatrixSparseTriplet;
 
 import it.unimi.dsi.fastutil.doubles.Double2DoubleMap;
 import it.unimi.dsi.fastutil.doubles.Double2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.RevisionUtils;
@@ -24,6 +26,16 @@ public class EJMLDistribution implements Distribution {
     //use DMatrixSparseTriplet for 2D array
     DMatrixSparseTriplet m_perClassPerBag;
 
+    //index of the triplet of every cell of m_perClassPerBag, keyed by cell(bag, class); looking cells up in the
+    //triplet list itself is a linear search
+    Long2IntOpenHashMap m_cells = newCellIndex();
+
+    //triplets of every bag as a list in the order they were added: the first and last triplet of a bag, -1 if it
+    //has none, and the next triplet of the same bag after each triplet; null until the first triplet is added
+    int[] m_firstInBag;
+    int[] m_lastInBag;
+    int[] m_nextInBag;
+
     double totaL;
 
     int m_numClasses;
@@ -38,14 +50,49 @@ public class EJMLDistribution implements Distribution {
     }
 
     private void addToPerClassPerBag(int bagIndex, double classVal, double weight) {
-        double currWeight = m_perClassPerBag.get(bagIndex, (int) classVal);
+        long cell = cell(bagIndex, (int) classVal);
+        int index = m_cells.get(cell);
 
-        if (currWeight == 0) {
+        //update in place so that every cell has at most one triplet, even once its weight has dropped to zero
+        if (index < 0) {
+            index = m_perClassPerBag.nz_length;
+            m_cells.put(cell, index);
             m_perClassPerBag.addItem(bagIndex, (int) classVal, weight);
+            linkToBag(bagIndex, index);
         }
         else {
-            m_perClassPerBag.set(bagIndex, (int) classVal, currWeight + weight);
+            m_perClassPerBag.nz_value.data[index] += weight;
+        }
+    }
+
+    private void linkToBag(int bagIndex, int index) {
+        if (m_firstInBag == null) {
+            m_firstInBag = new int[m_perBag.length];
+            m_lastInBag = new int[m_perBag.length];
+            m_nextInBag = new int[Math.max(INIT_LENGTH, index + 1)];
+            Arrays.fill(m_firstInBag, -1);
+        }
+        else if (index == m_nextInBag.length) {
+            m_nextInBag = Arrays.copyOf(m_nextInBag, 2 * index);
+        }
+        m_nextInBag[index] = -1;
+        if (m_firstInBag[bagIndex] < 0) {
+            m_firstInBag[bagIndex] = index;
         }
+        else {
+            m_nextInBag[m_lastInBag[bagIndex]] = index;
+        }
+        m_lastInBag[bagIndex] = index;
+    }
+
+    private static long cell(int bagIndex, int classIndex) {
+        return ((long) bagIndex << 32) | classIndex;
+    }
+
+    private static Long2IntOpenHashMap newCellIndex() {
+        Long2IntOpenHashMap cells = new Long2IntOpenHashMap();
+        cells.defaultReturnValue(-1);
+        return cells;
     }
 
     /**
@@ -251,8 +298,19 @@ public class EJMLDistribution implements Distribution {
      */
     @Override
     public void add(int bagIndex, Instance instance) throws Exception {
-        double weight = instance.weight();
-        double classVal = instance.classValue();
+        add(bagIndex, (int) instance.classValue(), instance.weight());
+    }
+
+    /**
+     * Adds an instance of given class and weight to given bag.
+     *
+     * @param bagIndex
+     * @param classIndex
+     * @param weight
+     */
+    @Override
+    public void add(int bagIndex, int classIndex, double weight) {
+        double classVal = classIndex;
 
         if (weight == 0) {
             return;
@@ -351,6 +409,41 @@ public class EJMLDistribution implements Distribution {
         }
     }
 
+    /**
+     * Adds the instances with unknown values for the split attribute, given by their class indices and weights,
+     * weighted according to frequency of instances in each bag. Same result as addInstWithUnknown() on the instances.
+     */
+    @Override
+    public void addInstWithUnknown(int[] classIndices, double[] weights, int count) {
+        double[] probs;
+        double weight, newWeight;
+        double classIndex;
+        int b;
+
+        probs = new double[numBags()];
+        for (b = 0; b < numBags(); b++) {
+            if (Utils.eq(total(), 0)) {
+                probs[b] = 1.0 / probs.length;
+            }
+            else {
+                probs[b] = perBag(b) / total();
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            classIndex = classIndices[i];
+            weight = weights[i];
+            addToPerClass(classIndex, weight);
+            totaL += weight;
+
+            for (b = 0; b < numBags(); b++) {
+                newWeight = probs[b] * weight;
+                addToPerClassPerBag(b, classIndex, newWeight);
+                addToPerBag(b, newWeight);
+            }
+        }
+    }
+
+
     /**
      * Adds all instances in given range to given bag.
      *
@@ -380,6 +473,31 @@ public class EJMLDistribution implements Distribution {
         totaL += sumOfWeights;
     }
 
+    /**
+     * Adds all instances in given range to given bag, given by their class indices and weights.
+     *
+     * @param bagIndex
+     * @param classIndices
+     * @param weights
+     * @param startIndex
+     * @param lastPlusOne
+     */
+    @Override
+    public void addRange(int bagIndex, int[] classIndices, double[] weights, int startIndex, int lastPlusOne) {
+        double sumOfWeights = 0;
+
+        for (int i = startIndex; i < lastPlusOne; i++) {
+            double weight = weights[i];
+            if (weight != 0) {
+                sumOfWeights += weight;
+                addToPerClass(classIndices[i], weight);
+                addToPerClassPerBag(bagIndex, classIndices[i], weight);
+            }
+        }
+        addToPerBag(bagIndex, sumOfWeights);
+        totaL += sumOfWeights;
+    }
+
     /**
      * Adds given instance to all bags weighting it according to given weights.
      *
@@ -435,6 +553,13 @@ public class EJMLDistribution implements Distribution {
         }
         newDistribution.m_perClass = new Double2DoubleOpenHashMap(this.m_perClass);
         newDistribution.m_perClassPerBag = new DMatrixSparseTriplet(m_perClassPerBag);
+        newDistribution.m_cells = new Long2IntOpenHashMap(m_cells);
+        newDistribution.m_cells.defaultReturnValue(-1);
+        if (m_firstInBag != null) {
+            newDistribution.m_firstInBag = m_firstInBag.clone();
+            newDistribution.m_lastInBag = m_lastInBag.clone();
+            newDistribution.m_nextInBag = m_nextInBag.clone();
+        }
         newDistribution.totaL = totaL;
         newDistribution.m_numClasses = m_numClasses;
 
@@ -518,6 +643,8 @@ public class EJMLDistribution implements Distribution {
             m_perBag[b] = 0;
         }
         m_perClassPerBag.zero();
+        m_cells.clear();
+        m_firstInBag = null;
         m_perClass.clear();
         totaL = 0;
     }
@@ -661,7 +788,41 @@ public class EJMLDistribution implements Distribution {
      */
     @Override
     public double perClassPerBag(int bagIndex, int classIndex) {
-        return m_perClassPerBag.get(bagIndex, classIndex);
+        int index = m_cells.get(cell(bagIndex, classIndex));
+        return index < 0 ? 0 : m_perClassPerBag.nz_value.data[index];
+    }
+
+    /**
+     * Passes every class with a non-zero count in the given bag to the
+     * consumer. Follows the list of the triplets of the bag, so the cost is
+     * that of the bag's cells, not of all cells.
+     *
+     * @param bagIndex
+     * @param consumer
+     */
+    @Override
+    public void forEachNonZero(int bagIndex, ClassCountConsumer consumer) {
+        if (m_firstInBag == null) {
+            return;
+        }
+        int[] rowcol = m_perClassPerBag.nz_rowcol.data;
+        double[] values = m_perClassPerBag.nz_value.data;
+
+        for (int i = m_firstInBag[bagIndex]; i >= 0; i = m_nextInBag[i]) {
+            if (values[i] != 0) {
+                consumer.accept(rowcol[2 * i + 1], values[i]);
+            }
+        }
+    }
+
+    /**
+     * Passes every class with a non-zero count over all bags to the consumer.
+     *
+     * @param consumer
+     */
+    @Override
+    public void forEachNonZero(ClassCountConsumer consumer) {
+        ArrayAndFastUtilDistribution.forEachNonZero(m_perClass, consumer);
     }
 
     /**
@@ -751,8 +912,11 @@ public class EJMLDistribution implements Distribution {
         newDist.totaL = newDist.m_perBag[0];
 
         for (int c = 0; c < numClasses(); c++) {
-            newDist.addToPerClass(c, perClass(c) - toSubtract.perClass(c));
-            newDist.addToPerClassPerBag(0, c, perClass(c) - toSubtract.perClass(c));
+            double count = perClass(c) - toSubtract.perClass(c);
+            if (count != 0) {
+                newDist.addToPerClass(c, count);
+                newDist.addToPerClassPerBag(0, c, count);
+            }
         }
         return newDist;
     }
@@ -809,6 +973,27 @@ public class EJMLDistribution implements Distribution {
         }
     }
 
+    /**
+     * Shifts all instances in given range from one bag to another one, given by their class indices and weights.
+     *
+     * @param from
+     * @param to
+     * @param classIndices
+     * @param weights
+     * @param startIndex
+     * @param lastPlusOne
+     */
+    @Override
+    public void shiftRange(int from, int to, int[] classIndices, double[] weights, int startIndex, int lastPlusOne) {
+        for (int i = startIndex; i < lastPlusOne; i++) {
+            double weight = weights[i];
+            addToPerClassPerBag(from, classIndices[i], -weight);
+            addToPerClassPerBag(to, classIndices[i], weight);
+            addToPerBag(from, -weight);
+            addToPerBag(to, weight);
+        }
+    }
+
     /**
      * Gets the percentage density (the percentage of values in the standard distribution that are non-zero) of the distribution
      */
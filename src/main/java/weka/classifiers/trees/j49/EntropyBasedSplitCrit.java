@@ -49,32 +49,45 @@ public abstract class EntropyBasedSplitCrit
   }
 
   /**
-   * Computes entropy of distribution before splitting.
+   * Help class for summing lnFunc over the occupied cells of a
+   * distribution.
+   */
+  private final class LnFuncSum implements Distribution.ClassCountConsumer {
+
+    /** The sum so far. */
+    double m_sum = 0;
+
+    public void accept(int classIndex, double count) {
+      m_sum = m_sum+lnFunc(count);
+    }
+  }
+
+  /**
+   * Computes entropy of distribution before splitting. Only classes
+   * actually occurring in the distribution are visited.
    */
   public final double oldEnt(Distribution bags) {
 
-    double returnValue = 0;
-    int j;
+    LnFuncSum returnValue = new LnFuncSum();
 
-    for (j=0;j<bags.numClasses();j++)
-      returnValue = returnValue+lnFunc(bags.perClass(j));
-    return (lnFunc(bags.total())-returnValue)/ContingencyTables.log2; 
+    bags.forEachNonZero(returnValue);
+    return (lnFunc(bags.total())-returnValue.m_sum)/ContingencyTables.log2; 
   }
 
   /**
-   * Computes entropy of distribution after splitting.
+   * Computes entropy of distribution after splitting. Only classes
+   * actually occurring in each bag are visited.
    */
   public final double newEnt(Distribution bags) {
     
-    double returnValue = 0;
-    int i,j;
+    LnFuncSum returnValue = new LnFuncSum();
+    int i;
 
     for (i=0;i<bags.numBags();i++){
-      for (j=0;j<bags.numClasses();j++)
-	returnValue = returnValue+lnFunc(bags.perClassPerBag(i,j));
-      returnValue = returnValue-lnFunc(bags.perBag(i));
+      bags.forEachNonZero(i, returnValue);
+      returnValue.m_sum = returnValue.m_sum-lnFunc(bags.perBag(i));
     }
-    return -(returnValue/ContingencyTables.log2);
+    return -(returnValue.m_sum/ContingencyTables.log2);
   }
 
   /**
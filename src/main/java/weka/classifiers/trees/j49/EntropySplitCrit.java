@@ -48,28 +48,42 @@ public final class EntropySplitCrit
   /**
    * Computes entropy of test distribution with respect to training distribution.
    */
-  public final double splitCritValue(Distribution train, Distribution test) {
+  public final double splitCritValue(final Distribution train,
+				    final Distribution test) {
 
-    double result = 0;
-    int numClasses = 0;
-    int i, j;
+    final double[] result = new double[1];
+    final int[] numClasses = new int[1];
+    int i;
     
     // Find out relevant number of classes
-    for (j = 0; j < test.numClasses(); j++)
-      if (Utils.gr(train.perClass(j), 0) || Utils.gr(test.perClass(j), 0))
-	numClasses++;
+    train.forEachNonZero(new Distribution.ClassCountConsumer() {
+	public void accept(int classIndex, double count) {
+	  if (Utils.gr(count, 0))
+	    numClasses[0]++;
+	}
+      });
+    test.forEachNonZero(new Distribution.ClassCountConsumer() {
+	public void accept(int classIndex, double count) {
+	  if (!Utils.gr(train.perClass(classIndex), 0) && Utils.gr(count, 0))
+	    numClasses[0]++;
+	}
+      });
 
     // Compute entropy of test data with respect to training data
     for (i = 0; i < test.numBags(); i++)
       if (Utils.gr(test.perBag(i),0)) {
-	for (j = 0; j < test.numClasses(); j++)
-	  if (Utils.gr(test.perClassPerBag(i, j), 0))
-	    result -= test.perClassPerBag(i, j)*
-	      Math.log(train.perClassPerBag(i, j) + 1);
-	result += test.perBag(i) * Math.log(train.perBag(i) + numClasses);
+	final int bag = i;
+	test.forEachNonZero(i, new Distribution.ClassCountConsumer() {
+	    public void accept(int classIndex, double count) {
+	      if (Utils.gr(count, 0))
+		result[0] -= count*
+		  Math.log(train.perClassPerBag(bag, classIndex) + 1);
+	    }
+	  });
+	result[0] += test.perBag(i) * Math.log(train.perBag(i) + numClasses[0]);
       }
   
-    return result / ContingencyTables.log2;
+    return result[0] / ContingencyTables.log2;
   }
   
   /**
@@ -2,6 +2,7 @@ package weka.classifiers.trees.j49;
 
 import java.util.Enumeration;
 
+import it.unimi.dsi.fastutil.Hash;
 import it.unimi.dsi.fastutil.doubles.Double2DoubleMap;
 import it.unimi.dsi.fastutil.doubles.Double2DoubleOpenHashMap;
 import it.unimi.dsi.fastutil.doubles.Double2ObjectOpenHashMap;
@@ -30,6 +31,23 @@ public class FastUtilDistribution implements Distribution {
     //total number of bags - must be stored since it is not retained by m_perBag
     int m_numBags;
 
+    /**
+     * Returns the class weights of the given bag, adding an empty map for the bag if it has none yet. Unlike
+     * putIfAbsent(), no map is allocated if the bag already has one.
+     */
+    private Double2DoubleOpenHashMap bag(int bagIndex) {
+        return bag(bagIndex, Hash.DEFAULT_INITIAL_SIZE);
+    }
+
+    private Double2DoubleOpenHashMap bag(int bagIndex, int expectedClasses) {
+        Double2DoubleOpenHashMap counts = m_perClassPerBag.get(bagIndex);
+        if (counts == null) {
+            counts = new Double2DoubleOpenHashMap(expectedClasses);
+            m_perClassPerBag.put(bagIndex, counts);
+        }
+        return counts;
+    }
+
     /**
      * Creates and initializes a new distribution.
      */
@@ -120,7 +138,7 @@ public class FastUtilDistribution implements Distribution {
         while (enu.hasMoreElements()) {
             instance = enu.nextElement();
             index = modelToUse.whichSubset(instance);
-            m_perClassPerBag.putIfAbsent((double) index, new Double2DoubleOpenHashMap(numClasses()));
+            bag(index, numClasses());
             if (index != -1) {
                 add(index, instance);
             }
@@ -251,16 +269,26 @@ public class FastUtilDistribution implements Distribution {
      */
     @Override
     public void add(int bagIndex, Instance instance) throws Exception {
-        double weight = instance.weight();
-        double classVal = instance.classValue();
+        add(bagIndex, (int) instance.classValue(), instance.weight());
+    }
+
+    /**
+     * Adds an instance of given class and weight to given bag.
+     *
+     * @param bagIndex
+     * @param classIndex
+     * @param weight
+     */
+    @Override
+    public void add(int bagIndex, int classIndex, double weight) {
+        double classVal = classIndex;
 
         if(weight==0) return;
 
         m_perBag.addTo(bagIndex, weight);
         m_perClass.addTo(classVal, weight);
 
-        m_perClassPerBag.putIfAbsent((double) bagIndex, new Double2DoubleOpenHashMap());
-        m_perClassPerBag.get(bagIndex).addTo(classVal, weight);
+        bag(bagIndex).addTo(classVal, weight);
         totaL += weight;
     }
 
@@ -296,10 +324,11 @@ public class FastUtilDistribution implements Distribution {
 
         m_perBag.addTo(bagIndex, sum);
 
+        Double2DoubleOpenHashMap bag = bag(bagIndex);
         for (c = 0; c < counts.length; c++) {
             if (counts[c] != 0) {
                 m_perClass.addTo(c, counts[c]);
-                m_perClassPerBag.get(bagIndex).addTo(c, counts[c]);
+                bag.addTo(c, counts[c]);
             }
         }
         totaL += sum;
@@ -342,8 +371,7 @@ public class FastUtilDistribution implements Distribution {
 
                 for (b = 0; b < numBags(); b++) {
                     newWeight = probs[b] * weight;
-                    m_perClassPerBag.putIfAbsent((double) b, new Double2DoubleOpenHashMap());
-                    m_perClassPerBag.get(b).addTo(classIndex, newWeight);
+                    bag(b).addTo(classIndex, newWeight);
                     m_perBag.addTo(b, newWeight);
                 }
 
@@ -351,6 +379,42 @@ public class FastUtilDistribution implements Distribution {
         }
     }
 
+    /**
+     * Adds the instances with unknown values for the split attribute, given by their class indices and weights,
+     * weighted according to frequency of instances in each bag. Same result as addInstWithUnknown() on the instances.
+     */
+    @Override
+    public void addInstWithUnknown(int[] classIndices, double[] weights, int count) {
+
+        double[] probs;
+        double weight, newWeight;
+        double classIndex;
+        int b;
+
+        probs = new double[numBags()];
+        for (b = 0; b < numBags(); b++) {
+            if (Utils.eq(totaL, 0)) {
+                probs[b] = 1.0 / probs.length;
+            }
+            else {
+                probs[b] = perBag(b)/totaL;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            classIndex = classIndices[i];
+            weight = weights[i];
+            m_perClass.addTo(classIndex, weight);
+            totaL += weight;
+
+            for (b = 0; b < numBags(); b++) {
+                newWeight = probs[b] * weight;
+                bag(b).addTo(classIndex, newWeight);
+                m_perBag.addTo(b, newWeight);
+            }
+        }
+    }
+
+
     /**
      * Adds all instances in given range to given bag.
      *
@@ -368,6 +432,34 @@ public class FastUtilDistribution implements Distribution {
         }
     }
 
+    /**
+     * Adds all instances in given range to given bag, given by their class indices and weights.
+     *
+     * @param bagIndex
+     * @param classIndices
+     * @param weights
+     * @param startIndex
+     * @param lastPlusOne
+     */
+    @Override
+    public void addRange(int bagIndex, int[] classIndices, double[] weights, int startIndex, int lastPlusOne) {
+        Double2DoubleOpenHashMap perClass = null;
+
+        for (int i = startIndex; i < lastPlusOne; i++) {
+            double weight = weights[i];
+            if (weight == 0) {
+                continue;
+            }
+            if (perClass == null) {
+                perClass = bag(bagIndex);
+            }
+            m_perBag.addTo(bagIndex, weight);
+            m_perClass.addTo(classIndices[i], weight);
+            perClass.addTo(classIndices[i], weight);
+            totaL += weight;
+        }
+    }
+
     /**
      * Adds given instance to all bags weighting it according to given weights.
      *
@@ -387,8 +479,7 @@ public class FastUtilDistribution implements Distribution {
             if(weight!=0) {
                 m_perBag.addTo(b, weight);
                 m_perClass.addTo(classValue, weight);
-                m_perClassPerBag.putIfAbsent((double) b, new Double2DoubleOpenHashMap());
-                m_perClassPerBag.get(b).addTo(classValue,weight);
+                bag(b).addTo(classValue,weight);
                 totaL += weight;
             }
         }
@@ -654,6 +745,31 @@ public class FastUtilDistribution implements Distribution {
         return 0;
     }
 
+    /**
+     * Passes every class with a non-zero count in the given bag to the
+     * consumer.
+     *
+     * @param bagIndex
+     * @param consumer
+     */
+    @Override
+    public void forEachNonZero(int bagIndex, ClassCountConsumer consumer) {
+        Double2DoubleOpenHashMap counts = m_perClassPerBag.get(bagIndex);
+        if (counts != null) {
+            ArrayAndFastUtilDistribution.forEachNonZero(counts, consumer);
+        }
+    }
+
+    /**
+     * Passes every class with a non-zero count over all bags to the consumer.
+     *
+     * @param consumer
+     */
+    @Override
+    public void forEachNonZero(ClassCountConsumer consumer) {
+        ArrayAndFastUtilDistribution.forEachNonZero(m_perClass, consumer);
+    }
+
     /**
      * Returns number of (possibly fractional) instances in given bag.
      *
@@ -730,7 +846,7 @@ public class FastUtilDistribution implements Distribution {
 
     /**
      * Subtracts the given distribution from this one. The results has only one
-     * bag.
+     * bag. Only the non-zero classes of both distributions are visited.
      *
      * @param toSubtract
      */
@@ -742,11 +858,21 @@ public class FastUtilDistribution implements Distribution {
         newDist.m_perBag.put(0, total() - toSubtract.total());
         newDist.totaL = newDist.perBag(0);
 
-        for (int c = 0; c < numClasses(); c++) {
-            newDist.m_perClassPerBag.putIfAbsent((double) 0, new Double2DoubleOpenHashMap());
-            newDist.m_perClassPerBag.get(0).put(c,perClass(c) - toSubtract.perClass(c));
-            newDist.m_perClass.put(c, newDist.perClassPerBag(0,c));
-        }
+        final Double2DoubleOpenHashMap counts = new Double2DoubleOpenHashMap();
+        newDist.m_perClassPerBag.put(0, counts);
+        ArrayAndFastUtilDistribution.forEachNonZero(m_perClass, new ClassCountConsumer() {
+            @Override
+            public void accept(int classIndex, double count) {
+                counts.put(classIndex, count);
+            }
+        });
+        toSubtract.forEachNonZero(new ClassCountConsumer() {
+            @Override
+            public void accept(int classIndex, double count) {
+                counts.addTo(classIndex, -count);
+            }
+        });
+        newDist.m_perClass.putAll(counts);
         return newDist;
     }
 
@@ -772,7 +898,10 @@ public class FastUtilDistribution implements Distribution {
         double weight = instance.weight();
 
         m_perClassPerBag.get(from).addTo(classValue, -weight);
-        m_perClassPerBag.get(to).addTo(classValue, -weight);
+        if (!m_perClassPerBag.containsKey(to)) {
+            m_perClassPerBag.put(to, new Double2DoubleOpenHashMap());
+        }
+        m_perClassPerBag.get(to).addTo(classValue, weight);
         m_perBag.addTo(from, -weight);
         m_perBag.addTo(to, weight);
     }
@@ -796,8 +925,34 @@ public class FastUtilDistribution implements Distribution {
             classValue = source.instance(i).classValue();
             weight = source.instance(i).weight();
             m_perClassPerBag.get(from).addTo(classValue, -weight);
-            m_perClassPerBag.putIfAbsent( (double) to, new Double2DoubleOpenHashMap());
-            m_perClassPerBag.get(to).addTo(classValue,weight);
+            bag(to).addTo(classValue,weight);
+            m_perBag.addTo(from, -weight);
+            m_perBag.addTo(to, weight);
+        }
+    }
+
+    /**
+     * Shifts all instances in given range from one bag to another one, given by their class indices and weights.
+     *
+     * @param from
+     * @param to
+     * @param classIndices
+     * @param weights
+     * @param startIndex
+     * @param lastPlusOne
+     */
+    @Override
+    public void shiftRange(int from, int to, int[] classIndices, double[] weights, int startIndex, int lastPlusOne) {
+        if (startIndex >= lastPlusOne) {
+            return;
+        }
+        Double2DoubleOpenHashMap perClassFrom = m_perClassPerBag.get(from);
+        Double2DoubleOpenHashMap perClassTo = bag(to);
+
+        for (int i = startIndex; i < lastPlusOne; i++) {
+            double weight = weights[i];
+            perClassFrom.addTo(classIndices[i], -weight);
+            perClassTo.addTo(classIndices[i], weight);
             m_perBag.addTo(from, -weight);
             m_perBag.addTo(to, weight);
         }
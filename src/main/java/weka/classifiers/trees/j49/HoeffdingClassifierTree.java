@@ -0,0 +1,345 @@
+package weka.classifiers.trees.j49;
+
+import java.util.Arrays;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * A Hoeffding tree (Domingos and Hulten, 2000) grown online, one instance at a time. Every leaf keeps the class counts
+ * of the instances that reached it, as the distribution of its NoSplit model, and for every attribute a Distribution
+ * of the class counts per value or bin, with a last bag for the instances missing the attribute, and the number of
+ * rows per value or bin.
+ *
+ * Whenever a leaf has seen gracePeriod more weight, the C4.5 split of every attribute is built from those counts (see
+ * C45Split.buildClassifier(Instances, double[], double[])). The leaf splits on the best one once the Hoeffding bound
+ * shows with confidence 1 - splitConfidence that its info gain (or gain ratio) beats the runner-up, or not splitting,
+ * or that the two are tied within tieThreshold. Its sons start with the class counts of their subsets, for prediction
+ * only: the splits and the bound of a leaf only count the weight it has seen itself.
+ *
+ * Numeric attributes are quantized into at most maxBins bins at quantiles of the first gracePeriod instances, which
+ * the root keeps until then. After that, an update costs O(depth + attributes), plus at most every gracePeriod
+ * instances per leaf a split evaluation in O(attributes x bins x classes), however many instances have been seen.
+ */
+public class HoeffdingClassifierTree extends ClassifierTree {
+
+    /** for serialization */
+    private static final long serialVersionUID = 2405781734208453542L;
+
+    private final int m_minNumObj;
+    private final double m_splitConfidence;
+    private final double m_tieThreshold;
+    private final int m_gracePeriod;
+    private final boolean m_binarySplits;
+    private final boolean m_useGainRatio;
+    private final int m_maxBins;
+
+    //first instances, kept by the root until the bins are placed
+    private Instances m_sample;
+
+    //split points between the bins of the numeric attributes, shared by all nodes; null until the bins are placed
+    private double[][] m_splitPoints;
+
+    //class counts per value or bin of every attribute at a leaf, null for the class and at inner nodes
+    private Distribution[] m_counts;
+
+    //number of rows per value or bin of every attribute at a leaf, null where m_counts is
+    private double[][] m_rowCounts;
+
+    //weight counted in m_counts since the leaf was created, and when a split was last evaluated
+    private double m_countedWeight;
+    private double m_weightAtLastCheck;
+
+    //class histogram of an attribute and class counts of its missing values while splits are evaluated, shared by
+    //all nodes and sized for the attribute with the most bins
+    private double[] m_histogram;
+    private double[] m_missing;
+
+    /**
+     * Creates an empty tree for the given header.
+     *
+     * @param header the header of the data, with the class set
+     * @param minNumObj minimum number of instances per leaf
+     * @param splitConfidence probability of splitting on the wrong attribute
+     * @param tieThreshold difference of the criteria below which splits are considered tied
+     * @param gracePeriod weight a leaf has to see between split evaluations
+     * @param binarySplits whether nominal attributes get binary splits
+     * @param useGainRatio whether the gain ratio is compared instead of the info gain
+     * @param maxBins maximum number of bins of the numeric attributes, at least 2
+     * @param distributionFactory the factory for the distributions
+     */
+    public HoeffdingClassifierTree(Instances header, int minNumObj, double splitConfidence, double tieThreshold,
+            int gracePeriod, boolean binarySplits, boolean useGainRatio, int maxBins,
+            DistributionFactory distributionFactory) {
+        super(null, distributionFactory);
+        m_minNumObj = minNumObj;
+        m_splitConfidence = splitConfidence;
+        m_tieThreshold = tieThreshold;
+        m_gracePeriod = gracePeriod;
+        m_binarySplits = binarySplits;
+        m_useGainRatio = useGainRatio;
+        m_maxBins = maxBins;
+        m_train = new Instances(header, 0);
+        m_sample = new Instances(header, gracePeriod);
+        makeLeaf(distributionFactory.getDistribution(1, m_train));
+    }
+
+    /**
+     * Creates a leaf below the given node with the given class counts.
+     */
+    private HoeffdingClassifierTree(HoeffdingClassifierTree parent, Distribution classCounts) {
+        super(null, parent.m_distributionFactory);
+        m_minNumObj = parent.m_minNumObj;
+        m_splitConfidence = parent.m_splitConfidence;
+        m_tieThreshold = parent.m_tieThreshold;
+        m_gracePeriod = parent.m_gracePeriod;
+        m_binarySplits = parent.m_binarySplits;
+        m_useGainRatio = parent.m_useGainRatio;
+        m_maxBins = parent.m_maxBins;
+        m_train = parent.m_train;
+        m_splitPoints = parent.m_splitPoints;
+        m_histogram = parent.m_histogram;
+        m_missing = parent.m_missing;
+        makeLeaf(classCounts);
+        newCounts();
+    }
+
+    private void makeLeaf(Distribution classCounts) {
+        m_localModel = new NoSplit(classCounts, m_distributionFactory);
+        m_isLeaf = true;
+        m_isEmpty = Utils.eq(classCounts.total(), 0);
+    }
+
+    /**
+     * Updates the tree with the given instance. Instances missing the class are ignored.
+     *
+     * @param instance the instance to learn from
+     * @throws Exception if the instance cannot be added
+     */
+    public void updateTree(Instance instance) throws Exception {
+        if (instance.classIsMissing()) {
+            return;
+        }
+        if (m_splitPoints == null) {
+            m_localModel.distribution().add(0, (int) instance.classValue(), instance.weight());
+            m_isEmpty = false;
+            m_sample.add(instance);
+            if (m_sample.numInstances() >= m_gracePeriod) {
+                placeBins();
+            }
+            return;
+        }
+        update(instance, instance.weight());
+    }
+
+    /**
+     * Places the bins of the numeric attributes at quantiles of the sample, then counts the sample at the root.
+     */
+    private void placeBins() throws Exception {
+        m_splitPoints = new double[m_train.numAttributes()][];
+        for (int a = 0; a < m_train.numAttributes(); a++) {
+            if (a != m_train.classIndex() && m_train.attribute(a).isNumeric()) {
+                m_splitPoints[a] = StreamingTreeBuilder.splitPoints(m_sample.attributeToDoubleArray(a),
+                        m_sample.numInstances(), m_maxBins);
+            }
+        }
+        newCounts();
+        int maxBins = 0;
+        for (int a = 0; a < m_counts.length; a++) {
+            if (m_counts[a] != null) {
+                maxBins = Math.max(maxBins, m_rowCounts[a].length);
+            }
+        }
+        m_histogram = new double[maxBins * (m_train.numClasses() + 1)];
+        m_missing = new double[m_train.numClasses()];
+        for (Instance instance : m_sample) {
+            count(instance, instance.weight());
+        }
+        m_sample = null;
+        m_weightAtLastCheck = m_countedWeight;
+        attemptSplit();
+    }
+
+    /**
+     * Starts empty class and row counts for the attributes.
+     */
+    private void newCounts() {
+        m_counts = new Distribution[m_train.numAttributes()];
+        m_rowCounts = new double[m_train.numAttributes()][];
+        for (int a = 0; a < m_counts.length; a++) {
+            int numBins;
+            if (a == m_train.classIndex()) {
+                continue;
+            } else if (m_train.attribute(a).isNominal()) {
+                numBins = m_train.attribute(a).numValues();
+            } else if (m_train.attribute(a).isNumeric()) {
+                numBins = m_splitPoints[a].length + 1;
+            } else {
+                continue;
+            }
+            m_counts[a] = m_distributionFactory.getDistribution(numBins + 1, m_train.numClasses());
+            m_rowCounts[a] = new double[numBins];
+        }
+    }
+
+    /**
+     * Passes the instance with the given weight down to the leaves it reaches, spreading it over the subsets of
+     * splits on values it misses like ClassifierTree does, and learns it there. The distributions of the splits on the
+     * way are updated, so the weights of such subsets follow the data.
+     */
+    private void update(Instance instance, double weight) throws Exception {
+        int classIndex = (int) instance.classValue();
+        HoeffdingClassifierTree node = this;
+        while (!node.m_isLeaf) {
+            ClassifierSplitModel model = node.m_localModel;
+            int subset = model.whichSubset(instance);
+            if (subset < 0) {
+                double[] weights = model.weights(instance);
+                for (int j = 0; j < node.m_sons.length; j++) {
+                    if (Utils.gr(weights[j], 0)) {
+                        model.distribution().add(j, classIndex, weight * weights[j]);
+                        ((HoeffdingClassifierTree) node.m_sons[j]).update(instance, weight * weights[j]);
+                    }
+                }
+                return;
+            }
+            model.distribution().add(subset, classIndex, weight);
+            node = (HoeffdingClassifierTree) node.m_sons[subset];
+        }
+
+        node.m_localModel.distribution().add(0, classIndex, weight);
+        node.m_isEmpty = false;
+        node.count(instance, weight);
+        if (node.m_countedWeight - node.m_weightAtLastCheck >= m_gracePeriod) {
+            node.m_weightAtLastCheck = node.m_countedWeight;
+            node.attemptSplit();
+        }
+    }
+
+    /**
+     * Adds the instance with the given weight to the class and row counts of the attributes. A row spread over the
+     * subsets of splits on missing values counts once in each, as in NodeStatistics.
+     */
+    private void count(Instance instance, double weight) {
+        int classIndex = (int) instance.classValue();
+        m_countedWeight += weight;
+        for (int a = 0; a < m_counts.length; a++) {
+            if (m_counts[a] == null) continue;
+            double value = instance.value(a);
+            if (Utils.isMissingValue(value)) {
+                m_counts[a].add(m_counts[a].numBags() - 1, classIndex, weight);
+                continue;
+            }
+            int bag = m_splitPoints[a] != null ? NodeStatistics.bin(m_splitPoints[a], value) : (int) value;
+            m_counts[a].add(bag, classIndex, weight);
+            m_rowCounts[a][bag]++;
+        }
+    }
+
+    /**
+     * Splits the leaf if the Hoeffding bound separates the best split from the runner-up, both built from the weight
+     * counted at the leaf.
+     */
+    private void attemptSplit() throws Exception {
+        double total = m_countedWeight;
+        if (Utils.sm(total, 2 * m_minNumObj)) {
+            return;
+        }
+        for (int a = 0; a < m_counts.length; a++) {
+            if (m_counts[a] != null) {
+                if (Utils.eq(total, m_counts[a].perClass(m_counts[a].maxClass()))) {
+                    return;
+                }
+                break;
+            }
+        }
+
+        int numClasses = m_train.numClasses();
+        final int width = numClasses + 1;
+        final double[] histogram = m_histogram;
+        final double[] missing = m_missing;
+        ClassifierSplitModel best = null;
+        double[] bestMissing = null;
+        double bestValue = 0;
+        double secondValue = 0;
+        for (int a = 0; a < m_counts.length; a++) {
+            if (m_counts[a] == null) continue;
+            int numBins = m_rowCounts[a].length;
+            // The whole buffer is cleared, as the enumerated splits add up all of it.
+            Arrays.fill(histogram, 0);
+            Arrays.fill(missing, 0);
+            for (int b = 0; b < numBins; b++) {
+                final int bin = b;
+                m_counts[a].forEachNonZero(b, new Distribution.ClassCountConsumer() {
+                    @Override
+                    public void accept(int classIndex, double count) {
+                        histogram[bin * width + classIndex] = count;
+                    }
+                });
+                histogram[b * width + numClasses] = m_rowCounts[a][b];
+            }
+            m_counts[a].forEachNonZero(numBins, new Distribution.ClassCountConsumer() {
+                @Override
+                public void accept(int classIndex, double count) {
+                    missing[classIndex] = count;
+                }
+            });
+
+            ClassifierSplitModel model;
+            double value;
+            if (m_binarySplits) {
+                BinC45Split split = new BinC45Split(a, m_minNumObj, total, true, m_distributionFactory);
+                split.buildClassifier(m_train, histogram, m_splitPoints[a]);
+                model = split;
+                value = m_useGainRatio ? split.gainRatio() : split.infoGain();
+            } else {
+                C45Split split = new C45Split(a, m_minNumObj, total, true, m_distributionFactory);
+                split.buildClassifier(m_train, histogram, m_splitPoints[a]);
+                model = split;
+                value = m_useGainRatio ? split.gainRatio() : split.infoGain();
+            }
+            if (!model.checkModel()) continue;
+            if (value > bestValue) {
+                secondValue = bestValue;
+                bestValue = value;
+                best = model;
+                bestMissing = missing.clone();
+            } else if (value > secondValue) {
+                secondValue = value;
+            }
+        }
+        if (best == null) {
+            return;
+        }
+
+        double range = m_useGainRatio ? 1 : Utils.log2(numClasses);
+        double bound = Math.sqrt(range * range * Math.log(1 / m_splitConfidence) / (2 * total));
+        if (bestValue - secondValue > bound || bound < m_tieThreshold) {
+            split(best, bestMissing);
+        }
+    }
+
+    /**
+     * Turns the leaf into a node split by the given model, whose distribution gets the given class counts of the
+     * instances missing the split attribute spread over its subsets.
+     */
+    private void split(ClassifierSplitModel model, double[] missing) {
+        NodeStatistics.addWithUnknown(model.distribution(), missing);
+        m_localModel = model;
+        m_isLeaf = false;
+        m_counts = null;
+        m_rowCounts = null;
+        m_sons = new ClassifierTree[model.numSubsets()];
+        for (int j = 0; j < m_sons.length; j++) {
+            final Distribution classCounts = m_distributionFactory.getDistribution(1, m_train);
+            model.distribution().forEachNonZero(j, new Distribution.ClassCountConsumer() {
+                @Override
+                public void accept(int classIndex, double count) {
+                    classCounts.add(0, classIndex, count);
+                }
+            });
+            m_sons[j] = new HoeffdingClassifierTree(this, classCounts);
+        }
+    }
+}
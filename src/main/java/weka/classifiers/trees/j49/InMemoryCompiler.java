@@ -0,0 +1,83 @@
+package weka.classifiers.trees.j49;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles Java source in memory with the compiler of the running JDK (javax.tools) and loads the resulting class
+ * with a class loader of its own, so it can be unloaded together with the object using it.
+ */
+class InMemoryCompiler {
+
+    /**
+     * Compiles the given source of a class without package and returns the loaded class.
+     *
+     * @throws Exception if there is no compiler (i.e. running on a JRE) or the source does not compile
+     */
+    static Class<?> compile(String className, final String source) throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new Exception("No Java compiler available, generating bytecode requires a JDK");
+        }
+
+        final Map<String, ByteArrayOutputStream> classes = new HashMap<>();
+        JavaFileManager fileManager = new ForwardingJavaFileManager<JavaFileManager>(
+                compiler.getStandardFileManager(null, null, null)) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, final String name, JavaFileObject.Kind kind,
+                    FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///" + name.replace('.', '/') + kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        classes.put(name, bytes);
+                        return bytes;
+                    }
+                };
+            }
+        };
+        JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///" + className + ".java"),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+
+        StringWriter messages = new StringWriter();
+        boolean compiled;
+        try {
+            compiled = compiler.getTask(messages, fileManager, null, Arrays.asList("-g:none", "-proc:none"), null,
+                    Collections.singletonList(file)).call();
+        } finally {
+            fileManager.close();
+        }
+        if (!compiled) {
+            throw new Exception("Could not compile " + className + ":\n" + messages);
+        }
+
+        ClassLoader loader = new ClassLoader(InMemoryCompiler.class.getClassLoader()) {
+            @Override
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                ByteArrayOutputStream bytes = classes.get(name);
+                if (bytes == null) throw new ClassNotFoundException(name);
+                return defineClass(name, bytes.toByteArray(), 0, bytes.size());
+            }
+        };
+        return loader.loadClass(className);
+    }
+}
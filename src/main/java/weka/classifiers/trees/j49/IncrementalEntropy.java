@@ -0,0 +1,131 @@
+package weka.classifiers.trees.j49;
+
+import weka.core.ContingencyTables;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Keeps the running sum of n*ln(n) over the class counts of every bag of a distribution while instances are
+ * shifted between bags, so that the entropy after splitting can be read in constant time at each candidate cut
+ * point of a numeric attribute instead of rescanning all classes.
+ */
+public class IncrementalEntropy {
+
+    //the distribution being scanned; all shifts must go through this object
+    Distribution m_distribution;
+
+    //sum of lnFunc(perClassPerBag(b, c)) over all classes c, per bag b
+    double[] m_lnSumPerBag;
+
+    //used for lnFunc so that the sums use exactly the same cut-off for small counts
+    EntropyBasedSplitCrit m_crit;
+
+    //scratch space of the bulk shiftRange(): running counts of the two bags per class, and the classes read so far
+    double[] m_countFrom;
+    double[] m_countTo;
+    boolean[] m_seen;
+    int[] m_touched;
+
+    /**
+     * Starts tracking the given distribution.
+     */
+    public IncrementalEntropy(Distribution distribution, EntropyBasedSplitCrit crit) {
+        m_distribution = distribution;
+        m_crit = crit;
+        m_lnSumPerBag = new double[distribution.numBags()];
+
+        for (int b = 0; b < m_lnSumPerBag.length; b++) {
+            final int bag = b;
+            distribution.forEachNonZero(b, new Distribution.ClassCountConsumer() {
+                @Override
+                public void accept(int classIndex, double count) {
+                    m_lnSumPerBag[bag] += m_crit.lnFunc(count);
+                }
+            });
+        }
+    }
+
+    /**
+     * Shifts given instance from one bag to another one, updating the sums for the two affected cells.
+     *
+     * @throws Exception if something goes wrong
+     */
+    public void shift(int from, int to, Instance instance) throws Exception {
+        int classIndex = (int) instance.classValue();
+        double weight = instance.weight();
+        double countFrom = m_distribution.perClassPerBag(from, classIndex);
+        double countTo = m_distribution.perClassPerBag(to, classIndex);
+
+        m_distribution.shift(from, to, instance);
+        m_lnSumPerBag[from] += m_crit.lnFunc(countFrom - weight) - m_crit.lnFunc(countFrom);
+        m_lnSumPerBag[to] += m_crit.lnFunc(countTo + weight) - m_crit.lnFunc(countTo);
+    }
+
+    /**
+     * Shifts all instances in given range from one bag to another one.
+     *
+     * @throws Exception if something goes wrong
+     */
+    public void shiftRange(int from, int to, Instances source, int startIndex, int lastPlusOne) throws Exception {
+        for (int i = startIndex; i < lastPlusOne; i++) {
+            shift(from, to, source.instance(i));
+        }
+    }
+
+    /**
+     * Shifts all instances in given range from one bag to another one, given by their class indices and weights. Each
+     * affected cell is read from the distribution once; the sums are updated instance by instance exactly as shift()
+     * does, so they come out the same.
+     */
+    public void shiftRange(int from, int to, int[] classIndices, double[] weights, int startIndex, int lastPlusOne) {
+        if (m_countFrom == null) {
+            int numClasses = m_distribution.numClasses();
+            m_countFrom = new double[numClasses];
+            m_countTo = new double[numClasses];
+            m_seen = new boolean[numClasses];
+            m_touched = new int[numClasses];
+        }
+
+        int numTouched = 0;
+        for (int i = startIndex; i < lastPlusOne; i++) {
+            int classIndex = classIndices[i];
+            double weight = weights[i];
+            if (!m_seen[classIndex]) {
+                m_seen[classIndex] = true;
+                m_touched[numTouched++] = classIndex;
+                m_countFrom[classIndex] = m_distribution.perClassPerBag(from, classIndex);
+                m_countTo[classIndex] = m_distribution.perClassPerBag(to, classIndex);
+            }
+            double countFrom = m_countFrom[classIndex];
+            double countTo = m_countTo[classIndex];
+
+            m_lnSumPerBag[from] += m_crit.lnFunc(countFrom - weight) - m_crit.lnFunc(countFrom);
+            m_lnSumPerBag[to] += m_crit.lnFunc(countTo + weight) - m_crit.lnFunc(countTo);
+            m_countFrom[classIndex] = countFrom - weight;
+            m_countTo[classIndex] = countTo + weight;
+        }
+        for (int k = 0; k < numTouched; k++) {
+            m_seen[m_touched[k]] = false;
+        }
+        m_distribution.shiftRange(from, to, classIndices, weights, startIndex, lastPlusOne);
+    }
+
+    /**
+     * Returns the entropy of the distribution after splitting, as EntropyBasedSplitCrit.newEnt() computes it.
+     */
+    public double newEnt() {
+        double returnValue = 0;
+
+        for (int b = 0; b < m_lnSumPerBag.length; b++) {
+            returnValue = returnValue + m_lnSumPerBag[b] - m_crit.lnFunc(m_distribution.perBag(b));
+        }
+        return -(returnValue / ContingencyTables.log2);
+    }
+
+    /**
+     * Returns the tracked distribution.
+     */
+    public Distribution distribution() {
+        return m_distribution;
+    }
+}
@@ -107,6 +107,35 @@ public final class InfoGainSplitCrit extends EntropyBasedSplitCrit {
     return numerator / bags.total();
   }
 
+  /**
+   * This method computes the information gain in the same way C4.5 does,
+   * using an already computed entropy after splitting.
+   * 
+   * @param bags the distribution
+   * @param totalNoInst weight of ALL instances
+   * @param oldEnt entropy with respect to "no-split"-model.
+   * @param newEnt entropy of the distribution after splitting.
+   */
+  public final double splitCritValue(Distribution bags, double totalNoInst,
+    double oldEnt, double newEnt) {
+
+    double numerator;
+    double noUnknown;
+    double unknownRate;
+
+    noUnknown = totalNoInst - bags.total();
+    unknownRate = noUnknown / totalNoInst;
+    numerator = (oldEnt - newEnt);
+    numerator = (1 - unknownRate) * numerator;
+
+    // Splits with no gain are useless.
+    if (Utils.eq(numerator, 0)) {
+      return 0;
+    }
+
+    return numerator / bags.total();
+  }
+
   /**
    * Returns the revision string.
    * 
@@ -0,0 +1,283 @@
+package weka.classifiers.trees.j49;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Grows a C4.5 tree breadth-first, a level at a time, instead of depth-first by recursion like ClassifierTree does.
+ * All nodes of a level (the frontier) are expanded together:
+ *
+ * <ol>
+ * <li>One pass over the data adds every row to the class statistics (see NodeStatistics) of the frontier node it
+ * reaches. Subclasses decide where the rows come from, see readLevel().</li>
+ * <li>A split is selected for every frontier node from its statistics, on the pool of the model selection if one has
+ * been set.</li>
+ * <li>Subsets that are too small to be split or hold a single class become leaves at once; the others make up the
+ * next level.</li>
+ * </ol>
+ *
+ * Numeric attributes are only split between bins fixed for the whole tree, set up by prepare(). The tree can be
+ * limited to a maximum depth and number of leaves; frontier nodes beyond those become leaves, the heaviest nodes of
+ * a level being split first.
+ *
+ * The statistics of a node take NodeStatistics.numCells() doubles. If those of a whole level would take more than
+ * the maximum number of cells (see setMaxLevelCells()), the level is filled and its splits selected in batches of
+ * nodes, with a pass over the data per batch; the other nodes of the level are mapped to NodeStatistics.DEFERRED
+ * meanwhile. The tree is the same either way.
+ */
+public abstract class LevelTreeBuilder {
+
+    //default maximum number of cells of the statistics held at once, 128 MB of doubles
+    public static final long DEFAULT_MAX_LEVEL_CELLS = 1L << 24;
+
+    protected final int m_minNumObj;
+
+    //maximum depth of the tree and number of leaves, 0 for no limit
+    private int m_maxDepth;
+    private int m_maxLeaves;
+
+    //maximum number of cells of the statistics held at once
+    private long m_maxLevelCells = DEFAULT_MAX_LEVEL_CELLS;
+
+    //header of the data, with the class set
+    protected Instances m_header;
+
+    //split points between the bins of the numeric attributes, null for other attributes
+    protected double[][] m_splitPoints;
+
+    //number of rows with a class
+    protected double m_numInstances;
+
+    //statistics of the nodes of the level being grown
+    protected final Map<ClassifierTree, NodeStatistics> m_level = new IdentityHashMap<ClassifierTree, NodeStatistics>();
+
+    protected LevelTreeBuilder(int minNumObj) {
+        m_minNumObj = minNumObj;
+    }
+
+    /**
+     * Limits the size of the tree.
+     *
+     * @param maxDepth maximum depth of a leaf, the root having depth 0, or 0 for no limit
+     * @param maxLeaves maximum number of leaves, or 0 for no limit
+     */
+    public void setBudget(int maxDepth, int maxLeaves) {
+        m_maxDepth = maxDepth;
+        m_maxLeaves = maxLeaves;
+    }
+
+    /**
+     * Limits the memory taken by the statistics of a level, which is then grown in batches of nodes if need be. At
+     * least one node is filled per pass over the data, whatever its size.
+     *
+     * @param maxLevelCells maximum number of cells of the statistics held at once, positive
+     */
+    public void setMaxLevelCells(long maxLevelCells) {
+        m_maxLevelCells = maxLevelCells;
+    }
+
+    /**
+     * Sets up m_header, m_splitPoints and m_numInstances before the tree is grown.
+     *
+     * @throws Exception if the data cannot be read
+     */
+    protected abstract void prepare() throws Exception;
+
+    /**
+     * Adds every row of the data to the statistics in m_level of the frontier node it reaches, for instance by passing
+     * it down from the root with route().
+     *
+     * @param root the root of the tree grown so far
+     * @throws Exception if the data cannot be read
+     */
+    protected abstract void readLevel(ClassifierTree root) throws Exception;
+
+    /**
+     * Grows the tree below the given root, which gets the split of the root and the nodes below it, with the split
+     * models selected by its model selection. Every node keeps the header of the data as its training data.
+     *
+     * @throws Exception if the data cannot be read or a split cannot be selected
+     */
+    void grow(C45PruneableClassifierTree root) throws Exception {
+        prepare();
+
+        List<C45PruneableClassifierTree> level = new ArrayList<C45PruneableClassifierTree>();
+        level.add(root);
+        int numLeaves = 1;
+        long numCells = NodeStatistics.numCells(m_header, m_splitPoints);
+        for (int depth = 0; !level.isEmpty(); depth++) {
+            final NodeStatistics[] statistics = new NodeStatistics[level.size()];
+            ClassifierSplitModel[] models = new ClassifierSplitModel[level.size()];
+            int batchSize = (int) Math.max(1, Math.min(level.size(), m_maxLevelCells / numCells));
+            for (int from = 0; from < level.size(); from += batchSize) {
+                int to = Math.min(level.size(), from + batchSize);
+                for (int i = 0; i < level.size(); i++) {
+                    m_level.put(level.get(i), i >= from && i < to
+                            ? new NodeStatistics(m_header, m_splitPoints) : NodeStatistics.DEFERRED);
+                }
+                readLevel(root);
+
+                NodeStatistics[] batch = new NodeStatistics[to - from];
+                for (int i = from; i < to; i++) {
+                    batch[i - from] = m_level.get(level.get(i));
+                    statistics[i] = batch[i - from].classCountsOnly();
+                }
+                if (depth != m_maxDepth || m_maxDepth == 0) {
+                    System.arraycopy(selectModels(root.m_toSelectModel, batch), 0, models, from, batch.length);
+                }
+            }
+            m_level.clear();
+
+            Integer[] order = new Integer[statistics.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            if (m_maxLeaves > 0) {
+                Arrays.sort(order, new Comparator<Integer>() {
+                    @Override
+                    public int compare(Integer i, Integer j) {
+                        return Double.compare(statistics[j].total(), statistics[i].total());
+                    }
+                });
+            }
+            List<C45PruneableClassifierTree> next = new ArrayList<C45PruneableClassifierTree>();
+            for (int i : order) {
+                C45PruneableClassifierTree node = level.get(i);
+                ClassifierSplitModel model = models[i];
+                if (model == null || (m_maxLeaves > 0 && numLeaves + model.numSubsets() - 1 > m_maxLeaves)) {
+                    model = new NoSplit(statistics[i].classDistribution(node.m_distributionFactory, m_header),
+                            node.m_distributionFactory);
+                }
+                numLeaves += model.numSubsets() - 1;
+                expand(node, model, next);
+            }
+            level = next;
+        }
+    }
+
+    /**
+     * Selects a split for each of the given statistics, as separate tasks if the model selection has a pool.
+     */
+    private ClassifierSplitModel[] selectModels(final ModelSelection selection, final NodeStatistics[] statistics)
+            throws Exception {
+        final ClassifierSplitModel[] models = new ClassifierSplitModel[statistics.length];
+        if (selection.m_pool == null || statistics.length == 1) {
+            for (int i = 0; i < statistics.length; i++) {
+                models[i] = selection.selectModel(m_header, statistics[i], m_splitPoints, m_numInstances);
+            }
+            return models;
+        }
+        List<ForkJoinTask<Void>> tasks = new ArrayList<ForkJoinTask<Void>>();
+        for (int i = 0; i < statistics.length; i++) {
+            final int node = i;
+            tasks.add(ForkJoinTask.adapt(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    models[node] = selection.selectModel(m_header, statistics[node], m_splitPoints, m_numInstances);
+                    return null;
+                }
+            }));
+        }
+        selection.invokeTasks(tasks);
+        return models;
+    }
+
+    /**
+     * Makes the given node a leaf or splits it with the given model, adding the sons that are to be split further to
+     * the next level.
+     */
+    private void expand(C45PruneableClassifierTree node, ClassifierSplitModel model,
+            List<C45PruneableClassifierTree> next) throws Exception {
+        node.m_localModel = model;
+        node.m_train = m_header;
+        if (model.numSubsets() < 2) {
+            node.m_isLeaf = true;
+            node.m_isEmpty = Utils.eq(model.distribution().total(), 0);
+            return;
+        }
+
+        node.m_isLeaf = false;
+        node.m_sons = new ClassifierTree[model.numSubsets()];
+        Distribution distribution = model.distribution();
+        for (int j = 0; j < node.m_sons.length; j++) {
+            C45PruneableClassifierTree son = node.newNode();
+            node.m_sons[j] = son;
+            double total = distribution.perBag(j);
+            if (Utils.sm(total, 2 * m_minNumObj) || Utils.eq(total, maxClassCount(distribution, j))) {
+                // No split is selected for the subset, whatever its statistics.
+                final Distribution leaf = son.m_distributionFactory.getDistribution(1, m_header);
+                distribution.forEachNonZero(j, new Distribution.ClassCountConsumer() {
+                    @Override
+                    public void accept(int classIndex, double count) {
+                        leaf.add(0, classIndex, count);
+                    }
+                });
+                expand(son, new NoSplit(leaf, son.m_distributionFactory), next);
+            } else {
+                son.m_isLeaf = true;
+                next.add(son);
+            }
+        }
+    }
+
+    private static double maxClassCount(Distribution distribution, int bag) {
+        final double[] max = new double[1];
+        distribution.forEachNonZero(bag, new Distribution.ClassCountConsumer() {
+            @Override
+            public void accept(int classIndex, double count) {
+                max[0] = Math.max(max[0], count);
+            }
+        });
+        return max[0];
+    }
+
+    /**
+     * Adds an instance that reached a node of the current level with the given weight to the statistics of the node,
+     * unless the node is deferred to another pass.
+     */
+    protected void reach(ClassifierTree node, NodeStatistics statistics, Instance instance, double weight) {
+        if (statistics != NodeStatistics.DEFERRED) {
+            statistics.add(instance, weight, m_splitPoints);
+        }
+    }
+
+    /**
+     * Passes the instance with the given weight down from the given node to the nodes of the current level, spreading
+     * it over the subsets of splits on values it misses like ClassifierTree does, and adds it to their statistics with
+     * reach().
+     */
+    protected void route(ClassifierTree node, Instance instance, double weight) throws Exception {
+        while (true) {
+            NodeStatistics statistics = m_level.get(node);
+            if (statistics != null) {
+                reach(node, statistics, instance, weight);
+                return;
+            }
+            if (node.m_isLeaf) {
+                return;
+            }
+            ClassifierSplitModel model = node.m_localModel;
+            int subset = model.whichSubset(instance);
+            if (subset < 0) {
+                double[] weights = model.weights(instance);
+                for (int j = 0; j < node.m_sons.length; j++) {
+                    if (Utils.gr(weights[j], 0)) {
+                        route(node.m_sons[j], instance, weight * weights[j]);
+                    }
+                }
+                return;
+            }
+            node = node.m_sons[subset];
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package weka.classifiers.trees.j49;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import weka.core.Instance;
+import weka.core.Utils;
+
+/**
+ * Read-only tree for scoring, read in place from a file written by CompiledTree.write(). The file is mapped into
+ * memory rather than loaded, so opening it takes constant time whatever its size, its contents are not on the Java
+ * heap, and processes scoring with the same file share one copy of it in the page cache.
+ *
+ * Nodes are walked like in CompiledTree, but reading the arrays from the mapped file. Unlike CompiledTree there is no
+ * object tree to fall back to, so instances whose path reaches a missing value are spread over the children with the
+ * weights of the training data, as ClassifierTree does. Nominal values unknown to the tree are treated as missing.
+ *
+ * The file is mapped in segments of 1GB by default, so it can be larger than a single buffer. Lookups only use
+ * absolute reads, so a tree can be used by several threads at once.
+ */
+public final class MappedTree {
+
+    //first int of every file, "J49T"
+    static final int MAGIC = 0x4A343954;
+
+    //version written by CompiledTree.write()
+    static final int VERSION = 1;
+
+    //flags
+    static final int LAPLACE = 1;
+    static final int SPARSE = 2;
+
+    //size of the header in bytes
+    static final int HEADER_SIZE = 32;
+
+    //by default the file is mapped in segments of 2^SEGMENT_BITS bytes; arrays start at multiples of eight, so no
+    //value spans two segments of at least eight bytes
+    public static final int SEGMENT_BITS = 30;
+
+    private final ByteBuffer[] m_segments;
+
+    //the segments hold 2^m_segmentBits bytes, all but the last one exactly
+    private final int m_segmentBits;
+    private final long m_segmentMask;
+
+    private final int m_numClasses;
+    private final boolean m_useLaplace;
+    private final int m_numNodes;
+    private final int m_numLeaves;
+
+    //offsets of the arrays described in CompiledTree, m_leafClasses is -1 if the leaves are stored densely
+    private final long m_type;
+    private final long m_attribute;
+    private final long m_splitPoint;
+    private final long m_first;
+    private final long m_numChildren;
+    private final long m_children;
+    private final long m_childWeight;
+    private final long m_leafStart;
+    private final long m_leafClasses;
+    private final long m_leafProbs;
+    private final long m_leafPrediction;
+
+    private MappedTree(ByteBuffer[] segments, int segmentBits) throws IOException {
+        m_segments = segments;
+        m_segmentBits = segmentBits;
+        m_segmentMask = (1L << segmentBits) - 1;
+        if (getInt(0) != MAGIC) {
+            throw new IOException("Not a compiled J49 tree");
+        }
+        if (getInt(4) != VERSION) {
+            throw new IOException("Unsupported compiled tree version " + getInt(4) + ", expected " + VERSION);
+        }
+        m_numClasses = getInt(8);
+        int flags = getInt(12);
+        m_useLaplace = (flags & LAPLACE) != 0;
+        m_numNodes = getInt(16);
+        int numChildEntries = getInt(20);
+        m_numLeaves = getInt(24);
+        int numLeafEntries = getInt(28);
+
+        m_type = HEADER_SIZE;
+        m_attribute = aligned(m_type + m_numNodes);
+        m_splitPoint = aligned(m_attribute + 4L * m_numNodes);
+        m_first = m_splitPoint + 8L * m_numNodes;
+        m_numChildren = aligned(m_first + 4L * m_numNodes);
+        m_children = aligned(m_numChildren + 4L * m_numNodes);
+        m_childWeight = aligned(m_children + 4L * numChildEntries);
+        m_leafStart = m_childWeight + 8L * numChildEntries;
+        long leafEnd = aligned(m_leafStart + 4L * (m_numLeaves + 1));
+        if ((flags & SPARSE) != 0) {
+            m_leafClasses = leafEnd;
+            m_leafProbs = aligned(m_leafClasses + 4L * numLeafEntries);
+        } else {
+            m_leafClasses = -1;
+            m_leafProbs = leafEnd;
+        }
+        m_leafPrediction = m_leafProbs + 8L * numLeafEntries;
+        long size = aligned(m_leafPrediction + 4L * m_numLeaves);
+        long available = 0;
+        for (ByteBuffer segment : segments) {
+            available += segment.limit();
+        }
+        if (available < size) {
+            throw new IOException("Compiled tree truncated: " + available + " bytes instead of " + size);
+        }
+    }
+
+    /**
+     * Maps the given file written by CompiledTree.write(). The file is not read, and stays mapped until the tree is
+     * garbage collected.
+     *
+     * @throws IOException if the file cannot be mapped or does not hold a compiled tree
+     */
+    public static MappedTree open(File file) throws IOException {
+        return open(file, SEGMENT_BITS);
+    }
+
+    /**
+     * Maps the given file written by CompiledTree.write() in segments of 2^segmentBits bytes. The file is not read,
+     * and stays mapped until the tree is garbage collected.
+     *
+     * @param segmentBits log2 of the segment size, from 3 (eight bytes) to SEGMENT_BITS
+     * @throws IOException if the file cannot be mapped or does not hold a compiled tree
+     */
+    public static MappedTree open(File file, int segmentBits) throws IOException {
+        if (segmentBits < 3 || segmentBits > SEGMENT_BITS) {
+            throw new IllegalArgumentException("Segments must hold 2^3 to 2^" + SEGMENT_BITS + " bytes");
+        }
+        try (RandomAccessFile input = new RandomAccessFile(file, "r"); FileChannel channel = input.getChannel()) {
+            long size = channel.size();
+            long segmentSize = 1L << segmentBits;
+            ByteBuffer[] segments = new ByteBuffer[(int) ((size + segmentSize - 1) >>> segmentBits)];
+            for (int s = 0; s < segments.length; s++) {
+                long start = (long) s << segmentBits;
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, segmentSize));
+            }
+            if (segments.length == 0) {
+                throw new IOException("Compiled tree file " + file + " is empty");
+            }
+            return new MappedTree(segments, segmentBits);
+        }
+    }
+
+    /**
+     * Reads a tree written by CompiledTree.write() in place from the given buffer, which must not be larger than a
+     * segment (1GB).
+     *
+     * @throws IOException if the buffer does not hold a compiled tree
+     */
+    public static MappedTree wrap(ByteBuffer buffer) throws IOException {
+        if (buffer.limit() > 1L << SEGMENT_BITS) {
+            throw new IOException("Buffers larger than " + (1L << SEGMENT_BITS) + " bytes have to be mapped by open()");
+        }
+        return new MappedTree(new ByteBuffer[] {buffer.duplicate()}, SEGMENT_BITS);
+    }
+
+    private static long aligned(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    private byte getByte(long offset) {
+        return m_segments[(int) (offset >>> m_segmentBits)].get((int) (offset & m_segmentMask));
+    }
+
+    private int getInt(long offset) {
+        return m_segments[(int) (offset >>> m_segmentBits)].getInt((int) (offset & m_segmentMask));
+    }
+
+    private double getDouble(long offset) {
+        return m_segments[(int) (offset >>> m_segmentBits)].getDouble((int) (offset & m_segmentMask));
+    }
+
+    /**
+     * Returns whether the leaf probabilities are Laplace-corrected.
+     */
+    public boolean useLaplace() {
+        return m_useLaplace;
+    }
+
+    /**
+     * Returns the number of classes.
+     */
+    public int numClasses() {
+        return m_numClasses;
+    }
+
+    /**
+     * Returns the number of nodes.
+     */
+    public int numNodes() {
+        return m_numNodes;
+    }
+
+    /**
+     * Returns the number of leaves.
+     */
+    public int numLeaves() {
+        return m_numLeaves;
+    }
+
+    /**
+     * Returns the leaf the given instance falls into, or -1 if its path reaches a missing value or a nominal value
+     * unknown to the tree.
+     */
+    public int leafFor(Instance instance) {
+        int node = 0;
+        while (getByte(m_type + node) != CompiledTree.LEAF) {
+            node = child(node, instance.value(getInt(m_attribute + 4L * node)));
+            if (node < 0) return -1;
+        }
+        return getInt(m_first + 4L * node);
+    }
+
+    /**
+     * Returns the leaf the given row of attribute values falls into, or -1 if its path reaches a missing value or a
+     * nominal value unknown to the tree.
+     */
+    public int leafFor(double[] values) {
+        int node = 0;
+        while (getByte(m_type + node) != CompiledTree.LEAF) {
+            node = child(node, values[getInt(m_attribute + 4L * node)]);
+            if (node < 0) return -1;
+        }
+        return getInt(m_first + 4L * node);
+    }
+
+    /**
+     * Returns the class predicted by the given leaf.
+     */
+    public int prediction(int leaf) {
+        return getInt(m_leafPrediction + 4L * leaf);
+    }
+
+    /**
+     * Overwrites probs with the class probabilities of the given leaf.
+     */
+    public void probabilities(int leaf, double[] probs) {
+        leafProbs(leaf, 1, probs);
+    }
+
+    /**
+     * Returns the class probabilities for the given instance.
+     */
+    public double[] distributionForInstance(Instance instance) {
+        double[] probs = new double[m_numClasses];
+        probs(instance, 0, 1, probs);
+        return probs;
+    }
+
+    /**
+     * Returns the class predicted for the given instance. If its path reaches a missing value, this is the class with
+     * the highest probability, which for Laplace-corrected probabilities can differ from the prediction of the object
+     * tree.
+     */
+    public double classifyInstance(Instance instance) {
+        int leaf = leafFor(instance);
+        if (leaf >= 0) return prediction(leaf);
+
+        double[] probs = distributionForInstance(instance);
+        double maxProb = -1;
+        int maxIndex = 0;
+        for (int c = 0; c < probs.length; c++) {
+            if (Utils.gr(probs[c], maxProb)) {
+                maxIndex = c;
+                maxProb = probs[c];
+            }
+        }
+        return maxIndex;
+    }
+
+    /**
+     * Overwrites probs with the class probabilities of the subtree at the given node times the given weight, summing
+     * up the children of nodes whose value is missing like ClassifierTree.getProbs().
+     */
+    private void probs(Instance instance, int node, double weight, double[] probs) {
+        while (getByte(m_type + node) != CompiledTree.LEAF) {
+            int child = child(node, instance.value(getInt(m_attribute + 4L * node)));
+            if (child < 0) {
+                Arrays.fill(probs, 0);
+                double[] childProbs = new double[probs.length];
+                long first = getInt(m_first + 4L * node);
+                int numChildren = getInt(m_numChildren + 4L * node);
+                for (int k = 0; k < numChildren; k++) {
+                    double childWeight = getDouble(m_childWeight + 8 * (first + k));
+                    if (childWeight == 0) continue;
+                    probs(instance, getInt(m_children + 4 * (first + k)), childWeight * weight, childProbs);
+                    for (int c = 0; c < probs.length; c++) {
+                        probs[c] += childProbs[c];
+                    }
+                }
+                return;
+            }
+            node = child;
+        }
+        leafProbs(getInt(m_first + 4L * node), weight, probs);
+    }
+
+    //overwrites probs with the probabilities of the given leaf times the given weight
+    private void leafProbs(int leaf, double weight, double[] probs) {
+        long start = getInt(m_leafStart + 4L * leaf);
+        if (m_leafClasses < 0) {
+            for (int c = 0; c < m_numClasses; c++) {
+                probs[c] = weight * getDouble(m_leafProbs + 8 * (start + c));
+            }
+        } else {
+            Arrays.fill(probs, 0);
+            long end = getInt(m_leafStart + 4L * (leaf + 1));
+            for (long k = start; k < end; k++) {
+                probs[getInt(m_leafClasses + 4 * k)] = weight * getDouble(m_leafProbs + 8 * k);
+            }
+        }
+    }
+
+    //the child of the given internal node the given value leads to, -1 if none
+    private int child(int node, double value) {
+        if (Utils.isMissingValue(value)) return -1;
+        long first = getInt(m_first + 4L * node);
+        int subset;
+        switch (getByte(m_type + node)) {
+        case CompiledTree.NUMERIC:
+            subset = value <= getDouble(m_splitPoint + 8L * node) ? 0 : 1;
+            break;
+        case CompiledTree.NOMINAL:
+            subset = (int) value;
+            if (subset < 0 || subset >= getInt(m_numChildren + 4L * node)) return -1;
+            break;
+        default:
+            subset = (int) getDouble(m_splitPoint + 8L * node) == (int) value ? 0 : 1;
+        }
+        return getInt(m_children + 4 * (first + subset));
+    }
+}
@@ -22,9 +22,16 @@
 package weka.classifiers.trees.j49;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import weka.core.Instances;
 import weka.core.RevisionHandler;
+import weka.core.Utils;
 
 /**
  * Abstract class for model selection criteria.
@@ -41,6 +48,127 @@ public abstract class ModelSelection
   /** Distribution Factory */
   protected DistributionFactory m_distributionFactory;
 
+  /**
+   * Pool for evaluating candidate splits and building subtrees in parallel,
+   * null for serial. Shared by all nodes of the tree being built.
+   */
+  protected transient ForkJoinPool m_pool;
+
+  /** Subsets with at least this many instances get their subtree built as a
+   * separate task if a pool has been set. */
+  protected int m_subtreeTaskThreshold = Integer.MAX_VALUE;
+
+  /** Number of models selected by reselectModel(). */
+  protected transient int m_numReselected;
+
+  /**
+   * Sets the pool used to evaluate the candidate splits of a node in
+   * parallel. If null, the candidates are evaluated one after the other.
+   *
+   * @param pool the pool to use
+   */
+  public void setPool(ForkJoinPool pool) {
+
+    m_pool = pool;
+  }
+
+  /**
+   * Sets the minimum number of instances for which a subtree is built as a
+   * separate task on the pool.
+   *
+   * @param threshold the minimum number of instances
+   */
+  public void setSubtreeTaskThreshold(int threshold) {
+
+    m_subtreeTaskThreshold = threshold;
+  }
+
+  /**
+   * Returns true if the subtree for the given subset is to be built as a
+   * separate task.
+   */
+  boolean buildAsTask(Instances subset) {
+
+    return runAsTask(subset.numInstances());
+  }
+
+  /**
+   * Returns true if work on a subtree of the given number of instances is
+   * to be done as a separate task.
+   */
+  boolean runAsTask(double numInstances) {
+
+    return (m_pool != null) && (numInstances >= m_subtreeTaskThreshold);
+  }
+
+  /**
+   * Runs the given tasks on the pool and waits for all of them to finish.
+   * Exceptions thrown by the tasks are passed on.
+   *
+   * @exception Exception if one of the tasks failed
+   */
+  void invokeTasks(final List<ForkJoinTask<Void>> tasks) throws Exception {
+
+    try {
+      if (ForkJoinTask.inForkJoinPool()) {
+        ForkJoinTask.invokeAll(tasks);
+      } else {
+        m_pool.invoke(new RecursiveAction() {
+          @Override
+          protected void compute() {
+            invokeAll(tasks);
+          }
+        });
+      }
+    } catch (RuntimeException e) {
+      Throwable cause = e;
+      while ((cause instanceof RuntimeException) && (cause.getCause() != null)) {
+        cause = cause.getCause();
+      }
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Builds the given split models on the given data, one task per model if
+   * a pool has been set. Null entries are skipped. When building in
+   * parallel, the data is never reordered: numeric attributes are scanned
+   * through sorted views instead.
+   *
+   * @exception Exception if a model can't be built
+   */
+  protected void buildModels(ClassifierSplitModel[] models, Instances data)
+       throws Exception {
+
+    if (m_pool == null) {
+      for (ClassifierSplitModel model : models) {
+        if (model != null) {
+          model.buildClassifier(data);
+        }
+      }
+      return;
+    }
+
+    final Instances shared = (data instanceof PresortedInstances) ? data
+      : PresortedInstances.sharing(data);
+    final List<ForkJoinTask<Void>> tasks = new ArrayList<ForkJoinTask<Void>>();
+    for (final ClassifierSplitModel model : models) {
+      if (model != null) {
+        tasks.add(ForkJoinTask.adapt(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            model.buildClassifier(shared);
+            return null;
+          }
+        }));
+      }
+    }
+    invokeTasks(tasks);
+  }
+
   /**
    * Selects a model for the given dataset.
    *
@@ -48,6 +176,72 @@ public abstract class ModelSelection
    */
   public abstract ClassifierSplitModel selectModel(Instances data) throws Exception;
 
+  /**
+   * Selects a model for a node from the class statistics of its data, for
+   * trees grown without the instances of every node. Numeric attributes are
+   * only split at the given split points between their bins.
+   *
+   * @exception Exception if model can't be selected, or not from statistics
+   */
+  ClassifierSplitModel selectModel(Instances header, NodeStatistics statistics,
+    double[][] splitPoints, double numAllInstances) throws Exception {
+
+    throw new Exception(getClass().getName()
+      + " cannot select models from class statistics");
+  }
+
+  /**
+   * Selects a model for the given data, which is similar to the data the
+   * given model was selected for, by re-scoring the attribute of the given
+   * model only. The re-scored model is taken to be still selected if its
+   * gain ratio and information gain changed by less than half the margins
+   * by which the given model was ahead of the other candidates, assuming
+   * their scores changed by no more than its own. This is a tolerance, not
+   * a bound: the model may differ from the one selectModel() would select
+   * if the data changed a lot more for other attributes. Returns null if
+   * the model has to be selected by selectModel(), always if not
+   * overwritten.
+   *
+   * @exception Exception if model can't be selected
+   */
+  ClassifierSplitModel reselectModel(Instances data,
+    ClassifierSplitModel previous) throws Exception {
+
+    return null;
+  }
+
+  /**
+   * Returns the number of models selected by reselectModel() instead of
+   * selectModel().
+   */
+  public int numReselected() {
+
+    return m_numReselected;
+  }
+
+  /**
+   * Returns true if the given model, re-scored on new data with the given
+   * information gain and gain ratio, is taken to be still selected, given
+   * the scores the given previous model had and its margins (see
+   * reselectModel()). The margins of the model are then set to what is
+   * left of those of the previous one.
+   */
+  static boolean keepsLead(ClassifierSplitModel model, double infoGain,
+    double gainRatio, ClassifierSplitModel previous, double previousInfoGain,
+    double previousGainRatio) {
+
+    double gainRatioChange = Math.abs(gainRatio - previousGainRatio);
+    double infoGainChange = Math.abs(infoGain - previousInfoGain);
+    if (!model.checkModel() || !Utils.gr(gainRatio, 0)
+      || !(2 * gainRatioChange < previous.m_gainRatioMargin)
+      || !(2 * infoGainChange < previous.m_infoGainMargin)) {
+      return false;
+    }
+    model.m_gainRatioMargin = previous.m_gainRatioMargin - 2 * gainRatioChange;
+    model.m_infoGainMargin = previous.m_infoGainMargin - 2 * infoGainChange;
+    return true;
+  }
+
   /**
    * Selects a model for the given train data using the given test data
    *
@@ -165,6 +165,26 @@ public final class NBTreeNoSplit
     return m_nb.distributionForInstance(temp)[classIndex];
   }
 
+  /**
+   * Return the probabilities for all class values, multiplied by the given
+   * weight. The naive bayes model is only queried once.
+   *
+   * @param instance the instance to generate probabilities for
+   * @param theSubset the subset to consider
+   * @param weight the weight to multiply the probabilities with
+   * @param probs the array to store the probabilities in
+   * @exception Exception if an error occurs
+   */
+  public void classProbs(Instance instance, int theSubset, double weight,
+                         double [] probs) throws Exception {
+    m_disc.input(instance);
+    Instance temp = m_disc.output();
+    double [] dist = m_nb.distributionForInstance(temp);
+    for (int j = 0; j < probs.length; j++) {
+      probs[j] = weight * dist[j];
+    }
+  }
+
   /**
    * Return a textual description of the node
    *
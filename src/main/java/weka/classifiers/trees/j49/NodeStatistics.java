@@ -0,0 +1,157 @@
+package weka.classifiers.trees.j49;
+
+import java.util.Arrays;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Class statistics of the training data of one node, which is all a split is selected on when the tree is grown
+ * without the instances of every node: the class counts, and for every nominal and numeric attribute a class
+ * histogram of its values or bins, laid out as described in PartitionedInstances.histogram(), plus the class counts
+ * of the rows missing the attribute.
+ *
+ * Numeric attributes are quantized into bins by split points fixed for the whole tree; bin b holds the values up to
+ * splitPoints[b], the last bin the values above the last split point.
+ *
+ * The histograms are dense, numCells() doubles per node whatever classes and values actually reach it, so the
+ * statistics of a whole level can take a lot of memory with many classes; LevelTreeBuilder caps how many it holds at
+ * once. The last column of a histogram counts rows, not weight: a row spread over the subsets of splits on missing
+ * values counts once in each, like the instances with known values counted against minSplit by
+ * C45Split.handleNumericAttribute().
+ */
+final class NodeStatistics {
+
+    //statistics of a frontier node that is not being filled in the current pass over the data
+    static final NodeStatistics DEFERRED = new NodeStatistics(new double[0]);
+
+    //weight of every class
+    final double[] m_classCounts;
+
+    //class histograms of the attributes, null for the class and attributes that cannot be split on
+    final double[][] m_histograms;
+
+    //weight of every class among the rows missing each attribute
+    final double[][] m_missing;
+
+    /**
+     * Creates empty statistics for the given header, with the numeric attributes quantized by the given split points.
+     */
+    NodeStatistics(Instances header, double[][] splitPoints) {
+        int numClasses = header.numClasses();
+        m_classCounts = new double[numClasses];
+        m_histograms = new double[header.numAttributes()][];
+        m_missing = new double[header.numAttributes()][];
+        for (int a = 0; a < header.numAttributes(); a++) {
+            int numBins;
+            if (a == header.classIndex()) {
+                continue;
+            } else if (header.attribute(a).isNominal()) {
+                numBins = header.attribute(a).numValues();
+            } else if (header.attribute(a).isNumeric()) {
+                numBins = splitPoints[a].length + 1;
+            } else {
+                continue;
+            }
+            m_histograms[a] = new double[numBins * (numClasses + 1)];
+            m_missing[a] = new double[numClasses];
+        }
+    }
+
+    private NodeStatistics(double[] classCounts) {
+        m_classCounts = classCounts;
+        m_histograms = new double[0][];
+        m_missing = new double[0][];
+    }
+
+    /**
+     * Returns statistics with the class counts of these only, to be kept once a split has been selected.
+     */
+    NodeStatistics classCountsOnly() {
+        return new NodeStatistics(m_classCounts);
+    }
+
+    /**
+     * Returns the number of doubles in the statistics of a node for the given header and split points.
+     */
+    static long numCells(Instances header, double[][] splitPoints) {
+        int numClasses = header.numClasses();
+        long numCells = numClasses;
+        for (int a = 0; a < header.numAttributes(); a++) {
+            if (a == header.classIndex()) {
+                continue;
+            } else if (header.attribute(a).isNominal()) {
+                numCells += (long) header.attribute(a).numValues() * (numClasses + 1) + numClasses;
+            } else if (header.attribute(a).isNumeric()) {
+                numCells += (long) (splitPoints[a].length + 1) * (numClasses + 1) + numClasses;
+            }
+        }
+        return numCells;
+    }
+
+    /**
+     * Adds the given instance with the given weight, which may differ from its own if it has been spread over the
+     * subsets of splits on missing values. The class must not be missing.
+     */
+    void add(Instance instance, double weight, double[][] splitPoints) {
+        int numClasses = m_classCounts.length;
+        int classIndex = (int) instance.classValue();
+        m_classCounts[classIndex] += weight;
+        for (int a = 0; a < m_histograms.length; a++) {
+            if (m_histograms[a] == null) continue;
+            double value = instance.value(a);
+            if (Utils.isMissingValue(value)) {
+                m_missing[a][classIndex] += weight;
+                continue;
+            }
+            int b = splitPoints[a] != null ? bin(splitPoints[a], value) : (int) value;
+            m_histograms[a][b * (numClasses + 1) + classIndex] += weight;
+            m_histograms[a][b * (numClasses + 1) + numClasses]++;
+        }
+    }
+
+    /**
+     * Returns the bin of the given value: the first one whose split point is not smaller than the value.
+     */
+    static int bin(double[] splitPoints, double value) {
+        int b = Arrays.binarySearch(splitPoints, value);
+        return b >= 0 ? b : -b - 1;
+    }
+
+    /**
+     * Returns the total weight.
+     */
+    double total() {
+        return Utils.sum(m_classCounts);
+    }
+
+    /**
+     * Returns the class distribution, with one bag.
+     */
+    Distribution classDistribution(DistributionFactory factory, Instances header) {
+        Distribution distribution = factory.getDistribution(1, header);
+        distribution.add(0, m_classCounts);
+        return distribution;
+    }
+
+    /**
+     * Spreads the given class counts of rows missing the split attribute over the bags of the distribution of a split,
+     * in proportion to the bags, like Distribution.addInstWithUnknown() does with the instances.
+     */
+    static void addWithUnknown(Distribution distribution, double[] missing) {
+        int numBags = distribution.numBags();
+        double total = distribution.total();
+        double[] probs = new double[numBags];
+        for (int j = 0; j < numBags; j++) {
+            probs[j] = Utils.eq(total, 0) ? 1.0 / numBags : distribution.perBag(j) / total;
+        }
+        double[] counts = new double[missing.length];
+        for (int j = 0; j < numBags; j++) {
+            for (int c = 0; c < missing.length; c++) {
+                counts[c] = probs[j] * missing[c];
+            }
+            distribution.add(j, counts);
+        }
+    }
+}
@@ -246,11 +246,15 @@ public class OriginalDistribution implements Distribution {
   @Override
   public final void add(int bagIndex, Instance instance) throws Exception {
 
-    int classIndex;
-    double weight;
+    add(bagIndex, (int) instance.classValue(), instance.weight());
+  }
+
+  /**
+   * Adds an instance of given class and weight to given bag.
+   */
+  @Override
+  public final void add(int bagIndex, int classIndex, double weight) {
 
-    classIndex = (int) instance.classValue();
-    weight = instance.weight();
     m_perClassPerBag[bagIndex][classIndex] = m_perClassPerBag[bagIndex][classIndex]
       + weight;
     m_perBag[bagIndex] = m_perBag[bagIndex] + weight;
@@ -339,6 +343,45 @@ public class OriginalDistribution implements Distribution {
     }
   }
 
+  /**
+   * Adds the instances with unknown values for the split attribute, given by
+   * their class indices and weights, weighted according to frequency of
+   * instances in each bag. Same result as addInstWithUnknown() on the
+   * instances.
+   */
+  @Override
+  public final void addInstWithUnknown(int[] classIndices, double[] weights,
+    int count) {
+
+    double[] probs;
+    double weight;
+    double newWeight;
+    int classIndex;
+    int j;
+
+    probs = new double[m_perBag.length];
+    for (j = 0; j < m_perBag.length; j++) {
+      if (Utils.eq(totaL, 0)) {
+        probs[j] = 1.0 / probs.length;
+      } else {
+        probs[j] = m_perBag[j] / totaL;
+      }
+    }
+    for (int i = 0; i < count; i++) {
+      classIndex = classIndices[i];
+      weight = weights[i];
+      m_perClass[classIndex] = m_perClass[classIndex] + weight;
+      totaL = totaL + weight;
+      for (j = 0; j < m_perBag.length; j++) {
+        newWeight = probs[j] * weight;
+        m_perClassPerBag[j][classIndex] = m_perClassPerBag[j][classIndex]
+          + newWeight;
+        m_perBag[j] = m_perBag[j] + newWeight;
+      }
+    }
+  }
+
+
   /**
    * Adds all instances in given range to given bag.
    * 
@@ -364,6 +407,26 @@ public class OriginalDistribution implements Distribution {
     totaL += sumOfWeights;
   }
 
+  /**
+   * Adds all instances in given range to given bag, given by their class
+   * indices and weights.
+   */
+  @Override
+  public final void addRange(int bagIndex, int[] classIndices,
+          double[] weights, int startIndex, int lastPlusOne) {
+
+    double sumOfWeights = 0;
+    double[] perClassPerBag = m_perClassPerBag[bagIndex];
+
+    for (int i = startIndex; i < lastPlusOne; i++) {
+      sumOfWeights = sumOfWeights + weights[i];
+      perClassPerBag[classIndices[i]] += weights[i];
+      m_perClass[classIndices[i]] += weights[i];
+    }
+    m_perBag[bagIndex] += sumOfWeights;
+    totaL += sumOfWeights;
+  }
+
   /**
    * Adds given instance to all bags weighting it according to given weights.
    * 
@@ -631,6 +694,35 @@ public class OriginalDistribution implements Distribution {
     return m_perClassPerBag[bagIndex][classIndex];
   }
 
+  /**
+   * Passes every class with a non-zero count in the given bag to the
+   * consumer, in order of class index.
+   */
+  @Override
+  public final void forEachNonZero(int bagIndex, ClassCountConsumer consumer) {
+
+    double[] counts = m_perClassPerBag[bagIndex];
+    for (int j = 0; j < counts.length; j++) {
+      if (counts[j] != 0) {
+        consumer.accept(j, counts[j]);
+      }
+    }
+  }
+
+  /**
+   * Passes every class with a non-zero count over all bags to the consumer,
+   * in order of class index.
+   */
+  @Override
+  public final void forEachNonZero(ClassCountConsumer consumer) {
+
+    for (int j = 0; j < m_perClass.length; j++) {
+      if (m_perClass[j] != 0) {
+        consumer.accept(j, m_perClass[j]);
+      }
+    }
+  }
+
   /**
    * Returns number of (possibly fractional) instances in given bag.
    */
@@ -771,6 +863,25 @@ public class OriginalDistribution implements Distribution {
     }
   }
 
+  /**
+   * Shifts all instances in given range from one bag to another one, given
+   * by their class indices and weights.
+   */
+  @Override
+  public final void shiftRange(int from, int to, int[] classIndices,
+          double[] weights, int startIndex, int lastPlusOne) {
+
+    double[] perClassFrom = m_perClassPerBag[from];
+    double[] perClassTo = m_perClassPerBag[to];
+
+    for (int i = startIndex; i < lastPlusOne; i++) {
+      perClassFrom[classIndices[i]] -= weights[i];
+      perClassTo[classIndices[i]] += weights[i];
+      m_perBag[from] -= weights[i];
+      m_perBag[to] += weights[i];
+    }
+  }
+
   /**
    * Gets the percentage density (the percentage of values in the standard distribution that are non-zero) of the distribution
    * @return the density of the distribution
@@ -0,0 +1,1033 @@
+package weka.classifiers.trees.j49;
+
+import java.lang.reflect.Array;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Presorted instances whose subsets are ranges of rows shared by the whole tree. Instead of copying the instances of
+ * a node into a new set per subset, ClassifierSplitModel.split() partitions the node's range of one shared row-id
+ * array in place, like quicksort, together with the same range of every attribute order, and the subsets are windows
+ * onto the resulting ranges. Growing a tree thus allocates the row ids and attribute orders once instead of once per
+ * level.
+ *
+ * Instances with a missing value for the split attribute go to several subsets with reduced weights, so they cannot
+ * be in the range of any subset. They are moved to the end of the range of their set instead, and every subset they
+ * go to lists their row ids with their weights in the subset as copies, which are handed down to the subsets of the
+ * subset in turn. The instances of a set are those of its range merged with its copies in ascending order of their
+ * row ids, which is the order of the instances of the set as the reference implementation copies them; reweighted
+ * instance objects for the copies are only created if the instances of a set are read.
+ *
+ * A set is partitioned once, when its node is grown. Splitting it again later (e.g. while pruning) copies as usual.
+ * Afterwards its range holds the ranges of its subsets one after the other, so if its instances are read again (e.g.
+ * while pruning), they are read through a sorted copy of the ids of its range, made when they are first read.
+ *
+ * Optionally the shared rows are also converted into primitive columns (see ColumnarData), which split models then
+ * read instead of the instances. Binned numeric attributes are then searched on per-bin class histograms of each set,
+ * counted from its rows when asked for and not kept, or, for sets with fewer rows than the histogram has cells, on
+ * the non-empty cells collected from the rows (see binCells()).
+ *
+ * If siblings are subtracted, nominal attributes of sets with at least as many rows as cells in their histograms are
+ * searched on class histograms of their values too, and the histograms of a set are kept until it is partitioned. If
+ * it is partitioned into two subsets and no instance misses the split attribute, the smaller subset counts a
+ * histogram from its rows and the larger one gets that of this set minus it, as long as that is cheaper than counting
+ * it from the rows of the larger subset (see handDown()); the class distribution is handed down the same way
+ * (Distribution.subtract()). Everything else is released, the histograms of a set that is not going to be partitioned
+ * into two subsets as soon as its split is selected (see selected()). With fractional weights, statistics derived by
+ * subtraction can differ from counted ones by rounding.
+ */
+public class PartitionedInstances extends PresortedInstances {
+
+    private static final long serialVersionUID = -6043826573298473410L;
+
+    //copy positions of a list without copies
+    private static final int[] NO_COPIES = new int[0];
+
+    //rows shared with the sets this one was partitioned from or into, null until this set is first partitioned
+    private transient SharedRows m_shared;
+
+    //range of the shared row order holding the instances of this set
+    private int m_from;
+    private int m_to;
+
+    //ids of the shared rows that belong to this set besides its range, because they miss the value of a split above
+    //it, in ascending order, and their weights in this set; null if there are none
+    private int[] m_copyIds;
+    private double[] m_copyWeights;
+
+    //instances of these rows with their weights in this set, null until the instances of this set are read
+    private transient volatile Instance[] m_copies;
+
+    //whether the range has been handed down to subsets
+    private boolean m_partitioned;
+
+    //whether the shared rows are converted into columns
+    private boolean m_columnar;
+
+    //maximum number of bins numeric columns are quantized into, 0 if they are not
+    private int m_maxBins;
+
+    //whether statistics of subsets are derived from those of this set where possible
+    private boolean m_subtractSiblings;
+
+    //class histograms of the binned and nominal attributes over the rows of this set if siblings are subtracted, null
+    //until needed or after being handed down or released
+    private transient double[][] m_histograms;
+
+    //class distribution of this set if siblings are subtracted, null until needed or after being handed down
+    private transient Distribution m_classDistribution;
+    private transient DistributionFactory m_distributionFactory;
+
+    /**
+     * Creates a copy of the given instances. The rows are shared and the attributes sorted when first needed. A copy
+     * of partitioned instances is converted into columns, binned and subtracts siblings like them.
+     */
+    public PartitionedInstances(Instances dataset) {
+        super(dataset);
+        if (dataset instanceof PartitionedInstances) {
+            PartitionedInstances partitioned = (PartitionedInstances) dataset;
+            m_columnar = partitioned.m_columnar;
+            m_maxBins = partitioned.m_maxBins;
+            m_subtractSiblings = partitioned.m_subtractSiblings;
+        }
+        m_histograms = new double[numAttributes()][];
+    }
+
+    /**
+     * Creates a copy of the given instances, whose rows are converted into columns when first needed if columnar is
+     * set.
+     */
+    public PartitionedInstances(Instances dataset, boolean columnar) {
+        this(dataset, columnar, 0, false);
+    }
+
+    /**
+     * Creates a copy of the given instances, whose rows are converted into columns when first needed if columnar is
+     * set, with the numeric columns quantized into at most maxBins bins if maxBins is not 0, and the statistics of
+     * subsets derived from those of their parent where possible if subtractSiblings is set.
+     */
+    public PartitionedInstances(Instances dataset, boolean columnar, int maxBins, boolean subtractSiblings) {
+        super(dataset);
+        m_columnar = columnar;
+        m_maxBins = maxBins;
+        m_subtractSiblings = subtractSiblings;
+        m_histograms = new double[numAttributes()][];
+    }
+
+    /**
+     * Creates a read-only window onto a range of the given rows, in ascending order, and the given copies.
+     */
+    private PartitionedInstances(Instances header, SharedRows shared, int from, int to, int[] copyIds,
+            double[] copyWeights) {
+        super(header, 0);
+        m_shared = shared;
+        m_from = from;
+        m_to = to;
+        m_copyIds = copyIds;
+        m_copyWeights = copyWeights;
+        m_columnar = shared.m_columns != null;
+        if (header instanceof PartitionedInstances) {
+            m_maxBins = ((PartitionedInstances) header).m_maxBins;
+            m_subtractSiblings = ((PartitionedInstances) header).m_subtractSiblings;
+        }
+        m_histograms = new double[numAttributes()][];
+
+        int[] copyPositions = NO_COPIES;
+        if (copyIds != null) {
+            //a copy goes after the rows of the range with smaller ids
+            copyPositions = new int[copyIds.length];
+            int p = from;
+            for (int k = 0; k < copyIds.length; k++) {
+                while (p < to && shared.m_order[p] < copyIds[k]) {
+                    p++;
+                }
+                copyPositions[k] = p - from + k;
+            }
+        }
+        m_Instances = new RowList(shared.m_rows, shared.m_order, from, to, copyIds == null ? null : this, null,
+                copyPositions);
+    }
+
+    /**
+     * Returns the rows of this set, setting them up from its instances if it is the root.
+     */
+    private synchronized SharedRows shared() {
+        if (m_shared == null) {
+            Instance[] rows = m_Instances.toArray(new Instance[0]);
+            ColumnarData columns = m_columnar ? new ColumnarData(this, rows) : null;
+            int[][] sorted = new int[numAttributes()][];
+            for (int a = 0; a < numAttributes(); a++) {
+                if (a != classIndex() && attribute(a).isNumeric()) {
+                    //positions in this set are the row ids
+                    sorted[a] = columns == null || m_sortedIndices[a] != null ? sortedIndices(a)
+                            : columns.sortedIds(a);
+                    m_sortedIndices[a] = null;
+                    if (columns != null && m_maxBins > 0) {
+                        //binned attributes are searched on histograms, so their order is not kept
+                        columns.bin(a, sorted[a], m_maxBins);
+                        sorted[a] = null;
+                    }
+                }
+            }
+            m_shared = new SharedRows(rows, sorted, columns);
+            m_from = 0;
+            m_to = numInstances();
+        }
+        return m_shared;
+    }
+
+    /**
+     * Returns the instances of the copies of this set, creating them when first asked for.
+     */
+    private Instance[] copies() {
+        Instance[] copies = m_copies;
+        if (copies == null) {
+            synchronized (this) {
+                copies = m_copies;
+                if (copies == null) {
+                    copies = new Instance[m_copyIds.length];
+                    for (int k = 0; k < copies.length; k++) {
+                        copies[k] = (Instance) m_shared.m_rows[m_copyIds[k]].copy();
+                        copies[k].setWeight(m_copyWeights[k]);
+                    }
+                    m_copies = copies;
+                }
+            }
+        }
+        return copies;
+    }
+
+    private int numCopies() {
+        return m_copyIds == null ? 0 : m_copyIds.length;
+    }
+
+    @Override
+    public Instances sortedView(int attIndex) {
+        if (!m_partitioned) {
+            SharedRows shared = shared();
+            int[] sorted = shared.m_sorted[attIndex];
+            if (sorted != null && m_copyIds == null) {
+                return new View(this, new RowList(shared.m_rows, sorted, m_from, m_to, null, null, NO_COPIES));
+            } else if (sorted != null) {
+                //merge the copies into the order of the range
+                int[] copyOrder = sortedCopies(attIndex);
+                int[] copyPositions = new int[copyOrder.length];
+                int p = m_from;
+                for (int k = 0; k < copyOrder.length; k++) {
+                    while (p < m_to && precedes(attIndex, sorted[p], m_copyIds[copyOrder[k]])) {
+                        p++;
+                    }
+                    copyPositions[k] = p - m_from + k;
+                }
+                return new View(this, new RowList(shared.m_rows, sorted, m_from, m_to, this, copyOrder,
+                        copyPositions));
+            }
+        }
+        //the shared order of a partitioned range only holds within the ranges of its subsets
+        return super.sortedView(attIndex);
+    }
+
+    /**
+     * Returns the indices of the copies of this set in ascending order of the given numeric attribute, keeping the
+     * order of their ids for ties, with the copies missing the value at the end.
+     */
+    private int[] sortedCopies(int attIndex) {
+        int numKnown = 0;
+        for (int id : m_copyIds) {
+            if (!isMissing(attIndex, id)) numKnown++;
+        }
+        int[] sorted = new int[m_copyIds.length];
+        double[] values = new double[numKnown];
+        int[] known = new int[numKnown];
+        int numSorted = 0;
+        int missing = numKnown;
+        for (int k = 0; k < m_copyIds.length; k++) {
+            if (isMissing(attIndex, m_copyIds[k])) {
+                sorted[missing++] = k;
+            } else {
+                values[numSorted] = value(attIndex, m_copyIds[k]);
+                known[numSorted++] = k;
+            }
+        }
+        int[] order = Utils.stableSort(values);
+        for (int i = 0; i < order.length; i++) {
+            sorted[i] = known[order[i]];
+        }
+        return sorted;
+    }
+
+    /**
+     * Returns whether the row with the given id comes before the copy with the given id in ascending order of the
+     * given numeric attribute, missing values last and ties in the order of the ids.
+     */
+    private boolean precedes(int attIndex, int id, int copyId) {
+        boolean missing = isMissing(attIndex, id);
+        if (missing != isMissing(attIndex, copyId)) return !missing;
+        if (!missing && value(attIndex, id) != value(attIndex, copyId)) {
+            return value(attIndex, id) < value(attIndex, copyId);
+        }
+        return id < copyId;
+    }
+
+    private boolean isMissing(int attIndex, int id) {
+        ColumnarData columns = m_shared.m_columns;
+        return columns != null ? columns.isMissing(attIndex, id) : m_shared.m_rows[id].isMissing(attIndex);
+    }
+
+    private double value(int attIndex, int id) {
+        ColumnarData columns = m_shared.m_columns;
+        return columns != null ? columns.m_numeric[attIndex][id] : m_shared.m_rows[id].value(attIndex);
+    }
+
+    /**
+     * Returns the columns of the rows of this set, or null if it is not columnar or has been partitioned already.
+     */
+    ColumnarData columns() {
+        return m_columnar && !m_partitioned ? shared().m_columns : null;
+    }
+
+    /**
+     * Returns the columns of the given instances if they are columnar partitioned instances, see columns(), otherwise
+     * null.
+     */
+    static ColumnarData columnsOf(Instances data) {
+        return data instanceof PartitionedInstances ? ((PartitionedInstances) data).columns() : null;
+    }
+
+    /**
+     * Returns whether split models should search nominal attributes on histograms, see histogram().
+     */
+    boolean subtractsSiblings() {
+        return m_subtractSiblings;
+    }
+
+    /**
+     * Releases the statistics the given instances keep for handing them down, unless the given model, selected for
+     * them, is going to partition them into two subsets.
+     */
+    static void selected(Instances data, ClassifierSplitModel model) {
+        if (data instanceof PartitionedInstances && model.numSubsets() != 2) {
+            PartitionedInstances partitioned = (PartitionedInstances) data;
+            Arrays.fill(partitioned.m_histograms, null);
+            partitioned.m_classDistribution = null;
+        }
+    }
+
+    /**
+     * Returns the class distribution of this set, with one bag. If siblings are subtracted, it is kept for handing it
+     * down when this set is partitioned, so it must not be changed; it may have been handed down by the parent.
+     *
+     * @throws Exception if the distribution cannot be created
+     */
+    Distribution classDistribution(DistributionFactory factory) throws Exception {
+        if (m_classDistribution == null) {
+            Distribution distribution;
+            if (columns() != null) {
+                distribution = factory.getDistribution(1, this);
+                for (Rows rows = new Rows(); rows.next(); ) {
+                    distribution.add(0, m_shared.m_columns.m_class[rows.m_id], rows.m_weight);
+                }
+            } else {
+                distribution = factory.getDistribution(this);
+            }
+            if (!m_subtractSiblings || !m_columnar || m_partitioned) {
+                return distribution;
+            }
+            m_classDistribution = distribution;
+            m_distributionFactory = factory;
+        }
+        return m_classDistribution;
+    }
+
+    /**
+     * Adds the rows of this set missing the given attribute to the given distribution of a split on it, as
+     * Distribution.addInstWithUnknown() does with the instances. Only valid while columns() is not null.
+     */
+    void addInstWithUnknown(Distribution distribution, int attIndex) {
+        ColumnarData columns = m_shared.m_columns;
+        int numMissing = 0;
+        for (Rows rows = new Rows(); rows.next(); ) {
+            if (columns.isMissing(attIndex, rows.m_id)) numMissing++;
+        }
+        int[] classIndices = new int[numMissing];
+        double[] weights = new double[numMissing];
+        numMissing = 0;
+        for (Rows rows = new Rows(); rows.next(); ) {
+            if (columns.isMissing(attIndex, rows.m_id)) {
+                classIndices[numMissing] = columns.m_class[rows.m_id];
+                weights[numMissing++] = rows.m_weight;
+            }
+        }
+        distribution.addInstWithUnknown(classIndices, weights, numMissing);
+    }
+
+    /**
+     * Returns the sum of the weights of the instances, from the columns if there are any.
+     */
+    @Override
+    public double sumOfWeights() {
+        if (columns() == null) return super.sumOfWeights();
+        double sum = 0;
+        for (Rows rows = new Rows(); rows.next(); ) {
+            sum += rows.m_weight;
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the class histogram of the given binned or nominal attribute over the rows of this set: for bin (or
+     * value) b, the weight of class c at [b * (numClasses + 1) + c] and the number of rows at
+     * [b * (numClasses + 1) + numClasses]. Rows missing the attribute are not counted. Weights are summed in the order
+     * of the instances. Counted from the rows unless it was handed down by the parent, and kept only if siblings are
+     * subtracted. Only valid while columns() is not null; the histogram must not be changed.
+     */
+    double[] histogram(int attIndex) {
+        double[] histogram = m_histograms[attIndex];
+        if (histogram == null) {
+            ColumnarData columns = m_shared.m_columns;
+            int numClasses = numClasses();
+            int width = numClasses + 1;
+            int[] bin = columns.m_bin[attIndex] != null ? columns.m_bin[attIndex] : columns.m_nominal[attIndex];
+            histogram = new double[columns.numBins(attIndex) * width];
+            for (Rows rows = new Rows(); rows.next(); ) {
+                int b = bin[rows.m_id];
+                if (b >= 0) {
+                    histogram[b * width + columns.m_class[rows.m_id]] += rows.m_weight;
+                    histogram[b * width + numClasses]++;
+                }
+            }
+            if (m_subtractSiblings) m_histograms[attIndex] = histogram;
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns whether splits on the given binned or nominal attribute are better searched on its class histogram than
+     * on the rows of this set, i.e. whether the histogram is already there or this set has at least as many rows as
+     * the histogram has class cells. Only valid while columns() is not null.
+     */
+    boolean searchesHistogram(int attIndex) {
+        return m_histograms[attIndex] != null
+                || numInstances() >= (long) m_shared.m_columns.numBins(attIndex) * numClasses();
+    }
+
+    /**
+     * Collects the non-empty cells of the class histogram of the given binned attribute (see histogram()) from the
+     * rows of this set, without allocating the histogram: the classes and weights of the cells go to classIndices and
+     * weights in ascending order of bin and class, the end of the cells of bin b to binEnd[b] and its number of rows
+     * to binRows[b]. classIndices and weights need room for a cell per row. Returns the number of cells. The weights
+     * are summed in the order of the instances, so the cells are those of the histogram. Only valid while columns() is
+     * not null.
+     */
+    int binCells(int attIndex, int[] classIndices, double[] weights, int[] binEnd, double[] binRows) {
+        ColumnarData columns = m_shared.m_columns;
+        int[] bin = columns.m_bin[attIndex];
+        int numBins = binEnd.length;
+
+        //the rows not missing the attribute, stably sorted by bin
+        int[] binStart = new int[numBins + 1];
+        for (Rows rows = new Rows(); rows.next(); ) {
+            if (bin[rows.m_id] >= 0) binStart[bin[rows.m_id] + 1]++;
+        }
+        for (int b = 0; b < numBins; b++) {
+            binRows[b] = binStart[b + 1];
+            binStart[b + 1] += binStart[b];
+        }
+        //class in the high and position among the rows in the low bits, so that sorting keeps the order of the rows
+        long[] keys = new long[binStart[numBins]];
+        double[] rowWeights = new double[keys.length];
+        int[] next = Arrays.copyOf(binStart, numBins);
+        int position = 0;
+        for (Rows rows = new Rows(); rows.next(); ) {
+            int b = bin[rows.m_id];
+            if (b >= 0) {
+                keys[next[b]++] = (long) columns.m_class[rows.m_id] << 32 | position;
+                rowWeights[position++] = rows.m_weight;
+            }
+        }
+
+        int numCells = 0;
+        for (int b = 0; b < numBins; b++) {
+            Arrays.sort(keys, binStart[b], binStart[b + 1]);
+            for (int i = binStart[b]; i < binStart[b + 1]; ) {
+                int c = (int) (keys[i] >>> 32);
+                double weight = 0;
+                for (; i < binStart[b + 1] && (int) (keys[i] >>> 32) == c; i++) {
+                    weight += rowWeights[(int) keys[i]];
+                }
+                if (weight != 0) {
+                    classIndices[numCells] = c;
+                    weights[numCells++] = weight;
+                }
+            }
+            binEnd[b] = numCells;
+        }
+        return numCells;
+    }
+
+    /**
+     * Adds the rows of this set that do not miss the given nominal attribute to the bags of their values, in the order
+     * of the instances. Only valid while columns() is not null.
+     */
+    void addValues(Distribution distribution, int attIndex) throws Exception {
+        ColumnarData columns = m_shared.m_columns;
+        int[] column = columns.m_nominal[attIndex];
+        for (Rows rows = new Rows(); rows.next(); ) {
+            if (column[rows.m_id] >= 0) {
+                distribution.add(column[rows.m_id], columns.m_class[rows.m_id], rows.m_weight);
+            }
+        }
+    }
+
+    /**
+     * Puts the classes, weights and values of the rows of this set that do not miss the given numeric attribute into
+     * the given arrays, in ascending order of the attribute and in the order of the instances for ties, and returns
+     * their number. Only valid while columns() is not null and the attribute is not binned.
+     */
+    int sortedValues(int attIndex, int[] classIndices, double[] weights, double[] values) {
+        ColumnarData columns = m_shared.m_columns;
+        int[] sorted = m_shared.m_sorted[attIndex];
+        double[] column = columns.m_numeric[attIndex];
+        int[] copyOrder = m_copyIds == null ? NO_COPIES : sortedCopies(attIndex);
+        int p = m_from;
+        int k = 0;
+        int n = 0;
+        while (true) {
+            boolean inRange = p < m_to && !columns.isMissing(attIndex, sorted[p]);
+            boolean inCopies = k < copyOrder.length && !columns.isMissing(attIndex, m_copyIds[copyOrder[k]]);
+            int id;
+            double weight;
+            if (inRange && (!inCopies || precedes(attIndex, sorted[p], m_copyIds[copyOrder[k]]))) {
+                id = sorted[p++];
+                weight = columns.m_weight[id];
+            } else if (inCopies) {
+                id = m_copyIds[copyOrder[k]];
+                weight = m_copyWeights[copyOrder[k++]];
+            } else {
+                return n;
+            }
+            classIndices[n] = columns.m_class[id];
+            weights[n] = weight;
+            values[n++] = column[id];
+        }
+    }
+
+    /**
+     * Partitions the instances of this set into the subsets of the given split model, or returns null if this set has
+     * been partitioned before and has to be split by copying.
+     */
+    Instances[] partition(ClassifierSplitModel model) throws Exception {
+        if (m_partitioned) return null;
+        m_partitioned = true;
+        SharedRows shared = shared();
+        int numSubsets = model.numSubsets();
+        if (m_Instances instanceof RowList) {
+            //the range is reordered below, so the instances of this set are read from a sorted copy of it from now on
+            m_Instances = new RowList(shared.m_rows, null, 0, m_to - m_from, this, null,
+                    ((RowList) m_Instances).m_copyPositions);
+        }
+
+        //the rows whose subset is unknown go to a tail after the ranges of the subsets
+        int[] subsetSize = new int[numSubsets + 1];
+        for (int p = m_from; p < m_to; p++) {
+            int id = shared.m_order[p];
+            int subset = subsetOf(model, id);
+            if (subset < 0) subset = numSubsets;
+            shared.m_slot[id] = subset;
+            subsetSize[subset]++;
+        }
+        int[] start = new int[numSubsets + 1];
+        int next = m_from;
+        for (int j = 0; j <= numSubsets; j++) {
+            start[j] = next;
+            next += subsetSize[j];
+        }
+        shared.partition(shared.m_order, m_from, m_to, start);
+        for (int[] sorted : shared.m_sorted) {
+            if (sorted != null) shared.partition(sorted, m_from, m_to, start);
+        }
+
+        //the rows of the tail and the copies of this set become copies of the subsets, in ascending order of their ids
+        int tail = start[numSubsets];
+        int numCopies = numCopies();
+        int[][] copyIds = new int[numSubsets][];
+        double[][] copyWeights = new double[numSubsets][];
+        int[] numSubsetCopies = new int[numSubsets];
+        boolean unknown = tail < m_to;
+        if (m_to - tail + numCopies > 0) {
+            for (int j = 0; j < numSubsets; j++) {
+                copyIds[j] = new int[m_to - tail + numCopies];
+                copyWeights[j] = new double[m_to - tail + numCopies];
+            }
+            int p = tail;
+            int k = 0;
+            while (p < m_to || k < numCopies) {
+                int id;
+                double weight;
+                int subset;
+                if (k < numCopies && (p == m_to || m_copyIds[k] < shared.m_order[p])) {
+                    id = m_copyIds[k];
+                    weight = m_copyWeights[k++];
+                    subset = subsetOf(model, id);
+                } else {
+                    id = shared.m_order[p++];
+                    weight = shared.m_rows[id].weight();
+                    subset = -1;
+                }
+                if (subset > -1) {
+                    copyIds[subset][numSubsetCopies[subset]] = id;
+                    copyWeights[subset][numSubsetCopies[subset]++] = weight;
+                } else {
+                    unknown = true;
+                    double[] weights = model.weights(shared.m_rows[id]);
+                    for (int j = 0; j < numSubsets; j++) {
+                        if (Utils.gr(weights[j], 0)) {
+                            copyIds[j][numSubsetCopies[j]] = id;
+                            copyWeights[j][numSubsetCopies[j]++] = weights[j] * weight;
+                        }
+                    }
+                }
+            }
+        }
+
+        PartitionedInstances[] subsets = new PartitionedInstances[numSubsets];
+        for (int j = 0; j < subsets.length; j++) {
+            int n = numSubsetCopies[j];
+            subsets[j] = new PartitionedInstances(this, shared, start[j], start[j] + subsetSize[j],
+                    n == 0 ? null : Arrays.copyOf(copyIds[j], n), n == 0 ? null : Arrays.copyOf(copyWeights[j], n));
+        }
+        //statistics can only be handed down to two subsets if every row goes to one of them with its weight
+        if (m_subtractSiblings && shared.m_columns != null && subsets.length == 2 && !unknown) {
+            handDown(subsets);
+        }
+        Arrays.fill(m_histograms, null);
+        m_classDistribution = null;
+        return subsets;
+    }
+
+    /**
+     * Returns the subset of the given model the row with the given id goes to, -1 if it goes to several, routed by its
+     * columns if there are any and the model can.
+     */
+    private int subsetOf(ClassifierSplitModel model, int id) throws Exception {
+        int subset = m_shared.m_columns != null ? model.whichSubset(m_shared.m_columns, id)
+                : ClassifierSplitModel.NOT_COLUMNAR;
+        return subset != ClassifierSplitModel.NOT_COLUMNAR ? subset : model.whichSubset(m_shared.m_rows[id]);
+    }
+
+    /**
+     * Hands the statistics of this set down to the given two subsets, which partition its rows, where that is cheaper
+     * than counting them from the rows of the larger subset: the smaller subset counts its statistics from its rows
+     * and the larger one gets those of this set minus them. Histograms are only handed down if the rows of the smaller
+     * subset plus the cells of the histogram are fewer than the rows of the larger one; the others are counted by
+     * each subset when asked for.
+     */
+    private void handDown(PartitionedInstances[] subsets) throws Exception {
+        int smaller = subsets[0].numInstances() <= subsets[1].numInstances() ? 0 : 1;
+        PartitionedInstances small = subsets[smaller];
+        PartitionedInstances large = subsets[1 - smaller];
+        long margin = (long) large.numInstances() - small.numInstances();
+
+        for (int a = 0; a < m_histograms.length; a++) {
+            double[] histogram = m_histograms[a];
+            if (histogram == null || histogram.length >= margin) continue;
+
+            double[] rest = histogram.clone();
+            double[] smallHistogram = small.histogram(a);
+            for (int k = 0; k < rest.length; k++) {
+                rest[k] -= smallHistogram[k];
+                //what is left of a count is rounding error if it is within Utils.SMALL of zero
+                if (Utils.eq(rest[k], 0)) rest[k] = 0;
+            }
+            large.m_histograms[a] = rest;
+        }
+        if (m_classDistribution != null && numClasses() < margin) {
+            large.m_classDistribution = m_classDistribution.subtract(small.classDistribution(m_distributionFactory));
+            large.m_distributionFactory = m_distributionFactory;
+        }
+    }
+
+    /**
+     * Returns the ids of the range of this set in ascending order, copied from the shared order.
+     */
+    private int[] sortedRange() {
+        int[] ids = Arrays.copyOfRange(m_shared.m_order, m_from, m_to);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Cursor over the rows of this set in the order of its instances, i.e. its range merged with its copies in
+     * ascending order of their ids, with their weights in this set. Only valid while columns() is not null.
+     */
+    private final class Rows {
+
+        //next position in the range and next copy
+        private int m_next = m_from;
+        private int m_nextCopy;
+
+        //id and weight of the current row
+        int m_id;
+        double m_weight;
+
+        /**
+         * Moves to the next row, returning false if there is none.
+         */
+        boolean next() {
+            if (m_nextCopy < numCopies() && (m_next == m_to || m_copyIds[m_nextCopy] < m_shared.m_order[m_next])) {
+                m_id = m_copyIds[m_nextCopy];
+                m_weight = m_copyWeights[m_nextCopy++];
+                return true;
+            }
+            if (m_next == m_to) return false;
+            m_id = m_shared.m_order[m_next++];
+            m_weight = m_shared.m_columns.m_weight[m_id];
+            return true;
+        }
+    }
+
+    /**
+     * Instances and orders shared by the sets partitioned from the same root. Each set owns a range of the row order
+     * and the same range of every attribute order, and only ever reorders rows within it, so sets of different
+     * subtrees can be partitioned at the same time.
+     */
+    private static final class SharedRows {
+
+        //instances by row id
+        final Instance[] m_rows;
+
+        //row ids; every set owns a range
+        final int[] m_order;
+
+        //row ids of every numeric attribute, in ascending order of the attribute within the range of every set
+        final int[][] m_sorted;
+
+        //scratch space by row id
+        final int[] m_slot;
+
+        //scratch space by position
+        final int[] m_buffer;
+
+        //the rows as columns, null if not columnar
+        final ColumnarData m_columns;
+
+        SharedRows(Instance[] rows, int[][] sorted, ColumnarData columns) {
+            m_rows = rows;
+            m_columns = columns;
+            m_order = new int[rows.length];
+            for (int i = 0; i < m_order.length; i++) {
+                m_order[i] = i;
+            }
+            m_sorted = sorted;
+            m_slot = new int[rows.length];
+            m_buffer = new int[rows.length];
+        }
+
+        /**
+         * Stably moves the row ids in [from, to) of the given array to the ranges starting at start[j], where j is
+         * the subset in the slot of each row.
+         */
+        void partition(int[] ids, int from, int to, int[] start) {
+            System.arraycopy(ids, from, m_buffer, from, to - from);
+            int[] next = start.clone();
+            for (int p = from; p < to; p++) {
+                int id = m_buffer[p];
+                ids[next[m_slot[id]]++] = id;
+            }
+        }
+    }
+
+    /**
+     * Read-only view of the instances of a set in another order.
+     */
+    private static class View extends Instances {
+
+        private static final long serialVersionUID = 2301568823479140337L;
+
+        View(Instances header, RowList rows) {
+            super(header, 0);
+            m_Instances = rows;
+        }
+    }
+
+    /**
+     * Read-only list of the rows whose ids are in a range of an id array, or in the range of a set in ascending order,
+     * with the copies of a set merged in at given positions. Instances keeps its instances in an ArrayList, so this is one, but its own backing array stays empty:
+     * every method reading the list goes through get() and size() (by way of an AbstractList view for the less common
+     * ones), and every method changing it throws an UnsupportedOperationException. Serialized as a plain list.
+     */
+    private static class RowList extends ArrayList<Instance> {
+
+        private static final long serialVersionUID = -2848170546352405817L;
+
+        private final Instance[] m_rows;
+        private final int m_from;
+        private final int m_to;
+
+        //row ids, null until first read if they are those of the range of m_owner in ascending order
+        private volatile int[] m_ids;
+
+        //set whose range or copies are read, null if neither is
+        private final transient PartitionedInstances m_owner;
+
+        //indices of the copies in the order of this list, null if it is that of their ids
+        private final int[] m_copyOrder;
+
+        //positions of the copies in this list, ascending
+        private final int[] m_copyPositions;
+
+        //the same rows as a list implemented on get() and size() only
+        private final transient List<Instance> m_view = new AbstractList<Instance>() {
+            @Override
+            public Instance get(int index) {
+                return RowList.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return RowList.this.size();
+            }
+        };
+
+        RowList(Instance[] rows, int[] ids, int from, int to, PartitionedInstances owner, int[] copyOrder,
+                int[] copyPositions) {
+            super(0);
+            m_rows = rows;
+            m_ids = ids;
+            m_from = from;
+            m_to = to;
+            m_owner = owner;
+            m_copyOrder = copyOrder;
+            m_copyPositions = copyPositions;
+        }
+
+        private int[] ids() {
+            int[] ids = m_ids;
+            if (ids == null) {
+                synchronized (this) {
+                    if (m_ids == null) m_ids = m_owner.sortedRange();
+                    ids = m_ids;
+                }
+            }
+            return ids;
+        }
+
+        /**
+         * Returns copy k in the order of this list.
+         */
+        private Instance copy(int k) {
+            return m_owner.copies()[m_copyOrder == null ? k : m_copyOrder[k]];
+        }
+
+        @Override
+        public int size() {
+            return m_to - m_from + m_copyPositions.length;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return size() == 0;
+        }
+
+        @Override
+        public Instance get(int index) {
+            if (index < 0 || index >= size()) throw new IndexOutOfBoundsException("Index: " + index);
+            if (m_copyPositions.length == 0) return m_rows[ids()[m_from + index]];
+            int k = Arrays.binarySearch(m_copyPositions, index);
+            //otherwise -k - 1 copies come before the index
+            return k >= 0 ? copy(k) : m_rows[ids()[m_from + index + k + 1]];
+        }
+
+        @Override
+        public Iterator<Instance> iterator() {
+            return new Iterator<Instance>() {
+                private final int[] m_rowIds = ids();
+                private int m_next;
+                private int m_nextRow = m_from;
+                private int m_nextCopy;
+
+                public boolean hasNext() {
+                    return m_next < size();
+                }
+
+                public Instance next() {
+                    if (m_next >= size()) throw new NoSuchElementException();
+                    boolean copy = m_nextCopy < m_copyPositions.length && m_copyPositions[m_nextCopy] == m_next;
+                    m_next++;
+                    return copy ? copy(m_nextCopy++) : m_rows[m_rowIds[m_nextRow++]];
+                }
+            };
+        }
+
+        @Override
+        public Object[] toArray() {
+            return toArray(new Object[size()]);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T[] toArray(T[] a) {
+            int size = size();
+            T[] array = a.length >= size ? a
+                    : (T[]) Array.newInstance(a.getClass().getComponentType(), size);
+            Iterator<Instance> instances = iterator();
+            for (int i = 0; i < size; i++) {
+                array[i] = (T) instances.next();
+            }
+            if (array.length > size) array[size] = null;
+            return array;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return m_view.contains(o);
+        }
+
+        @Override
+        public int indexOf(Object o) {
+            return m_view.indexOf(o);
+        }
+
+        @Override
+        public int lastIndexOf(Object o) {
+            return m_view.lastIndexOf(o);
+        }
+
+        @Override
+        public ListIterator<Instance> listIterator() {
+            return m_view.listIterator();
+        }
+
+        @Override
+        public ListIterator<Instance> listIterator(int index) {
+            return m_view.listIterator(index);
+        }
+
+        @Override
+        public List<Instance> subList(int fromIndex, int toIndex) {
+            return m_view.subList(fromIndex, toIndex);
+        }
+
+        @Override
+        public void forEach(Consumer<? super Instance> action) {
+            m_view.forEach(action);
+        }
+
+        @Override
+        public Spliterator<Instance> spliterator() {
+            return m_view.spliterator();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return m_view.equals(o);
+        }
+
+        @Override
+        public int hashCode() {
+            return m_view.hashCode();
+        }
+
+        @Override
+        public Object clone() {
+            return new ArrayList<>(this);
+        }
+
+        @Override
+        public Instance set(int index, Instance element) {
+            throw new UnsupportedOperationException("Partitioned instances are read-only");
+        }
+
+        @Override
+        public boolean add(Instance element) {
+            throw new UnsupportedOperationException("Partitioned instances are read-only");
+        }
+
+        @Override
+        public void add(int index, Instance element) {
+            throw new UnsupportedOperationException("Partitioned instances are read-only");
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends Instance> c) {
+            throw new UnsupportedOperationException("Partitioned instances are read-only");
+        }
+
+        @Override
+        public boolean addAll(int index, Collection<? extends Instance> c) {
+            throw new UnsupportedOperationException("Partitioned instances are read-only");
+        }
+
+        @Override
+        public Instance remove(int index) {
+            throw new UnsupportedOperationException("Partitioned instances are read-only");
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            throw new UnsupportedOperationException("Partitioned instances are read-only");
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> c) {
+            throw new UnsupportedOperationException("Partitioned instances are read-only");
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> c) {
+            throw new UnsupportedOperationException("Partitioned instances are read-only");
+        }
+
+        @Override
+        public boolean removeIf(Predicate<? super Instance> filter) {
+            throw new UnsupportedOperationException("Partitioned instances are read-only");
+        }
+
+        @Override
+        protected void removeRange(int fromIndex, int toIndex) {
+            throw new UnsupportedOperationException("Partitioned instances are read-only");
+        }
+
+        @Override
+        public void replaceAll(UnaryOperator<Instance> operator) {
+            throw new UnsupportedOperationException("Partitioned instances are read-only");
+        }
+
+        @Override
+        public void sort(Comparator<? super Instance> c) {
+            throw new UnsupportedOperationException("Partitioned instances are read-only");
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException("Partitioned instances are read-only");
+        }
+
+        @Override
+        public void ensureCapacity(int minCapacity) {
+        }
+
+        @Override
+        public void trimToSize() {
+        }
+
+        private Object writeReplace() {
+            return new ArrayList<>(this);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package weka.classifiers.trees.j49;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Instances that carry, for every numeric attribute, the positions of their instances in ascending order of that
+ * attribute (instances with a missing value last). The order is computed once at the root and handed down stably
+ * to the subsets created by ClassifierSplitModel.split(), so splits on numeric attributes can scan a sorted view
+ * instead of sorting the node's instances again at every level (SLIQ-style presorting).
+ *
+ * The instances must not be reordered or removed once an order has been computed.
+ */
+public class PresortedInstances extends Instances {
+
+    private static final long serialVersionUID = 4712318329413620518L;
+
+    //positions of the instances sorted by each numeric attribute, null until needed or after being handed down
+    int[][] m_sortedIndices;
+
+    /**
+     * Creates a copy of the given instances. The attribute orders are computed when first asked for.
+     */
+    public PresortedInstances(Instances dataset) {
+        super(dataset);
+        m_sortedIndices = new int[numAttributes()][];
+    }
+
+    /**
+     * Creates an empty set with the header of the given instances, which is filled by ClassifierSplitModel.split().
+     */
+    public PresortedInstances(Instances dataset, int capacity) {
+        super(dataset, capacity);
+        m_sortedIndices = new int[numAttributes()][];
+    }
+
+    /**
+     * Returns a set holding the same instance objects as the given instances, so that sorted views can be taken,
+     * also from several threads at once, without reordering the given instances.
+     */
+    static PresortedInstances sharing(Instances dataset) {
+        PresortedInstances shared = new PresortedInstances(dataset, dataset.numInstances());
+        for (int i = 0; i < dataset.numInstances(); i++) {
+            shared.m_Instances.add(dataset.instance(i));
+        }
+        return shared;
+    }
+
+    /**
+     * Returns a set with the header of the given instances holding the given instance objects, without copying them.
+     */
+    static PresortedInstances sharing(Instances dataset, Instance[] instances) {
+        PresortedInstances shared = new PresortedInstances(dataset, instances.length);
+        for (Instance instance : instances) {
+            shared.m_Instances.add(instance);
+        }
+        return shared;
+    }
+
+    /**
+     * Returns whether the order for any attribute is known, i.e. whether subsets of this set should keep it.
+     */
+    public boolean hasSortedIndices() {
+        for (int[] sorted : m_sortedIndices) {
+            if (sorted != null) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the positions of the instances in ascending order of the given numeric attribute, with instances
+     * missing the value at the end. Computed on first use unless it was handed down by the parent node.
+     */
+    public int[] sortedIndices(int attIndex) {
+        if (m_sortedIndices[attIndex] == null) {
+            int[] sorted = new int[numInstances()];
+            int numMissing = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (instance(i).isMissing(attIndex)) numMissing++;
+            }
+
+            //sort the known values, keeping the original order for ties
+            double[] values = new double[sorted.length - numMissing];
+            int[] positions = new int[values.length];
+            int known = 0;
+            int missing = values.length;
+            for (int i = 0; i < sorted.length; i++) {
+                if (instance(i).isMissing(attIndex)) {
+                    sorted[missing++] = i;
+                } else {
+                    values[known] = instance(i).value(attIndex);
+                    positions[known++] = i;
+                }
+            }
+            int[] order = Utils.stableSort(values);
+            for (int i = 0; i < order.length; i++) {
+                sorted[i] = positions[order[i]];
+            }
+            m_sortedIndices[attIndex] = sorted;
+        }
+        return m_sortedIndices[attIndex];
+    }
+
+    /**
+     * Returns the instances in ascending order of the given numeric attribute, missing values last, without copying
+     * any instance and without changing the order of this set.
+     */
+    public Instances sortedView(int attIndex) {
+        return new SortedView(this, sortedIndices(attIndex));
+    }
+
+    /**
+     * Hands the attribute orders of this set down to its subsets, going through each order once. Instance i of this
+     * set went to subset subsetOf[i] at position positionInSubset[i], or, if subsetOf[i] is -1, it is the k-th
+     * instance going to several subsets, where k is positionInSubset[i], and its position in subset j is
+     * unknownPositions[k * subsets.length + j], or -1 if it did not go there. The orders of this set are released
+     * afterwards.
+     */
+    void partitionSortedIndices(Instances[] subsets, int[] subsetOf, int[] positionInSubset,
+            int[] unknownPositions) {
+        for (int a = 0; a < m_sortedIndices.length; a++) {
+            int[] sorted = m_sortedIndices[a];
+            if (sorted == null) continue;
+
+            int[][] subsetSorted = new int[subsets.length][];
+            for (int j = 0; j < subsets.length; j++) {
+                subsetSorted[j] = new int[subsets[j].numInstances()];
+            }
+            int[] count = new int[subsets.length];
+            for (int i : sorted) {
+                int j = subsetOf[i];
+                if (j >= 0) {
+                    subsetSorted[j][count[j]++] = positionInSubset[i];
+                } else {
+                    int positions = positionInSubset[i] * subsets.length;
+                    for (j = 0; j < subsets.length; j++) {
+                        int position = unknownPositions[positions + j];
+                        if (position >= 0) subsetSorted[j][count[j]++] = position;
+                    }
+                }
+            }
+            for (int j = 0; j < subsets.length; j++) {
+                ((PresortedInstances) subsets[j]).m_sortedIndices[a] = subsetSorted[j];
+            }
+            m_sortedIndices[a] = null;
+        }
+    }
+
+    /**
+     * Read-only view of a set of instances in a given order, sharing the instance objects.
+     */
+    private static class SortedView extends Instances {
+
+        private static final long serialVersionUID = -1893716279431904263L;
+
+        SortedView(Instances dataset, int[] order) {
+            super(dataset, order.length);
+            for (int i : order) {
+                m_Instances.add(dataset.instance(i));
+            }
+        }
+    }
+}
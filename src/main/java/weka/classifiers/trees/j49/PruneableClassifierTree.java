@@ -86,13 +86,20 @@ public class PruneableClassifierTree
        throws Exception {
 
     // remove instances with missing class
+    boolean presort = data instanceof PresortedInstances;
+    boolean partition = data instanceof PartitionedInstances;
     data = new Instances(data);
     data.deleteWithMissingClass();
     
    Random random = new Random(m_seed);
    data.stratify(numSets);
-   buildTree(data.trainCV(numSets, numSets - 1, random),
-	     data.testCV(numSets, numSets - 1), !m_cleanup);
+   Instances train = data.trainCV(numSets, numSets - 1, random);
+   if (partition) {
+     train = new PartitionedInstances(train);
+   } else if (presort) {
+     train = new PresortedInstances(train);
+   }
+   buildTree(train, data.testCV(numSets, numSets - 1), !m_cleanup);
    if (pruneTheTree) {
      prune();
    }
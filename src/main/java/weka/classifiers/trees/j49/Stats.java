@@ -29,12 +29,119 @@ import weka.core.Statistics;
  * Class implementing a statistical routine needed by J49 to
  * compute its error estimate.
  *
+ * An instance computes the same estimates for a fixed confidence factor,
+ * with the z-score computed once and the estimates for no or one error
+ * tabulated for small integral numbers of instances, so that pruning does
+ * not evaluate normalInverse() and pow() for every node. Instances can be
+ * shared between threads.
+ *
  * @author Eibe Frank (eibe@cs.waikato.ac.nz)
  * @version $Revision$
  */
 public class Stats
   implements RevisionHandler {
 
+  /** Estimates for no or one error are tabulated for integral numbers of
+   * instances up to this. */
+  static final int TABLE_SIZE = 1024;
+
+  /** The confidence factor. */
+  private final float m_CF;
+
+  /** z-score corresponding to the confidence factor. */
+  private final double m_z;
+
+  /** Extra errors for e == 0 and e == 1, indexed by N. */
+  private final double[] m_errsForNone;
+  private final double[] m_errsForOne;
+
+  /**
+   * Creates the statistics for the given confidence value.
+   *
+   * @param CF confidence value
+   */
+  public Stats(float CF) {
+
+    m_CF = CF;
+    if (CF > 0.5) {
+      System.err.println("WARNING: confidence value for pruning " +
+			 " too high. Error estimate not modified.");
+      m_z = 0;
+      m_errsForNone = null;
+      m_errsForOne = null;
+      return;
+    }
+    m_z = Statistics.normalInverse(1 - CF);
+    m_errsForNone = new double[TABLE_SIZE + 1];
+    m_errsForOne = new double[TABLE_SIZE + 1];
+    for (int n = 1; n <= TABLE_SIZE; n++) {
+      double N = n;
+      m_errsForNone[n] = N * (1 - Math.pow(CF, 1 / N));
+      m_errsForOne[n] = addErrsAbove(N, 1);
+    }
+  }
+
+  /**
+   * Computes estimated extra error for given total number of instances
+   * and error like addErrs(N, e, CF) for the confidence value of these
+   * statistics.
+   *
+   * @param N number of instances
+   * @param e observed error
+   */
+  public double addErrs(double N, double e) {
+
+    if (m_errsForNone == null) {
+      return 0;
+    }
+    if (e < 1) {
+      int n = (int) N;
+      boolean tabulated = (n == N) && (n >= 1) && (n <= TABLE_SIZE);
+      double base = tabulated ? m_errsForNone[n]
+	: N * (1 - Math.pow(m_CF, 1 / N));
+      if (e == 0) {
+	return base;
+      }
+      double one = tabulated ? m_errsForOne[n] : addErrsAbove(N, 1);
+      return base + e * (one - base);
+    }
+    return addErrsAbove(N, e);
+  }
+
+  /**
+   * Computes estimated extra errors for the given numbers of instances
+   * and errors, like addErrs(N[i], e[i]) for every i.
+   *
+   * @param N numbers of instances
+   * @param e observed errors
+   * @param errs receives the extra errors, may be N or e
+   */
+  public void addErrs(double[] N, double[] e, double[] errs) {
+
+    for (int i = 0; i < errs.length; i++) {
+      errs[i] = addErrs(N[i], e[i]);
+    }
+  }
+
+  /**
+   * Computes the estimate for e >= 1.
+   */
+  private double addErrsAbove(double N, double e) {
+
+    if (e + 0.5 >= N) {
+      return Math.max(N - e, 0);
+    }
+    double z = m_z;
+    double  f = (e + 0.5) / N;
+    double r = (f + (z * z) / (2 * N) +
+		z * Math.sqrt((f / N) - 
+			      (f * f / N) + 
+			      (z * z / (4 * N * N)))) /
+      (1 + (z * z) / N);
+
+    return (r * N) - e;
+  }
+
   /**
    * Computes estimated extra error for given total number of instances
    * and error using normal approximation to binomial distribution
@@ -0,0 +1,139 @@
+package weka.classifiers.trees.j49;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.Loader;
+
+/**
+ * Grows a C4.5 tree from a loader that reads the training data sequentially, for data too large to be loaded into
+ * memory. The data is never held: the tree is grown level by level (see LevelTreeBuilder), with one pass over the
+ * loader per level, and only the class statistics of the nodes of the current level are kept.
+ *
+ * <ol>
+ * <li>A first pass counts the rows and samples up to SAMPLE_SIZE of them. The numeric attributes are quantized into
+ * at most maxBins bins at quantiles of the sample, with values of the sample as split points.</li>
+ * <li>Every further pass routes each row down the tree grown so far, spreading rows with missing values over the
+ * subsets like ClassifierTree does, and adds it to the statistics of the node it reaches on the current level.</li>
+ * </ol>
+ *
+ * As with binned splits on data in memory, numeric attributes are only split between bins, so trees can differ from
+ * exact ones. The loader has to support reset() to be read more than once, as file-based loaders such as ArffLoader
+ * do. Rows missing the class are skipped.
+ */
+public final class StreamingTreeBuilder extends LevelTreeBuilder {
+
+    //number of rows sampled to place the bins of the numeric attributes
+    static final int SAMPLE_SIZE = 50000;
+
+    private final Loader m_loader;
+    private final int m_classIndex;
+    private final int m_maxBins;
+
+    /**
+     * Creates a builder for the data of the given loader.
+     *
+     * @param loader the loader to read the data from
+     * @param classIndex index of the class attribute, -1 for the last attribute
+     * @param minNumObj minimum number of instances per leaf
+     * @param maxBins maximum number of bins of the numeric attributes, at least 2
+     */
+    public StreamingTreeBuilder(Loader loader, int classIndex, int minNumObj, int maxBins) {
+        super(minNumObj);
+        m_loader = loader;
+        m_classIndex = classIndex;
+        m_maxBins = maxBins;
+    }
+
+    /**
+     * Reads the data once, adding every row to the statistics of the nodes of the current level it reaches.
+     */
+    @Override
+    protected void readLevel(ClassifierTree root) throws Exception {
+        Instances structure = open();
+        Instance instance;
+        while ((instance = m_loader.getNextInstance(structure)) != null) {
+            if (!instance.classIsMissing()) {
+                route(root, instance, instance.weight());
+            }
+        }
+    }
+
+    /**
+     * Reads the data once to count the rows and place the bins of the numeric attributes.
+     */
+    @Override
+    protected void prepare() throws Exception {
+        Instances structure = open();
+        m_header = new Instances(structure, 0);
+        m_numInstances = 0;
+        Random random = new Random(1);
+        double[][] sample = new double[m_header.numAttributes()][];
+        for (int a = 0; a < sample.length; a++) {
+            if (a != m_header.classIndex() && m_header.attribute(a).isNumeric()) {
+                sample[a] = new double[SAMPLE_SIZE];
+            }
+        }
+
+        int numRows = 0;
+        Instance instance;
+        while ((instance = m_loader.getNextInstance(structure)) != null) {
+            if (instance.classIsMissing()) continue;
+            m_numInstances++;
+            int slot = numRows < SAMPLE_SIZE ? numRows : random.nextInt(numRows + 1);
+            numRows++;
+            if (slot >= SAMPLE_SIZE) continue;
+            for (int a = 0; a < sample.length; a++) {
+                if (sample[a] != null) sample[a][slot] = instance.value(a);
+            }
+        }
+
+        m_splitPoints = new double[m_header.numAttributes()][];
+        for (int a = 0; a < sample.length; a++) {
+            if (sample[a] != null) {
+                m_splitPoints[a] = splitPoints(sample[a], Math.min(numRows, SAMPLE_SIZE), m_maxBins);
+            }
+        }
+    }
+
+    /**
+     * Returns the split points between at most maxBins bins of about equal size for the given sample of values, which
+     * is reordered. If the sample has no more than maxBins distinct values, each of them but the largest is a split
+     * point.
+     */
+    static double[] splitPoints(double[] sample, int size, int maxBins) {
+        int numKnown = 0;
+        for (int i = 0; i < size; i++) {
+            if (!Utils.isMissingValue(sample[i])) sample[numKnown++] = sample[i];
+        }
+        Arrays.sort(sample, 0, numKnown);
+        int numDistinct = 0;
+        for (int i = 0; i < numKnown; i++) {
+            if (i == 0 || sample[i] != sample[i - 1]) numDistinct++;
+        }
+
+        double[] splitPoints = new double[Math.max(Math.min(numDistinct, maxBins) - 1, 0)];
+        int numSplitPoints = 0;
+        for (int i = 0; i < numKnown && numSplitPoints < splitPoints.length; i++) {
+            boolean last = i + 1 == numKnown || sample[i] != sample[i + 1];
+            if (last && sample[i] != sample[numKnown - 1]
+                    && (numDistinct <= maxBins || i + 1 >= (numSplitPoints + 1) * (double) numKnown / maxBins)) {
+                splitPoints[numSplitPoints++] = sample[i];
+            }
+        }
+        return numSplitPoints == splitPoints.length ? splitPoints : Arrays.copyOf(splitPoints, numSplitPoints);
+    }
+
+    /**
+     * Resets the loader and returns the structure to read the instances with, with the class set.
+     */
+    private Instances open() throws Exception {
+        m_loader.reset();
+        Instances structure = m_loader.getStructure();
+        structure.setClassIndex(m_classIndex < 0 ? structure.numAttributes() - 1 : m_classIndex);
+        return structure;
+    }
+}
@@ -1,16 +1,32 @@
 package weka.classifiers.trees;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Random;
+
+import com.sun.management.ThreadMXBean;
 
 import org.junit.Assert;
 import org.junit.Test;
 
+import weka.classifiers.Evaluation;
+import weka.classifiers.trees.j49.CompiledTree;
+import weka.classifiers.trees.j49.DistributionFactory;
+import weka.classifiers.trees.j49.MappedTree;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.converters.ConverterUtils.DataSource;
 import weka.core.converters.ArffLoader;
@@ -26,6 +42,8 @@ public class J49AccuracyTest {
         J49 j491 = new J49();
         J49 j492 = new J49();
         J49 j493 = new J49();
+        J49 j494 = new J49();
+        J49 j495 = new J49();
         J48 j48 = new J48();
 
         URL u;
@@ -44,28 +62,704 @@ public class J49AccuracyTest {
             j491.buildClassifier(trainingData, 1);
             j492.buildClassifier(trainingData, 2);
             j493.buildClassifier(trainingData, 3);
+            j494.buildClassifier(trainingData, 4);
+            j495.buildClassifier(trainingData, DistributionFactory.ADAPTIVE);
             j48.buildClassifier(trainingData);
 
             for (int i = 0; i < trainingData.numInstances(); i++) {
                 Assert.assertEquals("J49 version 1 classification of " + i, j48.classifyInstance(trainingData.instance(i)), j491.classifyInstance(trainingData.instance(i)), epsilon);
                 Assert.assertEquals("J49 version 2 classification of " + i, j48.classifyInstance(trainingData.instance(i)), j492.classifyInstance(trainingData.instance(i)), epsilon);
                 Assert.assertEquals("J49 version 3 classification of " + i, j48.classifyInstance(trainingData.instance(i)), j493.classifyInstance(trainingData.instance(i)), epsilon);
+                Assert.assertEquals("J49 version 4 classification of " + i, j48.classifyInstance(trainingData.instance(i)), j494.classifyInstance(trainingData.instance(i)), epsilon);
+                Assert.assertEquals("J49 adaptive classification of " + i, j48.classifyInstance(trainingData.instance(i)), j495.classifyInstance(trainingData.instance(i)), epsilon);
+            }
+
+        }
+
+    }
+
+    @Test
+    public void WEKADataDistributionTest() throws Exception {
+        URL u;
+        DataSource source;
+        Instances trainingData;
+
+        String[] fileNames = {"/segment-challenge.arff", "/weather.nominal.arff", "/soybean.arff", "/vote.arff",
+                "/weather.numeric.arff"};
+
+        for (boolean useLaplace : new boolean[] {false, true}) {
+            J49 j49 = new J49();
+            J48 j48 = new J48();
+            j49.setUseLaplace(useLaplace);
+            j48.setUseLaplace(useLaplace);
+
+            for (String file : fileNames) {
+                u = J49AccuracyTest.class.getResource(file);
+                source = new DataSource(u.getFile());
+                trainingData = source.getDataSet();
+                trainingData.setClassIndex(trainingData.numAttributes() - 1);
+
+                j49.buildClassifier(trainingData, 0);
+                j48.buildClassifier(trainingData);
+
+                for (int i = 0; i < trainingData.numInstances(); i++) {
+                    Assert.assertArrayEquals("J49 distribution of " + i + " in " + file,
+                            j48.distributionForInstance(trainingData.instance(i)),
+                            j49.distributionForInstance(trainingData.instance(i)), 0);
+                }
+            }
+        }
+    }
+
+
+    //presorting numeric attributes at the root must grow exactly the same trees as sorting at every node
+    @Test
+    public void PresortedDataTest() throws Exception {
+        String[] fileNames = {"/segment-challenge.arff", "/unbalanced.arff", "/soybean.arff", "/weather.numeric.arff"};
+
+        assertSameTrees("presorted", fileNames, 2, true, 0, new TreePair() {
+            @Override
+            void configure(J49 j49, J49 presorted, int config) {
+                j49.setBinarySplits(config == 1);
+                presorted.setBinarySplits(config == 1);
+                presorted.setPresortAttributes(true);
+            }
+        });
+    }
+
+    //evaluating the candidate splits and building the subtrees in parallel must give exactly the same tree as
+    //building it serially
+    @Test
+    public void ParallelBuildTest() throws Exception {
+        String[] fileNames = {"/segment-challenge.arff", "/unbalanced.arff", "/soybean.arff", "/vote.arff"};
+
+        assertSameTrees("parallel", fileNames, 3, true, 0, new TreePair() {
+            @Override
+            void configure(J49 serial, J49 parallel, int config) throws Exception {
+                serial.setBinarySplits(config == 1);
+                parallel.setBinarySplits(config == 1);
+                serial.setReducedErrorPruning(config == 2);
+                parallel.setReducedErrorPruning(config == 2);
+                serial.setPresortAttributes(true);
+                parallel.setPresortAttributes(true);
+                parallel.setNumExecutionSlots(4);
+                parallel.setSubtreeTaskThreshold(10);
+            }
+        });
+    }
+
+    //partitioning shared rows in place must grow exactly the same trees as copying the subsets of every node
+    @Test
+    public void PartitionedDataTest() throws Exception {
+        String[] fileNames = {"/segment-challenge.arff", "/unbalanced.arff", "/soybean.arff", "/vote.arff"};
+
+        assertSameTrees("partitioned", fileNames, 3, true, 0, new TreePair() {
+            @Override
+            void configure(J49 copied, J49 partitioned, int config) {
+                copied.setBinarySplits(config == 1);
+                partitioned.setBinarySplits(config == 1);
+                copied.setReducedErrorPruning(config == 2);
+                partitioned.setReducedErrorPruning(config == 2);
+                copied.setPresortAttributes(true);
+                partitioned.setPartitionInPlace(true);
+            }
+        });
+    }
+
+    @Test
+    public void ColumnarDataTest() throws Exception {
+        String[] fileNames = {"/segment-challenge.arff", "/unbalanced.arff", "/soybean.arff", "/vote.arff"};
+
+        assertSameTrees("columnar", fileNames, 3, true, 0, new TreePair() {
+            @Override
+            void configure(J49 rows, J49 columnar, int config) {
+                rows.setBinarySplits(config == 1);
+                columnar.setBinarySplits(config == 1);
+                rows.setReducedErrorPruning(config == 2);
+                columnar.setReducedErrorPruning(config == 2);
+                columnar.setColumnar(true);
+            }
+        });
+    }
+
+    //statistics derived by subtraction only differ by rounding where missing values make the weights fractional
+    @Test
+    public void SiblingSubtractionTest() throws Exception {
+        String[] fileNames = {"/segment-challenge.arff", "/soybean.arff", "/vote.arff"};
+
+        assertSameTrees("subtracted", fileNames, 2, true, 1e-12, new TreePair() {
+            @Override
+            void configure(J49 counted, J49 subtracted, int config) {
+                counted.setBinarySplits(config == 1);
+                subtracted.setBinarySplits(config == 1);
+                counted.setColumnar(true);
+                subtracted.setSubtractSiblings(true);
+            }
+        });
+    }
+
+    //with many classes and values, subtracting siblings only keeps histograms where it pays off, so it grows the same
+    //tree as counting without allocating much more; a dense histogram per attribute and node nearly doubles the
+    //allocation of the whole build
+    @Test
+    public void SiblingSubtractionAllocationTest() throws Exception {
+        Instances trainingData = highCardinalityData(200, 5000, 1);
+
+        J49 counted = new J49();
+        J49 subtracted = new J49();
+        counted.setBinarySplits(true);
+        subtracted.setBinarySplits(true);
+        counted.setMinNumObj(minNumObjects);
+        subtracted.setMinNumObj(minNumObjects);
+        counted.setColumnar(true);
+        subtracted.setSubtractSiblings(true);
+
+        long countedBytes = allocatedBytes(counted, trainingData);
+        long subtractedBytes = allocatedBytes(subtracted, trainingData);
+        System.out.println("Bytes allocated to build with counted histograms: " + countedBytes
+                + ", with subtracted siblings: " + subtractedBytes);
+
+        Assert.assertEquals(counted.toString(), subtracted.toString());
+        Assert.assertTrue("subtracting siblings allocates " + subtractedBytes + " bytes, counting " + countedBytes,
+                subtractedBytes < countedBytes * 1.25);
+    }
+
+    //with more bins than cut points the binned search finds the same splits, only the thresholds can differ between
+    //values not seen at a node; with a few bins the numeric splits change but fit the training data nearly as well
+    @Test
+    public void BinnedSplitTest() throws Exception {
+        String[] fileNames = {"/segment-challenge.arff", "/soybean.arff", "/weather.numeric.arff"};
+
+        assertSameTrees("binned", fileNames, 2, false, 0, new TreePair() {
+            @Override
+            void configure(J49 exact, J49 binned, int config) {
+                exact.setBinarySplits(config == 1);
+                binned.setBinarySplits(config == 1);
+                binned.setMaxBins(Integer.MAX_VALUE);
             }
+        });
 
+        for (String file : fileNames) {
+            Instances trainingData = load(file);
+            for (int config = 0; config < 2; config++) {
+                J49 exact = new J49();
+                J49 coarse = new J49();
+                exact.setBinarySplits(config == 1);
+                coarse.setBinarySplits(config == 1);
+                coarse.setMaxBins(4);
+                exact.buildClassifier(trainingData);
+                coarse.buildClassifier(trainingData);
+                if (file.equals("/segment-challenge.arff")) {
+                    Assert.assertNotEquals("coarse tree for " + file, exact.toString(), coarse.toString());
+                }
+                Evaluation exactEvaluation = new Evaluation(trainingData);
+                exactEvaluation.evaluateModel(exact, trainingData);
+                Evaluation coarseEvaluation = new Evaluation(trainingData);
+                coarseEvaluation.evaluateModel(coarse, trainingData);
+                Assert.assertEquals("coarse accuracy for " + file, exactEvaluation.pctCorrect(),
+                        coarseEvaluation.pctCorrect(), 5);
+            }
         }
+    }
+
+    //with weights in quarters, spread further where values are missing, the binned search still counts rows against
+    //the minimum split size like the exact one and finds the same splits
+    @Test
+    public void WeightedBinnedSplitTest() throws Exception {
+        String[] fileNames = {"/segment-challenge.arff", "/soybean.arff", "/vote.arff"};
 
+        for (String file : fileNames) {
+            assertSameTrees("weighted binned", file, weighted(load(file), 1), null, 2, false, 1e-12, new TreePair() {
+                @Override
+                void configure(J49 exact, J49 binned, int config) {
+                    exact.setBinarySplits(config == 1);
+                    binned.setBinarySplits(config == 1);
+                    binned.setMaxBins(Integer.MAX_VALUE);
+                }
+            });
+        }
     }
 
+    //grown from a loader with a bin per value, the tree splits the training data like one grown in memory without
+    //subtree raising, only the thresholds can differ between values not seen at a node
+    @Test
+    public void StreamingBuildTest() throws Exception {
+        String[] fileNames = {"/segment-challenge.arff", "/soybean.arff", "/vote.arff", "/weather.numeric.arff"};
+
+        assertSameTrees("streamed", fileNames, 2, false, 1e-12, new TreePair() {
+            @Override
+            void configure(J49 inMemory, J49 streamed, int config) {
+                inMemory.setBinarySplits(config == 1);
+                streamed.setBinarySplits(config == 1);
+                inMemory.setSubtreeRaising(false);
+                streamed.setMaxBins(Integer.MAX_VALUE);
+            }
+
+            @Override
+            void build(J49 streamed, Instances data, File file) throws Exception {
+                ArffLoader loader = new ArffLoader();
+                loader.setFile(file);
+                streamed.buildClassifier(loader, -1);
+            }
+        });
+    }
+
+    //weights read from the file are used by the streamed build like by the one in memory
+    @Test
+    public void WeightedStreamingBuildTest() throws Exception {
+        String[] fileNames = {"/segment-challenge.arff", "/soybean.arff", "/vote.arff"};
+
+        for (String file : fileNames) {
+            File weightedFile = File.createTempFile("weighted", ".arff");
+            weightedFile.deleteOnExit();
+            FileOutputStream out = new FileOutputStream(weightedFile);
+            out.write(weighted(load(file), 1).toString().getBytes("UTF-8"));
+            out.close();
+            Instances trainingData = new DataSource(weightedFile.getPath()).getDataSet();
+            trainingData.setClassIndex(trainingData.numAttributes() - 1);
+            Assert.assertNotEquals(trainingData.numInstances(), trainingData.sumOfWeights(), 0);
+
+            assertSameTrees("weighted streamed", file, trainingData, weightedFile, 2, false, 1e-12, new TreePair() {
+                @Override
+                void configure(J49 inMemory, J49 streamed, int config) {
+                    inMemory.setBinarySplits(config == 1);
+                    streamed.setBinarySplits(config == 1);
+                    inMemory.setSubtreeRaising(false);
+                    streamed.setMaxBins(Integer.MAX_VALUE);
+                }
+
+                @Override
+                void build(J49 streamed, Instances data, File file) throws Exception {
+                    ArffLoader loader = new ArffLoader();
+                    loader.setFile(file);
+                    streamed.buildClassifier(loader, -1);
+                }
+            });
+        }
+    }
+
+    //grown level-wise, the tree is the one grown depth-first without subtree raising, serially or in parallel, and
+    //stays within its budget
+    @Test
+    public void LevelWiseGrowthTest() throws Exception {
+        String[] fileNames = {"/segment-challenge.arff", "/soybean.arff", "/vote.arff", "/weather.numeric.arff"};
+
+        assertSameTrees("level-wise", fileNames, 4, false, 1e-12, new TreePair() {
+            @Override
+            void configure(J49 depthFirst, J49 levelWise, int config) throws Exception {
+                depthFirst.setBinarySplits(config % 2 == 1);
+                levelWise.setBinarySplits(config % 2 == 1);
+                depthFirst.setSubtreeRaising(false);
+                levelWise.setLevelWise(true);
+                if (config >= 2) {
+                    depthFirst.setMaxBins(16);
+                    levelWise.setMaxBins(16);
+                    levelWise.setNumExecutionSlots(4);
+                    levelWise.setSubtreeTaskThreshold(10);
+                }
+            }
+        });
+
+        for (String file : fileNames) {
+            Instances trainingData = load(file);
+            J49 stump = new J49();
+            stump.setUnpruned(true);
+            stump.setMaxDepth(1);
+            stump.buildClassifier(trainingData);
+            Assert.assertEquals("stump for " + file, stump.measureTreeSize() - 1, stump.measureNumLeaves(), 0);
+            J49 small = new J49();
+            small.setUnpruned(true);
+            small.setMaxLeaves(6);
+            small.buildClassifier(trainingData);
+            Assert.assertTrue("leaves for " + file, small.measureNumLeaves() <= 6);
+        }
+    }
+
+    //the Hoeffding tree grows the same from a batch as from updates, and learns the segment data from a stream of
+    //ten shuffled copies of it
+    @Test
+    public void UpdateableTest() throws Exception {
+        Instances trainingData = load("/segment-challenge.arff");
+        Instances testData = load("/segment-test.arff");
+        Instances stream = shuffledCopies(trainingData, 10);
+
+        J49Updateable batch = new J49Updateable();
+        J49Updateable updated = new J49Updateable();
+        batch.setUseGainRatio(true);
+        updated.setUseGainRatio(true);
+        batch.setTieThreshold(0.1);
+        updated.setTieThreshold(0.1);
+        batch.buildClassifier(stream);
+        updated.buildClassifier(new Instances(stream, 0));
+        for (int i = 0; i < stream.numInstances(); i++) {
+            updated.updateClassifier(stream.instance(i));
+        }
+
+        Assert.assertEquals(batch.toString(), updated.toString());
+        Assert.assertTrue(updated.measureNumLeaves() > 1);
+        Evaluation evaluation = new Evaluation(trainingData);
+        evaluation.evaluateModel(updated, testData);
+        Assert.assertTrue("accuracy " + evaluation.pctCorrect(), evaluation.pctCorrect() > 85);
+    }
+
+    //every leaf decides on the weight it has seen itself, so the Hoeffding tree keeps splitting as the stream grows,
+    //with the info gain on numeric attributes as with the gain ratio on nominal ones
+    @Test
+    public void UpdateableAccuracyTest() throws Exception {
+        String[] fileNames = {"/segment-challenge.arff", "/soybean.arff"};
+        boolean[] useGainRatio = {false, true};
+        int[] numCopies = {30, 50};
+        double[] minAccuracy = {75, 85};
+
+        for (int f = 0; f < fileNames.length; f++) {
+            Instances trainingData = load(fileNames[f]);
+            Instances stream = shuffledCopies(trainingData, numCopies[f]);
+
+            J49Updateable updated = new J49Updateable();
+            updated.setUseGainRatio(useGainRatio[f]);
+            updated.setGracePeriod(50);
+            updated.setTieThreshold(0.1);
+            updated.buildClassifier(new Instances(stream, 0));
+            for (int i = 0; i < stream.numInstances(); i++) {
+                updated.updateClassifier(stream.instance(i));
+            }
+
+            Evaluation evaluation = new Evaluation(trainingData);
+            evaluation.evaluateModel(updated, trainingData);
+            Assert.assertTrue("accuracy on " + fileNames[f] + " " + evaluation.pctCorrect(),
+                    evaluation.pctCorrect() > minAccuracy[f]);
+        }
+    }
+
+    //rebuilt on the data it was built on, the tree stays the same, and a warm start from a tree built on most of the
+    //data gives the tree built from scratch
+    @Test
+    public void WarmStartTest() throws Exception {
+        String[] fileNames = {"/segment-challenge.arff", "/soybean.arff", "/vote.arff"};
+
+        for (String file : fileNames) {
+            Instances trainingData = load(file);
+            trainingData.randomize(new Random(1));
+            Instances oldData = new Instances(trainingData, 0, trainingData.numInstances() * 9 / 10);
+
+            for (int config = 0; config < 2; config++) {
+                J49 previous = new J49();
+                J49 fresh = new J49();
+                previous.setBinarySplits(config == 1);
+                fresh.setBinarySplits(config == 1);
+                previous.buildClassifier(oldData);
+                fresh.buildClassifier(trainingData);
+
+                Assert.assertEquals("same data for " + file, previous.toString(),
+                        J49.rebuild(previous, oldData).toString());
+                J49 rebuilt = J49.rebuild(previous, trainingData);
+                Assert.assertEquals("tree for " + file, fresh.toString(), rebuilt.toString());
+                for (int i = 0; i < trainingData.numInstances(); i++) {
+                    Assert.assertArrayEquals("rebuilt distribution of " + i + " in " + file,
+                            fresh.distributionForInstance(trainingData.instance(i)),
+                            rebuilt.distributionForInstance(trainingData.instance(i)), 1e-12);
+                }
+            }
+        }
+    }
+
+    //a warm start from a single leaf grows the whole tree, as every leaf is split if a split is selected on its data
+    @Test
+    public void WarmStartFromLeafTest() throws Exception {
+        Instances trainingData = load("/vote.arff");
+
+        J49 leaf = new J49();
+        leaf.setMinNumObj(trainingData.numInstances());
+        leaf.buildClassifier(trainingData);
+        Assert.assertEquals(1, leaf.measureNumLeaves(), 0);
+        leaf.setMinNumObj(2);
+
+        J49 fresh = new J49();
+        fresh.buildClassifier(trainingData);
+        J49 rebuilt = J49.rebuild(leaf, trainingData);
+        Assert.assertTrue(rebuilt.measureNumLeaves() > 1);
+        Assert.assertEquals(fresh.toString(), rebuilt.toString());
+    }
+
+    //on data that drifted a little, most nodes kept by a rebuild only re-score their previous split instead of
+    //selecting a split among all attributes again, and the tree fits the data as well as one grown from scratch
+    @Test
+    public void WarmStartReselectionTest() throws Exception {
+        String[] fileNames = {"/segment-challenge.arff", "/vote.arff"};
+
+        for (String file : fileNames) {
+            Instances trainingData = load(file);
+            trainingData.randomize(new Random(1));
+            Instances driftedData = new Instances(trainingData, 0, trainingData.numInstances() * 99 / 100);
+
+            for (int config = 0; config < 2; config++) {
+                J49 previous = new J49();
+                J49 fresh = new J49();
+                previous.setBinarySplits(config == 1);
+                fresh.setBinarySplits(config == 1);
+                previous.buildClassifier(trainingData);
+                fresh.buildClassifier(driftedData);
+                J49 rebuilt = J49.rebuild(previous, driftedData);
+
+                double numInnerNodes = rebuilt.measureTreeSize() - rebuilt.measureNumLeaves();
+                System.out.println("Rebuilt tree for " + file + " re-scored " + rebuilt.measureNumReselected()
+                        + " of " + numInnerNodes + " inner nodes");
+                Assert.assertEquals("fresh tree for " + file, 0, fresh.measureNumReselected(), 0);
+                Assert.assertTrue("re-scored nodes for " + file, rebuilt.measureNumReselected() >= numInnerNodes / 2);
+
+                Evaluation freshEvaluation = new Evaluation(driftedData);
+                freshEvaluation.evaluateModel(fresh, driftedData);
+                Evaluation rebuiltEvaluation = new Evaluation(driftedData);
+                rebuiltEvaluation.evaluateModel(rebuilt, driftedData);
+                Assert.assertEquals("rebuilt accuracy for " + file, freshEvaluation.pctCorrect(),
+                        rebuiltEvaluation.pctCorrect(), 1);
+            }
+        }
+    }
+
+    //the compiled tree must classify exactly like the tree objects, which it falls back to for missing values
+    @Test
+    public void CompiledTreeTest() throws Exception {
+        String[] fileNames = {"/segment-challenge.arff", "/soybean.arff", "/vote.arff", "/weather.nominal.arff"};
+
+        for (String file : fileNames) {
+            Instances trainingData = load(file);
+
+            for (int config = 0; config < 3; config++) {
+                J49 j49 = new J49();
+                J49 compiled = new J49();
+                j49.setBinarySplits(config == 1);
+                compiled.setBinarySplits(config == 1);
+                j49.setUseLaplace(config == 2);
+                compiled.setUseLaplace(config == 2);
+
+                j49.buildClassifier(trainingData);
+                compiled.buildClassifier(trainingData);
+                compiled.compile();
+
+                for (int i = 0; i < trainingData.numInstances(); i++) {
+                    Assert.assertArrayEquals("compiled distribution of " + i + " in " + file,
+                            j49.distributionForInstance(trainingData.instance(i)),
+                            compiled.distributionForInstance(trainingData.instance(i)), 0);
+                    Assert.assertEquals("compiled classification of " + i + " in " + file,
+                            j49.classifyInstance(trainingData.instance(i)),
+                            compiled.classifyInstance(trainingData.instance(i)), 0);
+                }
+            }
+        }
+    }
+
+    //scoring a batch must give exactly the results of scoring every instance on its own
+    @Test
+    public void BatchPredictionTest() throws Exception {
+        String[] fileNames = {"/segment-challenge.arff", "/soybean.arff", "/vote.arff"};
+
+        for (String file : fileNames) {
+            Instances trainingData = load(file);
+
+            J49 j49 = new J49();
+            j49.buildClassifier(trainingData);
+            double[][] rows = new double[trainingData.numInstances()][];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = trainingData.instance(i).toDoubleArray();
+            }
+
+            J49 generated = new J49();
+            generated.setGenerateBytecode(true);
+            generated.buildClassifier(trainingData);
+            generated.compile();
+
+            double[][] distributions = j49.distributionsForInstances(trainingData);
+            CompiledTree compiled = j49.getCompiledTree();
+            int[] classes = j49.classifyInstances(rows);
+            int[] generatedClasses = generated.classifyInstances(rows);
+            Assert.assertNotNull(compiled);
+            Assert.assertSame("tree compiled again for a batch", compiled, j49.getCompiledTree());
+            for (int i = 0; i < trainingData.numInstances(); i++) {
+                Assert.assertArrayEquals("batch distribution of " + i + " in " + file,
+                        j49.distributionForInstance(trainingData.instance(i)), distributions[i], 0);
+                Assert.assertEquals("batch classification of " + i + " in " + file,
+                        j49.classifyInstance(trainingData.instance(i)), classes[i], 0);
+                Assert.assertEquals("bytecode classification of " + i + " in " + file, classes[i],
+                        generatedClasses[i]);
+            }
+        }
+    }
+
+    //split over the execution slots, a batch larger than the grain, ending in a partial chunk, is scored like every
+    //instance on its own
+    @Test
+    public void ParallelBatchPredictionTest() throws Exception {
+        String[] fileNames = {"/segment-challenge.arff", "/vote.arff"};
+
+        for (String file : fileNames) {
+            Instances trainingData = load(file);
+            Instances batch = shuffledCopies(trainingData,
+                    2 * J49.PARALLEL_BATCH_GRAIN / trainingData.numInstances() + 1);
+            Assert.assertTrue(batch.numInstances() % J49.PARALLEL_BATCH_GRAIN != 0);
+
+            J49 j49 = new J49();
+            j49.setNumExecutionSlots(4);
+            j49.buildClassifier(trainingData);
+            double[][] rows = new double[batch.numInstances()][];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = batch.instance(i).toDoubleArray();
+            }
+
+            double[][] distributions = j49.distributionsForInstances(batch);
+            int[] classes = j49.classifyInstances(rows);
+            for (int i = 0; i < batch.numInstances(); i++) {
+                Assert.assertArrayEquals("batch distribution of " + i + " in " + file,
+                        j49.distributionForInstance(batch.instance(i)), distributions[i], 0);
+                Assert.assertEquals("batch classification of " + i + " in " + file,
+                        j49.classifyInstance(batch.instance(i)), classes[i], 0);
+            }
+        }
+    }
+
+    //bytecode for a tree splitting on thousands of nominal values must classify like the tree, in methods that do
+    //not grow with the number of values
+    @Test
+    public void WideNominalBytecodeTest() throws Exception {
+        int numValues = 5000;
+        Instances trainingData = wideNominalData(numValues);
+
+        J49 j49 = new J49();
+        j49.setUnpruned(true);
+        j49.setGenerateBytecode(true);
+        j49.buildClassifier(trainingData);
+        j49.compile();
+        Assert.assertTrue(j49.getCompiledTree().hasBytecode());
+        Assert.assertTrue(j49.getCompiledTree().numNodes() > numValues);
+
+        //the generator allows 128 statements per method, plus the cases of its first node
+        for (String method : j49.getCompiledTree().toRowSource("Router").split("\n  private static int ")) {
+            int statements = 0;
+            for (String line : method.split("\n")) {
+                line = line.trim();
+                if (line.startsWith("case ") || line.startsWith("return ") || line.startsWith("if (")) {
+                    statements++;
+                }
+            }
+            Assert.assertTrue("method with " + statements + " statements", statements <= 256);
+        }
+
+        double[][] rows = new double[trainingData.numInstances()][];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = trainingData.instance(i).toDoubleArray();
+        }
+        int[] classes = j49.classifyInstances(rows);
+        for (int i = 0; i < trainingData.numInstances(); i++) {
+            Assert.assertEquals("bytecode classification of " + i, j49.classifyInstance(trainingData.instance(i)),
+                    classes[i], 0);
+        }
+    }
+
+    //a tree read back from the binary format must classify like the written one, for every distribution type
+    @Test
+    public void BinaryModelTest() throws Exception {
+        String[] fileNames = {"/segment-challenge.arff", "/soybean.arff", "/vote.arff"};
+
+        for (String file : fileNames) {
+            Instances trainingData = load(file);
+
+            for (int type = 0; type <= DistributionFactory.ADAPTIVE; type++) {
+                J49 j49 = new J49();
+                j49.setBinarySplits(type % 2 == 1);
+                j49.buildClassifier(trainingData, type);
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                j49.writeModel(bytes);
+                J49 read = J49.readModel(new ByteArrayInputStream(bytes.toByteArray()));
+
+                Assert.assertArrayEquals(j49.getOptions(), read.getOptions());
+                Assert.assertEquals(j49.toString(), read.toString());
+                for (int i = 0; i < trainingData.numInstances(); i++) {
+                    //counts are summed up again, so fractional ones may differ in the last bits
+                    Assert.assertArrayEquals("distribution of " + i + " in " + file + " with type " + type,
+                            j49.distributionForInstance(trainingData.instance(i)),
+                            read.distributionForInstance(trainingData.instance(i)), 1e-12);
+                }
+            }
+        }
+    }
+
+    //the tree read in place from the written compiled tree must score like the tree objects, also for missing values
+    @Test
+    public void MappedTreeTest() throws Exception {
+        String[] fileNames = {"/segment-challenge.arff", "/soybean.arff", "/vote.arff"};
+
+        for (String file : fileNames) {
+            Instances trainingData = load(file);
+
+            for (int config = 0; config < 2; config++) {
+                J49 j49 = new J49();
+                j49.setBinarySplits(config == 1);
+                j49.buildClassifier(trainingData);
+                j49.compile();
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                j49.getCompiledTree().write(bytes);
+                MappedTree mapped = MappedTree.wrap(ByteBuffer.wrap(bytes.toByteArray()));
+
+                for (int i = 0; i < trainingData.numInstances(); i++) {
+                    Assert.assertArrayEquals("mapped distribution of " + i + " in " + file,
+                            j49.distributionForInstance(trainingData.instance(i)),
+                            mapped.distributionForInstance(trainingData.instance(i)), 0);
+                    Assert.assertEquals("mapped classification of " + i + " in " + file,
+                            j49.classifyInstance(trainingData.instance(i)),
+                            mapped.classifyInstance(trainingData.instance(i)), 0);
+                }
+            }
+        }
+    }
+
+    //the tree mapped from a written file must score like the tree objects, whether the file is mapped in one segment
+    //or split over many, down to eight bytes
+    @Test
+    public void MappedFileTest() throws Exception {
+        String[] fileNames = {"/segment-challenge.arff", "/soybean.arff", "/vote.arff"};
+        int[] segmentBits = {MappedTree.SEGMENT_BITS, 10, 3};
+
+        for (String file : fileNames) {
+            Instances trainingData = load(file);
+
+            for (int config = 0; config < 2; config++) {
+                J49 j49 = new J49();
+                j49.setBinarySplits(config == 1);
+                j49.buildClassifier(trainingData);
+                j49.compile();
+                File treeFile = File.createTempFile("tree", ".j49t");
+                treeFile.deleteOnExit();
+                FileOutputStream out = new FileOutputStream(treeFile);
+                j49.getCompiledTree().write(out);
+                out.close();
+
+                for (int bits : segmentBits) {
+                    MappedTree mapped = MappedTree.open(treeFile, bits);
+                    Assert.assertEquals(j49.getCompiledTree().numNodes(), mapped.numNodes());
+                    for (int i = 0; i < trainingData.numInstances(); i++) {
+                        Assert.assertArrayEquals("mapped distribution of " + i + " in " + file + " with segments of 2^"
+                                + bits, j49.distributionForInstance(trainingData.instance(i)),
+                                mapped.distributionForInstance(trainingData.instance(i)), 0);
+                        Assert.assertEquals("mapped classification of " + i + " in " + file + " with segments of 2^"
+                                + bits, j49.classifyInstance(trainingData.instance(i)),
+                                mapped.classifyInstance(trainingData.instance(i)), 0);
+                    }
+                }
+            }
+        }
+    }
 
     @Test
     public void ServiceTrackingRawDataTimeTest() throws Exception {
         J49 j491 = new J49();
         J49 j492 = new J49();
         J49 j493 = new J49();
+        J49 j494 = new J49();
         J48 j48 = new J48();
         j491.setMinNumObj(minNumObjects);
         j492.setMinNumObj(minNumObjects);
         j493.setMinNumObj(minNumObjects);
+        j494.setMinNumObj(minNumObjects);
         j48.setMinNumObj(minNumObjects);
         String file = "/allfilters_removed.arff";
 
@@ -83,7 +777,7 @@ public class J49AccuracyTest {
         end = System.nanoTime();
         System.out.println("Time to build J48 is:  " + (end - start) + "ns and size is: "  /*GraphLayout.parseInstance(j48).totalSize() */ );
 
-        for(int j = 1; j<4; j++) {
+        for(int j = 1; j<5; j++) {
             switch(j) {
                 case 1:
                     start = System.nanoTime();
@@ -115,6 +809,16 @@ public class J49AccuracyTest {
                         Assert.assertEquals("J493 classification of " + i, j48.classifyInstance(trainingData.instance(i)), j493.classifyInstance(trainingData.instance(i)), epsilon);
                     }
                     break;
+                case 4:
+                    start = System.nanoTime();
+                    j494.buildClassifier(trainingData, 4);
+                    end = System.nanoTime();
+                    System.out.println("Time to build J494 is: " + (end - start) + "ns and density is: " + j494.getModelDensity() + "%" /*GraphLayout.parseInstance(j494).totalSize()*/);
+
+                    for (int i = 0; i < 100; i++) {
+                        Assert.assertEquals("J494 classification of " + i, j48.classifyInstance(trainingData.instance(i)), j494.classifyInstance(trainingData.instance(i)), epsilon);
+                    }
+                    break;
                 default:
             }
 
@@ -127,10 +831,12 @@ public class J49AccuracyTest {
     public void ServiceTrackingHashedDataTimeTest() throws Exception {
         J49 j491 = new J49();
         J49 j492 = new J49();
+        J49 j494 = new J49();
         J48 j48 = new J48();
 
         j491.setMinNumObj(minNumObjects);
         j492.setMinNumObj(minNumObjects);
+        j494.setMinNumObj(minNumObjects);
         j48.setMinNumObj(minNumObjects);
 
         String file = "/fullyHashed_32cols.arff";
@@ -153,6 +859,11 @@ public class J49AccuracyTest {
         end = System.nanoTime();
         System.out.println("Time to build J492 is: " + (end - start) + "ns and density is: " + j492.getModelDensity() + "%" /*GraphLayout.parseInstance(j492).totalSize()*/);
 
+        start = System.nanoTime();
+        j494.buildClassifier(trainingData, 4);
+        end = System.nanoTime();
+        System.out.println("Time to build J494 is: " + (end - start) + "ns and density is: " + j494.getModelDensity() + "%" /*GraphLayout.parseInstance(j494).totalSize()*/);
+
         start = System.nanoTime();
         j48.buildClassifier(trainingData);
         end = System.nanoTime();
@@ -161,11 +872,205 @@ public class J49AccuracyTest {
         for (int i = 0; i < 100; i++) {
             Assert.assertEquals("J491 classification of " + i, j48.classifyInstance(trainingData.instance(i)), j491.classifyInstance(trainingData.instance(i)), epsilon);
             Assert.assertEquals("J492 classification of " + i, j48.classifyInstance(trainingData.instance(i)), j492.classifyInstance(trainingData.instance(i)), epsilon);
+            Assert.assertEquals("J494 classification of " + i, j48.classifyInstance(trainingData.instance(i)), j494.classifyInstance(trainingData.instance(i)), epsilon);
 
         }
 
     }
 
+    //the int-keyed maps of type 4 must grow the same tree as the double-keyed maps of type 1, in less space; the
+    //build times and sizes of both are reported as for the ServiceTracking data, on generated data with many classes
+    @Test
+    public void HighCardinalityDataTimeTest() throws Exception {
+        Instances trainingData = highCardinalityData(1000, 5000, 1);
+
+        J49 j491 = new J49();
+        J49 j494 = new J49();
+        j491.setMinNumObj(minNumObjects);
+        j494.setMinNumObj(minNumObjects);
+
+        long start;
+        long end;
+
+        start = System.nanoTime();
+        j491.buildClassifier(trainingData, 1);
+        end = System.nanoTime();
+        System.out.println("Time to build J491 is: " + (end - start) + "ns and serialized size is: "
+                + serializedSize(j491) + " bytes");
+
+        start = System.nanoTime();
+        j494.buildClassifier(trainingData, 4);
+        end = System.nanoTime();
+        System.out.println("Time to build J494 is: " + (end - start) + "ns and serialized size is: "
+                + serializedSize(j494) + " bytes");
+
+        Assert.assertEquals(j491.toString(), j494.toString());
+        for (int i = 0; i < trainingData.numInstances(); i++) {
+            Assert.assertArrayEquals("J494 distribution of " + i,
+                    j491.distributionForInstance(trainingData.instance(i)),
+                    j494.distributionForInstance(trainingData.instance(i)), 0);
+        }
+        Assert.assertTrue("int keys take less space than double keys",
+                serializedSize(j494) < serializedSize(j491));
+    }
+
+    //the bytes the current thread allocates to build the given classifier on the given data, built once before to
+    //leave class loading and compilation out
+    private static long allocatedBytes(J49 j49, Instances data) throws Exception {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        j49.buildClassifier(data);
+        long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        j49.buildClassifier(data);
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+    }
+
+    //loads the given data set of the test resources, with the last attribute as the class
+    private static Instances load(String file) throws Exception {
+        Instances data = new DataSource(J49AccuracyTest.class.getResource(file).getFile()).getDataSet();
+        data.setClassIndex(data.numAttributes() - 1);
+        return data;
+    }
+
+    //a copy of the data with weights from 0.25 to 2 in quarters, which add up without rounding
+    private static Instances weighted(Instances data, long seed) {
+        Random random = new Random(seed);
+        Instances weighted = new Instances(data);
+        for (Instance instance : weighted) {
+            instance.setWeight((1 + random.nextInt(8)) / 4.0);
+        }
+        return weighted;
+    }
+
+    //the options a reference tree and a variant of it are compared under by assertSameTrees(), and how the variant is
+    //built, from the data in memory unless overridden
+    private abstract static class TreePair {
+
+        abstract void configure(J49 reference, J49 variant, int config) throws Exception;
+
+        void build(J49 variant, Instances data, File file) throws Exception {
+            variant.buildClassifier(data);
+        }
+    }
+
+    //builds a reference and a variant tree on every file for configurations 0 to numConfigs - 1, which must print the
+    //same tree, numbers aside if only their split points are the same, and give the same distributions up to the
+    //given tolerance
+    private static void assertSameTrees(String name, String[] fileNames, int numConfigs, boolean sameThresholds,
+            double tolerance, TreePair pair) throws Exception {
+        for (String file : fileNames) {
+            assertSameTrees(name, file, load(file), new File(J49AccuracyTest.class.getResource(file).getFile()),
+                    numConfigs, sameThresholds, tolerance, pair);
+        }
+    }
+
+    private static void assertSameTrees(String name, String dataName, Instances trainingData, File file,
+            int numConfigs, boolean sameThresholds, double tolerance, TreePair pair) throws Exception {
+        for (int config = 0; config < numConfigs; config++) {
+            J49 reference = new J49();
+            J49 variant = new J49();
+            pair.configure(reference, variant, config);
+            reference.buildClassifier(trainingData);
+            pair.build(variant, trainingData, file);
+
+            if (sameThresholds) {
+                Assert.assertEquals("tree for " + dataName, reference.toString(), variant.toString());
+            } else {
+                Assert.assertEquals("tree for " + dataName, reference.toString().replaceAll("[-0-9.]+", "#"),
+                        variant.toString().replaceAll("[-0-9.]+", "#"));
+            }
+            for (int i = 0; i < trainingData.numInstances(); i++) {
+                Assert.assertArrayEquals(name + " distribution of " + i + " in " + dataName,
+                        reference.distributionForInstance(trainingData.instance(i)),
+                        variant.distributionForInstance(trainingData.instance(i)), tolerance);
+            }
+        }
+    }
+
+    //data with the given number of classes, skewed towards the first ones, and 16 nominal and 4 numeric attributes
+    //that mostly follow the class
+    private static Instances highCardinalityData(int numClasses, int numRows, long seed) {
+        Random random = new Random(seed);
+        ArrayList<String> values = new ArrayList<String>();
+        for (int v = 0; v < 64; v++) {
+            values.add("v" + v);
+        }
+        ArrayList<String> classes = new ArrayList<String>();
+        for (int c = 0; c < numClasses; c++) {
+            classes.add("c" + c);
+        }
+        ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+        for (int a = 0; a < 16; a++) {
+            attributes.add(new Attribute("nominal" + a, values));
+        }
+        for (int a = 0; a < 4; a++) {
+            attributes.add(new Attribute("numeric" + a));
+        }
+        attributes.add(new Attribute("class", classes));
+
+        Instances data = new Instances("highCardinality", attributes, numRows);
+        data.setClassIndex(attributes.size() - 1);
+        for (int i = 0; i < numRows; i++) {
+            int c = (int) Math.min(numClasses - 1, Math.abs(random.nextGaussian()) * numClasses / 3);
+            double[] row = new double[attributes.size()];
+            for (int a = 0; a < 16; a++) {
+                row[a] = random.nextDouble() < 0.7 ? (c * (a + 1)) % 64 : random.nextInt(64);
+            }
+            for (int a = 0; a < 4; a++) {
+                row[16 + a] = c * (a + 1) + random.nextGaussian() * numClasses / 10;
+            }
+            row[attributes.size() - 1] = c;
+            data.add(new DenseInstance(1, row));
+        }
+        return data;
+    }
+
+    //data with a nominal attribute of the given number of values, which decides the class of three values out of
+    //four, while the fourth value needs a split on the numeric attribute
+    private static Instances wideNominalData(int numValues) {
+        ArrayList<String> values = new ArrayList<String>();
+        for (int v = 0; v < numValues; v++) {
+            values.add("v" + v);
+        }
+        ArrayList<String> classes = new ArrayList<String>();
+        for (int c = 0; c < 3; c++) {
+            classes.add("c" + c);
+        }
+        ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+        attributes.add(new Attribute("nominal", values));
+        attributes.add(new Attribute("numeric"));
+        attributes.add(new Attribute("class", classes));
+
+        Instances data = new Instances("wideNominal", attributes, 4 * numValues);
+        data.setClassIndex(attributes.size() - 1);
+        for (int v = 0; v < numValues; v++) {
+            for (int i = 0; i < 4; i++) {
+                double x = (2 * i + 1) / 8.0;
+                int c = v % 4 == 0 ? (x <= 0.5 ? 0 : 1) : 1 + v % 2;
+                data.add(new DenseInstance(1, new double[] {v, x, c}));
+            }
+        }
+        return data;
+    }
+
+    //the given number of copies of the data one after the other, each shuffled with its own seed
+    private static Instances shuffledCopies(Instances data, int numCopies) {
+        Instances copies = new Instances(data, 0);
+        for (int copy = 0; copy < numCopies; copy++) {
+            Instances shuffled = new Instances(data);
+            shuffled.randomize(new Random(copy));
+            copies.addAll(shuffled);
+        }
+        return copies;
+    }
+
+    private static int serializedSize(Object object) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        return bytes.size();
+    }
+
     // Test used to collect data comparing speed and size of different models (J48 vs J491 vs J492)
     /*@Test
     public void ServiceTrackingSerializationDataSizeTest() throws Exception {
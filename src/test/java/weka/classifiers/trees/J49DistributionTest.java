@@ -2,6 +2,7 @@ package weka.classifiers.trees;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
+import java.net.URL;
 import java.util.Enumeration;
 
 import org.ejml.data.DMatrixSparseTriplet;
@@ -9,15 +10,18 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import weka.classifiers.trees.j49.ArrayAndFastUtilDistribution;
+import weka.classifiers.trees.j49.ArrayAndIntMapDistribution;
 import weka.classifiers.trees.j49.C45Split;
 import weka.classifiers.trees.j49.Distribution;
 import weka.classifiers.trees.j49.DistributionFactory;
 import weka.classifiers.trees.j49.EJMLDistribution;
 import weka.classifiers.trees.j49.FastUtilDistribution;
 import weka.classifiers.trees.j49.OriginalDistribution;
+import weka.classifiers.trees.j49.Stats;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.converters.ArffLoader;
+import weka.core.converters.ConverterUtils.DataSource;
 
 public class J49DistributionTest {
 
@@ -73,6 +77,151 @@ public class J49DistributionTest {
 
     }
 
+    //checks that forEachNonZero visits exactly the occupied cells reported by perClassPerBag and perClass
+    public void compareNonZero(final Distribution dist) throws Exception {
+        final double[][] visited = new double[dist.numBags()][dist.numClasses()];
+        final double[] visitedPerClass = new double[dist.numClasses()];
+
+        for (int b = 0; b < dist.numBags(); b++) {
+            final int bag = b;
+            dist.forEachNonZero(b, new Distribution.ClassCountConsumer() {
+                @Override
+                public void accept(int classIndex, double count) {
+                    Assert.assertNotEquals("visited zero cell", 0, count, 0);
+                    visited[bag][classIndex] += count;
+                }
+            });
+        }
+        dist.forEachNonZero(new Distribution.ClassCountConsumer() {
+            @Override
+            public void accept(int classIndex, double count) {
+                visitedPerClass[classIndex] += count;
+            }
+        });
+
+        for (int c = 0; c < dist.numClasses(); c++) {
+            for (int b = 0; b < dist.numBags(); b++) {
+                Assert.assertEquals("forEachNonZero(" + b + ") class " + c, dist.perClassPerBag(b, c), visited[b][c], 0);
+            }
+            Assert.assertEquals("forEachNonZero class " + c, dist.perClass(c), visitedPerClass[c], 0);
+        }
+    }
+
+    @Test
+    public void ForEachNonZeroTest() throws Exception {
+        URL u = J49DistributionTest.class.getResource("/soybean.arff");
+        Instances trainingData = new DataSource(u.getFile()).getDataSet();
+        trainingData.setClassIndex(trainingData.numAttributes() - 1);
+
+        for (int type = 0; type <= DistributionFactory.ADAPTIVE; type++) {
+            DistributionFactory distributionFactory = new DistributionFactory(type);
+            C45Split modelToUse = new C45Split(0, 2, trainingData.sumOfWeights(), true, distributionFactory);
+            modelToUse.buildClassifier(trainingData);
+            Distribution dist = distributionFactory.getDistribution(trainingData, modelToUse);
+
+            compareNonZero(dist);
+
+            //move everything out of bag 0 and back again, leaving cells that dropped to zero on the way
+            dist.shiftRange(0, 1, trainingData, 0, trainingData.numInstances() / 2);
+            compareNonZero(dist);
+            dist.shiftRange(1, 0, trainingData, 0, trainingData.numInstances() / 2);
+            compareNonZero(dist);
+        }
+    }
+
+    @Test
+    public void BulkRangeTest() throws Exception {
+        URL u = J49DistributionTest.class.getResource("/soybean.arff");
+        Instances trainingData = new DataSource(u.getFile()).getDataSet();
+        trainingData.setClassIndex(trainingData.numAttributes() - 1);
+
+        int n = trainingData.numInstances();
+        int[] classIndices = new int[n];
+        double[] weights = new double[n];
+        for (int i = 0; i < n; i++) {
+            classIndices[i] = (int) trainingData.instance(i).classValue();
+            weights[i] = trainingData.instance(i).weight();
+        }
+
+        for (int type = 0; type <= DistributionFactory.ADAPTIVE; type++) {
+            DistributionFactory distributionFactory = new DistributionFactory(type);
+            Distribution byInstances = distributionFactory.getDistribution(2, trainingData);
+            Distribution bulk = distributionFactory.getDistribution(2, trainingData);
+
+            byInstances.addRange(1, trainingData, 0, n);
+            bulk.addRange(1, classIndices, weights, 0, n);
+            byInstances.shiftRange(1, 0, trainingData, 0, n / 2);
+            bulk.shiftRange(1, 0, classIndices, weights, 0, n / 2);
+            byInstances.shiftRange(0, 1, trainingData, n / 4, n / 2);
+            bulk.shiftRange(0, 1, classIndices, weights, n / 4, n / 2);
+
+            Assert.assertEquals("type " + type, byInstances.dumpDistribution(), bulk.dumpDistribution());
+            for (int b = 0; b < 2; b++) {
+                Assert.assertEquals("perBag", byInstances.perBag(b), bulk.perBag(b), 0);
+                for (int c = 0; c < trainingData.numClasses(); c++) {
+                    Assert.assertEquals("perClassPerBag", byInstances.perClassPerBag(b, c), bulk.perClassPerBag(b, c),
+                            0);
+                }
+            }
+            compareNonZero(bulk);
+        }
+    }
+
+    //the tabulated and vectorized estimates must be exactly those of the static routine
+    @Test
+    public void PruningStatsTest() throws Exception {
+        for (float cf : new float[] {0.25f, 0.1f, 0.001f}) {
+            Stats stats = new Stats(cf);
+            double[] n = new double[4000];
+            double[] e = new double[n.length];
+            for (int i = 0; i < n.length; i++) {
+                n[i] = i % 2 == 0 ? i / 2 + 1 : (i + 1) * 0.75;
+                e[i] = (i % 7) * 0.4 * (i % 3);
+            }
+            double[] errs = new double[n.length];
+            stats.addErrs(n, e, errs);
+            for (int i = 0; i < n.length; i++) {
+                double expected = Stats.addErrs(n[i], e[i], cf);
+                Assert.assertEquals("N " + n[i] + " e " + e[i], expected, stats.addErrs(n[i], e[i]), 0);
+                Assert.assertEquals("vectorized N " + n[i] + " e " + e[i], expected, errs[i], 0);
+            }
+        }
+    }
+
+    @Test
+    public void AdaptiveDistributionTest() throws Exception {
+        DistributionFactory distributionFactory = new DistributionFactory(DistributionFactory.ADAPTIVE);
+
+        //few classes: always dense
+        Assert.assertTrue(distributionFactory.getDistribution(2, 19) instanceof OriginalDistribution);
+
+        //many classes but only two of them occur: sparse
+        double[][] table = new double[2][1000];
+        table[0][3] = 4;
+        table[1][700] = 2;
+        Distribution sparse = distributionFactory.getDistribution(table);
+        Assert.assertTrue(sparse instanceof ArrayAndIntMapDistribution);
+        Assert.assertTrue(distributionFactory.getDistribution(sparse, 0) instanceof ArrayAndIntMapDistribution);
+
+        //many classes, most of them occurring: dense
+        for (int c = 0; c < 1000; c += 2) {
+            table[c % 4 == 0 ? 0 : 1][c] = 1;
+        }
+        Distribution dense = distributionFactory.getDistribution(table);
+        Assert.assertTrue(dense instanceof OriginalDistribution);
+        Assert.assertTrue(distributionFactory.getDistribution(dense) instanceof OriginalDistribution);
+
+        //the factory of a node keeps the layout picked for the node, whatever it builds afterwards
+        double[] classCounts = new double[1000];
+        classCounts[3] = 4;
+        DistributionFactory node = distributionFactory.forNode(classCounts);
+        Assert.assertTrue(node.getDistribution(table) instanceof ArrayAndIntMapDistribution);
+        Assert.assertTrue(node.getDistribution(dense) instanceof ArrayAndIntMapDistribution);
+        Assert.assertSame(node, distributionFactory.forNode(classCounts));
+        DistributionFactory fixed = new DistributionFactory(1);
+        Assert.assertSame(fixed, fixed.forNode(classCounts));
+    }
+
     @Test
     public void tempTest() throws Exception {
         DMatrixSparseTriplet m = new DMatrixSparseTriplet(3,3,9);
@@ -103,16 +252,19 @@ public class J49DistributionTest {
         FastUtilDistribution[] fastD = new FastUtilDistribution[originals.length];
         ArrayAndFastUtilDistribution[] fastAD = new ArrayAndFastUtilDistribution[originals.length];
         EJMLDistribution[] ejmlD = new EJMLDistribution[originals.length];
+        ArrayAndIntMapDistribution[] intD = new ArrayAndIntMapDistribution[originals.length];
 
         originals[0] = new OriginalDistribution(trainingData);
         fastD[0] = new FastUtilDistribution(trainingData);
         fastAD[0] = new ArrayAndFastUtilDistribution(trainingData);
         ejmlD[0] = new EJMLDistribution(trainingData);
+        intD[0] = new ArrayAndIntMapDistribution(trainingData);
 
         originals[1] = new OriginalDistribution(trainingData, modelToUse);
         fastD[1] = new FastUtilDistribution(trainingData, modelToUse);
         fastAD[1] = new ArrayAndFastUtilDistribution(trainingData, modelToUse);
         ejmlD[1] = new EJMLDistribution(trainingData, modelToUse);
+        intD[1] = new ArrayAndIntMapDistribution(trainingData, modelToUse);
 
         Distribution toMerge = originals[1];
         int index = 2;
@@ -121,11 +273,13 @@ public class J49DistributionTest {
         fastD[2] = new FastUtilDistribution(toMerge);
         fastAD[2] = new ArrayAndFastUtilDistribution(toMerge);
         ejmlD[2] = new EJMLDistribution(toMerge);
+        intD[2] = new ArrayAndIntMapDistribution(toMerge);
 
         originals[3] = new OriginalDistribution(toMerge, index);
         fastD[3] = new FastUtilDistribution(toMerge, index);
         fastAD[3] = new ArrayAndFastUtilDistribution(toMerge, index);
         ejmlD[3] = new EJMLDistribution(toMerge, index);
+        intD[3] = new ArrayAndIntMapDistribution(toMerge, index);
 
         double[][] table = toMerge.matrix();
         int numBags = table.length;
@@ -135,6 +289,7 @@ public class J49DistributionTest {
         fastD[4] = new FastUtilDistribution(numBags, numClasses);
         fastAD[4] = new ArrayAndFastUtilDistribution(numBags, numClasses);
         ejmlD[4] = new EJMLDistribution(numBags, numClasses);
+        intD[4] = new ArrayAndIntMapDistribution(numBags, numClasses);
 
         Enumeration<Instance> enu = trainingData.enumerateInstances();
         while (enu.hasMoreElements()) {
@@ -143,12 +298,14 @@ public class J49DistributionTest {
             fastD[4].add(modelToUse.whichSubset(instance), instance);
             fastAD[4].add(modelToUse.whichSubset(instance), instance);
             ejmlD[4].add(modelToUse.whichSubset(instance), instance);
+            intD[4].add(modelToUse.whichSubset(instance), instance);
         }
 
         originals[5] = new OriginalDistribution(table);
         fastD[5] = new FastUtilDistribution(table);
         fastAD[5] = new ArrayAndFastUtilDistribution(table);
         ejmlD[5] = new EJMLDistribution(table);
+        intD[5] = new ArrayAndIntMapDistribution(table);
 
         System.out.println("models built");
 
@@ -156,6 +313,7 @@ public class J49DistributionTest {
             compareModels(originals[i], fastD[i]);
             compareModels(originals[i], fastAD[i]);
             compareModels(originals[i], ejmlD[i]);
+            compareModels(originals[i], intD[i]);
             System.out.println("Test " + i + " has passed successfully");
         }
 